@@ -30,6 +30,57 @@ public final class JiraConstants {
   public static final String SOAP_BASE_URL_PROPERTY = "sonar.jira.soap.url";
   public static final String SOAP_BASE_URL_DEF_VALUE = "/rpc/soap/jirasoapservice-v2";
 
+  public static final String PROTOCOL_PROPERTY = "sonar.jira.protocol";
+  public static final String PROTOCOL_SOAP = "soap";
+  public static final String PROTOCOL_REST = "rest";
+
+  public static final String MAX_SESSIONS_PROPERTY = "sonar.jira.sessions.max";
+  public static final String MAX_SESSIONS_DEF_VALUE = "4";
+
+  public static final String GROUPING_PROPERTY = "sonar.jira.grouping";
+  public static final String GROUPING_DEF_VALUE = "false";
+
+  public static final String LINK_ASYNC_PROPERTY = "sonar.jira.link.async";
+  public static final String LINK_ASYNC_DEF_VALUE = "false";
+  public static final String LINK_SONAR_LOGIN_PROPERTY = "sonar.jira.link.sonar.login.secured";
+  public static final String LINK_SONAR_PASSWORD_PROPERTY = "sonar.jira.link.sonar.password.secured";
+
+  public static final String BULK_THREADS_PROPERTY = "sonar.jira.bulk.threads";
+  public static final String BULK_THREADS_DEF_VALUE = "4";
+
+  public static final String SYNC_INTERVAL_PROPERTY = "sonar.jira.sync.interval";
+  public static final String SYNC_INTERVAL_DEF_VALUE = "0";
+
+  public static final String HTTP_MAX_CONNECTIONS_PROPERTY = "sonar.jira.http.connections.max";
+  public static final String HTTP_MAX_CONNECTIONS_DEF_VALUE = "8";
+
+  public static final String HTTP_IDLE_TIMEOUT_PROPERTY = "sonar.jira.http.idle.timeout";
+  public static final String HTTP_IDLE_TIMEOUT_DEF_VALUE = "60";
+
+  public static final String HTTP_GZIP_PROPERTY = "sonar.jira.http.gzip";
+  public static final String HTTP_GZIP_DEF_VALUE = "true";
+
+  public static final String HTTP_CONNECT_TIMEOUT_PROPERTY = "sonar.jira.http.connect.timeout";
+  public static final String HTTP_CONNECT_TIMEOUT_DEF_VALUE = "10";
+
+  public static final String HTTP_READ_TIMEOUT_PROPERTY = "sonar.jira.http.read.timeout";
+  public static final String HTTP_READ_TIMEOUT_DEF_VALUE = "60";
+
+  public static final String REQUESTS_MAX_PROPERTY = "sonar.jira.requests.max";
+  public static final String REQUESTS_MAX_DEF_VALUE = "8";
+
+  public static final String REQUESTS_RATE_PROPERTY = "sonar.jira.requests.rate";
+  public static final String REQUESTS_RATE_DEF_VALUE = "0";
+
+  public static final String RETRY_MAX_PROPERTY = "sonar.jira.retry.max";
+  public static final String RETRY_MAX_DEF_VALUE = "2";
+
+  public static final String CIRCUIT_OPEN_PROPERTY = "sonar.jira.circuit.open";
+  public static final String CIRCUIT_OPEN_DEF_VALUE = "300";
+
+  public static final String ANALYSIS_TIMEOUT_PROPERTY = "sonar.jira.analysis.timeout";
+  public static final String ANALYSIS_TIMEOUT_DEF_VALUE = "1800";
+
   public static final String USERNAME_PROPERTY = "sonar.jira.login.secured";
 
   public static final String PASSWORD_PROPERTY = "sonar.jira.password.secured";
@@ -38,12 +89,33 @@ public final class JiraConstants {
 
   public static final String FILTER_PROPERTY = "sonar.jira.url.param";
 
+  public static final String JQL_PROPERTY = "sonar.jira.jql";
+
+  public static final String PAGE_SIZE_PROPERTY = "sonar.jira.page.size";
+  public static final String PAGE_SIZE_DEF_VALUE = "500";
+
+  public static final String SERVER_SIDE_COUNT_PROPERTY = "sonar.jira.serverside.count";
+
+  public static final String STREAMING_PROPERTY = "sonar.jira.soap.streaming";
+
   public static final String JIRA_INFO_PRIORITY_ID = "sonar.jira.info.priority.id";
   public static final String JIRA_MINOR_PRIORITY_ID = "sonar.jira.minor.priority.id";
   public static final String JIRA_MAJOR_PRIORITY_ID = "sonar.jira.major.priority.id";
   public static final String JIRA_CRITICAL_PRIORITY_ID = "sonar.jira.critical.priority.id";
   public static final String JIRA_BLOCKER_PRIORITY_ID = "sonar.jira.blocker.priority.id";
 
+  public static final String INCREMENTAL_PROPERTY = "sonar.jira.incremental";
+  public static final String INCREMENTAL_RESYNC_PROPERTY = "sonar.jira.incremental.resync.days";
+  public static final String INCREMENTAL_RESYNC_DEF_VALUE = "7";
+
+  public static final String RESOLUTION_THREADS_PROPERTY = "sonar.jira.resolution.threads";
+  public static final String RESOLUTION_THREADS_DEF_VALUE = "4";
+
+  public static final String CACHE_TTL_PROPERTY = "sonar.jira.cache.ttl";
+  public static final String CACHE_TTL_DEF_VALUE = "1440";
+
+  public static final String CACHE_DIR_PROPERTY = "sonar.jira.cache.dir";
+
   public static final String JIRA_ISSUE_TYPE_ID = "sonar.jira.issue.type.id";
 
   public static final String JIRA_ISSUE_COMPONENT_ID = "sonar.jira.issue.component.id";
@@ -23,13 +23,18 @@ package org.sonar.plugins.jira;
 import com.google.common.collect.ImmutableList;
 import org.sonar.api.Properties;
 import org.sonar.api.Property;
+import org.sonar.api.PropertyType;
 import org.sonar.api.SonarPlugin;
+import org.sonar.plugins.jira.client.JiraClientManager;
 import org.sonar.plugins.jira.metrics.JiraMetrics;
 import org.sonar.plugins.jira.metrics.JiraSensor;
 import org.sonar.plugins.jira.metrics.JiraWidget;
 import org.sonar.plugins.jira.reviews.JiraActionDefinition;
 import org.sonar.plugins.jira.reviews.JiraIssueCreator;
+import org.sonar.plugins.jira.reviews.JiraLinkWorker;
+import org.sonar.plugins.jira.reviews.JiraStatusSync;
 import org.sonar.plugins.jira.reviews.LinkFunction;
+import org.sonar.plugins.jira.reviews.SonarWebServiceClient;
 
 import java.util.List;
 
@@ -56,6 +61,130 @@ import java.util.List;
     global = true,
     project = true,
     module = false
+  ),
+  @Property(
+    key = JiraConstants.PROTOCOL_PROPERTY,
+    defaultValue = JiraConstants.PROTOCOL_SOAP,
+    name = "API",
+    description = "API used to send requests to the JIRA server: soap, or rest for JIRA 5 and later. "
+      + "The REST API only downloads the fields used by the plugin.",
+    global = true,
+    project = true,
+    module = false
+  ),
+  @Property(
+    key = JiraConstants.HTTP_MAX_CONNECTIONS_PROPERTY,
+    defaultValue = JiraConstants.HTTP_MAX_CONNECTIONS_DEF_VALUE,
+    name = "Maximum number of HTTP connections",
+    description = "Maximum number of connections kept open on a JIRA server. They are shared by the concurrent requests.",
+    global = true,
+    project = false,
+    module = false,
+    type = PropertyType.INTEGER
+  ),
+  @Property(
+    key = JiraConstants.HTTP_IDLE_TIMEOUT_PROPERTY,
+    defaultValue = JiraConstants.HTTP_IDLE_TIMEOUT_DEF_VALUE,
+    name = "HTTP connection idle timeout",
+    description = "Number of seconds after which an unused connection to the JIRA server is closed. Set to 0 to keep them open.",
+    global = true,
+    project = false,
+    module = false,
+    type = PropertyType.INTEGER
+  ),
+  @Property(
+    key = JiraConstants.HTTP_GZIP_PROPERTY,
+    defaultValue = JiraConstants.HTTP_GZIP_DEF_VALUE,
+    name = "Compressed HTTP responses",
+    description = "Ask the JIRA server to compress its responses with gzip. Disable it if the server or a proxy returns invalid compressed responses.",
+    global = true,
+    project = false,
+    module = false,
+    type = PropertyType.BOOLEAN
+  ),
+  @Property(
+    key = JiraConstants.HTTP_CONNECT_TIMEOUT_PROPERTY,
+    defaultValue = JiraConstants.HTTP_CONNECT_TIMEOUT_DEF_VALUE,
+    name = "HTTP connection timeout",
+    description = "Number of seconds to wait for a connection to the JIRA server. Set to 0 to wait indefinitely.",
+    global = true,
+    project = false,
+    module = false,
+    type = PropertyType.INTEGER
+  ),
+  @Property(
+    key = JiraConstants.HTTP_READ_TIMEOUT_PROPERTY,
+    defaultValue = JiraConstants.HTTP_READ_TIMEOUT_DEF_VALUE,
+    name = "HTTP read timeout",
+    description = "Number of seconds to wait for the JIRA server to send data once a request is sent. Set to 0 to wait indefinitely.",
+    global = true,
+    project = false,
+    module = false,
+    type = PropertyType.INTEGER
+  ),
+  @Property(
+    key = JiraConstants.REQUESTS_MAX_PROPERTY,
+    defaultValue = JiraConstants.REQUESTS_MAX_DEF_VALUE,
+    name = "Maximum number of concurrent requests",
+    description = "Maximum number of requests in progress at the same time on a JIRA server, for all the analyses and issue creations of a process. "
+      + "Other requests wait for their turn. Set to 0 for no limit.",
+    global = true,
+    project = false,
+    module = false,
+    type = PropertyType.INTEGER
+  ),
+  @Property(
+    key = JiraConstants.REQUESTS_RATE_PROPERTY,
+    defaultValue = JiraConstants.REQUESTS_RATE_DEF_VALUE,
+    name = "Maximum number of requests per second",
+    description = "Maximum number of requests sent per second to a JIRA server, for all the analyses and issue creations of a process, "
+      + "for example to stay below the rate limit of the server. Set to 0 for no limit.",
+    global = true,
+    project = false,
+    module = false,
+    type = PropertyType.INTEGER
+  ),
+  @Property(
+    key = JiraConstants.RETRY_MAX_PROPERTY,
+    defaultValue = JiraConstants.RETRY_MAX_DEF_VALUE,
+    name = "Maximum number of retries",
+    description = "Number of times a read request is sent again when the JIRA server can not be reached, times out or is temporarily unavailable. "
+      + "Retries are delayed by an exponential backoff. Issues are never created twice.",
+    global = true,
+    project = false,
+    module = false,
+    type = PropertyType.INTEGER
+  ),
+  @Property(
+    key = JiraConstants.CIRCUIT_OPEN_PROPERTY,
+    defaultValue = JiraConstants.CIRCUIT_OPEN_DEF_VALUE,
+    name = "Unavailable server delay",
+    description = "Number of seconds during which no request is sent to a JIRA server after several consecutive requests failed to reach it, "
+      + "so that analyses skip JIRA instead of waiting for timeouts. Set to 0 to always send requests.",
+    global = true,
+    project = false,
+    module = false,
+    type = PropertyType.INTEGER
+  ),
+  @Property(
+    key = JiraConstants.CACHE_TTL_PROPERTY,
+    defaultValue = JiraConstants.CACHE_TTL_DEF_VALUE,
+    name = "Metadata cache TTL",
+    description = "Number of minutes during which priorities, filters and issue types loaded from JIRA are kept in a local cache. "
+      + "Set to 0 to disable the cache.",
+    global = true,
+    project = true,
+    module = false,
+    type = PropertyType.INTEGER
+  ),
+  @Property(
+    key = JiraConstants.CACHE_DIR_PROPERTY,
+    defaultValue = "",
+    name = "Metadata cache directory",
+    description = "Directory of the local cache of JIRA metadata. Default is ~/.sonar/jira",
+    global = true,
+    project = false,
+    module = false
   )
 })
 public final class JiraPlugin extends SonarPlugin {
@@ -66,7 +195,8 @@ public final class JiraPlugin extends SonarPlugin {
       JiraMetrics.class, JiraSensor.class, JiraWidget.class,
 
       // issues part
-      JiraIssueCreator.class, LinkFunction.class, JiraActionDefinition.class
+      JiraClientManager.class, JiraIssueCreator.class, JiraLinkWorker.class, SonarWebServiceClient.class, JiraStatusSync.class,
+      LinkFunction.class, JiraActionDefinition.class
     );
   }
 }
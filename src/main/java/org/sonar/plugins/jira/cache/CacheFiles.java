@@ -0,0 +1,58 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.cache;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Cache files are written to a temporary file which then replaces the previous version,
+ * so that concurrent analyses never read a partially written file.
+ */
+final class CacheFiles {
+
+  private CacheFiles() {
+  }
+
+  static String hash(String... parts) {
+    StringBuilder key = new StringBuilder();
+    for (String part : parts) {
+      key.append(part).append('|');
+    }
+    return DigestUtils.shaHex(key.toString());
+  }
+
+  static File newTempFile(File file) throws IOException {
+    FileUtils.forceMkdir(file.getParentFile());
+    return new File(file.getParentFile(), file.getName() + ".tmp" + System.nanoTime());
+  }
+
+  static void replace(File tempFile, File file) throws IOException {
+    if (!tempFile.renameTo(file)) {
+      FileUtils.deleteQuietly(file);
+      if (!tempFile.renameTo(file)) {
+        throw new IOException("Unable to rename " + tempFile + " to " + file);
+      }
+    }
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.cache;
+
+import com.google.common.collect.Maps;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * SonarQube issues whose JIRA issue is being created, written to disk before the creation request is sent to JIRA. An entry
+ * that is still there when the JIRA issue of the same SonarQube issue is created again means that the outcome of the previous
+ * request is unknown, for example because it timed out after JIRA created the issue, so that JIRA must be searched before
+ * creating another one. There is one file per JIRA server.
+ */
+public class JiraCreationJournal {
+  private static final Logger LOG = LoggerFactory.getLogger(JiraCreationJournal.class);
+
+  private static final String ENCODING = "UTF-8";
+  private static final String SEPARATOR = "\t";
+  private static final String HEADER = "#jira-creations-v1";
+  // a creation that is not retried within a week is not retried at all
+  private static final long MAX_AGE = 7L * 24L * 60L * 60L * 1000L;
+
+  private final File file;
+  private final Map<String, Long> creations = Maps.newLinkedHashMap();
+
+  private JiraCreationJournal(File file) {
+    this.file = file;
+  }
+
+  public static File getFile(File directory, String serverUrl) {
+    return new File(directory, CacheFiles.hash(serverUrl) + ".journal");
+  }
+
+  public synchronized int size() {
+    return creations.size();
+  }
+
+  public synchronized boolean contains(String issueKey) {
+    return creations.containsKey(issueKey);
+  }
+
+  /**
+   * Records that the JIRA issue of the SonarQube issue is about to be created.
+   *
+   * @return <code>true</code> if a previous creation of the JIRA issue of this SonarQube issue did not finish
+   */
+  public synchronized boolean start(String issueKey, long now) {
+    boolean unfinished = creations.put(issueKey, now) != null;
+    store();
+    return unfinished;
+  }
+
+  /**
+   * Records that the JIRA issue of the SonarQube issue has been created, or has certainly not been created.
+   */
+  public synchronized void finish(String issueKey) {
+    if (creations.remove(issueKey) != null) {
+      store();
+    }
+  }
+
+  /**
+   * @return the journal stored in the file without the entries older than a week, or an empty journal if the file does not
+   * exist or can not be read
+   */
+  public static JiraCreationJournal load(File file, long now) {
+    JiraCreationJournal journal = new JiraCreationJournal(file);
+    if (!file.exists()) {
+      return journal;
+    }
+    Reader reader = null;
+    try {
+      reader = new InputStreamReader(new FileInputStream(file), ENCODING);
+      BufferedReader lines = new BufferedReader(reader);
+      if (!HEADER.equals(lines.readLine())) {
+        LOG.warn("Ignoring JIRA creation journal with unknown format: {}", file);
+        return journal;
+      }
+      String line = lines.readLine();
+      while (line != null) {
+        String[] fields = StringUtils.splitPreserveAllTokens(line, SEPARATOR);
+        long started = Long.parseLong(fields[1]);
+        if (now - started <= MAX_AGE) {
+          journal.creations.put(fields[0], started);
+        }
+        line = lines.readLine();
+      }
+    } catch (IOException e) {
+      LOG.warn("Unable to read JIRA creation journal: " + file, e);
+    } catch (RuntimeException e) {
+      LOG.warn("Corrupted JIRA creation journal: " + file, e);
+    } finally {
+      IOUtils.closeQuietly(reader);
+    }
+    return journal;
+  }
+
+  private void store() {
+    File tempFile = null;
+    Writer writer = null;
+    try {
+      tempFile = CacheFiles.newTempFile(file);
+      FileOutputStream output = new FileOutputStream(tempFile);
+      writer = new BufferedWriter(new OutputStreamWriter(output, ENCODING));
+      writer.write(HEADER + "\n");
+      for (Map.Entry<String, Long> creation : creations.entrySet()) {
+        writer.write(creation.getKey() + SEPARATOR + creation.getValue() + "\n");
+      }
+      writer.flush();
+      // the entry must be on disk before the request is sent
+      output.getFD().sync();
+      writer.close();
+      CacheFiles.replace(tempFile, file);
+    } catch (IOException e) {
+      LOG.warn("Unable to write JIRA creation journal: " + file, e);
+    } finally {
+      IOUtils.closeQuietly(writer);
+      FileUtils.deleteQuietly(tempFile);
+    }
+  }
+}
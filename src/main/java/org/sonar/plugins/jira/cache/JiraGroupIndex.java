@@ -0,0 +1,170 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.cache;
+
+import com.google.common.collect.Maps;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keys of the JIRA issues that group the SonarQube issues of a rule, by rule key, SonarQube component, JIRA project and
+ * JIRA component, so that the next SonarQube issues of a group are added to its JIRA issue instead of creating new ones.
+ * There is one file per JIRA server.
+ * <p/>
+ * The creations of a group must be done while holding its {@link #lock(String) lock}, so that two SonarQube issues linked
+ * at the same time never create two JIRA issues for the same group.
+ */
+public class JiraGroupIndex {
+  private static final Logger LOG = LoggerFactory.getLogger(JiraGroupIndex.class);
+
+  private static final String ENCODING = "UTF-8";
+  private static final String SEPARATOR = "\t";
+  private static final String HEADER = "#jira-groups-v2";
+
+  private final File file;
+  private final Map<String, String> jiraKeys = Maps.newHashMap();
+  private final ConcurrentMap<String, Object> locks = Maps.newConcurrentMap();
+
+  private JiraGroupIndex(File file) {
+    this.file = file;
+  }
+
+  public static File getFile(File directory, String serverUrl) {
+    return new File(directory, CacheFiles.hash(serverUrl) + ".groups");
+  }
+
+  /**
+   * The SonarQube component is part of the group, as the JIRA project may be shared by several SonarQube projects and the
+   * SonarQube API does not give the project of an issue.
+   */
+  public static String getGroup(String ruleKey, String sonarComponentKey, String projectKey, String componentId) {
+    return StringUtils.defaultString(ruleKey) + "|" + StringUtils.defaultString(sonarComponentKey) + "|" + StringUtils.defaultString(projectKey)
+      + "|" + StringUtils.defaultString(componentId);
+  }
+
+  /**
+   * Object to synchronize on while the JIRA issue of the group is looked up and created.
+   */
+  public Object lock(String group) {
+    Object lock = locks.get(group);
+    if (lock == null) {
+      Object newLock = new Object();
+      lock = locks.putIfAbsent(group, newLock);
+      if (lock == null) {
+        lock = newLock;
+      }
+    }
+    return lock;
+  }
+
+  public synchronized int size() {
+    return jiraKeys.size();
+  }
+
+  /**
+   * @return the key of the JIRA issue of the group, <code>null</code> if the group has no JIRA issue yet
+   */
+  public synchronized String get(String group) {
+    return jiraKeys.get(group);
+  }
+
+  public synchronized void put(String group, String jiraKey) {
+    jiraKeys.put(group, jiraKey);
+    store();
+  }
+
+  public synchronized void remove(String group) {
+    if (jiraKeys.remove(group) != null) {
+      store();
+    }
+  }
+
+  /**
+   * @return the index stored in the file, or an empty index if the file does not exist or can not be read
+   */
+  public static JiraGroupIndex load(File file) {
+    JiraGroupIndex index = new JiraGroupIndex(file);
+    if (!file.exists()) {
+      return index;
+    }
+    Reader reader = null;
+    try {
+      reader = new InputStreamReader(new FileInputStream(file), ENCODING);
+      BufferedReader lines = new BufferedReader(reader);
+      if (!HEADER.equals(lines.readLine())) {
+        LOG.warn("Ignoring JIRA groups index with unknown format: {}", file);
+        return index;
+      }
+      String line = lines.readLine();
+      while (line != null) {
+        String[] fields = StringUtils.splitPreserveAllTokens(line, SEPARATOR);
+        index.jiraKeys.put(fields[0], fields[1]);
+        line = lines.readLine();
+      }
+    } catch (IOException e) {
+      LOG.warn("Unable to read JIRA groups index: " + file, e);
+    } catch (RuntimeException e) {
+      LOG.warn("Corrupted JIRA groups index: " + file, e);
+    } finally {
+      IOUtils.closeQuietly(reader);
+    }
+    return index;
+  }
+
+  private void store() {
+    File tempFile = null;
+    Writer writer = null;
+    try {
+      tempFile = CacheFiles.newTempFile(file);
+      writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), ENCODING));
+      writer.write(HEADER + "\n");
+      for (Map.Entry<String, String> group : jiraKeys.entrySet()) {
+        writer.write(write(group.getKey()) + SEPARATOR + write(group.getValue()) + "\n");
+      }
+      writer.close();
+      CacheFiles.replace(tempFile, file);
+    } catch (IOException e) {
+      LOG.warn("Unable to write JIRA groups index: " + file, e);
+    } finally {
+      IOUtils.closeQuietly(writer);
+      FileUtils.deleteQuietly(tempFile);
+    }
+  }
+
+  private static String write(String value) {
+    return StringUtils.replaceChars(value, "\t\r\n", "   ");
+  }
+}
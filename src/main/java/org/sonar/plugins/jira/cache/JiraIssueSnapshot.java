@@ -0,0 +1,295 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.cache;
+
+import com.atlassian.jira.rpc.soap.client.RemoteComponent;
+import com.atlassian.jira.rpc.soap.client.RemoteIssue;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Local copy of the key, priority, status, type, assignee, components, resolution, creation and last update dates of the issues matching a JQL query, so that
+ * only the issues updated since the previous analysis have to be downloaded from JIRA.
+ */
+public class JiraIssueSnapshot {
+  private static final Logger LOG = LoggerFactory.getLogger(JiraIssueSnapshot.class);
+
+  private static final String ENCODING = "UTF-8";
+  private static final String SEPARATOR = "\t";
+  private static final String HEADER = "#jira-snapshot-v3";
+  private static final String[] NO_COMPONENTS = new String[0];
+
+  public static final class Entry {
+    private final String key;
+    private final String priority;
+    private final String status;
+    private final String type;
+    private final String assignee;
+    private final String[] components;
+    private final String resolution;
+    private final long created;
+    private final long updated;
+
+    Entry(String key, String priority, String status, String type, String assignee, String[] components, String resolution, long created, long updated) {
+      this.key = key;
+      this.priority = priority;
+      this.status = status;
+      this.type = type;
+      this.assignee = assignee;
+      this.components = components;
+      this.resolution = resolution;
+      this.created = created;
+      this.updated = updated;
+    }
+
+    public String getKey() {
+      return key;
+    }
+
+    public String getPriority() {
+      return priority;
+    }
+
+    public String getStatus() {
+      return status;
+    }
+
+    public String getType() {
+      return type;
+    }
+
+    public String getAssignee() {
+      return assignee;
+    }
+
+    /**
+     * Names of the components of the issue, never <code>null</code>.
+     */
+    public String[] getComponents() {
+      return components;
+    }
+
+    /**
+     * Id of the resolution, <code>null</code> if the issue is not resolved.
+     */
+    public String getResolution() {
+      return resolution;
+    }
+
+    /**
+     * Creation date, zero if unknown.
+     */
+    public long getCreated() {
+      return created;
+    }
+
+    public long getUpdated() {
+      return updated;
+    }
+  }
+
+  private final Map<String, Entry> issues = Maps.newHashMap();
+  // priorities, statuses, types, assignees, components and resolutions are shared by many issues
+  private final Interner<String> ids = Interners.newStrongInterner();
+  private long lastSync;
+  private long lastFullSync;
+
+  public static File getFile(File directory, String serverUrl, String userName, String jql) {
+    return new File(directory, CacheFiles.hash(serverUrl, userName, jql) + ".snapshot");
+  }
+
+  public int size() {
+    return issues.size();
+  }
+
+  public boolean contains(String key) {
+    return issues.containsKey(key);
+  }
+
+  public Entry get(String key) {
+    return issues.get(key);
+  }
+
+  public Collection<Entry> getEntries() {
+    return Collections.unmodifiableCollection(issues.values());
+  }
+
+  /**
+   * Adds the issue, or replaces it if it is not older than the known version.
+   */
+  public void put(RemoteIssue issue) {
+    long updated = issue.getUpdated() != null ? issue.getUpdated().getTimeInMillis() : 0L;
+    Entry previous = issues.get(issue.getKey());
+    if (previous == null || previous.updated <= updated) {
+      long created = issue.getCreated() != null ? issue.getCreated().getTimeInMillis() : 0L;
+      issues.put(issue.getKey(), new Entry(issue.getKey(), intern(issue.getPriority()), intern(issue.getStatus()), intern(issue.getType()),
+        intern(issue.getAssignee()), getComponentNames(issue.getComponents()), intern(issue.getResolution()), created, updated));
+    }
+  }
+
+  private String[] getComponentNames(RemoteComponent[] components) {
+    if (components == null || components.length == 0) {
+      return NO_COMPONENTS;
+    }
+    String[] names = new String[components.length];
+    for (int i = 0; i < components.length; i++) {
+      names[i] = intern(components[i].getName());
+    }
+    return names;
+  }
+
+  public void remove(String key) {
+    issues.remove(key);
+  }
+
+  public void clear() {
+    issues.clear();
+  }
+
+  /**
+   * Keys of the JIRA projects of the issues, deduced from issue keys.
+   */
+  public Set<String> getProjectKeys() {
+    Set<String> projectKeys = Sets.newTreeSet();
+    for (String key : issues.keySet()) {
+      projectKeys.add(StringUtils.substringBeforeLast(key, "-"));
+    }
+    return projectKeys;
+  }
+
+  public long getLastSync() {
+    return lastSync;
+  }
+
+  public void setLastSync(long lastSync) {
+    this.lastSync = lastSync;
+  }
+
+  public long getLastFullSync() {
+    return lastFullSync;
+  }
+
+  public void setLastFullSync(long lastFullSync) {
+    this.lastFullSync = lastFullSync;
+  }
+
+  private String intern(String id) {
+    return id != null ? ids.intern(id) : null;
+  }
+
+  private String read(String field) {
+    return intern(StringUtils.trimToNull(field));
+  }
+
+  private static String write(String value) {
+    // component names are free text
+    return StringUtils.replaceChars(StringUtils.defaultString(value), "\t\r\n", "   ");
+  }
+
+  /**
+   * @return the snapshot stored in the file, or an empty snapshot if the file does not exist or can not be read
+   */
+  public static JiraIssueSnapshot load(File file) {
+    JiraIssueSnapshot snapshot = new JiraIssueSnapshot();
+    if (!file.exists()) {
+      return snapshot;
+    }
+    Reader reader = null;
+    try {
+      reader = new InputStreamReader(new FileInputStream(file), ENCODING);
+      BufferedReader lines = new BufferedReader(reader);
+      String[] header = StringUtils.splitPreserveAllTokens(lines.readLine(), SEPARATOR);
+      if (header == null || header.length != 3 || !HEADER.equals(header[0])) {
+        LOG.warn("Ignoring JIRA issues snapshot with unknown format: {}", file);
+        return snapshot;
+      }
+      snapshot.lastSync = Long.parseLong(header[1]);
+      snapshot.lastFullSync = Long.parseLong(header[2]);
+      String line = lines.readLine();
+      while (line != null) {
+        String[] fields = StringUtils.splitPreserveAllTokens(line, SEPARATOR);
+        String[] components = fields.length > 8 ? new String[fields.length - 8] : NO_COMPONENTS;
+        for (int i = 0; i < components.length; i++) {
+          components[i] = snapshot.intern(fields[i + 8]);
+        }
+        snapshot.issues.put(fields[0], new Entry(fields[0], snapshot.read(fields[1]), snapshot.read(fields[2]), snapshot.read(fields[4]),
+          snapshot.read(fields[5]), components, snapshot.read(fields[7]), Long.parseLong(fields[6]), Long.parseLong(fields[3])));
+        line = lines.readLine();
+      }
+    } catch (IOException e) {
+      LOG.warn("Unable to read JIRA issues snapshot: " + file, e);
+      return new JiraIssueSnapshot();
+    } catch (RuntimeException e) {
+      LOG.warn("Corrupted JIRA issues snapshot: " + file, e);
+      return new JiraIssueSnapshot();
+    } finally {
+      IOUtils.closeQuietly(reader);
+    }
+    return snapshot;
+  }
+
+  public void store(File file) {
+    File tempFile = null;
+    Writer writer = null;
+    try {
+      tempFile = CacheFiles.newTempFile(file);
+      writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), ENCODING));
+      writer.write(HEADER + SEPARATOR + lastSync + SEPARATOR + lastFullSync + "\n");
+      for (Map.Entry<String, Entry> issue : issues.entrySet()) {
+        Entry entry = issue.getValue();
+        writer.write(issue.getKey() + SEPARATOR + write(entry.priority) + SEPARATOR + write(entry.status) + SEPARATOR + entry.updated
+          + SEPARATOR + write(entry.type) + SEPARATOR + write(entry.assignee) + SEPARATOR + entry.created + SEPARATOR + write(entry.resolution));
+        for (String component : entry.components) {
+          writer.write(SEPARATOR + write(component));
+        }
+        writer.write("\n");
+      }
+      writer.close();
+      CacheFiles.replace(tempFile, file);
+    } catch (IOException e) {
+      LOG.warn("Unable to write JIRA issues snapshot: " + file, e);
+    } finally {
+      IOUtils.closeQuietly(writer);
+      FileUtils.deleteQuietly(tempFile);
+    }
+  }
+}
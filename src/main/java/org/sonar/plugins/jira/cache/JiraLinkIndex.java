@@ -0,0 +1,313 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.cache;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * SonarQube issues linked to the JIRA issues of a JIRA server, with the position reached by the synchronization of their
+ * status. Links are appended to the file and read by chunks, so that the number of links does not matter.
+ */
+public class JiraLinkIndex {
+  private static final Logger LOG = LoggerFactory.getLogger(JiraLinkIndex.class);
+
+  private static final String ENCODING = "UTF-8";
+  private static final String SEPARATOR = "\t";
+  private static final String HEADER = "#jira-links-v1";
+  private static final String CURSOR_HEADER = "#jira-links-cursor-v2";
+  // cursors without failures
+  private static final String CURSOR_V1_HEADER = "#jira-links-cursor-v1";
+
+  public static final class Link {
+    private final String issueKey;
+    private final String jiraKey;
+
+    Link(String issueKey, String jiraKey) {
+      this.issueKey = issueKey;
+      this.jiraKey = jiraKey;
+    }
+
+    public String getIssueKey() {
+      return issueKey;
+    }
+
+    public String getJiraKey() {
+      return jiraKey;
+    }
+  }
+
+  /**
+   * State of the synchronization: the time of the last complete one, and the start and position of the current one.
+   */
+  public static final class Cursor {
+    private final long lastSync;
+    private final long runStart;
+    private final long position;
+    private final long failures;
+
+    public Cursor(long lastSync, long runStart, long position, long failures) {
+      this.lastSync = lastSync;
+      this.runStart = runStart;
+      this.position = position;
+      this.failures = failures;
+    }
+
+    /**
+     * Start time of the last complete synchronization, zero if there is none.
+     */
+    public long getLastSync() {
+      return lastSync;
+    }
+
+    /**
+     * Start time of the unfinished synchronization, zero if there is none.
+     */
+    public long getRunStart() {
+      return runStart;
+    }
+
+    public boolean isRunning() {
+      return runStart > 0;
+    }
+
+    /**
+     * Number of links already synchronized by the unfinished synchronization.
+     */
+    public long getPosition() {
+      return position;
+    }
+
+    /**
+     * Number of SonarQube issues which the unfinished synchronization could not update.
+     */
+    public long getFailures() {
+      return failures;
+    }
+  }
+
+  /**
+   * Reads the links by chunks, including the links added while reading.
+   */
+  public final class LinkReader implements Closeable {
+    private final BufferedReader lines;
+
+    private LinkReader(BufferedReader lines) {
+      this.lines = lines;
+    }
+
+    public List<Link> next(int max) throws IOException {
+      List<Link> links = Lists.newArrayList();
+      if (lines == null) {
+        return links;
+      }
+      // a link must not be read while it is written
+      synchronized (JiraLinkIndex.this) {
+        String line = links.size() < max ? lines.readLine() : null;
+        while (line != null) {
+          String[] fields = StringUtils.splitPreserveAllTokens(line, SEPARATOR);
+          links.add(new Link(fields[0], fields[1]));
+          line = links.size() < max ? lines.readLine() : null;
+        }
+      }
+      return links;
+    }
+
+    public void close() {
+      IOUtils.closeQuietly(lines);
+    }
+  }
+
+  private final File file;
+  private final File cursorFile;
+  private final File seededFile;
+
+  public JiraLinkIndex(File file) {
+    this.file = file;
+    this.cursorFile = new File(file.getParentFile(), file.getName() + ".cursor");
+    this.seededFile = new File(file.getParentFile(), file.getName() + ".seeded");
+  }
+
+  public static File getFile(File directory, String serverUrl) {
+    return new File(directory, CacheFiles.hash(serverUrl) + ".links");
+  }
+
+  public void add(String issueKey, String jiraKey) {
+    addAll(Collections.singletonMap(issueKey, jiraKey));
+  }
+
+  /**
+   * @param links JIRA keys by SonarQube issue key
+   */
+  public synchronized void addAll(Map<String, String> links) {
+    if (links.isEmpty()) {
+      return;
+    }
+    Writer writer = null;
+    try {
+      boolean created = !file.exists();
+      FileUtils.forceMkdir(file.getParentFile());
+      writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), ENCODING));
+      if (created) {
+        writer.write(HEADER + "\n");
+      }
+      for (Map.Entry<String, String> link : links.entrySet()) {
+        writer.write(link.getKey() + SEPARATOR + link.getValue() + "\n");
+      }
+      writer.close();
+    } catch (IOException e) {
+      LOG.warn("Unable to write JIRA links index: " + file, e);
+    } finally {
+      IOUtils.closeQuietly(writer);
+    }
+  }
+
+  /**
+   * @param position number of links to skip
+   */
+  public synchronized LinkReader read(long position) throws IOException {
+    if (!file.exists()) {
+      return new LinkReader(null);
+    }
+    BufferedReader lines = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+    try {
+      if (!HEADER.equals(lines.readLine())) {
+        LOG.warn("Ignoring JIRA links index with unknown format: {}", file);
+        IOUtils.closeQuietly(lines);
+        return new LinkReader(null);
+      }
+      long skipped = 0;
+      while (skipped < position && lines.readLine() != null) {
+        skipped++;
+      }
+      return new LinkReader(lines);
+    } catch (IOException e) {
+      IOUtils.closeQuietly(lines);
+      throw e;
+    }
+  }
+
+  /**
+   * Removes the links of the SonarQube issues, for example because they are closed.
+   */
+  public synchronized void removeAll(Set<String> issueKeys) {
+    if (issueKeys.isEmpty() || !file.exists()) {
+      return;
+    }
+    File tempFile = null;
+    BufferedReader lines = null;
+    Writer writer = null;
+    try {
+      tempFile = CacheFiles.newTempFile(file);
+      lines = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+      writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), ENCODING));
+      String line = lines.readLine();
+      while (line != null) {
+        if (!issueKeys.contains(StringUtils.substringBefore(line, SEPARATOR))) {
+          writer.write(line + "\n");
+        }
+        line = lines.readLine();
+      }
+      lines.close();
+      writer.close();
+      CacheFiles.replace(tempFile, file);
+    } catch (IOException e) {
+      LOG.warn("Unable to write JIRA links index: " + file, e);
+    } finally {
+      IOUtils.closeQuietly(lines);
+      IOUtils.closeQuietly(writer);
+      FileUtils.deleteQuietly(tempFile);
+    }
+  }
+
+  /**
+   * @return true once the links made before the index existed have been added, see {@link #setSeeded()}
+   */
+  public synchronized boolean isSeeded() {
+    return seededFile.exists();
+  }
+
+  public synchronized void setSeeded() {
+    try {
+      FileUtils.touch(seededFile);
+    } catch (IOException e) {
+      LOG.warn("Unable to write JIRA links index: " + seededFile, e);
+    }
+  }
+
+  /**
+   * @return the stored cursor, or a cursor without any synchronization if there is none or if it can not be read
+   */
+  public synchronized Cursor getCursor() {
+    if (!cursorFile.exists()) {
+      return new Cursor(0L, 0L, 0L, 0L);
+    }
+    try {
+      List<String> lines = FileUtils.readLines(cursorFile, ENCODING);
+      String[] fields = lines.isEmpty() ? null : StringUtils.splitPreserveAllTokens(lines.get(0), SEPARATOR);
+      if (fields != null && fields.length == 4 && CURSOR_V1_HEADER.equals(fields[0])) {
+        return new Cursor(Long.parseLong(fields[1]), Long.parseLong(fields[2]), Long.parseLong(fields[3]), 0L);
+      }
+      if (fields == null || fields.length != 5 || !CURSOR_HEADER.equals(fields[0])) {
+        LOG.warn("Ignoring JIRA links cursor with unknown format: {}", cursorFile);
+        return new Cursor(0L, 0L, 0L, 0L);
+      }
+      return new Cursor(Long.parseLong(fields[1]), Long.parseLong(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4]));
+    } catch (IOException e) {
+      LOG.warn("Unable to read JIRA links cursor: " + cursorFile, e);
+    } catch (NumberFormatException e) {
+      LOG.warn("Corrupted JIRA links cursor: " + cursorFile, e);
+    }
+    return new Cursor(0L, 0L, 0L, 0L);
+  }
+
+  public synchronized void setCursor(Cursor cursor) {
+    File tempFile = null;
+    try {
+      tempFile = CacheFiles.newTempFile(cursorFile);
+      FileUtils.writeLines(tempFile, ENCODING, Collections.singletonList(CURSOR_HEADER + SEPARATOR + cursor.lastSync + SEPARATOR + cursor.runStart
+        + SEPARATOR + cursor.position + SEPARATOR + cursor.failures));
+      CacheFiles.replace(tempFile, cursorFile);
+    } catch (IOException e) {
+      LOG.warn("Unable to write JIRA links cursor: " + cursorFile, e);
+    } finally {
+      FileUtils.deleteQuietly(tempFile);
+    }
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.cache;
+
+import com.atlassian.jira.rpc.soap.client.RemoteComponent;
+import com.atlassian.jira.rpc.soap.client.RemoteIssue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SonarQube issues waiting for their JIRA issue, kept on disk so that they survive a restart of the server. An entry is
+ * pending until its JIRA issue is created, then created until the SonarQube issue is linked to it.
+ * <p/>
+ * Each entry keeps the JIRA issue to create and the JIRA settings of its project. Secured settings, like passwords, are
+ * only kept in memory: the entries read from the file use the secured settings of the server.
+ */
+public class JiraLinkQueue {
+  private static final Logger LOG = LoggerFactory.getLogger(JiraLinkQueue.class);
+
+  private static final String ENCODING = "UTF-8";
+  private static final String SEPARATOR = "\t";
+  private static final String HEADER = "#jira-link-queue-v1";
+  private static final String SECURED_SUFFIX = ".secured";
+  private static final int ISSUE_FIELDS = 10;
+
+  public static final class Entry {
+    private final String issueKey;
+    private final RemoteIssue issue;
+    private final Map<String, String> settings;
+    private final String jiraKey;
+    private final int attempts;
+    private final long nextAttempt;
+
+    Entry(String issueKey, RemoteIssue issue, Map<String, String> settings, String jiraKey, int attempts, long nextAttempt) {
+      this.issueKey = issueKey;
+      this.issue = issue;
+      this.settings = settings;
+      this.jiraKey = jiraKey;
+      this.attempts = attempts;
+      this.nextAttempt = nextAttempt;
+    }
+
+    public String getIssueKey() {
+      return issueKey;
+    }
+
+    /**
+     * The JIRA issue to create.
+     */
+    public RemoteIssue getIssue() {
+      return issue;
+    }
+
+    /**
+     * JIRA settings of the project of the SonarQube issue.
+     */
+    public Map<String, String> getSettings() {
+      return settings;
+    }
+
+    /**
+     * Key of the created JIRA issue, <code>null</code> while the issue is pending.
+     */
+    public String getJiraKey() {
+      return jiraKey;
+    }
+
+    public boolean isCreated() {
+      return jiraKey != null;
+    }
+
+    /**
+     * Number of failed attempts to create the JIRA issue, or to link it once created.
+     */
+    public int getAttempts() {
+      return attempts;
+    }
+
+    public long getNextAttempt() {
+      return nextAttempt;
+    }
+  }
+
+  private final File file;
+  private final Map<String, Entry> entries = Maps.newLinkedHashMap();
+
+  private JiraLinkQueue(File file) {
+    this.file = file;
+  }
+
+  public static File getFile(File directory) {
+    return new File(directory, "links.queue");
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized Entry get(String issueKey) {
+    return entries.get(issueKey);
+  }
+
+  /**
+   * Adds a pending entry, to be processed right away.
+   */
+  public synchronized Entry add(String issueKey, RemoteIssue issue, Map<String, String> settings) {
+    Entry entry = new Entry(issueKey, issue, ImmutableMap.copyOf(settings), null, 0, 0L);
+    entries.put(issueKey, entry);
+    store();
+    return entry;
+  }
+
+  /**
+   * Entries to process at the given time, in order of addition.
+   */
+  public synchronized List<Entry> getDue(long now) {
+    List<Entry> due = Lists.newArrayList();
+    for (Entry entry : entries.values()) {
+      if (entry.nextAttempt <= now) {
+        due.add(entry);
+      }
+    }
+    return due;
+  }
+
+  public synchronized List<Entry> getEntries() {
+    return ImmutableList.copyOf(entries.values());
+  }
+
+  public synchronized void setCreated(String issueKey, String jiraKey) {
+    Entry entry = entries.get(issueKey);
+    if (entry != null) {
+      entries.put(issueKey, new Entry(issueKey, entry.issue, entry.settings, jiraKey, 0, 0L));
+      store();
+    }
+  }
+
+  public synchronized void retryLater(String issueKey, long nextAttempt) {
+    Entry entry = entries.get(issueKey);
+    if (entry != null) {
+      entries.put(issueKey, new Entry(issueKey, entry.issue, entry.settings, entry.jiraKey, entry.attempts + 1, nextAttempt));
+      store();
+    }
+  }
+
+  public synchronized void remove(String issueKey) {
+    if (entries.remove(issueKey) != null) {
+      store();
+    }
+  }
+
+  /**
+   * @return the queue stored in the file, or an empty queue if the file does not exist or can not be read
+   */
+  public static JiraLinkQueue load(File file) {
+    JiraLinkQueue queue = new JiraLinkQueue(file);
+    if (!file.exists()) {
+      return queue;
+    }
+    Reader reader = null;
+    try {
+      reader = new InputStreamReader(new FileInputStream(file), ENCODING);
+      BufferedReader lines = new BufferedReader(reader);
+      if (!HEADER.equals(lines.readLine())) {
+        LOG.warn("Ignoring JIRA link queue with unknown format: {}", file);
+        return queue;
+      }
+      String line = lines.readLine();
+      while (line != null) {
+        Entry entry = read(StringUtils.splitPreserveAllTokens(line, SEPARATOR));
+        queue.entries.put(entry.issueKey, entry);
+        line = lines.readLine();
+      }
+    } catch (IOException e) {
+      LOG.warn("Unable to read JIRA link queue: " + file, e);
+    } catch (RuntimeException e) {
+      LOG.warn("Corrupted JIRA link queue: " + file, e);
+    } finally {
+      IOUtils.closeQuietly(reader);
+    }
+    return queue;
+  }
+
+  private static Entry read(String[] fields) {
+    RemoteIssue issue = new RemoteIssue();
+    issue.setProject(unescape(fields[4]));
+    issue.setType(unescape(fields[5]));
+    issue.setPriority(unescape(fields[6]));
+    issue.setSummary(unescape(fields[7]));
+    issue.setDescription(unescape(fields[8]));
+    String componentId = unescape(fields[9]);
+    if (componentId != null) {
+      RemoteComponent component = new RemoteComponent();
+      component.setId(componentId);
+      issue.setComponents(new RemoteComponent[] {component});
+    }
+    Map<String, String> settings = Maps.newHashMap();
+    for (int i = ISSUE_FIELDS; i + 1 < fields.length; i += 2) {
+      settings.put(unescape(fields[i]), unescape(fields[i + 1]));
+    }
+    return new Entry(unescape(fields[0]), issue, Collections.unmodifiableMap(settings), unescape(fields[1]), Integer.parseInt(fields[2]),
+      Long.parseLong(fields[3]));
+  }
+
+  private void store() {
+    File tempFile = null;
+    Writer writer = null;
+    try {
+      tempFile = CacheFiles.newTempFile(file);
+      writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), ENCODING));
+      writer.write(HEADER + "\n");
+      for (Entry entry : entries.values()) {
+        RemoteIssue issue = entry.issue;
+        RemoteComponent[] components = issue.getComponents();
+        writer.write(escape(entry.issueKey) + SEPARATOR + escape(entry.jiraKey) + SEPARATOR + entry.attempts + SEPARATOR + entry.nextAttempt
+          + SEPARATOR + escape(issue.getProject()) + SEPARATOR + escape(issue.getType()) + SEPARATOR + escape(issue.getPriority())
+          + SEPARATOR + escape(issue.getSummary()) + SEPARATOR + escape(issue.getDescription())
+          + SEPARATOR + escape(components != null && components.length > 0 ? components[0].getId() : null));
+        for (Map.Entry<String, String> setting : entry.settings.entrySet()) {
+          if (!setting.getKey().endsWith(SECURED_SUFFIX)) {
+            writer.write(SEPARATOR + escape(setting.getKey()) + SEPARATOR + escape(setting.getValue()));
+          }
+        }
+        writer.write("\n");
+      }
+      writer.close();
+      CacheFiles.replace(tempFile, file);
+    } catch (IOException e) {
+      LOG.warn("Unable to write JIRA link queue: " + file, e);
+    } finally {
+      IOUtils.closeQuietly(writer);
+      FileUtils.deleteQuietly(tempFile);
+    }
+  }
+
+  private static String escape(String value) {
+    // an empty field is a null value
+    return value == null ? "" : ("=" + StringEscapeUtils.escapeJava(value));
+  }
+
+  private static String unescape(String field) {
+    return field.length() == 0 ? null : StringEscapeUtils.unescapeJava(field.substring(1));
+  }
+}
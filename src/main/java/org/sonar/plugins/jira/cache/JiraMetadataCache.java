@@ -0,0 +1,176 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.cache;
+
+import com.google.common.collect.Maps;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraConstants;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * File-backed cache of JIRA metadata (priorities, filters, issue types...) that rarely changes.
+ * There is one file per JIRA server and user, and each section of this file expires on its own.
+ */
+public class JiraMetadataCache {
+  private static final Logger LOG = LoggerFactory.getLogger(JiraMetadataCache.class);
+
+  public static final String PRIORITIES = "priorities";
+  public static final String FILTERS = "filters";
+  public static final String ISSUE_TYPES = "issuetypes";
+  public static final String SUB_TASK_ISSUE_TYPES = "subtaskissuetypes";
+  public static final String STATUSES = "statuses";
+  public static final String CAPABILITIES = "capabilities";
+
+  private static final String TIMESTAMP_PREFIX = "timestamp.";
+  private static final long MINUTE = 60L * 1000L;
+
+  private final File directory;
+  private final long ttl;
+
+  /**
+   * @param ttl time to live of cached entries in milliseconds, the cache is disabled if zero or negative
+   */
+  public JiraMetadataCache(File directory, long ttl) {
+    this.directory = directory;
+    this.ttl = ttl;
+  }
+
+  public static JiraMetadataCache create(Settings settings) {
+    String path = settings.getString(JiraConstants.CACHE_DIR_PROPERTY);
+    File directory = StringUtils.isBlank(path) ? getDefaultDirectory() : new File(path);
+    return new JiraMetadataCache(directory, settings.getLong(JiraConstants.CACHE_TTL_PROPERTY) * MINUTE);
+  }
+
+  static File getDefaultDirectory() {
+    return new File(System.getProperty("user.home"), ".sonar/jira");
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  public boolean isEnabled() {
+    return ttl > 0;
+  }
+
+  /**
+   * @return the cached values of the section, or <code>null</code> if the cache is disabled, the section
+   * has never been cached or has expired
+   */
+  public synchronized Map<String, String> get(String serverUrl, String userName, String section) {
+    if (!isEnabled()) {
+      return null;
+    }
+    Properties properties = load(getFile(serverUrl, userName));
+    if (isExpired(properties.getProperty(TIMESTAMP_PREFIX + section))) {
+      LOG.debug("No valid JIRA {} in cache", section);
+      return null;
+    }
+    Map<String, String> values = Maps.newHashMap();
+    String prefix = section + ".";
+    for (String key : properties.stringPropertyNames()) {
+      if (key.startsWith(prefix)) {
+        values.put(key.substring(prefix.length()), properties.getProperty(key));
+      }
+    }
+    return values;
+  }
+
+  public synchronized void put(String serverUrl, String userName, String section, Map<String, String> values) {
+    if (!isEnabled()) {
+      return;
+    }
+    File file = getFile(serverUrl, userName);
+    Properties properties = load(file);
+    String prefix = section + ".";
+    for (String key : properties.stringPropertyNames()) {
+      if (key.startsWith(prefix)) {
+        properties.remove(key);
+      }
+    }
+    for (Map.Entry<String, String> entry : values.entrySet()) {
+      if (entry.getKey() != null && entry.getValue() != null) {
+        properties.setProperty(prefix + entry.getKey(), entry.getValue());
+      }
+    }
+    properties.setProperty(TIMESTAMP_PREFIX + section, String.valueOf(System.currentTimeMillis()));
+    store(file, properties);
+  }
+
+  private boolean isExpired(String timestamp) {
+    try {
+      return timestamp == null || System.currentTimeMillis() - Long.parseLong(timestamp) > ttl;
+    } catch (NumberFormatException e) {
+      return true;
+    }
+  }
+
+  File getFile(String serverUrl, String userName) {
+    return new File(directory, CacheFiles.hash(serverUrl, userName) + ".properties");
+  }
+
+  private static Properties load(File file) {
+    Properties properties = new Properties();
+    if (file.exists()) {
+      InputStream input = null;
+      try {
+        input = new FileInputStream(file);
+        properties.load(input);
+      } catch (IOException e) {
+        LOG.warn("Unable to read JIRA metadata cache: " + file, e);
+      } catch (IllegalArgumentException e) {
+        LOG.warn("Corrupted JIRA metadata cache: " + file, e);
+      } finally {
+        IOUtils.closeQuietly(input);
+      }
+    }
+    return properties;
+  }
+
+  private static void store(File file, Properties properties) {
+    File tempFile = null;
+    OutputStream output = null;
+    try {
+      tempFile = CacheFiles.newTempFile(file);
+      output = new FileOutputStream(tempFile);
+      properties.store(output, "JIRA metadata cache");
+      output.close();
+      CacheFiles.replace(tempFile, file);
+    } catch (IOException e) {
+      LOG.warn("Unable to write JIRA metadata cache: " + file, e);
+    } finally {
+      IOUtils.closeQuietly(output);
+      FileUtils.deleteQuietly(tempFile);
+    }
+  }
+}
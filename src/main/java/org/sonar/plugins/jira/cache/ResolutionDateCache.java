@@ -0,0 +1,130 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.cache;
+
+import com.google.common.collect.Maps;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Resolution dates of JIRA issues by issue key. A resolution date is only valid as long as the issue is not updated, as
+ * the issue may have been reopened and resolved again since. Only the entries requested or added since the cache was
+ * loaded are stored, so that issues which left the query are eventually forgotten.
+ */
+public class ResolutionDateCache {
+  private static final Logger LOG = LoggerFactory.getLogger(ResolutionDateCache.class);
+
+  private static final String SEPARATOR = ";";
+
+  private final Map<String, long[]> loaded = Maps.newHashMap();
+  private final Map<String, long[]> used = Maps.newHashMap();
+
+  /**
+   * There is one file per JIRA query, like {@link JiraIssueSnapshot}, as the entries which are not used by an analysis are
+   * removed: the analyses of other queries, like the ones of other projects, must not remove each other's entries.
+   */
+  public static File getFile(File directory, String serverUrl, String userName, String jql) {
+    return new File(directory, CacheFiles.hash(serverUrl, userName, jql) + ".resolutions");
+  }
+
+  /**
+   * @return the resolution date, or <code>null</code> if unknown or if the issue has been updated since it was cached
+   */
+  public synchronized Long get(String key, long updated) {
+    long[] entry = loaded.get(key);
+    if (entry == null || entry[0] != updated) {
+      return null;
+    }
+    used.put(key, entry);
+    return entry[1];
+  }
+
+  public synchronized void put(String key, long updated, long resolutionDate) {
+    long[] entry = new long[] {updated, resolutionDate};
+    loaded.put(key, entry);
+    used.put(key, entry);
+  }
+
+  public synchronized int size() {
+    return loaded.size();
+  }
+
+  /**
+   * @return the cached dates, or an empty cache if the file does not exist or can not be read
+   */
+  public static ResolutionDateCache load(File file) {
+    ResolutionDateCache cache = new ResolutionDateCache();
+    if (!file.exists()) {
+      return cache;
+    }
+    Properties properties = new Properties();
+    InputStream input = null;
+    try {
+      input = new FileInputStream(file);
+      properties.load(input);
+      for (String key : properties.stringPropertyNames()) {
+        String[] fields = StringUtils.split(properties.getProperty(key), SEPARATOR);
+        cache.loaded.put(key, new long[] {Long.parseLong(fields[0]), Long.parseLong(fields[1])});
+      }
+    } catch (IOException e) {
+      LOG.warn("Unable to read JIRA resolution dates cache: " + file, e);
+      return new ResolutionDateCache();
+    } catch (RuntimeException e) {
+      LOG.warn("Corrupted JIRA resolution dates cache: " + file, e);
+      return new ResolutionDateCache();
+    } finally {
+      IOUtils.closeQuietly(input);
+    }
+    return cache;
+  }
+
+  public synchronized void store(File file) {
+    Properties properties = new Properties();
+    for (Map.Entry<String, long[]> entry : used.entrySet()) {
+      properties.setProperty(entry.getKey(), entry.getValue()[0] + SEPARATOR + entry.getValue()[1]);
+    }
+    File tempFile = null;
+    OutputStream output = null;
+    try {
+      tempFile = CacheFiles.newTempFile(file);
+      output = new FileOutputStream(tempFile);
+      properties.store(output, "JIRA resolution dates");
+      output.close();
+      CacheFiles.replace(tempFile, file);
+    } catch (IOException e) {
+      LOG.warn("Unable to write JIRA resolution dates cache: " + file, e);
+    } finally {
+      IOUtils.closeQuietly(output);
+      FileUtils.deleteQuietly(tempFile);
+    }
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.client;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.cache.JiraMetadataCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Stops sending requests to a JIRA server during {@link JiraConstants#CIRCUIT_OPEN_PROPERTY} seconds after several consecutive
+ * requests failed to reach it. Once this delay has elapsed, requests are sent again, and the first one failing suspends them
+ * again. When the metadata cache is enabled, the suspension is recorded in its directory, so that the next analyses, which run
+ * in other processes, skip JIRA too.
+ */
+public class JiraCircuitBreaker {
+  private static final Logger LOG = LoggerFactory.getLogger(JiraCircuitBreaker.class);
+
+  static final int FAILURE_THRESHOLD = 3;
+  private static final ConcurrentMap<String, JiraCircuitBreaker> BREAKERS = new ConcurrentHashMap<String, JiraCircuitBreaker>();
+
+  private final String serverUrl;
+  private final long openMillis;
+  private final File file;
+  private int consecutiveFailures;
+  private long openUntil;
+
+  /**
+   * @param file file recording the suspension, <code>null</code> to keep it in memory only
+   */
+  JiraCircuitBreaker(String serverUrl, long openMillis, File file) {
+    this.serverUrl = serverUrl;
+    this.openMillis = openMillis;
+    this.file = file;
+    if (openMillis > 0) {
+      openUntil = load(file);
+      if (openUntil > 0) {
+        consecutiveFailures = FAILURE_THRESHOLD;
+      }
+    }
+  }
+
+  /**
+   * Returns the circuit breaker shared by the clients of the JIRA server of the settings.
+   */
+  public static JiraCircuitBreaker get(Settings settings) {
+    String serverUrl = StringUtils.defaultString(settings.getString(JiraConstants.SERVER_URL_PROPERTY));
+    long openMillis = settings.getLong(JiraConstants.CIRCUIT_OPEN_PROPERTY) * 1000L;
+    JiraMetadataCache cache = JiraMetadataCache.create(settings);
+    File file = cache.isEnabled() ? new File(cache.getDirectory(), DigestUtils.shaHex(serverUrl) + ".unavailable") : null;
+    String key = serverUrl + "|" + openMillis + "|" + file;
+    JiraCircuitBreaker breaker = BREAKERS.get(key);
+    if (breaker == null) {
+      JiraCircuitBreaker newBreaker = new JiraCircuitBreaker(serverUrl, openMillis, file);
+      breaker = BREAKERS.putIfAbsent(key, newBreaker);
+      if (breaker == null) {
+        breaker = newBreaker;
+      }
+    }
+    return breaker;
+  }
+
+  /**
+   * @throws JiraUnavailableException if requests to the server are suspended
+   */
+  public synchronized void check(long now) throws JiraUnavailableException {
+    if (isOpen(now)) {
+      throw new JiraUnavailableException("The JIRA server " + serverUrl + " is unavailable, no request is sent until " + new Date(openUntil));
+    }
+  }
+
+  public synchronized boolean isOpen(long now) {
+    return openMillis > 0 && now < openUntil;
+  }
+
+  /**
+   * Called when the server answered, even with an error.
+   */
+  public synchronized void recordSuccess() {
+    consecutiveFailures = 0;
+    if (openUntil > 0) {
+      openUntil = 0;
+      if (file != null) {
+        FileUtils.deleteQuietly(file);
+      }
+      LOG.info("JIRA server {} is available again", serverUrl);
+    }
+  }
+
+  /**
+   * Called when the server could not be reached, did not answer in time or was temporarily unavailable.
+   */
+  public synchronized void recordFailure(long now) {
+    consecutiveFailures++;
+    if (openMillis > 0 && consecutiveFailures >= FAILURE_THRESHOLD && now >= openUntil) {
+      openUntil = now + openMillis;
+      store(file, openUntil);
+      LOG.warn("JIRA server {} is unavailable, no request will be sent during {} seconds", serverUrl, openMillis / 1000L);
+    }
+  }
+
+  private static long load(File file) {
+    if (file == null || !file.exists()) {
+      return 0L;
+    }
+    try {
+      return Long.parseLong(FileUtils.readFileToString(file).trim());
+    } catch (IOException e) {
+      LOG.debug("Unable to read " + file, e);
+    } catch (NumberFormatException e) {
+      LOG.debug("Corrupted file " + file, e);
+    }
+    return 0L;
+  }
+
+  private static void store(File file, long openUntil) {
+    if (file == null) {
+      return;
+    }
+    try {
+      FileUtils.writeStringToFile(file, String.valueOf(openUntil));
+    } catch (IOException e) {
+      LOG.debug("Unable to write " + file, e);
+    }
+  }
+}
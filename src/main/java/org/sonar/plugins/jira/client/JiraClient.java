@@ -0,0 +1,112 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.client;
+
+import com.atlassian.jira.rpc.soap.client.RemoteFilter;
+import com.atlassian.jira.rpc.soap.client.RemoteIssue;
+import com.atlassian.jira.rpc.soap.client.RemoteIssueType;
+import com.atlassian.jira.rpc.soap.client.RemotePriority;
+import com.atlassian.jira.rpc.soap.client.RemoteServerInfo;
+import com.atlassian.jira.rpc.soap.client.RemoteStatus;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.Calendar;
+
+/**
+ * Requests made by the plugin to a JIRA server, whatever the API used to send them. See {@link JiraClientFactory}.
+ * <p/>
+ * Data is exchanged with the beans of the SOAP API, which are plain Java beans, and errors are reported with the same
+ * exceptions as the SOAP API, for example {@link com.atlassian.jira.rpc.soap.client.RemoteAuthenticationException}.
+ * Once connected, requests can be sent concurrently.
+ */
+public interface JiraClient {
+
+  /**
+   * Id of the custom field value holding the labels of an issue to create, as {@link RemoteIssue} has no labels. Only the REST
+   * API sends them, the SOAP API can not set the labels of a new issue.
+   */
+  String LABELS_FIELD = "labels";
+
+  void connect(String userName, String password) throws RemoteException;
+
+  void disconnect() throws RemoteException;
+
+  RemoteServerInfo getServerInfo() throws RemoteException;
+
+  RemotePriority[] getPriorities() throws RemoteException;
+
+  RemoteStatus[] getStatuses() throws RemoteException;
+
+  /**
+   * Standard issue types, which can be used to create issues.
+   */
+  RemoteIssueType[] getIssueTypes() throws RemoteException;
+
+  RemoteIssueType[] getSubTaskIssueTypes() throws RemoteException;
+
+  RemoteFilter[] getFavouriteFilters() throws RemoteException;
+
+  /**
+   * Filters of JIRA servers older than 3.13, which do not support favourite filters.
+   */
+  RemoteFilter[] getSavedFilters() throws RemoteException;
+
+  long getIssueCountForFilter(String filterId) throws RemoteException;
+
+  /**
+   * Gives all the issues of the filter to the handler.
+   *
+   * @return the number of issues
+   */
+  int getIssuesFromFilter(String filterId, RemoteIssueHandler handler) throws RemoteException;
+
+  /**
+   * @return the number of issues given to the handler, lower than <code>maxNumResults</code> for the last page
+   */
+  int getIssuesFromFilterWithLimit(String filterId, int offset, int maxNumResults, RemoteIssueHandler handler) throws RemoteException;
+
+  int getIssuesFromJqlSearch(String jql, int maxNumResults, RemoteIssueHandler handler) throws RemoteException;
+
+  /**
+   * Counts the issues matching the JQL query without transferring them.
+   *
+   * @throws IOException if the server does not support count-only queries
+   */
+  long countIssues(String jql) throws IOException;
+
+  Calendar getResolutionDateByKey(String issueKey) throws RemoteException;
+
+  /**
+   * @return the issue with all its fields, its description included
+   */
+  RemoteIssue getIssue(String issueKey) throws RemoteException;
+
+  /**
+   * @return the created issue, with its key
+   */
+  RemoteIssue createIssue(RemoteIssue issue) throws RemoteException;
+
+  /**
+   * Adds a comment to an existing issue.
+   */
+  void addComment(String issueKey, String body) throws RemoteException;
+
+}
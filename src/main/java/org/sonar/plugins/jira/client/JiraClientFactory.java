@@ -0,0 +1,71 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.client;
+
+import org.apache.commons.lang.StringUtils;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.rest.RestJiraClient;
+import org.sonar.plugins.jira.soap.IssueStreamDecoder;
+import org.sonar.plugins.jira.soap.JiraHttpTransport;
+import org.sonar.plugins.jira.soap.JiraIssueStream;
+import org.sonar.plugins.jira.soap.JiraSoapSession;
+import org.sonar.plugins.jira.soap.SoapJiraClient;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * Creates the client of the API selected by {@link JiraConstants#PROTOCOL_PROPERTY}. Clients are not connected.
+ */
+public final class JiraClientFactory {
+
+  private JiraClientFactory() {
+  }
+
+  public static JiraClient create(Settings settings) {
+    String serverUrl = settings.getString(JiraConstants.SERVER_URL_PROPERTY);
+    JiraHttpTransport transport = JiraHttpTransport.get(settings);
+    RestJiraClient restClient = new RestJiraClient(toUrl(serverUrl), transport);
+    if (isRest(settings)) {
+      return restClient;
+    }
+    String soapBaseUrl = StringUtils.defaultIfEmpty(settings.getString(JiraConstants.SOAP_BASE_URL_PROPERTY), JiraConstants.SOAP_BASE_URL_DEF_VALUE);
+    URL webServiceUrl = toUrl(serverUrl + soapBaseUrl);
+    JiraIssueStream issueStream = null;
+    if (settings.getBoolean(JiraConstants.STREAMING_PROPERTY)) {
+      issueStream = new JiraIssueStream(webServiceUrl, transport, IssueStreamDecoder.DEFAULT_FIELDS);
+    }
+    // the REST API is only used for count-only queries, which are not supported by the SOAP API
+    return new SoapJiraClient(new JiraSoapSession(webServiceUrl, transport), issueStream, restClient);
+  }
+
+  public static boolean isRest(Settings settings) {
+    return JiraConstants.PROTOCOL_REST.equalsIgnoreCase(StringUtils.trim(settings.getString(JiraConstants.PROTOCOL_PROPERTY)));
+  }
+
+  private static URL toUrl(String url) {
+    try {
+      return new URL(url);
+    } catch (MalformedURLException e) {
+      throw new IllegalStateException("The JIRA server URL is not a valid one: " + url, e);
+    }
+  }
+}
@@ -0,0 +1,244 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.client;
+
+import com.atlassian.jira.rpc.soap.client.RemoteAuthenticationException;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.Properties;
+import org.sonar.api.Property;
+import org.sonar.api.PropertyType;
+import org.sonar.api.ServerExtension;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.soap.JiraHttpTransport;
+
+import java.rmi.RemoteException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the JIRA clients opened by the server connected, so that they can be reused by the next requests to the same
+ * JIRA server with the same user, instead of logging in each time. Clients are disconnected when the server stops.
+ */
+@Properties({
+  @Property(
+    key = JiraConstants.MAX_SESSIONS_PROPERTY,
+    defaultValue = JiraConstants.MAX_SESSIONS_DEF_VALUE,
+    name = "Maximum number of JIRA sessions",
+    description = "Maximum number of concurrent sessions opened by the server on a JIRA server for a given user.",
+    global = true,
+    project = false,
+    type = PropertyType.INTEGER
+  )
+})
+public class JiraClientManager implements ServerExtension {
+  private static final Logger LOG = LoggerFactory.getLogger(JiraClientManager.class);
+
+  private static final long ACQUIRE_TIMEOUT_SECONDS = 30L;
+
+  /**
+   * Request made with a connected client.
+   */
+  public interface Callback<T> {
+    T execute(JiraClient client) throws RemoteException;
+  }
+
+  private final int maxSessions;
+  private final ConcurrentMap<String, ClientPool> pools = new ConcurrentHashMap<String, ClientPool>();
+  private final ConcurrentMap<JiraClient, Lease> leasedClients = new ConcurrentHashMap<JiraClient, Lease>();
+  private volatile boolean stopped;
+
+  public JiraClientManager(Settings settings) {
+    this(settings.getInt(JiraConstants.MAX_SESSIONS_PROPERTY));
+  }
+
+  JiraClientManager(int maxSessions) {
+    this.maxSessions = Math.max(1, maxSessions);
+  }
+
+  /**
+   * Returns a connected client for the JIRA server and user of the settings, which must be given back with
+   * {@link #release(JiraClient)}. Waits when the maximum number of sessions for this server and user are already in use.
+   *
+   * @throws RemoteException if a new client can not log in
+   */
+  public JiraClient acquire(Settings settings) throws RemoteException {
+    ClientPool pool = getPool(settings);
+    pool.acquirePermit();
+    JiraClient client = pool.idleClients.poll();
+    if (client == null) {
+      try {
+        client = createClient(settings);
+        client.connect(pool.userName, pool.password);
+      } catch (RemoteException e) {
+        pool.permits.release();
+        throw e;
+      } catch (RuntimeException e) {
+        pool.permits.release();
+        throw e;
+      }
+      LOG.debug("New JIRA session opened on {}", pool.serverUrl);
+    }
+    leasedClients.put(client, new Lease(pool));
+    return client;
+  }
+
+  public void release(JiraClient client) {
+    Lease lease = leasedClients.remove(client);
+    if (lease == null || stopped) {
+      logout(client);
+      return;
+    }
+    ClientPool pool = lease.pool;
+    pool.idleClients.offer(client);
+    pool.permits.release();
+  }
+
+  /**
+   * Executes the request, and executes it again after logging in again if the client has been rejected, as JIRA
+   * expires the authentication tokens of inactive sessions. When several threads share the client, only the first
+   * rejected request logs in again, the other ones are executed again with the new session.
+   */
+  public <T> T execute(JiraClient client, Callback<T> callback) throws RemoteException {
+    Lease lease = leasedClients.get(client);
+    int session = lease != null ? lease.getSession() : 0;
+    try {
+      return callback.execute(client);
+    } catch (RemoteAuthenticationException e) {
+      if (lease == null) {
+        throw e;
+      }
+      lease.reconnect(client, session, e);
+      return callback.execute(client);
+    }
+  }
+
+  /**
+   * Called by the server when it stops.
+   */
+  public void stop() {
+    stopped = true;
+    for (ClientPool pool : pools.values()) {
+      JiraClient client = pool.idleClients.poll();
+      while (client != null) {
+        logout(client);
+        client = pool.idleClients.poll();
+      }
+    }
+    pools.clear();
+    JiraHttpTransport.shutdownAll();
+    JiraStatistics.unregisterAll();
+  }
+
+  protected JiraClient createClient(Settings settings) {
+    // the server has no deadline, a request waits for the HTTP timeouts at most
+    return ResilientJiraClient.wrap(MeteredJiraClient.wrap(JiraClientFactory.create(settings), settings), settings, ResilientJiraClient.NO_DEADLINE);
+  }
+
+  int getIdleClients(Settings settings) {
+    return getPool(settings).idleClients.size();
+  }
+
+  private ClientPool getPool(Settings settings) {
+    String serverUrl = settings.getString(JiraConstants.SERVER_URL_PROPERTY);
+    String userName = settings.getString(JiraConstants.USERNAME_PROPERTY);
+    String password = settings.getString(JiraConstants.PASSWORD_PROPERTY);
+    // sessions of the previous password must not be reused when the password changes
+    String key = (JiraClientFactory.isRest(settings) ? JiraConstants.PROTOCOL_REST : JiraConstants.PROTOCOL_SOAP) + "|" + serverUrl + "|" + userName
+      + "|" + DigestUtils.shaHex(StringUtils.defaultString(password));
+    ClientPool pool = pools.get(key);
+    if (pool == null) {
+      ClientPool newPool = new ClientPool(maxSessions, serverUrl, userName, password);
+      pool = pools.putIfAbsent(key, newPool);
+      if (pool == null) {
+        pool = newPool;
+      }
+    }
+    return pool;
+  }
+
+  private static void logout(JiraClient client) {
+    try {
+      client.disconnect();
+    } catch (RemoteException e) {
+      LOG.debug("Unable to log out from JIRA", e);
+    }
+  }
+
+  /**
+   * A client given by {@link #acquire(Settings)}, with the number of times it has logged in again.
+   */
+  private static final class Lease {
+    private final ClientPool pool;
+    private int session;
+
+    Lease(ClientPool pool) {
+      this.pool = pool;
+    }
+
+    synchronized int getSession() {
+      return session;
+    }
+
+    /**
+     * Logs in again, unless another thread already did it since the given session was used.
+     */
+    synchronized void reconnect(JiraClient client, int rejectedSession, RemoteAuthenticationException e) throws RemoteException {
+      if (session == rejectedSession) {
+        LOG.debug("JIRA authentication token rejected, logging in again", e);
+        client.connect(pool.userName, pool.password);
+        session++;
+      }
+    }
+  }
+
+  private static final class ClientPool {
+    private final Semaphore permits;
+    private final Queue<JiraClient> idleClients = new ConcurrentLinkedQueue<JiraClient>();
+    private final String serverUrl;
+    private final String userName;
+    private final String password;
+
+    ClientPool(int maxSessions, String serverUrl, String userName, String password) {
+      this.permits = new Semaphore(maxSessions, true);
+      this.serverUrl = serverUrl;
+      this.userName = userName;
+      this.password = password;
+    }
+
+    void acquirePermit() {
+      try {
+        if (!permits.tryAcquire(ACQUIRE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+          throw new IllegalStateException("Too many concurrent requests to the JIRA server (" + serverUrl + "), please try again later");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for a JIRA session", e);
+      }
+    }
+  }
+}
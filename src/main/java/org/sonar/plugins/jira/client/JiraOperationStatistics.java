@@ -0,0 +1,94 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.client;
+
+import org.sonar.plugins.jira.metrics.DurationHistogram;
+
+/**
+ * Number of calls, errors, latencies and payload sizes of a JIRA operation, for example <code>getIssuesFromFilterWithLimit</code>.
+ * Each attempt of a request is counted as a call.
+ */
+public class JiraOperationStatistics implements JiraOperationStatisticsMBean {
+
+  private static final long[] LATENCY_LIMITS_MILLIS = {0L, 10L, 25L, 50L, 100L, 250L, 500L, 1000L, 2500L, 5000L, 10000L, 30000L, 60000L};
+
+  private final String name;
+  private final DurationHistogram latencies = new DurationHistogram(LATENCY_LIMITS_MILLIS);
+  private long errors;
+  private long requestBytes;
+  private long responseBytes;
+
+  public JiraOperationStatistics(String name) {
+    this.name = name;
+  }
+
+  public synchronized void record(long latencyMillis, boolean error, long sentBytes, long receivedBytes) {
+    latencies.add(latencyMillis);
+    if (error) {
+      errors++;
+    }
+    requestBytes += sentBytes;
+    responseBytes += receivedBytes;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public synchronized long getCalls() {
+    return latencies.count();
+  }
+
+  public synchronized long getErrors() {
+    return errors;
+  }
+
+  public synchronized double getMeanLatencyMillis() {
+    return latencies.mean();
+  }
+
+  public synchronized long getTotalLatencyMillis() {
+    return Math.round(latencies.mean() * latencies.count());
+  }
+
+  public synchronized double getLatency90thPercentileMillis() {
+    return latencies.percentile(90);
+  }
+
+  public synchronized double getLatency99thPercentileMillis() {
+    return latencies.percentile(99);
+  }
+
+  public synchronized long getMaxLatencyMillis() {
+    return Math.round(latencies.percentile(100));
+  }
+
+  public synchronized String getLatencyDistribution() {
+    return latencies.buildData(1L);
+  }
+
+  public synchronized long getRequestBytes() {
+    return requestBytes;
+  }
+
+  public synchronized long getResponseBytes() {
+    return responseBytes;
+  }
+}
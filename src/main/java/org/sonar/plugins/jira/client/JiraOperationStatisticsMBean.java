@@ -0,0 +1,49 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.client;
+
+/**
+ * Statistics of a JIRA operation published through JMX, see {@link JiraStatistics}.
+ */
+public interface JiraOperationStatisticsMBean {
+
+  String getName();
+
+  long getCalls();
+
+  long getErrors();
+
+  double getMeanLatencyMillis();
+
+  double getLatency90thPercentileMillis();
+
+  double getLatency99thPercentileMillis();
+
+  long getMaxLatencyMillis();
+
+  /**
+   * Number of calls by latency, for example <code>0=4;10=2;25=0</code> with the lower bounds of the buckets in milliseconds.
+   */
+  String getLatencyDistribution();
+
+  long getRequestBytes();
+
+  long getResponseBytes();
+}
@@ -0,0 +1,201 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.client;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraConstants;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the requests sent to a JIRA server by all the clients of the process: at most {@link JiraConstants#REQUESTS_MAX_PROPERTY}
+ * requests are in progress at the same time, and at most {@link JiraConstants#REQUESTS_RATE_PROPERTY} requests are sent per second,
+ * with bursts of one second of requests. Waiting requests are served in order of arrival, and the time spent waiting is recorded
+ * so that the limits can be tuned.
+ */
+public class JiraRequestLimiter {
+  private static final Logger LOG = LoggerFactory.getLogger(JiraRequestLimiter.class);
+
+  private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1L);
+  private static final ConcurrentMap<String, JiraRequestLimiter> LIMITERS = new ConcurrentHashMap<String, JiraRequestLimiter>();
+
+  private final String serverUrl;
+  private final Semaphore permits;
+  private final long intervalNanos;
+  private final long burstNanos;
+  private final ReentrantLock bucketLock = new ReentrantLock(true);
+  // theoretical time at which the next request could be sent if no burst was allowed
+  private long nextRequestNanos = Long.MIN_VALUE;
+
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong delayedRequests = new AtomicLong();
+  private final AtomicLong totalWaitNanos = new AtomicLong();
+  private final AtomicLong maxWaitNanos = new AtomicLong();
+
+  /**
+   * @param maxInFlight maximum number of requests in progress, unlimited if zero or negative
+   * @param requestsPerSecond maximum number of requests per second, unlimited if zero or negative
+   */
+  JiraRequestLimiter(String serverUrl, int maxInFlight, int requestsPerSecond) {
+    this.serverUrl = serverUrl;
+    this.permits = maxInFlight > 0 ? new Semaphore(maxInFlight, true) : null;
+    this.intervalNanos = requestsPerSecond > 0 ? SECOND_NANOS / requestsPerSecond : 0L;
+    this.burstNanos = requestsPerSecond > 0 ? (requestsPerSecond - 1) * intervalNanos : 0L;
+  }
+
+  /**
+   * Returns the limiter shared by the clients of the JIRA server of the settings.
+   */
+  public static JiraRequestLimiter get(Settings settings) {
+    String serverUrl = StringUtils.defaultString(settings.getString(JiraConstants.SERVER_URL_PROPERTY));
+    int maxInFlight = settings.getInt(JiraConstants.REQUESTS_MAX_PROPERTY);
+    int requestsPerSecond = settings.getInt(JiraConstants.REQUESTS_RATE_PROPERTY);
+    String key = serverUrl + "|" + maxInFlight + "|" + requestsPerSecond;
+    JiraRequestLimiter limiter = LIMITERS.get(key);
+    if (limiter == null) {
+      JiraRequestLimiter newLimiter = new JiraRequestLimiter(serverUrl, maxInFlight, requestsPerSecond);
+      limiter = LIMITERS.putIfAbsent(key, newLimiter);
+      if (limiter == null) {
+        limiter = newLimiter;
+      }
+    }
+    return limiter;
+  }
+
+  /**
+   * Waits until a request can be sent. It must be followed by {@link #release()} once the request is completed.
+   *
+   * @param deadline time after which the request must not be sent, zero if there is none
+   * @throws JiraUnavailableException if the request can not be sent before the deadline
+   */
+  public void acquire(long deadline) throws JiraUnavailableException {
+    long start = System.nanoTime();
+    boolean acquired = false;
+    try {
+      if (permits != null) {
+        if (deadline == 0L) {
+          permits.acquire();
+        } else if (!permits.tryAcquire(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+          throw deadlineExceeded();
+        }
+        acquired = true;
+      }
+      long waitNanos = reserve(System.nanoTime());
+      if (waitNanos > 0) {
+        if (deadline != 0L && System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(waitNanos) >= deadline) {
+          throw deadlineExceeded();
+        }
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+      }
+    } catch (InterruptedException e) {
+      release(acquired);
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting to send a JIRA request", e);
+    } catch (JiraUnavailableException e) {
+      release(acquired);
+      throw e;
+    }
+    record(System.nanoTime() - start);
+  }
+
+  public void release() {
+    release(permits != null);
+  }
+
+  private void release(boolean acquired) {
+    if (acquired) {
+      permits.release();
+    }
+  }
+
+  /**
+   * Takes a token from the bucket, or reserves the next one.
+   *
+   * @return the time to wait before sending the request, in nanoseconds
+   */
+  long reserve(long now) {
+    if (intervalNanos == 0L) {
+      return 0L;
+    }
+    bucketLock.lock();
+    try {
+      if (nextRequestNanos == Long.MIN_VALUE || nextRequestNanos - now < 0) {
+        nextRequestNanos = now;
+      }
+      long waitNanos = Math.max(0L, nextRequestNanos - burstNanos - now);
+      nextRequestNanos += intervalNanos;
+      return waitNanos;
+    } finally {
+      bucketLock.unlock();
+    }
+  }
+
+  private JiraUnavailableException deadlineExceeded() {
+    return new JiraUnavailableException("The time given to the JIRA requests of the analysis has run out while waiting for the request limits of "
+      + serverUrl + ", see " + JiraConstants.ANALYSIS_TIMEOUT_PROPERTY);
+  }
+
+  private void record(long waitNanos) {
+    requests.incrementAndGet();
+    if (waitNanos >= TimeUnit.MILLISECONDS.toNanos(1L)) {
+      delayedRequests.incrementAndGet();
+      totalWaitNanos.addAndGet(waitNanos);
+      long max = maxWaitNanos.get();
+      while (waitNanos > max && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+        max = maxWaitNanos.get();
+      }
+      LOG.trace("JIRA request delayed by {} ms", TimeUnit.NANOSECONDS.toMillis(waitNanos));
+    }
+  }
+
+  public String getServerUrl() {
+    return serverUrl;
+  }
+
+  /**
+   * Number of requests sent since the limiter was created.
+   */
+  public long getRequests() {
+    return requests.get();
+  }
+
+  /**
+   * Number of requests which waited at least one millisecond.
+   */
+  public long getDelayedRequests() {
+    return delayedRequests.get();
+  }
+
+  public long getTotalWaitMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get());
+  }
+
+  public long getMaxWaitMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+  }
+}
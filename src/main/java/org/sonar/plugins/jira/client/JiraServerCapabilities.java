@@ -0,0 +1,93 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.client;
+
+import com.atlassian.jira.rpc.soap.client.RemoteServerInfo;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.rmi.RemoteException;
+
+/**
+ * Features of the JIRA API that depend on the version of the JIRA server, so that calls which would fail on older
+ * servers are not even tried.
+ */
+public class JiraServerCapabilities {
+  private static final Logger LOG = LoggerFactory.getLogger(JiraServerCapabilities.class);
+
+  private final String version;
+  private final int[] versionNumbers;
+
+  /**
+   * @param version version of the JIRA server, for example "4.4.1", or <code>null</code> if unknown
+   */
+  public JiraServerCapabilities(String version) {
+    this.version = version;
+    this.versionNumbers = parse(version);
+  }
+
+  /**
+   * The version is unknown when the server can not give its information.
+   */
+  public static JiraServerCapabilities detect(JiraClient client) {
+    try {
+      RemoteServerInfo serverInfo = client.getServerInfo();
+      String version = serverInfo != null ? serverInfo.getVersion() : null;
+      LOG.debug("JIRA server version: {}", version);
+      return new JiraServerCapabilities(version);
+    } catch (RemoteException e) {
+      LOG.debug("Unable to get the JIRA server version", e);
+      return new JiraServerCapabilities(null);
+    }
+  }
+
+  public String getVersion() {
+    return version;
+  }
+
+  public boolean isVersionKnown() {
+    return versionNumbers != null;
+  }
+
+  /**
+   * getFavouriteFilters() replaces getSavedFilters() since JIRA 3.13. Assumed to be supported when the version is unknown.
+   */
+  public boolean hasFavouriteFilters() {
+    return isAtLeast(3, 13);
+  }
+
+  boolean isAtLeast(int major, int minor) {
+    if (versionNumbers == null) {
+      return true;
+    }
+    return versionNumbers[0] > major || (versionNumbers[0] == major && versionNumbers[1] >= minor);
+  }
+
+  private static int[] parse(String version) {
+    // qualifiers are ignored, for example "6.0-OD-09" or "5.2-m08"
+    String[] parts = StringUtils.split(StringUtils.substringBefore(StringUtils.trimToEmpty(version), "-"), '.');
+    if (parts.length == 0 || !StringUtils.isNumeric(parts[0])) {
+      return null;
+    }
+    int minor = parts.length > 1 && StringUtils.isNumeric(parts[1]) && parts[1].length() > 0 ? Integer.parseInt(parts[1]) : 0;
+    return new int[] {Integer.parseInt(parts[0]), minor};
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.client;
+
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Statistics of the operations called on a JIRA server. The statistics of the whole process are published as JMX MBeans
+ * named <code>org.sonar.plugins.jira:type=JiraOperation,server="&lt;url&gt;",name=&lt;operation&gt;</code>, other instances
+ * cover a single analysis.
+ */
+public class JiraStatistics {
+  private static final Logger LOG = LoggerFactory.getLogger(JiraStatistics.class);
+
+  static final String JMX_DOMAIN = "org.sonar.plugins.jira";
+  private static final long KB = 1024L;
+  private static final ConcurrentMap<String, JiraStatistics> SERVERS = new ConcurrentHashMap<String, JiraStatistics>();
+
+  private final String serverUrl;
+  private final boolean published;
+  private final ConcurrentMap<String, JiraOperationStatistics> operations = new ConcurrentHashMap<String, JiraOperationStatistics>();
+
+  /**
+   * Statistics which are not published through JMX.
+   */
+  public JiraStatistics(String serverUrl) {
+    this(serverUrl, false);
+  }
+
+  private JiraStatistics(String serverUrl, boolean published) {
+    this.serverUrl = serverUrl;
+    this.published = published;
+  }
+
+  /**
+   * Returns the statistics of all the calls made by the process to the server, which are published through JMX.
+   */
+  public static JiraStatistics get(String serverUrl) {
+    JiraStatistics statistics = SERVERS.get(serverUrl);
+    if (statistics == null) {
+      JiraStatistics newStatistics = new JiraStatistics(serverUrl, true);
+      statistics = SERVERS.putIfAbsent(serverUrl, newStatistics);
+      if (statistics == null) {
+        statistics = newStatistics;
+      }
+    }
+    return statistics;
+  }
+
+  /**
+   * Removes the MBeans of all the servers, when the plugin is not used anymore.
+   */
+  public static void unregisterAll() {
+    MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+    for (JiraStatistics statistics : SERVERS.values()) {
+      for (JiraOperationStatistics operation : statistics.operations.values()) {
+        try {
+          mbeanServer.unregisterMBean(getObjectName(statistics.serverUrl, operation.getName()));
+        } catch (JMException e) {
+          LOG.debug("Unable to unregister the MBean of " + operation.getName(), e);
+        }
+      }
+    }
+    SERVERS.clear();
+  }
+
+  public JiraOperationStatistics getOperation(String name) {
+    JiraOperationStatistics operation = operations.get(name);
+    if (operation == null) {
+      JiraOperationStatistics newOperation = new JiraOperationStatistics(name);
+      operation = operations.putIfAbsent(name, newOperation);
+      if (operation == null) {
+        operation = newOperation;
+        if (published) {
+          register(operation);
+        }
+      }
+    }
+    return operation;
+  }
+
+  /**
+   * Statistics of the operations called at least once, sorted by name.
+   */
+  public List<JiraOperationStatistics> getOperations() {
+    List<JiraOperationStatistics> result = Lists.newArrayList(operations.values());
+    Collections.sort(result, new Comparator<JiraOperationStatistics>() {
+      public int compare(JiraOperationStatistics left, JiraOperationStatistics right) {
+        return left.getName().compareTo(right.getName());
+      }
+    });
+    return result;
+  }
+
+  public String getServerUrl() {
+    return serverUrl;
+  }
+
+  /**
+   * One line summary, for example <code>getIssuesFromFilterWithLimit: 12 calls in 8400 ms, max 1200 ms, 1 errors, 5120 KB received</code>
+   * for each operation.
+   */
+  public String getSummary() {
+    StringBuilder summary = new StringBuilder();
+    for (JiraOperationStatistics operation : getOperations()) {
+      if (summary.length() > 0) {
+        summary.append("; ");
+      }
+      summary.append(operation.getName()).append(": ").append(operation.getCalls()).append(" calls in ").append(operation.getTotalLatencyMillis()).append(" ms");
+      if (operation.getCalls() > 1) {
+        summary.append(", max ").append(operation.getMaxLatencyMillis()).append(" ms");
+      }
+      if (operation.getErrors() > 0) {
+        summary.append(", ").append(operation.getErrors()).append(" errors");
+      }
+      if (operation.getResponseBytes() > 0) {
+        summary.append(", ").append((operation.getResponseBytes() + KB - 1) / KB).append(" KB received");
+      }
+    }
+    return summary.toString();
+  }
+
+  static ObjectName getObjectName(String serverUrl, String operation) throws JMException {
+    return new ObjectName(JMX_DOMAIN + ":type=JiraOperation,server=" + ObjectName.quote(serverUrl) + ",name=" + operation);
+  }
+
+  private void register(JiraOperationStatistics operation) {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(operation, getObjectName(serverUrl, operation.getName()));
+    } catch (JMException e) {
+      LOG.debug("Unable to register the MBean of " + operation.getName(), e);
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.client;
+
+import com.google.common.collect.ObjectArrays;
+import org.apache.commons.lang.StringUtils;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraConstants;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Records the number of calls, errors, latency and payload sizes of each operation of a client, in the statistics of the
+ * process published through JMX, and in the statistics of the analysis if any.
+ */
+public final class MeteredJiraClient implements InvocationHandler {
+
+  private final JiraClient client;
+  private final JiraStatistics[] statistics;
+
+  MeteredJiraClient(JiraClient client, JiraStatistics... statistics) {
+    this.client = client;
+    this.statistics = statistics;
+  }
+
+  public static JiraClient wrap(JiraClient client, Settings settings, JiraStatistics... analysisStatistics) {
+    JiraStatistics serverStatistics = JiraStatistics.get(StringUtils.defaultString(settings.getString(JiraConstants.SERVER_URL_PROPERTY)));
+    return wrap(new MeteredJiraClient(client, ObjectArrays.concat(serverStatistics, analysisStatistics)));
+  }
+
+  static JiraClient wrap(MeteredJiraClient handler) {
+    return (JiraClient) Proxy.newProxyInstance(JiraClient.class.getClassLoader(), new Class[] {JiraClient.class}, handler);
+  }
+
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    if (method.getDeclaringClass() == Object.class) {
+      return method.invoke(client, args);
+    }
+    PayloadCounter counter = PayloadCounter.start();
+    long start = System.nanoTime();
+    boolean failed = true;
+    try {
+      Object result = method.invoke(client, args);
+      failed = false;
+      return result;
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    } finally {
+      counter.stop();
+      long latencyMillis = (System.nanoTime() - start) / 1000000L;
+      for (JiraStatistics statistic : statistics) {
+        statistic.getOperation(method.getName()).record(latencyMillis, failed, counter.getSent(), counter.getReceived());
+      }
+    }
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes sent and received by the JIRA request in progress in the current thread, see {@link MeteredJiraClient}.
+ * Sizes are counted uncompressed, as requests are written and responses are parsed.
+ */
+public final class PayloadCounter {
+  private static final ThreadLocal<PayloadCounter> CURRENT = new ThreadLocal<PayloadCounter>();
+
+  private final PayloadCounter previous;
+  private long sent;
+  private long received;
+
+  private PayloadCounter(PayloadCounter previous) {
+    this.previous = previous;
+  }
+
+  static PayloadCounter start() {
+    PayloadCounter counter = new PayloadCounter(CURRENT.get());
+    CURRENT.set(counter);
+    return counter;
+  }
+
+  void stop() {
+    if (previous != null) {
+      CURRENT.set(previous);
+    } else {
+      CURRENT.remove();
+    }
+  }
+
+  long getSent() {
+    return sent;
+  }
+
+  long getReceived() {
+    return received;
+  }
+
+  /**
+   * Whether the size of the current request is counted, so that it is computed only when needed.
+   */
+  public static boolean isCounting() {
+    return CURRENT.get() != null;
+  }
+
+  public static void addSent(long bytes) {
+    PayloadCounter counter = CURRENT.get();
+    if (counter != null && bytes > 0) {
+      counter.sent += bytes;
+    }
+  }
+
+  /**
+   * Wraps the stream of a response, so that the bytes read from it are counted. The stream must be read by the thread
+   * of the request.
+   */
+  public static InputStream countReceived(InputStream input) {
+    PayloadCounter counter = CURRENT.get();
+    return counter == null || input == null ? input : new CountingInputStream(input, counter);
+  }
+
+  private static final class CountingInputStream extends FilterInputStream {
+    private final PayloadCounter counter;
+
+    CountingInputStream(InputStream input, PayloadCounter counter) {
+      super(input);
+      this.counter = counter;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        counter.received++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int count = super.read(b, off, len);
+      if (count > 0) {
+        counter.received += count;
+      }
+      return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long count = super.skip(n);
+      counter.received += count;
+      return count;
+    }
+  }
+}
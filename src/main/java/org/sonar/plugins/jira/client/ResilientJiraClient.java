@@ -0,0 +1,233 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.client;
+
+import com.atlassian.jira.rpc.soap.client.RemoteIssue;
+import com.google.common.collect.ImmutableSet;
+import org.apache.axis.AxisFault;
+import org.apache.axis.Constants;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.NoHttpResponseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.rest.HttpStatusException;
+import org.w3c.dom.Element;
+
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.SocketException;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Protects the analyses from an unavailable or slow JIRA server. Requests which could not reach the server, timed out or were
+ * rejected by an overloaded server are sent again after a jittered exponential backoff, at most {@link JiraConstants#RETRY_MAX_PROPERTY}
+ * times. Requests are not sent while the {@link JiraCircuitBreaker} of the server is open, nor once the deadline is reached, and
+ * wait for the {@link JiraRequestLimiter} of the server. A request reading issues gives its permit back before the first issue is
+ * handled, as the handler may send requests itself and wait for them.
+ */
+public final class ResilientJiraClient implements InvocationHandler {
+  private static final Logger LOG = LoggerFactory.getLogger(ResilientJiraClient.class);
+
+  public static final long NO_DEADLINE = 0L;
+
+  static final long BASE_DELAY_MILLIS = 500L;
+  private static final long MAX_DELAY_MILLIS = 8000L;
+  private static final int MAX_CAUSES = 10;
+  // an issue or a comment must never be created twice, and a lost logout does no harm
+  private static final Set<String> NOT_RETRIED = ImmutableSet.of("createIssue", "addComment", "disconnect");
+
+  private final JiraClient client;
+  private final int maxRetries;
+  private final long baseDelayMillis;
+  private final JiraCircuitBreaker breaker;
+  private final JiraRequestLimiter limiter;
+  private final long deadline;
+  private final Random random = new Random();
+
+  ResilientJiraClient(JiraClient client, int maxRetries, long baseDelayMillis, JiraCircuitBreaker breaker, JiraRequestLimiter limiter, long deadline) {
+    this.client = client;
+    this.maxRetries = Math.max(0, maxRetries);
+    this.baseDelayMillis = baseDelayMillis;
+    this.breaker = breaker;
+    this.limiter = limiter;
+    this.deadline = deadline;
+  }
+
+  /**
+   * @param deadline time after which no request is sent, or {@link #NO_DEADLINE}
+   */
+  public static JiraClient wrap(JiraClient client, Settings settings, long deadline) {
+    return wrap(new ResilientJiraClient(client, settings.getInt(JiraConstants.RETRY_MAX_PROPERTY), BASE_DELAY_MILLIS, JiraCircuitBreaker.get(settings),
+      JiraRequestLimiter.get(settings), deadline));
+  }
+
+  static JiraClient wrap(ResilientJiraClient handler) {
+    return (JiraClient) Proxy.newProxyInstance(JiraClient.class.getClassLoader(), new Class[] {JiraClient.class}, handler);
+  }
+
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    if (method.getDeclaringClass() == Object.class) {
+      return invokeObjectMethod(proxy, method, args);
+    }
+    Object[] callArgs = args;
+    CountingHandler handler = null;
+    if (args != null && args.length > 0 && args[args.length - 1] instanceof RemoteIssueHandler) {
+      // issues already given to the handler would be counted twice if the request was sent again
+      handler = new CountingHandler((RemoteIssueHandler) args[args.length - 1]);
+      callArgs = args.clone();
+      callArgs[args.length - 1] = handler;
+    }
+    int attempt = 0;
+    while (true) {
+      long now = System.currentTimeMillis();
+      checkDeadline(now);
+      breaker.check(now);
+      Throwable error;
+      limiter.acquire(deadline);
+      if (handler != null) {
+        handler.holdsPermit = true;
+      }
+      try {
+        Object result = method.invoke(client, callArgs);
+        breaker.recordSuccess();
+        return result;
+      } catch (InvocationTargetException e) {
+        error = e.getCause();
+      } finally {
+        if (handler == null || handler.holdsPermit) {
+          limiter.release();
+        }
+      }
+      if (!isTransient(error)) {
+        if (error instanceof Exception && !(error instanceof RuntimeException)) {
+          // the server answered
+          breaker.recordSuccess();
+        }
+        throw error;
+      }
+      breaker.recordFailure(System.currentTimeMillis());
+      boolean retryable = !NOT_RETRIED.contains(method.getName()) && (handler == null || handler.count == 0);
+      if (!retryable || attempt >= maxRetries || !backoff(method, attempt, error)) {
+        throw error;
+      }
+      attempt++;
+    }
+  }
+
+  private void checkDeadline(long now) throws JiraUnavailableException {
+    if (deadline != NO_DEADLINE && now >= deadline) {
+      throw new JiraUnavailableException("The time given to the JIRA requests of the analysis has run out, see " + JiraConstants.ANALYSIS_TIMEOUT_PROPERTY);
+    }
+  }
+
+  /**
+   * @return false if the request must not be sent again, because the deadline would be exceeded or the server is unavailable
+   */
+  private boolean backoff(Method method, int attempt, Throwable error) {
+    long delay = Math.min(MAX_DELAY_MILLIS, baseDelayMillis << Math.min(attempt, 20));
+    // half of the delay is random, so that the clients which failed together do not retry together
+    long sleep = delay / 2 + (long) (random.nextDouble() * (delay / 2));
+    long now = System.currentTimeMillis();
+    if ((deadline != NO_DEADLINE && now + sleep >= deadline) || breaker.isOpen(now)) {
+      return false;
+    }
+    LOG.debug("JIRA request " + method.getName() + " failed, sending it again in " + sleep + " ms", error);
+    try {
+      Thread.sleep(sleep);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting to send a JIRA request again", e);
+    }
+    return true;
+  }
+
+  /**
+   * Errors of the connection, timeouts, and the HTTP statuses of overloaded servers or proxies.
+   */
+  static boolean isTransient(Throwable error) {
+    Throwable cause = error;
+    for (int i = 0; cause != null && i < MAX_CAUSES; i++) {
+      if (cause instanceof JiraUnavailableException) {
+        return false;
+      }
+      if (cause instanceof InterruptedIOException || cause instanceof SocketException || cause instanceof NoHttpResponseException) {
+        return true;
+      }
+      if (cause instanceof HttpStatusException) {
+        return isTransientStatus(((HttpStatusException) cause).getStatus());
+      }
+      if (cause instanceof AxisFault) {
+        Element status = ((AxisFault) cause).lookupFaultDetail(Constants.QNAME_FAULTDETAIL_HTTPERRORCODE);
+        if (status != null && status.getTextContent() != null) {
+          return isTransientStatus(parseStatus(status.getTextContent()));
+        }
+      }
+      cause = cause.getCause() != cause ? cause.getCause() : null;
+    }
+    return false;
+  }
+
+  private static boolean isTransientStatus(int status) {
+    return status == HttpStatus.SC_BAD_GATEWAY || status == HttpStatus.SC_SERVICE_UNAVAILABLE || status == HttpStatus.SC_GATEWAY_TIMEOUT;
+  }
+
+  private static int parseStatus(String status) {
+    try {
+      return Integer.parseInt(status.trim());
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  private Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+    if ("equals".equals(method.getName())) {
+      return proxy == args[0];
+    }
+    if ("hashCode".equals(method.getName())) {
+      return System.identityHashCode(proxy);
+    }
+    return client.toString();
+  }
+
+  private final class CountingHandler implements RemoteIssueHandler {
+    private final RemoteIssueHandler handler;
+    private int count;
+    private boolean holdsPermit;
+
+    CountingHandler(RemoteIssueHandler handler) {
+      this.handler = handler;
+    }
+
+    public void handle(RemoteIssue issue) {
+      if (holdsPermit) {
+        holdsPermit = false;
+        limiter.release();
+      }
+      count++;
+      handler.handle(issue);
+    }
+  }
+}
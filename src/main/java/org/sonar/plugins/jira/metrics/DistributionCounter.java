@@ -0,0 +1,188 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.metrics;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * Counts issues by the value of one of their fields, for example the priority id.
+ * <p/>
+ * Each distinct value is given a dense index the first time it is seen, and issues are counted in an <code>int</code> array,
+ * so that counting an issue allocates nothing. Issues without value are only counted in the total.
+ */
+public class DistributionCounter {
+
+  private static final int INITIAL_CAPACITY = 8;
+
+  // distinct values and their counts, by index
+  private String[] values = new String[INITIAL_CAPACITY];
+  private int[] counts = new int[INITIAL_CAPACITY];
+  private int size;
+  private int total;
+
+  // open addressing hash table from value to index + 1, 0 marks a free slot
+  private String[] slotValues = new String[INITIAL_CAPACITY * 2];
+  private int[] slotIndexes = new int[INITIAL_CAPACITY * 2];
+
+  public void add(String value) {
+    add(value, 1);
+  }
+
+  public void add(String value, int count) {
+    total += count;
+    if (value != null) {
+      // indexOf may grow the counts array, it must be called before the array is read
+      int index = indexOf(value);
+      counts[index] += count;
+    }
+  }
+
+  /**
+   * Number of issues, including the ones without value.
+   */
+  public int total() {
+    return total;
+  }
+
+  /**
+   * Number of distinct values.
+   */
+  public int size() {
+    return size;
+  }
+
+  public int count(String value) {
+    if (value == null) {
+      return 0;
+    }
+    int slot = findSlot(value, slotValues);
+    return slotIndexes[slot] == 0 ? 0 : counts[slotIndexes[slot] - 1];
+  }
+
+  public String value(int index) {
+    return values[index];
+  }
+
+  public int count(int index) {
+    return counts[index];
+  }
+
+  /**
+   * Builds the measure data, for example <code>Blocker=2;Minor=4</code>, sorted by name like {@link org.sonar.api.measures.PropertiesBuilder}.
+   * The counts of the values with the same name are added up, and the <code>=</code> and <code>;</code> of names are
+   * replaced by <code>:</code> and <code>,</code>.
+   *
+   * @param names names of the values, the value itself is used when its name is unknown
+   */
+  public String buildData(Map<String, String> names) {
+    String[] labels = new String[size];
+    Integer[] order = new Integer[size];
+    for (int i = 0; i < size; i++) {
+      String name = names.get(values[i]);
+      labels[i] = escape(name != null ? name : values[i]);
+      order[i] = i;
+    }
+    Arrays.sort(order, new LabelComparator(labels));
+    StringBuilder data = new StringBuilder(size * 16);
+    int i = 0;
+    while (i < size) {
+      // values with the same name, like two priorities named alike, are counted under a single label
+      String label = labels[order[i]];
+      int count = 0;
+      while (i < size && labels[order[i]].equals(label)) {
+        count += counts[order[i]];
+        i++;
+      }
+      if (data.length() > 0) {
+        data.append(';');
+      }
+      data.append(label).append('=').append(count);
+    }
+    return data.toString();
+  }
+
+  /**
+   * Component and assignee names are free text, the separators of the measure data would break it.
+   */
+  private static String escape(String label) {
+    return StringUtils.replaceChars(label, "=;", ":,");
+  }
+
+  private int indexOf(String value) {
+    int slot = findSlot(value, slotValues);
+    int index = slotIndexes[slot] - 1;
+    if (index < 0) {
+      index = size;
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+        counts = Arrays.copyOf(counts, size * 2);
+      }
+      values[index] = value;
+      size++;
+      slotValues[slot] = value;
+      slotIndexes[slot] = index + 1;
+      if (size * 2 > slotValues.length) {
+        rehash();
+      }
+    }
+    return index;
+  }
+
+  private static int findSlot(String value, String[] table) {
+    int mask = table.length - 1;
+    int slot = spread(value.hashCode()) & mask;
+    while (table[slot] != null && !table[slot].equals(value)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void rehash() {
+    String[] newSlotValues = new String[slotValues.length * 2];
+    int[] newSlotIndexes = new int[slotIndexes.length * 2];
+    for (int i = 0; i < size; i++) {
+      int slot = findSlot(values[i], newSlotValues);
+      newSlotValues[slot] = values[i];
+      newSlotIndexes[slot] = i + 1;
+    }
+    slotValues = newSlotValues;
+    slotIndexes = newSlotIndexes;
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  private static final class LabelComparator implements Comparator<Integer> {
+    private final String[] labels;
+
+    LabelComparator(String[] labels) {
+      this.labels = labels;
+    }
+
+    public int compare(Integer left, Integer right) {
+      return labels[left].compareTo(labels[right]);
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.metrics;
+
+/**
+ * Histogram of durations in fixed buckets, with the mean and an estimate of percentiles, filled one duration at a time.
+ * Memory usage does not depend on the number of durations.
+ */
+public class DurationHistogram {
+
+  // lower bounds of the buckets, the last bucket has no upper bound
+  private final long[] bottomLimits;
+  private final int[] counts;
+  private int count;
+  private double sum;
+  private long max;
+
+  /**
+   * @param bottomLimits increasing lower bounds of the buckets, the first one should be zero
+   */
+  public DurationHistogram(long... bottomLimits) {
+    this.bottomLimits = bottomLimits.clone();
+    this.counts = new int[bottomLimits.length];
+  }
+
+  /**
+   * Negative durations, caused by clock differences, are counted as zero.
+   */
+  public void add(long duration) {
+    long value = Math.max(0L, duration);
+    int bucket = bottomLimits.length - 1;
+    while (bucket > 0 && value < bottomLimits[bucket]) {
+      bucket--;
+    }
+    counts[bucket]++;
+    count++;
+    sum += value;
+    max = Math.max(max, value);
+  }
+
+  public int count() {
+    return count;
+  }
+
+  public int count(int bucket) {
+    return counts[bucket];
+  }
+
+  public double mean() {
+    return count == 0 ? 0.0 : sum / count;
+  }
+
+  /**
+   * Estimates the percentile by linear interpolation inside the bucket that contains it.
+   *
+   * @param percent between 0 and 100
+   */
+  public double percentile(double percent) {
+    if (count == 0) {
+      return 0.0;
+    }
+    double rank = count * percent / 100.0;
+    int cumulated = 0;
+    for (int bucket = 0; bucket < counts.length; bucket++) {
+      if (counts[bucket] > 0 && cumulated + counts[bucket] >= rank) {
+        long bottom = bottomLimits[bucket];
+        long top = bucket + 1 < bottomLimits.length ? Math.min(bottomLimits[bucket + 1], max) : max;
+        return bottom + (top - bottom) * (rank - cumulated) / counts[bucket];
+      }
+      cumulated += counts[bucket];
+    }
+    return max;
+  }
+
+  /**
+   * Builds the measure data in the format of {@link org.sonar.api.measures.RangeDistributionBuilder}, for
+   * example <code>0=4;1=2;7=0</code>, with the lower bounds of the buckets expressed in the given unit.
+   */
+  public String buildData(long unit) {
+    StringBuilder data = new StringBuilder(counts.length * 8);
+    for (int bucket = 0; bucket < counts.length; bucket++) {
+      if (bucket > 0) {
+        data.append(';');
+      }
+      data.append(bottomLimits[bucket] / unit).append('=').append(counts[bucket]);
+    }
+    return data.toString();
+  }
+}
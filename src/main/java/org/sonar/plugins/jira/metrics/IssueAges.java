@@ -0,0 +1,186 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.metrics;
+
+import com.atlassian.jira.rpc.soap.client.RemoteIssue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.jira.cache.JiraIssueSnapshot;
+import org.sonar.plugins.jira.cache.ResolutionDateCache;
+import org.sonar.plugins.jira.client.JiraClient;
+import org.sonar.plugins.jira.client.RemoteIssueHandler;
+
+import java.util.Calendar;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Age of the unresolved issues and time needed to resolve the resolved ones, computed while the issues are read.
+ * <p/>
+ * The JIRA API only gives the resolution date issue by issue, so missing dates are requested on the given executor while
+ * the next issues are read, and kept in a cache until the issue is updated again. The number of requests in flight is
+ * bounded, so that reading the issues waits for the requests instead of queuing one task per resolved issue, and each
+ * request adds its result as soon as it completes.
+ */
+public class IssueAges implements RemoteIssueHandler {
+  private static final Logger LOG = LoggerFactory.getLogger(IssueAges.class);
+
+  public static final long HOUR = 60L * 60L * 1000L;
+  public static final long DAY = 24L * HOUR;
+
+  private static final long[] AGE_LIMITS = {0L, DAY, 7 * DAY, 30 * DAY, 90 * DAY, 180 * DAY, 365 * DAY};
+  private static final long[] RESOLUTION_TIME_LIMITS = {0L, HOUR, 2 * HOUR, 4 * HOUR, 8 * HOUR, DAY, 2 * DAY, 3 * DAY, 5 * DAY, 7 * DAY, 10 * DAY,
+    14 * DAY, 21 * DAY, 30 * DAY, 45 * DAY, 60 * DAY, 90 * DAY, 120 * DAY, 180 * DAY, 270 * DAY, 365 * DAY, 730 * DAY};
+
+  private final long now;
+  private final JiraClient client;
+  private final ExecutorService executor;
+  private final ResolutionDateCache resolutionDates;
+  private final int maxPending;
+  private final Semaphore pending;
+  private final DurationHistogram ages = new DurationHistogram(AGE_LIMITS);
+  // written by the resolution requests, guarded by the lock
+  private final Object lock = new Object();
+  private final DurationHistogram resolutionTimes = new DurationHistogram(RESOLUTION_TIME_LIMITS);
+  private int requests;
+  private int failures;
+
+  /**
+   * @param executor   executor of the resolution date requests, its number of threads bounds the number of concurrent
+   *                   requests. Resolution times are not computed if <code>null</code>.
+   * @param maxPending maximum number of resolution date requests submitted to the executor and not completed yet
+   */
+  public IssueAges(long now, JiraClient client, ExecutorService executor, ResolutionDateCache resolutionDates, int maxPending) {
+    this.now = now;
+    this.client = client;
+    this.executor = executor;
+    this.resolutionDates = resolutionDates;
+    this.maxPending = Math.max(1, maxPending);
+    this.pending = new Semaphore(this.maxPending);
+  }
+
+  public void handle(RemoteIssue issue) {
+    add(issue.getKey(), getTime(issue.getCreated()), issue.getResolution(), getTime(issue.getUpdated()));
+  }
+
+  public void add(JiraIssueSnapshot.Entry entry) {
+    add(entry.getKey(), entry.getCreated(), entry.getResolution(), entry.getUpdated());
+  }
+
+  private void add(final String key, long created, String resolution, long updated) {
+    if (created == 0L) {
+      return;
+    }
+    if (resolution == null) {
+      ages.add(now - created);
+    } else if (executor != null) {
+      synchronized (lock) {
+        Long resolutionDate = resolutionDates.get(key, updated);
+        if (resolutionDate != null) {
+          resolutionTimes.add(resolutionDate - created);
+          return;
+        }
+        requests++;
+      }
+      acquire(1);
+      try {
+        executor.execute(new ResolutionRequest(key, created, updated));
+      } catch (RejectedExecutionException e) {
+        pending.release();
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Waits for the requested resolution dates. Issues whose resolution date can not be loaded are ignored.
+   */
+  public void complete() {
+    acquire(maxPending);
+    pending.release(maxPending);
+    synchronized (lock) {
+      if (failures > 0) {
+        LOG.warn("Unable to load the resolution date of {} JIRA issues, they are not taken into account", failures);
+      }
+      LOG.debug("{} JIRA resolution dates requested", requests);
+      requests = 0;
+      failures = 0;
+    }
+  }
+
+  private void acquire(int permits) {
+    try {
+      pending.acquire(permits);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for JIRA", e);
+    }
+  }
+
+  /**
+   * Ages of the unresolved issues.
+   */
+  public DurationHistogram getAges() {
+    return ages;
+  }
+
+  /**
+   * Time between the creation and the resolution of the resolved issues.
+   */
+  public DurationHistogram getResolutionTimes() {
+    return resolutionTimes;
+  }
+
+  private static long getTime(Calendar calendar) {
+    return calendar != null ? calendar.getTimeInMillis() : 0L;
+  }
+
+  private final class ResolutionRequest implements Runnable {
+    private final String key;
+    private final long created;
+    private final long updated;
+
+    ResolutionRequest(String key, long created, long updated) {
+      this.key = key;
+      this.created = created;
+      this.updated = updated;
+    }
+
+    public void run() {
+      try {
+        Calendar resolutionDate = client.getResolutionDateByKey(key);
+        if (resolutionDate != null) {
+          synchronized (lock) {
+            resolutionDates.put(key, updated, resolutionDate.getTimeInMillis());
+            resolutionTimes.add(resolutionDate.getTimeInMillis() - created);
+          }
+        }
+      } catch (Exception e) {
+        LOG.debug("Unable to load the resolution date of " + key, e);
+        synchronized (lock) {
+          failures++;
+        }
+      } finally {
+        pending.release();
+      }
+    }
+  }
+}
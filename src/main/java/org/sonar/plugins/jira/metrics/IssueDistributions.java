@@ -0,0 +1,102 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.metrics;
+
+import com.atlassian.jira.rpc.soap.client.RemoteComponent;
+import com.atlassian.jira.rpc.soap.client.RemoteIssue;
+import org.sonar.plugins.jira.cache.JiraIssueSnapshot;
+import org.sonar.plugins.jira.client.RemoteIssueHandler;
+
+/**
+ * Distributions of issues by priority, status, type, component and assignee, filled in a single pass over the issues.
+ * An issue with several components is counted once for each of them.
+ */
+public class IssueDistributions implements RemoteIssueHandler {
+
+  private final DistributionCounter priorities = new DistributionCounter();
+  private final DistributionCounter statuses = new DistributionCounter();
+  private final DistributionCounter types = new DistributionCounter();
+  private final DistributionCounter components = new DistributionCounter();
+  private final DistributionCounter assignees = new DistributionCounter();
+
+  public void handle(RemoteIssue issue) {
+    priorities.add(issue.getPriority());
+    statuses.add(issue.getStatus());
+    types.add(issue.getType());
+    assignees.add(issue.getAssignee());
+    RemoteComponent[] issueComponents = issue.getComponents();
+    if (issueComponents == null || issueComponents.length == 0) {
+      components.add(null);
+    } else {
+      for (RemoteComponent component : issueComponents) {
+        components.add(component.getName());
+      }
+    }
+  }
+
+  public void add(JiraIssueSnapshot.Entry entry) {
+    priorities.add(entry.getPriority());
+    statuses.add(entry.getStatus());
+    types.add(entry.getType());
+    assignees.add(entry.getAssignee());
+    if (entry.getComponents().length == 0) {
+      components.add(null);
+    } else {
+      for (String component : entry.getComponents()) {
+        components.add(component);
+      }
+    }
+  }
+
+  /**
+   * Number of issues by priority id. Its total is the number of issues.
+   */
+  public DistributionCounter getPriorities() {
+    return priorities;
+  }
+
+  /**
+   * Number of issues by status id.
+   */
+  public DistributionCounter getStatuses() {
+    return statuses;
+  }
+
+  /**
+   * Number of issues by issue type id.
+   */
+  public DistributionCounter getTypes() {
+    return types;
+  }
+
+  /**
+   * Number of issues by component name.
+   */
+  public DistributionCounter getComponents() {
+    return components;
+  }
+
+  /**
+   * Number of issues by assignee login.
+   */
+  public DistributionCounter getAssignees() {
+    return assignees;
+  }
+}
@@ -37,8 +37,66 @@ public final class JiraMetrics implements Metrics {
       .setDomain(ISSUES_DOMAIN)
       .create();
 
+  public static final String ISSUES_BY_STATUS_KEY = "issues_by_status";
+  public static final Metric ISSUES_BY_STATUS = new Metric.Builder(ISSUES_BY_STATUS_KEY, "JIRA Issues by status", Metric.ValueType.DATA)
+      .setDescription("Distribution of JIRA Issues by status")
+      .setDirection(Metric.DIRECTION_NONE)
+      .setQualitative(false)
+      .setDomain(ISSUES_DOMAIN)
+      .create();
+
+  public static final String ISSUES_BY_TYPE_KEY = "issues_by_type";
+  public static final Metric ISSUES_BY_TYPE = new Metric.Builder(ISSUES_BY_TYPE_KEY, "JIRA Issues by type", Metric.ValueType.DATA)
+      .setDescription("Distribution of JIRA Issues by issue type")
+      .setDirection(Metric.DIRECTION_NONE)
+      .setQualitative(false)
+      .setDomain(ISSUES_DOMAIN)
+      .create();
+
+  public static final String ISSUES_BY_COMPONENT_KEY = "issues_by_component";
+  public static final Metric ISSUES_BY_COMPONENT = new Metric.Builder(ISSUES_BY_COMPONENT_KEY, "JIRA Issues by component", Metric.ValueType.DATA)
+      .setDescription("Distribution of JIRA Issues by component")
+      .setDirection(Metric.DIRECTION_NONE)
+      .setQualitative(false)
+      .setDomain(ISSUES_DOMAIN)
+      .create();
+
+  public static final String ISSUES_BY_ASSIGNEE_KEY = "issues_by_assignee";
+  public static final Metric ISSUES_BY_ASSIGNEE = new Metric.Builder(ISSUES_BY_ASSIGNEE_KEY, "JIRA Issues by assignee", Metric.ValueType.DATA)
+      .setDescription("Distribution of JIRA Issues by assignee")
+      .setDirection(Metric.DIRECTION_NONE)
+      .setQualitative(false)
+      .setDomain(ISSUES_DOMAIN)
+      .create();
+
+  public static final String ISSUES_AGE_DISTRIBUTION_KEY = "issues_age_distribution";
+  public static final Metric ISSUES_AGE_DISTRIBUTION = new Metric.Builder(ISSUES_AGE_DISTRIBUTION_KEY, "JIRA Issues age distribution", Metric.ValueType.DATA)
+      .setDescription("Distribution of the age in days of unresolved JIRA Issues")
+      .setDirection(Metric.DIRECTION_NONE)
+      .setQualitative(false)
+      .setDomain(ISSUES_DOMAIN)
+      .create();
+
+  public static final String ISSUES_RESOLUTION_TIME_KEY = "issues_resolution_time";
+  public static final Metric ISSUES_RESOLUTION_TIME = new Metric.Builder(ISSUES_RESOLUTION_TIME_KEY, "JIRA Issues resolution time", Metric.ValueType.FLOAT)
+      .setDescription("Mean number of days needed to resolve JIRA Issues")
+      .setDirection(Metric.DIRECTION_WORST)
+      .setQualitative(false)
+      .setDomain(ISSUES_DOMAIN)
+      .create();
+
+  public static final String ISSUES_RESOLUTION_TIME_P90_KEY = "issues_resolution_time_p90";
+  public static final Metric ISSUES_RESOLUTION_TIME_P90 = new Metric.Builder(ISSUES_RESOLUTION_TIME_P90_KEY, "JIRA Issues resolution time (90%)",
+      Metric.ValueType.FLOAT)
+      .setDescription("Number of days needed to resolve 90% of JIRA Issues")
+      .setDirection(Metric.DIRECTION_WORST)
+      .setQualitative(false)
+      .setDomain(ISSUES_DOMAIN)
+      .create();
+
   public List<Metric> getMetrics() {
-    return Arrays.asList(ISSUES);
+    return Arrays.asList(ISSUES, ISSUES_BY_STATUS, ISSUES_BY_TYPE, ISSUES_BY_COMPONENT, ISSUES_BY_ASSIGNEE,
+        ISSUES_AGE_DISTRIBUTION, ISSUES_RESOLUTION_TIME, ISSUES_RESOLUTION_TIME_P90);
   }
 
 }
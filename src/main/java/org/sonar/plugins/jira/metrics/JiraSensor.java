@@ -20,29 +20,53 @@
 
 package org.sonar.plugins.jira.metrics;
 
-import com.atlassian.jira.rpc.soap.client.JiraSoapService;
+import com.atlassian.jira.rpc.soap.client.AbstractRemoteConstant;
 import com.atlassian.jira.rpc.soap.client.RemoteFilter;
 import com.atlassian.jira.rpc.soap.client.RemoteIssue;
-import com.atlassian.jira.rpc.soap.client.RemotePriority;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sonar.api.Properties;
 import org.sonar.api.Property;
+import org.sonar.api.PropertyType;
 import org.sonar.api.batch.Sensor;
 import org.sonar.api.batch.SensorContext;
 import org.sonar.api.config.Settings;
 import org.sonar.api.measures.Measure;
-import org.sonar.api.measures.PropertiesBuilder;
 import org.sonar.api.resources.Project;
+import org.sonar.api.utils.TimeProfiler;
 import org.sonar.plugins.jira.JiraConstants;
-import org.sonar.plugins.jira.soap.JiraSoapSession;
+import org.sonar.plugins.jira.cache.JiraIssueSnapshot;
+import org.sonar.plugins.jira.cache.JiraMetadataCache;
+import org.sonar.plugins.jira.cache.ResolutionDateCache;
+import org.sonar.plugins.jira.client.JiraClient;
+import org.sonar.plugins.jira.client.JiraClientFactory;
+import org.sonar.plugins.jira.client.JiraRequestLimiter;
+import org.sonar.plugins.jira.client.JiraServerCapabilities;
+import org.sonar.plugins.jira.client.JiraStatistics;
+import org.sonar.plugins.jira.client.JiraUnavailableException;
+import org.sonar.plugins.jira.client.MeteredJiraClient;
+import org.sonar.plugins.jira.client.RemoteIssueHandler;
+import org.sonar.plugins.jira.client.ResilientJiraClient;
 
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.rmi.RemoteException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
 
 @Properties({
   @Property(
@@ -53,15 +77,112 @@ import java.util.Map;
     global = false,
     project = true,
     module = true
+  ),
+  @Property(
+    key = JiraConstants.JQL_PROPERTY,
+    defaultValue = "",
+    name = "JQL query",
+    description = "JQL query selecting the issues to count, used instead of the filter when defined. "
+      + "Example : project = SONAR AND resolution = Unresolved",
+    global = false,
+    project = true,
+    module = true
+  ),
+  @Property(
+    key = JiraConstants.PAGE_SIZE_PROPERTY,
+    defaultValue = JiraConstants.PAGE_SIZE_DEF_VALUE,
+    name = "Page size",
+    description = "Number of issues downloaded per request when the issues of the filter have to be downloaded. "
+      + "Set to 0 to download all of them in a single request.",
+    global = true,
+    project = true,
+    module = true,
+    type = PropertyType.INTEGER
+  ),
+  @Property(
+    key = JiraConstants.SERVER_SIDE_COUNT_PROPERTY,
+    defaultValue = "true",
+    name = "Server-side counting",
+    description = "Count issues by priority with count-only queries instead of downloading all the issues of the filter. "
+      + "Issues are still downloaded when the JIRA server does not support these queries. "
+      + "The distributions by status, type, component, assignee and age and the resolution time are only computed when issues are downloaded.",
+    global = true,
+    project = true,
+    module = false,
+    type = PropertyType.BOOLEAN
+  ),
+  @Property(
+    key = JiraConstants.STREAMING_PROPERTY,
+    defaultValue = "false",
+    name = "Streaming download",
+    description = "Read the downloaded issues as they are received, keeping only the fields used by the metrics, "
+      + "instead of decoding the complete issues with the SOAP client. Reduces the memory and CPU used by large filters.",
+    global = true,
+    project = true,
+    module = false,
+    type = PropertyType.BOOLEAN
+  ),
+  @Property(
+    key = JiraConstants.INCREMENTAL_PROPERTY,
+    defaultValue = "false",
+    name = "Incremental synchronization",
+    description = "Keep a local snapshot of the issues and only download the issues updated since the previous analysis. "
+      + "Takes precedence over server-side counting.",
+    global = true,
+    project = true,
+    module = false,
+    type = PropertyType.BOOLEAN
+  ),
+  @Property(
+    key = JiraConstants.INCREMENTAL_RESYNC_PROPERTY,
+    defaultValue = JiraConstants.INCREMENTAL_RESYNC_DEF_VALUE,
+    name = "Full synchronization period",
+    description = "Number of days after which all the issues are downloaded again to refresh the local snapshot, "
+      + "as issues deleted from JIRA can not be detected otherwise.",
+    global = true,
+    project = true,
+    module = false,
+    type = PropertyType.INTEGER
+  ),
+  @Property(
+    key = JiraConstants.RESOLUTION_THREADS_PROPERTY,
+    defaultValue = JiraConstants.RESOLUTION_THREADS_DEF_VALUE,
+    name = "Resolution date requests",
+    description = "Maximum number of concurrent requests loading the resolution dates of resolved issues, which are needed to compute "
+      + "the resolution time. Resolution dates are cached until the issue is updated. Set to 0 to disable the resolution time.",
+    global = true,
+    project = true,
+    module = false,
+    type = PropertyType.INTEGER
+  ),
+  @Property(
+    key = JiraConstants.ANALYSIS_TIMEOUT_PROPERTY,
+    defaultValue = JiraConstants.ANALYSIS_TIMEOUT_DEF_VALUE,
+    name = "Analysis timeout",
+    description = "Maximum number of seconds spent sending requests to JIRA during an analysis, after which the JIRA measures are not saved. "
+      + "Set to 0 to disable this timeout.",
+    global = true,
+    project = true,
+    module = false,
+    type = PropertyType.INTEGER
   )
 })
 public class JiraSensor implements Sensor {
   private static final Logger LOG = LoggerFactory.getLogger(JiraSensor.class);
+  private static final long MINUTE = 60L * 1000L;
+  private static final long DAY = 24L * 60L * MINUTE;
+  private static final int SYNC_MARGIN_MINUTES = 2;
+  private static final String SERVER_VERSION = "version";
+  private static final Pattern ORDER_BY = Pattern.compile("\\s*\\bORDER\\s+BY\\b.*$", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+  // versions of the JIRA servers by server URL, kept for the modules and projects analysed by the same JVM
+  private static final ConcurrentMap<String, String> SERVER_VERSIONS = Maps.newConcurrentMap();
 
   private final Settings settings;
+  private final JiraMetadataCache metadataCache;
 
   public JiraSensor(Settings settings) {
     this.settings = settings;
+    this.metadataCache = JiraMetadataCache.create(settings);
   }
 
   private String getServerUrl() {
@@ -80,6 +201,39 @@ public class JiraSensor implements Sensor {
     return settings.getString(JiraConstants.FILTER_PROPERTY);
   }
 
+  private String getJql() {
+    return settings.getString(JiraConstants.JQL_PROPERTY);
+  }
+
+  private boolean isJqlQuery() {
+    return StringUtils.isNotBlank(getJql());
+  }
+
+  private int getPageSize() {
+    return settings.getInt(JiraConstants.PAGE_SIZE_PROPERTY);
+  }
+
+  private boolean isIncremental() {
+    return settings.getBoolean(JiraConstants.INCREMENTAL_PROPERTY);
+  }
+
+  private long getResyncPeriod() {
+    return settings.getLong(JiraConstants.INCREMENTAL_RESYNC_PROPERTY) * DAY;
+  }
+
+  private int getResolutionThreads() {
+    return settings.getInt(JiraConstants.RESOLUTION_THREADS_PROPERTY);
+  }
+
+  private boolean isServerSideCountEnabled() {
+    return settings.getBoolean(JiraConstants.SERVER_SIDE_COUNT_PROPERTY);
+  }
+
+  private long getDeadline() {
+    long timeout = settings.getLong(JiraConstants.ANALYSIS_TIMEOUT_PROPERTY);
+    return timeout > 0 ? System.currentTimeMillis() + timeout * 1000L : ResilientJiraClient.NO_DEADLINE;
+  }
+
   public boolean shouldExecuteOnProject(Project project) {
     if (missingMandatoryParameters()) {
       LOG.info("JIRA issues sensor will not run as some parameters are missing.");
@@ -88,86 +242,424 @@ public class JiraSensor implements Sensor {
   }
 
   public void analyse(Project project, SensorContext context) {
+    JiraClient client;
+    JiraStatistics statistics = new JiraStatistics(getServerUrl());
     try {
-      JiraSoapSession session = new JiraSoapSession(new URL(getServerUrl() + "/rpc/soap/jirasoapservice-v2"));
-      session.connect(getUsername(), getPassword());
+      client = ResilientJiraClient.wrap(MeteredJiraClient.wrap(JiraClientFactory.create(settings), settings, statistics), settings, getDeadline());
+    } catch (IllegalStateException e) {
+      LOG.error("The specified JIRA URL is not valid: " + getServerUrl(), e);
+      return;
+    }
+    JiraRequestLimiter limiter = JiraRequestLimiter.get(settings);
+    long delayedRequests = limiter.getDelayedRequests();
+    long waitMillis = limiter.getTotalWaitMillis();
+    try {
+      client.connect(getUsername(), getPassword());
+      runAnalysis(context, client);
+      client.disconnect();
+    } catch (JiraUnavailableException e) {
+      LOG.warn("JIRA measures are not computed: {}", e.getMessage());
+    } catch (RemoteException e) {
+      LOG.error("Error accessing Jira web service, please verify the parameters", e);
+    }
+    if (!statistics.getOperations().isEmpty()) {
+      LOG.info("JIRA requests: {}", statistics.getSummary());
+    }
+    // the limiter is shared by the analyses of the process, only the requests of this analysis are reported
+    if (limiter.getDelayedRequests() > delayedRequests) {
+      LOG.info("{} JIRA requests waited {} ms in total for the request limits of the server", limiter.getDelayedRequests() - delayedRequests,
+        limiter.getTotalWaitMillis() - waitMillis);
+    }
+  }
 
-      JiraSoapService service = session.getJiraSoapService();
-      String authToken = session.getAuthenticationToken();
+  protected void runAnalysis(SensorContext context, final JiraClient client) throws RemoteException {
+    // priorities and filter are independent, so they are loaded concurrently
+    ExecutorService executor = Executors.newFixedThreadPool(2, new ThreadFactoryBuilder().setNameFormat("jira-sensor-%d").setDaemon(true).build());
+    // resolution dates are requested issue by issue, the size of this pool bounds the number of concurrent requests and
+    // IssueAges bounds the number of queued ones
+    ExecutorService resolutionExecutor = null;
+    if (getResolutionThreads() > 0) {
+      resolutionExecutor = Executors.newFixedThreadPool(getResolutionThreads(),
+        new ThreadFactoryBuilder().setNameFormat("jira-resolution-%d").setDaemon(true).build());
+    }
+    try {
+      Future<Map<String, String>> priorities = executor.submit(new Callable<Map<String, String>>() {
+        public Map<String, String> call() throws RemoteException {
+          TimeProfiler profiler = new TimeProfiler(LOG).start("Load JIRA priorities");
+          Map<String, String> result = collectPriorities(client);
+          profiler.stop();
+          return result;
+        }
+      });
 
-      runAnalysis(context, service, authToken);
+      RemoteFilter filter = null;
+      String jql;
+      String url;
+      if (isJqlQuery()) {
+        jql = getJql();
+        url = getServerUrl() + "/secure/IssueNavigator.jspa?reset=true&jqlQuery=" + encode(jql);
+      } else {
+        filter = getResult(executor.submit(new Callable<RemoteFilter>() {
+          public RemoteFilter call() throws RemoteException {
+            TimeProfiler profiler = new TimeProfiler(LOG).start("Find JIRA filter");
+            RemoteFilter result = findJiraFilter(client);
+            profiler.stop();
+            return result;
+          }
+        }));
+        jql = "filter = " + filter.getId();
+        url = getServerUrl() + "/secure/IssueNavigator.jspa?mode=hide&requestId=" + filter.getId();
+      }
 
-      session.disconnect();
-    } catch (RemoteException e) {
-      LOG.error("Error accessing Jira web service, please verify the parameters", e);
-    } catch (MalformedURLException e) {
-      LOG.error("The specified JIRA URL is not valid: " + getServerUrl(), e);
+      TimeProfiler profiler = new TimeProfiler(LOG).start("Count JIRA issues");
+      DistributionCounter issuesByPriority = null;
+      // only available when issues are downloaded, count-only queries are made by priority
+      IssueDistributions distributions = null;
+      IssueAges ages = null;
+      ResolutionDateCache resolutionDates = loadResolutionDates(jql);
+      double total = 0;
+      if (isIncremental()) {
+        JiraIssueSnapshot snapshot = synchronizeSnapshot(client, filter, jql);
+        distributions = new IssueDistributions();
+        ages = new IssueAges(System.currentTimeMillis(), client, resolutionExecutor, resolutionDates, 2 * getResolutionThreads());
+        for (JiraIssueSnapshot.Entry entry : snapshot.getEntries()) {
+          distributions.add(entry);
+          ages.add(entry);
+        }
+      } else {
+        if (isServerSideCountEnabled()) {
+          // count-only queries are made per priority, so they can not start before priorities are known
+          issuesByPriority = countIssuesByPriority(client, jql, getResult(priorities));
+        }
+        if (issuesByPriority != null) {
+          total = filter != null ? client.getIssueCountForFilter(filter.getId()) : countIssues(client, jql, issuesByPriority);
+        } else {
+          distributions = new IssueDistributions();
+          ages = new IssueAges(System.currentTimeMillis(), client, resolutionExecutor, resolutionDates, 2 * getResolutionThreads());
+          RemoteIssueHandler handler = new CompositeHandler(distributions, ages);
+          if (filter != null) {
+            fetchIssues(client, filter, handler);
+          } else {
+            fetchIssues(client, jql, handler);
+          }
+        }
+      }
+      if (distributions != null) {
+        issuesByPriority = distributions.getPriorities();
+        total = issuesByPriority.total();
+      }
+      profiler.stop();
+      if (ages != null) {
+        profiler = new TimeProfiler(LOG).start("Load JIRA resolution dates");
+        ages.complete();
+        storeResolutionDates(resolutionDates, jql);
+        profiler.stop();
+      }
+
+      saveMeasures(context, url, total, issuesByPriority.buildData(getResult(priorities)));
+      if (distributions != null) {
+        saveDistributions(context, distributions, collectStatuses(client), collectIssueTypes(client));
+        saveAges(context, ages);
+      } else {
+        saveServerSideDistributions(context, client, jql);
+      }
+    } finally {
+      executor.shutdownNow();
+      if (resolutionExecutor != null) {
+        resolutionExecutor.shutdownNow();
+      }
     }
   }
 
-  protected void runAnalysis(SensorContext context, JiraSoapService service, String authToken) throws RemoteException {
-    Map<String, String> priorities = collectPriorities(service, authToken);
-    RemoteFilter filter = findJiraFilter(service, authToken);
-    Map<String, Integer> issuesByPriority = collectIssuesByPriority(service, authToken, filter);
+  private ResolutionDateCache loadResolutionDates(String jql) {
+    // resolution dates never expire, but they are only kept on disk along with the other metadata
+    if (metadataCache.isEnabled()) {
+      return ResolutionDateCache.load(ResolutionDateCache.getFile(metadataCache.getDirectory(), getServerUrl(), getUsername(), jql));
+    }
+    return new ResolutionDateCache();
+  }
 
-    double total = 0;
-    PropertiesBuilder<String, Integer> distribution = new PropertiesBuilder<String, Integer>();
-    for (Map.Entry<String, Integer> entry : issuesByPriority.entrySet()) {
-      total += entry.getValue();
-      distribution.add(priorities.get(entry.getKey()), entry.getValue());
+  private void storeResolutionDates(ResolutionDateCache resolutionDates, String jql) {
+    if (metadataCache.isEnabled()) {
+      resolutionDates.store(ResolutionDateCache.getFile(metadataCache.getDirectory(), getServerUrl(), getUsername(), jql));
     }
+  }
 
-    String url = getServerUrl() + "/secure/IssueNavigator.jspa?mode=hide&requestId=" + filter.getId();
-    saveMeasures(context, url, total, distribution.buildData());
+  private static <T> T getResult(Future<T> future) throws RemoteException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for JIRA", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RemoteException) {
+        throw (RemoteException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException("Error while requesting JIRA", cause);
+    }
   }
 
-  protected Map<String, String> collectPriorities(JiraSoapService service, String authToken) throws RemoteException {
-    Map<String, String> priorities = Maps.newHashMap();
-    for (RemotePriority priority : service.getPriorities(authToken)) {
-      priorities.put(priority.getId(), priority.getName());
+  protected Map<String, String> collectPriorities(JiraClient client) throws RemoteException {
+    Map<String, String> priorities = metadataCache.get(getServerUrl(), getUsername(), JiraMetadataCache.PRIORITIES);
+    if (priorities == null) {
+      priorities = getNamesById(client.getPriorities());
+      metadataCache.put(getServerUrl(), getUsername(), JiraMetadataCache.PRIORITIES, priorities);
     }
     return priorities;
   }
 
-  protected Map<String, Integer> collectIssuesByPriority(JiraSoapService service, String authToken, RemoteFilter filter) throws RemoteException {
-    Map<String, Integer> issuesByPriority = Maps.newHashMap();
-    RemoteIssue[] issues = service.getIssuesFromFilter(authToken, filter.getId());
-    for (RemoteIssue issue : issues) {
-      String priority = issue.getPriority();
-      if (!issuesByPriority.containsKey(priority)) {
-        issuesByPriority.put(priority, 1);
+  protected Map<String, String> collectStatuses(JiraClient client) throws RemoteException {
+    Map<String, String> statuses = metadataCache.get(getServerUrl(), getUsername(), JiraMetadataCache.STATUSES);
+    if (statuses == null) {
+      statuses = getNamesById(client.getStatuses());
+      metadataCache.put(getServerUrl(), getUsername(), JiraMetadataCache.STATUSES, statuses);
+    }
+    return statuses;
+  }
+
+  protected Map<String, String> collectIssueTypes(JiraClient client) throws RemoteException {
+    Map<String, String> issueTypes = metadataCache.get(getServerUrl(), getUsername(), JiraMetadataCache.ISSUE_TYPES);
+    if (issueTypes == null) {
+      issueTypes = getNamesById(client.getIssueTypes());
+      metadataCache.put(getServerUrl(), getUsername(), JiraMetadataCache.ISSUE_TYPES, issueTypes);
+    }
+    // sub-task types are cached apart, as only standard types can be used to create issues
+    Map<String, String> subTaskIssueTypes = metadataCache.get(getServerUrl(), getUsername(), JiraMetadataCache.SUB_TASK_ISSUE_TYPES);
+    if (subTaskIssueTypes == null) {
+      subTaskIssueTypes = getNamesById(client.getSubTaskIssueTypes());
+      metadataCache.put(getServerUrl(), getUsername(), JiraMetadataCache.SUB_TASK_ISSUE_TYPES, subTaskIssueTypes);
+    }
+    Map<String, String> allIssueTypes = Maps.newHashMap(issueTypes);
+    allIssueTypes.putAll(subTaskIssueTypes);
+    return allIssueTypes;
+  }
+
+  private static Map<String, String> getNamesById(AbstractRemoteConstant[] constants) {
+    Map<String, String> names = Maps.newHashMap();
+    for (int i = 0; constants != null && i < constants.length; i++) {
+      names.put(constants[i].getId(), constants[i].getName());
+    }
+    return names;
+  }
+
+  /**
+   * Downloads the issues and counts them by priority, status, type, component and assignee at the same time.
+   */
+  protected void fetchIssues(JiraClient client, RemoteFilter filter, RemoteIssueHandler handler) throws RemoteException {
+    int pageSize = getPageSize();
+    if (pageSize <= 0) {
+      client.getIssuesFromFilter(filter.getId(), handler);
+    } else {
+      // pages are not kept once handled, so that memory usage does not depend on the size of the filter. JIRA may return
+      // shorter pages than requested when its maximum number of results is lower, so only an empty page is the last one
+      int offset = 0;
+      int pageLength;
+      do {
+        pageLength = client.getIssuesFromFilterWithLimit(filter.getId(), offset, pageSize, handler);
+        offset += pageLength;
+      } while (pageLength > 0);
+      LOG.debug("{} JIRA issues downloaded in pages of {}", offset, pageSize);
+    }
+  }
+
+  protected void fetchIssues(JiraClient client, String jql, RemoteIssueHandler handler) throws RemoteException {
+    // the SOAP API can not page through the results of a JQL query
+    client.getIssuesFromJqlSearch(jql, Integer.MAX_VALUE, handler);
+  }
+
+  private static class CompositeHandler implements RemoteIssueHandler {
+    private final RemoteIssueHandler[] handlers;
+
+    CompositeHandler(RemoteIssueHandler... handlers) {
+      this.handlers = handlers;
+    }
+
+    public void handle(RemoteIssue issue) {
+      for (RemoteIssueHandler handler : handlers) {
+        handler.handle(issue);
+      }
+    }
+  }
+
+  /**
+   * Brings the local snapshot of the issues up to date. Only the issues updated since the previous analysis are downloaded,
+   * except on the first analysis and when the last full synchronization is too old, as deleted issues can only be detected this way.
+   */
+  protected JiraIssueSnapshot synchronizeSnapshot(JiraClient client, RemoteFilter filter, String jql) throws RemoteException {
+    File file = JiraIssueSnapshot.getFile(metadataCache.getDirectory(), getServerUrl(), getUsername(), jql);
+    final JiraIssueSnapshot snapshot = JiraIssueSnapshot.load(file);
+    RemoteIssueHandler addToSnapshot = new RemoteIssueHandler() {
+      public void handle(RemoteIssue issue) {
+        snapshot.put(issue);
+      }
+    };
+    long now = System.currentTimeMillis();
+    if (snapshot.getLastFullSync() == 0 || now - snapshot.getLastFullSync() > getResyncPeriod()) {
+      LOG.info("Full synchronization of the JIRA issues snapshot");
+      snapshot.clear();
+      if (filter != null) {
+        fetchIssues(client, filter, addToSnapshot);
       } else {
-        issuesByPriority.put(priority, issuesByPriority.get(priority) + 1);
+        fetchIssues(client, jql, addToSnapshot);
       }
+      snapshot.setLastFullSync(now);
+    } else {
+      // relative dates are evaluated by JIRA, so clocks don't have to be synchronized
+      String updatedSinceLastSync = "updated >= -" + ((now - snapshot.getLastSync()) / MINUTE + SYNC_MARGIN_MINUTES) + "m";
+      String query = removeOrderBy(jql);
+      int updatedIssues = client.getIssuesFromJqlSearch("(" + query + ") AND " + updatedSinceLastSync, Integer.MAX_VALUE, addToSnapshot);
+      if (snapshot.size() > 0) {
+        // issues which no longer match the query
+        String projects = "project in (\"" + StringUtils.join(snapshot.getProjectKeys(), "\", \"") + "\")";
+        client.getIssuesFromJqlSearch(updatedSinceLastSync + " AND " + projects + " AND NOT (" + query + ")", Integer.MAX_VALUE, new RemoteIssueHandler() {
+          public void handle(RemoteIssue issue) {
+            snapshot.remove(issue.getKey());
+          }
+        });
+      }
+      LOG.info("{} JIRA issues updated since the previous analysis", updatedIssues);
     }
-    return issuesByPriority;
+    snapshot.setLastSync(now);
+    snapshot.store(file);
+    return snapshot;
   }
 
-  protected RemoteFilter findJiraFilter(JiraSoapService service, String authToken) throws RemoteException {
-    RemoteFilter filter = null;
-    RemoteFilter[] filters;
+  /**
+   * Counts the issues matching the JQL query for each priority with count-only queries, so that no issue is transferred.
+   *
+   * @return the number of issues by priority id, or <code>null</code> if the JIRA server does not support count-only queries
+   */
+  protected DistributionCounter countIssuesByPriority(JiraClient client, String jql, Map<String, String> priorities) {
     try {
-      filters = service.getFavouriteFilters(authToken);
-    } catch (Exception e) {
-      // for Jira prior to 3.13
-      filters = service.getSavedFilters(authToken);
-    }
-    for (RemoteFilter f : filters) {
-      if (getFilterName().equals(f.getName())) {
-        filter = f;
-        continue;
+      return countIssuesBy(client, jql, "priority", priorities.keySet());
+    } catch (IOException e) {
+      LOG.info("JIRA server does not support count-only queries, all the issues will be downloaded");
+      LOG.debug("Count-only query failed", e);
+      return null;
+    }
+  }
+
+  private static DistributionCounter countIssuesBy(JiraClient client, String jql, String field, Collection<String> ids) throws IOException {
+    DistributionCounter issuesById = new DistributionCounter();
+    for (String id : ids) {
+      long count = client.countIssues("(" + removeOrderBy(jql) + ") AND " + field + " = " + id);
+      if (count > 0) {
+        issuesById.add(id, (int) count);
       }
     }
+    return issuesById;
+  }
+
+  private static long countIssues(JiraClient client, String jql, DistributionCounter issuesByPriority) {
+    try {
+      return client.countIssues(jql);
+    } catch (IOException e) {
+      // issues without priority are not counted
+      LOG.debug("Count-only query failed", e);
+      return issuesByPriority.total();
+    }
+  }
+
+  /**
+   * The "ORDER BY" clause of a JQL query must be removed before the query can be combined with another clause.
+   */
+  static String removeOrderBy(String jql) {
+    return ORDER_BY.matcher(jql).replaceFirst("").trim();
+  }
 
+  private static String encode(String value) {
+    try {
+      return URLEncoder.encode(value, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  protected RemoteFilter findJiraFilter(JiraClient client) throws RemoteException {
+    Map<String, String> filterIds = metadataCache.get(getServerUrl(), getUsername(), JiraMetadataCache.FILTERS);
+    if (filterIds != null && filterIds.containsKey(getFilterName())) {
+      RemoteFilter cachedFilter = new RemoteFilter();
+      cachedFilter.setId(filterIds.get(getFilterName()));
+      cachedFilter.setName(getFilterName());
+      return cachedFilter;
+    }
+
+    Map<String, RemoteFilter> filtersByName = indexByName(loadFilters(client));
+    filterIds = Maps.newHashMap();
+    for (RemoteFilter f : filtersByName.values()) {
+      filterIds.put(f.getName(), f.getId());
+    }
+    metadataCache.put(getServerUrl(), getUsername(), JiraMetadataCache.FILTERS, filterIds);
+
+    RemoteFilter filter = filtersByName.get(getFilterName());
     if (filter == null) {
       throw new IllegalStateException("Unable to find filter '" + getFilterName() + "' in JIRA");
     }
     return filter;
   }
 
+  private RemoteFilter[] loadFilters(JiraClient client) throws RemoteException {
+    JiraServerCapabilities capabilities = getServerCapabilities(client);
+    RemoteFilter[] filters;
+    if (capabilities.isVersionKnown()) {
+      filters = capabilities.hasFavouriteFilters() ? client.getFavouriteFilters() : client.getSavedFilters();
+    } else {
+      try {
+        filters = client.getFavouriteFilters();
+      } catch (Exception e) {
+        // for Jira prior to 3.13
+        filters = client.getSavedFilters();
+      }
+    }
+    return filters != null ? filters : new RemoteFilter[0];
+  }
+
+  /**
+   * The first filter wins when several filters have the same name.
+   */
+  private static Map<String, RemoteFilter> indexByName(RemoteFilter[] filters) {
+    Map<String, RemoteFilter> filtersByName = Maps.newLinkedHashMap();
+    for (RemoteFilter filter : filters) {
+      if (filter.getName() != null && !filtersByName.containsKey(filter.getName())) {
+        filtersByName.put(filter.getName(), filter);
+      }
+    }
+    return filtersByName;
+  }
+
+  /**
+   * The version of the server is detected once, kept in memory and cached with the other metadata. It is kept in memory
+   * even when the metadata cache is disabled, so that it is not requested again for each module.
+   */
+  protected JiraServerCapabilities getServerCapabilities(JiraClient client) {
+    String version = SERVER_VERSIONS.get(getServerUrl());
+    if (version != null) {
+      return new JiraServerCapabilities(version);
+    }
+    Map<String, String> cached = metadataCache.get(getServerUrl(), getUsername(), JiraMetadataCache.CAPABILITIES);
+    if (cached != null && cached.containsKey(SERVER_VERSION)) {
+      SERVER_VERSIONS.putIfAbsent(getServerUrl(), cached.get(SERVER_VERSION));
+      return new JiraServerCapabilities(cached.get(SERVER_VERSION));
+    }
+    JiraServerCapabilities capabilities = JiraServerCapabilities.detect(client);
+    if (capabilities.isVersionKnown()) {
+      SERVER_VERSIONS.putIfAbsent(getServerUrl(), capabilities.getVersion());
+      metadataCache.put(getServerUrl(), getUsername(), JiraMetadataCache.CAPABILITIES, ImmutableMap.of(SERVER_VERSION, capabilities.getVersion()));
+    }
+    return capabilities;
+  }
+
+  static void clearServerVersions() {
+    SERVER_VERSIONS.clear();
+  }
+
   protected boolean missingMandatoryParameters() {
     return StringUtils.isEmpty(getServerUrl()) ||
-      StringUtils.isEmpty(getFilterName()) ||
+      (StringUtils.isEmpty(getFilterName()) && !isJqlQuery()) ||
       StringUtils.isEmpty(getUsername()) ||
       StringUtils.isEmpty(getPassword());
   }
@@ -179,6 +671,46 @@ public class JiraSensor implements Sensor {
     context.saveMeasure(issuesMeasure);
   }
 
+  protected void saveDistributions(SensorContext context, IssueDistributions distributions, Map<String, String> statuses, Map<String, String> issueTypes) {
+    Map<String, String> noNames = Collections.emptyMap();
+    context.saveMeasure(new Measure(JiraMetrics.ISSUES_BY_STATUS, distributions.getStatuses().buildData(statuses)));
+    context.saveMeasure(new Measure(JiraMetrics.ISSUES_BY_TYPE, distributions.getTypes().buildData(issueTypes)));
+    context.saveMeasure(new Measure(JiraMetrics.ISSUES_BY_COMPONENT, distributions.getComponents().buildData(noNames)));
+    context.saveMeasure(new Measure(JiraMetrics.ISSUES_BY_ASSIGNEE, distributions.getAssignees().buildData(noNames)));
+  }
+
+  /**
+   * Statuses and issue types are few, so the issues are counted by status and by type with count-only queries, like by priority.
+   * Components and assignees are not bounded: their distributions and the issue ages need the issues to be downloaded.
+   */
+  protected void saveServerSideDistributions(SensorContext context, JiraClient client, String jql) throws RemoteException {
+    Map<String, String> statuses = collectStatuses(client);
+    Map<String, String> issueTypes = collectIssueTypes(client);
+    TimeProfiler profiler = new TimeProfiler(LOG).start("Count JIRA issues by status and type");
+    DistributionCounter issuesByStatus;
+    DistributionCounter issuesByType;
+    try {
+      issuesByStatus = countIssuesBy(client, jql, "status", statuses.keySet());
+      issuesByType = countIssuesBy(client, jql, "issuetype", issueTypes.keySet());
+    } catch (IOException e) {
+      throw new IllegalStateException("Impossible to count the JIRA issues by status and type", e);
+    }
+    profiler.stop();
+    context.saveMeasure(new Measure(JiraMetrics.ISSUES_BY_STATUS, issuesByStatus.buildData(statuses)));
+    context.saveMeasure(new Measure(JiraMetrics.ISSUES_BY_TYPE, issuesByType.buildData(issueTypes)));
+    LOG.info("Distributions by component and assignee and issue ages are only computed when the issues are downloaded ("
+      + JiraConstants.SERVER_SIDE_COUNT_PROPERTY + "=false)");
+  }
+
+  protected void saveAges(SensorContext context, IssueAges ages) {
+    context.saveMeasure(new Measure(JiraMetrics.ISSUES_AGE_DISTRIBUTION, ages.getAges().buildData(IssueAges.DAY)));
+    DurationHistogram resolutionTimes = ages.getResolutionTimes();
+    if (resolutionTimes.count() > 0) {
+      context.saveMeasure(new Measure(JiraMetrics.ISSUES_RESOLUTION_TIME, resolutionTimes.mean() / IssueAges.DAY));
+      context.saveMeasure(new Measure(JiraMetrics.ISSUES_RESOLUTION_TIME_P90, resolutionTimes.percentile(90) / IssueAges.DAY));
+    }
+  }
+
   @Override
   public String toString() {
     return "JIRA issues sensor";
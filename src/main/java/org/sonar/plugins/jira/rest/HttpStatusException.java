@@ -0,0 +1,39 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.rest;
+
+import java.rmi.RemoteException;
+
+/**
+ * Unexpected HTTP status of a response of the REST API, which has no equivalent in the exceptions of the SOAP API.
+ */
+public class HttpStatusException extends RemoteException {
+
+  private final int status;
+
+  public HttpStatusException(int status, String url) {
+    super("Unexpected HTTP status " + status + " for " + url);
+    this.status = status;
+  }
+
+  public int getStatus() {
+    return status;
+  }
+}
@@ -0,0 +1,492 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.rest;
+
+import com.atlassian.jira.rpc.soap.client.AbstractNamedRemoteEntity;
+import com.atlassian.jira.rpc.soap.client.AbstractRemoteConstant;
+import com.atlassian.jira.rpc.soap.client.RemoteAuthenticationException;
+import com.atlassian.jira.rpc.soap.client.RemoteComponent;
+import com.atlassian.jira.rpc.soap.client.RemoteCustomFieldValue;
+import com.atlassian.jira.rpc.soap.client.RemoteFilter;
+import com.atlassian.jira.rpc.soap.client.RemoteIssue;
+import com.atlassian.jira.rpc.soap.client.RemoteIssueType;
+import com.atlassian.jira.rpc.soap.client.RemotePermissionException;
+import com.atlassian.jira.rpc.soap.client.RemotePriority;
+import com.atlassian.jira.rpc.soap.client.RemoteServerInfo;
+import com.atlassian.jira.rpc.soap.client.RemoteStatus;
+import com.atlassian.jira.rpc.soap.client.RemoteValidationException;
+import com.google.common.collect.Lists;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.EntityEnclosingMethod;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.jira.client.JiraClient;
+import org.sonar.plugins.jira.client.PayloadCounter;
+import org.sonar.plugins.jira.client.RemoteIssueHandler;
+import org.sonar.plugins.jira.soap.JiraHttpTransport;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.rmi.RemoteException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * {@link JiraClient} sending its requests to the REST API of JIRA 5 and later.
+ * <p/>
+ * Only the fields used by the plugin are requested, and search results are downloaded page by page. Requests are sent
+ * through the connections of the {@link JiraHttpTransport}, with basic authentication.
+ */
+public class RestJiraClient implements JiraClient {
+  private static final Logger LOG = LoggerFactory.getLogger(RestJiraClient.class);
+
+  private static final String API_PATH = "/rest/api/2";
+  private static final String UTF_8 = "UTF-8";
+  private static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
+  static final String ISSUE_FIELDS = "priority,status,issuetype,assignee,components,resolution,created,updated";
+  // JIRA caps the page size, 1000 by default
+  static final int SEARCH_PAGE_SIZE = 1000;
+
+  private final URL serverUrl;
+  private final JiraHttpTransport transport;
+  private final HttpClient httpClient;
+  private String authorization;
+
+  public RestJiraClient(URL serverUrl, JiraHttpTransport transport) {
+    this.serverUrl = serverUrl;
+    this.transport = transport;
+    this.httpClient = new HttpClient(transport.getConnectionManager());
+  }
+
+  /**
+   * Checks the credentials, as the REST API has no login request.
+   */
+  public void connect(String userName, String password) throws RemoteException {
+    setCredentials(userName, password);
+    get("/myself");
+  }
+
+  /**
+   * Sets the credentials sent with the next requests, without checking them.
+   */
+  public void setCredentials(String userName, String password) {
+    LOG.debug("Using REST API as : {}", userName);
+    try {
+      authorization = "Basic " + new String(Base64.encodeBase64((userName + ":" + password).getBytes(UTF_8)), "US-ASCII");
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to encode JIRA credentials", e);
+    }
+  }
+
+  public void disconnect() {
+    authorization = null;
+  }
+
+  public RemoteServerInfo getServerInfo() throws RemoteException {
+    JSONObject json = (JSONObject) get("/serverInfo");
+    RemoteServerInfo serverInfo = new RemoteServerInfo();
+    serverInfo.setBaseUrl(getString(json, "baseUrl"));
+    serverInfo.setVersion(getString(json, "version"));
+    serverInfo.setBuildNumber(getString(json, "buildNumber"));
+    return serverInfo;
+  }
+
+  public RemotePriority[] getPriorities() throws RemoteException {
+    List<RemotePriority> priorities = Lists.newArrayList();
+    for (Object json : (JSONArray) get("/priority")) {
+      priorities.add(readConstant((JSONObject) json, new RemotePriority()));
+    }
+    return priorities.toArray(new RemotePriority[priorities.size()]);
+  }
+
+  public RemoteStatus[] getStatuses() throws RemoteException {
+    List<RemoteStatus> statuses = Lists.newArrayList();
+    for (Object json : (JSONArray) get("/status")) {
+      statuses.add(readConstant((JSONObject) json, new RemoteStatus()));
+    }
+    return statuses.toArray(new RemoteStatus[statuses.size()]);
+  }
+
+  public RemoteIssueType[] getIssueTypes() throws RemoteException {
+    return getIssueTypes(false);
+  }
+
+  public RemoteIssueType[] getSubTaskIssueTypes() throws RemoteException {
+    return getIssueTypes(true);
+  }
+
+  private RemoteIssueType[] getIssueTypes(boolean subTask) throws RemoteException {
+    // standard and sub-task types are returned together
+    List<RemoteIssueType> issueTypes = Lists.newArrayList();
+    for (Object json : (JSONArray) get("/issuetype")) {
+      if (Boolean.TRUE.equals(((JSONObject) json).get("subtask")) == subTask) {
+        RemoteIssueType issueType = readConstant((JSONObject) json, new RemoteIssueType());
+        issueType.setSubTask(subTask);
+        issueTypes.add(issueType);
+      }
+    }
+    return issueTypes.toArray(new RemoteIssueType[issueTypes.size()]);
+  }
+
+  public RemoteFilter[] getFavouriteFilters() throws RemoteException {
+    List<RemoteFilter> filters = Lists.newArrayList();
+    for (Object json : (JSONArray) get("/filter/favourite")) {
+      RemoteFilter filter = readEntity((JSONObject) json, new RemoteFilter());
+      filter.setDescription(getString((JSONObject) json, "description"));
+      filters.add(filter);
+    }
+    return filters.toArray(new RemoteFilter[filters.size()]);
+  }
+
+  /**
+   * Saved filters only exist in the SOAP API of JIRA versions older than the REST API, favourite filters are returned instead.
+   */
+  public RemoteFilter[] getSavedFilters() throws RemoteException {
+    return getFavouriteFilters();
+  }
+
+  public long getIssueCountForFilter(String filterId) throws RemoteException {
+    return parseTotal((JSONObject) get(getSearchPath(filterJql(filterId), 0, 0, "key")));
+  }
+
+  public int getIssuesFromFilter(String filterId, RemoteIssueHandler handler) throws RemoteException {
+    return search(filterJql(filterId), 0, Integer.MAX_VALUE, handler);
+  }
+
+  public int getIssuesFromFilterWithLimit(String filterId, int offset, int maxNumResults, RemoteIssueHandler handler) throws RemoteException {
+    return search(filterJql(filterId), offset, maxNumResults, handler);
+  }
+
+  public int getIssuesFromJqlSearch(String jql, int maxNumResults, RemoteIssueHandler handler) throws RemoteException {
+    return search(jql, 0, maxNumResults, handler);
+  }
+
+  /**
+   * Only the total is requested, no issue is transferred.
+   */
+  public long countIssues(String jql) throws IOException {
+    return parseTotal((JSONObject) get(getSearchPath(jql, 0, 0, "key")));
+  }
+
+  public Calendar getResolutionDateByKey(String issueKey) throws RemoteException {
+    JSONObject json = (JSONObject) get("/issue/" + encode(issueKey) + "?fields=resolutiondate");
+    return parseDate(getString(getObject(json, "fields"), "resolutiondate"));
+  }
+
+  public RemoteIssue getIssue(String issueKey) throws RemoteException {
+    return parseIssue((JSONObject) get("/issue/" + encode(issueKey) + "?fields=" + ISSUE_FIELDS + ",summary,description"));
+  }
+
+  public RemoteIssue createIssue(RemoteIssue issue) throws RemoteException {
+    PostMethod post = new PostMethod(getUrl("/issue"));
+    try {
+      post.setRequestEntity(new StringRequestEntity(toJson(issue).toJSONString(), "application/json", UTF_8));
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    JSONObject json = (JSONObject) execute(post);
+    RemoteIssue createdIssue = new RemoteIssue();
+    createdIssue.setId(getString(json, "id"));
+    createdIssue.setKey(getString(json, "key"));
+    createdIssue.setProject(issue.getProject());
+    createdIssue.setType(issue.getType());
+    createdIssue.setPriority(issue.getPriority());
+    createdIssue.setSummary(issue.getSummary());
+    createdIssue.setDescription(issue.getDescription());
+    createdIssue.setComponents(issue.getComponents());
+    return createdIssue;
+  }
+
+  public void addComment(String issueKey, String body) throws RemoteException {
+    JSONObject comment = new JSONObject();
+    comment.put("body", body);
+    PostMethod post = new PostMethod(getUrl("/issue/" + encode(issueKey) + "/comment"));
+    try {
+      post.setRequestEntity(new StringRequestEntity(comment.toJSONString(), "application/json", UTF_8));
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    execute(post);
+  }
+
+  public URL getServerUrl() {
+    return serverUrl;
+  }
+
+  /**
+   * Pages are requested until <code>maxNumResults</code> issues are read or the last page is reached, as JIRA may return
+   * fewer issues than requested.
+   */
+  private int search(String jql, int offset, int maxNumResults, RemoteIssueHandler handler) throws RemoteException {
+    int count = 0;
+    while (count < maxNumResults) {
+      JSONObject page = (JSONObject) get(getSearchPath(jql, offset + count, Math.min(SEARCH_PAGE_SIZE, maxNumResults - count), ISSUE_FIELDS));
+      JSONArray issues = (JSONArray) page.get("issues");
+      if (issues == null || issues.isEmpty()) {
+        break;
+      }
+      for (Object issue : issues) {
+        handler.handle(parseIssue((JSONObject) issue));
+      }
+      count += issues.size();
+      if (offset + count >= parseTotal(page)) {
+        break;
+      }
+    }
+    return count;
+  }
+
+  static String getSearchPath(String jql, int startAt, int maxResults, String fields) {
+    return "/search?startAt=" + startAt + "&maxResults=" + maxResults + "&fields=" + fields + "&jql=" + encode(jql);
+  }
+
+  private static String filterJql(String filterId) {
+    return "filter = " + filterId;
+  }
+
+  static long parseTotal(JSONObject json) throws RemoteException {
+    if (json == null || !(json.get("total") instanceof Number)) {
+      throw new RemoteException("Unexpected response from JIRA search: " + json);
+    }
+    return ((Number) json.get("total")).longValue();
+  }
+
+  static RemoteIssue parseIssue(JSONObject json) throws RemoteException {
+    RemoteIssue issue = new RemoteIssue();
+    issue.setId(getString(json, "id"));
+    issue.setKey(getString(json, "key"));
+    JSONObject fields = getObject(json, "fields");
+    if (fields != null) {
+      issue.setPriority(getString(getObject(fields, "priority"), "id"));
+      issue.setStatus(getString(getObject(fields, "status"), "id"));
+      issue.setType(getString(getObject(fields, "issuetype"), "id"));
+      issue.setAssignee(getString(getObject(fields, "assignee"), "name"));
+      issue.setResolution(getString(getObject(fields, "resolution"), "id"));
+      issue.setCreated(parseDate(getString(fields, "created")));
+      issue.setUpdated(parseDate(getString(fields, "updated")));
+      issue.setSummary(getString(fields, "summary"));
+      issue.setDescription(getString(fields, "description"));
+      JSONArray components = (JSONArray) fields.get("components");
+      if (components != null) {
+        RemoteComponent[] remoteComponents = new RemoteComponent[components.size()];
+        for (int i = 0; i < remoteComponents.length; i++) {
+          remoteComponents[i] = readEntity((JSONObject) components.get(i), new RemoteComponent());
+        }
+        issue.setComponents(remoteComponents);
+      }
+    }
+    return issue;
+  }
+
+  static JSONObject toJson(RemoteIssue issue) {
+    Map<String, Object> fields = new JSONObject();
+    fields.put("project", reference("key", issue.getProject()));
+    fields.put("issuetype", reference("id", issue.getType()));
+    fields.put("priority", reference("id", issue.getPriority()));
+    fields.put("summary", issue.getSummary());
+    fields.put("description", issue.getDescription());
+    if (issue.getComponents() != null) {
+      List<Object> components = new JSONArray();
+      for (RemoteComponent component : issue.getComponents()) {
+        components.add(reference("id", component.getId()));
+      }
+      fields.put("components", components);
+    }
+    if (issue.getCustomFieldValues() != null) {
+      for (RemoteCustomFieldValue value : issue.getCustomFieldValues()) {
+        if (JiraClient.LABELS_FIELD.equals(value.getCustomfieldId())) {
+          List<Object> labels = new JSONArray();
+          labels.addAll(Arrays.asList(value.getValues()));
+          fields.put("labels", labels);
+        }
+      }
+    }
+    JSONObject json = new JSONObject();
+    json.put("fields", fields);
+    return json;
+  }
+
+  private static JSONObject reference(String field, String value) {
+    JSONObject json = new JSONObject();
+    json.put(field, value);
+    return json;
+  }
+
+  static Calendar parseDate(String date) throws RemoteException {
+    if (date == null) {
+      return null;
+    }
+    try {
+      // SimpleDateFormat is not thread-safe
+      Calendar calendar = Calendar.getInstance();
+      calendar.setTime(new SimpleDateFormat(DATE_FORMAT).parse(date));
+      return calendar;
+    } catch (ParseException e) {
+      throw new RemoteException("Unexpected date format: " + date, e);
+    }
+  }
+
+  private Object get(String path) throws RemoteException {
+    return execute(new GetMethod(getUrl(path)));
+  }
+
+  private String getUrl(String path) {
+    return serverUrl.toExternalForm() + API_PATH + path;
+  }
+
+  private Object execute(HttpMethodBase method) throws RemoteException {
+    try {
+      method.setRequestHeader("Accept", "application/json");
+      if (authorization != null) {
+        method.setRequestHeader("Authorization", authorization);
+      }
+      if (transport.isAcceptGzip()) {
+        method.setRequestHeader("Accept-Encoding", "gzip");
+      }
+      if (method instanceof EntityEnclosingMethod && ((EntityEnclosingMethod) method).getRequestEntity() != null) {
+        PayloadCounter.addSent(((EntityEnclosingMethod) method).getRequestEntity().getContentLength());
+      }
+      int status = httpClient.executeMethod(method);
+      InputStream input = method.getResponseBodyAsStream();
+      Header encoding = method.getResponseHeader("Content-Encoding");
+      if (input != null && encoding != null && "gzip".equalsIgnoreCase(encoding.getValue())) {
+        input = new GZIPInputStream(input);
+      }
+      input = PayloadCounter.countReceived(input);
+      String body = input != null ? IOUtils.toString(input, UTF_8) : "";
+      if (status < HttpStatus.SC_OK || status >= HttpStatus.SC_MULTIPLE_CHOICES) {
+        throw toException(status, body, method.getURI().toString());
+      }
+      return JSONValue.parse(body);
+    } catch (RemoteException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new RemoteException("Unable to request " + method.getPath(), e);
+    } finally {
+      method.releaseConnection();
+    }
+  }
+
+  /**
+   * Errors are reported with the exceptions of the SOAP API, so that callers do not depend on the API in use.
+   */
+  static RemoteException toException(int status, String body, String url) {
+    com.atlassian.jira.rpc.soap.client.RemoteException exception;
+    switch (status) {
+      case HttpStatus.SC_UNAUTHORIZED:
+        exception = new RemoteAuthenticationException();
+        break;
+      case HttpStatus.SC_FORBIDDEN:
+        exception = new RemotePermissionException();
+        break;
+      case HttpStatus.SC_BAD_REQUEST:
+        exception = new RemoteValidationException();
+        break;
+      default:
+        return new HttpStatusException(status, url);
+    }
+    String message = getErrorMessages(body);
+    exception.setFaultString(StringUtils.isNotEmpty(message) ? message : "HTTP status " + status + " for " + url);
+    return exception;
+  }
+
+  /**
+   * JIRA gives the messages of the errors in the body of the response, for example
+   * <code>{"errorMessages":[],"errors":{"summary":"You must specify a summary of the issue."}}</code>
+   */
+  private static String getErrorMessages(String body) {
+    Object json = JSONValue.parse(body);
+    if (!(json instanceof JSONObject)) {
+      return null;
+    }
+    List<String> messages = Lists.newArrayList();
+    JSONArray errorMessages = (JSONArray) ((JSONObject) json).get("errorMessages");
+    if (errorMessages != null) {
+      for (Object message : errorMessages) {
+        messages.add(String.valueOf(message));
+      }
+    }
+    JSONObject errors = getObject((JSONObject) json, "errors");
+    if (errors != null) {
+      for (Object error : errors.entrySet()) {
+        messages.add(((Map.Entry) error).getKey() + ": " + ((Map.Entry) error).getValue());
+      }
+    }
+    return StringUtils.join(messages, ", ");
+  }
+
+  private static <T extends AbstractRemoteConstant> T readConstant(JSONObject json, T constant) {
+    readEntity(json, constant);
+    constant.setDescription(getString(json, "description"));
+    constant.setIcon(getString(json, "iconUrl"));
+    return constant;
+  }
+
+  private static <T extends AbstractNamedRemoteEntity> T readEntity(JSONObject json, T entity) {
+    entity.setId(getString(json, "id"));
+    entity.setName(getString(json, "name"));
+    return entity;
+  }
+
+  private static JSONObject getObject(JSONObject json, String field) {
+    if (json == null) {
+      return null;
+    }
+    Object value = json.get(field);
+    return value instanceof JSONObject ? (JSONObject) value : null;
+  }
+
+  private static String getString(JSONObject json, String field) {
+    if (json == null) {
+      return null;
+    }
+    Object value = json.get(field);
+    return value != null ? value.toString() : null;
+  }
+
+  private static String encode(String value) {
+    try {
+      return URLEncoder.encode(value, UTF_8);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -28,7 +28,7 @@ import org.sonar.plugins.jira.JiraConstants;
 
 public final class JiraActionDefinition implements ServerExtension {
 
-  private static final String LINK_TO_JIRA_ID = "link-to-jira";
+  static final String LINK_TO_JIRA_ID = "link-to-jira";
   private final Actions actions;
   private final LinkFunction linkFunction;
 
@@ -19,12 +19,15 @@
  */
 package org.sonar.plugins.jira.reviews;
 
-import com.atlassian.jira.rpc.soap.client.JiraSoapService;
 import com.atlassian.jira.rpc.soap.client.RemoteAuthenticationException;
 import com.atlassian.jira.rpc.soap.client.RemoteComponent;
+import com.atlassian.jira.rpc.soap.client.RemoteCustomFieldValue;
 import com.atlassian.jira.rpc.soap.client.RemoteIssue;
 import com.atlassian.jira.rpc.soap.client.RemotePermissionException;
 import com.atlassian.jira.rpc.soap.client.RemoteValidationException;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,14 +43,21 @@ import org.sonar.api.rules.RuleFinder;
 import org.sonar.api.rules.RulePriority;
 import org.sonar.api.utils.SonarException;
 import org.sonar.plugins.jira.JiraConstants;
-import org.sonar.plugins.jira.soap.JiraSoapSession;
+import org.sonar.plugins.jira.cache.JiraCreationJournal;
+import org.sonar.plugins.jira.cache.JiraGroupIndex;
+import org.sonar.plugins.jira.cache.JiraMetadataCache;
+import org.sonar.plugins.jira.client.JiraClient;
+import org.sonar.plugins.jira.client.JiraClientManager;
+import org.sonar.plugins.jira.client.RemoteIssueHandler;
+import org.sonar.plugins.jira.rest.HttpStatusException;
 
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.io.File;
 import java.rmi.RemoteException;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
 
 /**
- * SOAP client class that is used for creating issues on a JIRA server
+ * Creates issues on a JIRA server, with the API selected by {@link JiraConstants#PROTOCOL_PROPERTY}
  */
 @Properties({
   @Property(
@@ -128,58 +138,197 @@ import java.rmi.RemoteException;
     global = false,
     project = true,
     type = PropertyType.INTEGER
+  ),
+  @Property(
+    key = JiraConstants.GROUPING_PROPERTY,
+    defaultValue = JiraConstants.GROUPING_DEF_VALUE,
+    name = "Group JIRA issues by rule",
+    description = "Create a single JIRA issue for all the SonarQube issues of a rule with the same SonarQube component, JIRA project and JIRA component. "
+      + "The next SonarQube issues of the rule are added as comments of this JIRA issue.",
+    global = true,
+    project = true,
+    type = PropertyType.BOOLEAN
   )
 })
 public class JiraIssueCreator implements ServerExtension {
 
   private static final String QUOTE = "\n{quote}\n";
+  // JIRA issues whose description is checked when looking for the issue of a SonarQube issue
+  private static final int MAX_FOUND_ISSUES = 10;
   private static final Logger LOG = LoggerFactory.getLogger(JiraIssueCreator.class);
   private final RuleFinder ruleFinder;
+  private final JiraClientManager clientManager;
+  private final ConcurrentMap<File, JiraGroupIndex> groupIndexes = Maps.newConcurrentMap();
+  private final ConcurrentMap<File, JiraCreationJournal> journals = Maps.newConcurrentMap();
 
-  public JiraIssueCreator(RuleFinder ruleFinder) {
+  public JiraIssueCreator(RuleFinder ruleFinder, JiraClientManager clientManager) {
     this.ruleFinder = ruleFinder;
+    this.clientManager = clientManager;
   }
 
   public RemoteIssue createIssue(Issue sonarIssue, Settings settings) throws RemoteException {
-    JiraSoapSession soapSession = createSoapSession(settings);
-
-    return doCreateIssue(sonarIssue, soapSession, settings);
+    JiraClient client = acquireClient(settings);
+    try {
+      return doCreateIssue(sonarIssue, client, settings);
+    } finally {
+      clientManager.release(client);
+    }
   }
 
-  protected JiraSoapSession createSoapSession(Settings settings) {
+  /**
+   * Returns a connected client, reused from a previous issue creation when possible.
+   */
+  protected JiraClient acquireClient(Settings settings) {
     String jiraUrl = settings.getString(JiraConstants.SERVER_URL_PROPERTY);
-    String baseUrl = settings.getString(JiraConstants.SOAP_BASE_URL_PROPERTY);
-    String completeUrl = jiraUrl + baseUrl;
+    try {
+      return clientManager.acquire(settings);
+    } catch (RemoteException e) {
+      throw new IllegalStateException("Impossible to connect to the JIRA server (" + jiraUrl + ").", e);
+    }
+  }
 
-    // get handle to the JIRA SOAP Service from a client point of view
-    JiraSoapSession soapSession = null;
+  /**
+   * Creates a JIRA issue built by {@link #initRemoteIssue(Issue, Settings)} for the given SonarQube issue.
+   */
+  public RemoteIssue createIssue(String sonarIssueKey, RemoteIssue issue, Settings settings) {
+    JiraClient client = acquireClient(settings);
     try {
-      soapSession = new JiraSoapSession(new URL(completeUrl));
-    } catch (MalformedURLException e) {
-      LOG.error("The JIRA server URL is not a valid one: " + completeUrl, e);
-      throw new IllegalStateException("The JIRA server URL is not a valid one: " + completeUrl, e);
+      return doCreateIssue(sonarIssueKey, issue, client, settings);
+    } finally {
+      clientManager.release(client);
     }
-    return soapSession;
   }
 
-  protected RemoteIssue doCreateIssue(Issue sonarIssue, JiraSoapSession soapSession, Settings settings) {
-    // Connect to JIRA
-    String jiraUrl = settings.getString(JiraConstants.SERVER_URL_PROPERTY);
-    String userName = settings.getString(JiraConstants.USERNAME_PROPERTY);
-    String password = settings.getString(JiraConstants.PASSWORD_PROPERTY);
+  /**
+   * Creates the JIRA issue with a client of {@link #acquireClient(Settings)}, which may be shared by several threads.
+   */
+  RemoteIssue createIssue(String sonarIssueKey, RemoteIssue issue, JiraClient client, Settings settings) {
+    return doCreateIssue(sonarIssueKey, issue, client, settings);
+  }
+
+  void releaseClient(JiraClient client) {
+    clientManager.release(client);
+  }
+
+  protected RemoteIssue doCreateIssue(Issue sonarIssue, JiraClient client, Settings settings) {
+    if (settings.getBoolean(JiraConstants.GROUPING_PROPERTY)) {
+      return doCreateGroupedIssue(sonarIssue, client, settings);
+    }
+    return doCreateIssue(sonarIssue.key(), initRemoteIssue(sonarIssue, settings), client, settings);
+  }
+
+  /**
+   * Adds the SonarQube issue as a comment of the JIRA issue of its group, or creates this JIRA issue for the first
+   * SonarQube issue of the group.
+   *
+   * @return the JIRA issue of the group, only its key is set when the SonarQube issue has been added as a comment
+   */
+  private RemoteIssue doCreateGroupedIssue(Issue sonarIssue, JiraClient client, Settings settings) {
+    RemoteIssue issue = initRemoteIssue(sonarIssue, settings);
+    RemoteComponent[] components = issue.getComponents();
+    String group = JiraGroupIndex.getGroup(sonarIssue.ruleKey().toString(), sonarIssue.componentKey(), issue.getProject(),
+      components != null && components.length > 0 ? components[0].getId() : null);
+    JiraGroupIndex index = getGroupIndex(settings);
+    synchronized (index.lock(group)) {
+      String jiraKey = index.get(group);
+      if (jiraKey != null && addComment(client, jiraKey, generateIssueDescription(sonarIssue, settings), settings)) {
+        LOG.debug("Successfully added issue {} to {}", sonarIssue.key(), jiraKey);
+        RemoteIssue groupIssue = new RemoteIssue();
+        groupIssue.setKey(jiraKey);
+        return groupIssue;
+      }
+      issue.setSummary(generateGroupSummary(sonarIssue));
+      RemoteIssue createdIssue = doCreateIssue(sonarIssue.key(), issue, client, settings);
+      index.put(group, createdIssue.getKey());
+      return createdIssue;
+    }
+  }
+
+  /**
+   * @return <code>false</code> if JIRA does not let the issue be commented anymore, for example because it has been deleted
+   * @throws IllegalStateException on any other error, a timeout for example, so that the link is retried later instead
+   *                               of replacing the JIRA issue of the group
+   */
+  private boolean addComment(JiraClient client, final String jiraKey, final String body, Settings settings) {
     try {
-      soapSession.connect(userName, password);
+      clientManager.execute(client, new JiraClientManager.Callback<Void>() {
+        public Void execute(JiraClient client) throws RemoteException {
+          client.addComment(jiraKey, body);
+          return null;
+        }
+      });
+      return true;
     } catch (RemoteException e) {
-      throw new IllegalStateException("Impossible to connect to the JIRA server (" + jiraUrl + ").", e);
+      if (isGone(e)) {
+        LOG.warn("Unable to add a comment to the JIRA issue " + jiraKey + ", a new JIRA issue is created", e);
+        return false;
+      }
+      throw new IllegalStateException("Impossible to add a comment to the JIRA issue " + jiraKey + " on the JIRA server ("
+        + settings.getString(JiraConstants.SERVER_URL_PROPERTY) + ")", e);
     }
+  }
 
-    // The JIRA SOAP Service and authentication token are used to make authentication calls
-    JiraSoapService jiraSoapService = soapSession.getJiraSoapService();
-    String authToken = soapSession.getAuthenticationToken();
+  /**
+   * JIRA answers that the issue does not exist, or that it can not be seen or commented anymore.
+   */
+  private static boolean isGone(RemoteException e) {
+    return e instanceof RemotePermissionException || e instanceof RemoteValidationException
+      || (e instanceof HttpStatusException && ((HttpStatusException) e).getStatus() == HttpStatus.SC_NOT_FOUND);
+  }
 
-    // And create the issue
-    RemoteIssue issue = initRemoteIssue(sonarIssue, settings);
-    RemoteIssue returnedIssue = sendRequest(jiraSoapService, authToken, issue, jiraUrl, userName);
+  private JiraCreationJournal getCreationJournal(Settings settings) {
+    File file = JiraCreationJournal.getFile(JiraMetadataCache.create(settings).getDirectory(), settings.getString(JiraConstants.SERVER_URL_PROPERTY));
+    JiraCreationJournal journal = journals.get(file);
+    if (journal == null) {
+      JiraCreationJournal loaded = JiraCreationJournal.load(file, System.currentTimeMillis());
+      journal = journals.putIfAbsent(file, loaded);
+      if (journal == null) {
+        journal = loaded;
+      }
+    }
+    return journal;
+  }
+
+  private JiraGroupIndex getGroupIndex(Settings settings) {
+    // the index is kept even if the metadata cache is disabled, only its directory is shared
+    File file = JiraGroupIndex.getFile(JiraMetadataCache.create(settings).getDirectory(), settings.getString(JiraConstants.SERVER_URL_PROPERTY));
+    JiraGroupIndex index = groupIndexes.get(file);
+    if (index == null) {
+      JiraGroupIndex loaded = JiraGroupIndex.load(file);
+      index = groupIndexes.putIfAbsent(file, loaded);
+      if (index == null) {
+        index = loaded;
+      }
+    }
+    return index;
+  }
+
+  /**
+   * The creation is recorded in the {@link JiraCreationJournal} until its outcome is known, and JIRA is searched for the
+   * issue of a previous creation whose outcome is unknown before creating another one.
+   */
+  private RemoteIssue doCreateIssue(String sonarIssueKey, RemoteIssue issue, JiraClient client, Settings settings) {
+    String jiraUrl = settings.getString(JiraConstants.SERVER_URL_PROPERTY);
+    String userName = settings.getString(JiraConstants.USERNAME_PROPERTY);
+    JiraCreationJournal journal = getCreationJournal(settings);
+    if (journal.start(sonarIssueKey, System.currentTimeMillis())) {
+      RemoteIssue previousIssue = findIssue(client, issue.getProject(), sonarIssueKey);
+      if (previousIssue != null) {
+        LOG.info("JIRA issue {} of SonarQube issue {} has already been created", previousIssue.getKey(), sonarIssueKey);
+        journal.finish(sonarIssueKey);
+        return previousIssue;
+      }
+    }
+    RemoteIssue returnedIssue;
+    try {
+      returnedIssue = sendRequest(client, issue, jiraUrl, userName);
+    } catch (IllegalStateException e) {
+      if (isRejected(e.getCause())) {
+        journal.finish(sonarIssueKey);
+      }
+      throw e;
+    }
+    journal.finish(sonarIssueKey);
 
     String issueKey = returnedIssue.getKey();
     LOG.debug("Successfully created issue {}", issueKey);
@@ -187,9 +336,101 @@ public class JiraIssueCreator implements ServerExtension {
     return returnedIssue;
   }
 
-  protected RemoteIssue sendRequest(JiraSoapService jiraSoapService, String authToken, RemoteIssue issue, String jiraUrl, String userName) {
+  /**
+   * The issue has certainly not been created when JIRA rejected the request, but it may have been with any other error,
+   * a timeout for example.
+   */
+  private static boolean isRejected(Throwable cause) {
+    return cause instanceof RemoteAuthenticationException || cause instanceof RemotePermissionException || cause instanceof RemoteValidationException;
+  }
+
+  /**
+   * Searches the JIRA issue created for the SonarQube issue, by its label, or by its key in its summary or in its description
+   * for the JIRA issues created without label. The description of the found issue must hold the key of the SonarQube issue.
+   *
+   * @return <code>null</code> if there is no such issue, or if JIRA can not be searched
+   */
+  protected RemoteIssue findIssue(JiraClient client, String projectKey, String sonarIssueKey) {
+    String project = "project = \"" + projectKey + "\" AND ";
     try {
-      return jiraSoapService.createIssue(authToken, issue);
+      RemoteIssue issue = searchIssue(client, project + "labels = \"" + getLabel(sonarIssueKey) + "\" ORDER BY created ASC", sonarIssueKey);
+      if (issue != null) {
+        return issue;
+      }
+    } catch (RemoteException e) {
+      // JIRA servers older than 4.2 have no labels
+      LOG.debug("Unable to search the JIRA issue of SonarQube issue " + sonarIssueKey + " by label", e);
+    }
+    String phrase = "\"\\\"" + sonarIssueKey + "\\\"\"";
+    try {
+      return searchIssue(client, project + "(summary ~ " + phrase + " OR description ~ " + phrase + ") ORDER BY created ASC", sonarIssueKey);
+    } catch (RemoteException e) {
+      LOG.warn("Unable to search the JIRA issue of SonarQube issue " + sonarIssueKey + ", it may be created twice", e);
+      return null;
+    }
+  }
+
+  private RemoteIssue searchIssue(JiraClient client, final String jql, String sonarIssueKey) throws RemoteException {
+    final List<RemoteIssue> found = Lists.newArrayList();
+    clientManager.execute(client, new JiraClientManager.Callback<Integer>() {
+      public Integer execute(JiraClient client) throws RemoteException {
+        found.clear();
+        return client.getIssuesFromJqlSearch(jql, MAX_FOUND_ISSUES, new RemoteIssueHandler() {
+          public void handle(RemoteIssue issue) {
+            found.add(issue);
+          }
+        });
+      }
+    });
+    for (final RemoteIssue candidate : found) {
+      // searches do not return the descriptions
+      RemoteIssue issue = clientManager.execute(client, new JiraClientManager.Callback<RemoteIssue>() {
+        public RemoteIssue execute(JiraClient client) throws RemoteException {
+          return client.getIssue(candidate.getKey());
+        }
+      });
+      if (issue != null && containsKey(issue.getDescription(), sonarIssueKey)) {
+        return issue;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The key must not be part of a longer word, which could be the key of another SonarQube issue.
+   */
+  static boolean containsKey(String text, String key) {
+    if (text == null) {
+      return false;
+    }
+    for (int index = text.indexOf(key); index >= 0; index = text.indexOf(key, index + 1)) {
+      int end = index + key.length();
+      if ((index == 0 || !isKeyChar(text.charAt(index - 1))) && (end == text.length() || !isKeyChar(text.charAt(end)))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isKeyChar(char c) {
+    return Character.isLetterOrDigit(c) || c == '-' || c == '_';
+  }
+
+  /**
+   * Label of the JIRA issue created for the SonarQube issue, which finds it when its creation may have failed.
+   */
+  static String getLabel(String sonarIssueKey) {
+    return "sonar-" + sonarIssueKey;
+  }
+
+  protected RemoteIssue sendRequest(JiraClient client, final RemoteIssue issue, String jiraUrl, String userName) {
+    try {
+      // the client may have been idle long enough for JIRA to expire its session, the manager logs in again if needed
+      return clientManager.execute(client, new JiraClientManager.Callback<RemoteIssue>() {
+        public RemoteIssue execute(JiraClient client) throws RemoteException {
+          return client.createIssue(issue);
+        }
+      });
     } catch (RemoteAuthenticationException e) {
       throw new IllegalStateException("Impossible to connect to the JIRA server (" + jiraUrl + ") because of invalid credentials for user " + userName, e);
     } catch (RemotePermissionException e) {
@@ -216,6 +457,8 @@ public class JiraIssueCreator implements ServerExtension {
       rc.setId(componentId);
       issue.setComponents(new RemoteComponent[] {rc});
     }
+    issue.setCustomFieldValues(new RemoteCustomFieldValue[] {new RemoteCustomFieldValue(JiraClient.LABELS_FIELD, null,
+      new String[] {getLabel(sonarIssue.key())})});
     return issue;
   }
 
@@ -231,6 +474,14 @@ public class JiraIssueCreator implements ServerExtension {
     return summary.toString();
   }
 
+  protected String generateGroupSummary(Issue sonarIssue) {
+    Rule rule = ruleFinder.findByKey(sonarIssue.ruleKey());
+
+    StringBuilder summary = new StringBuilder("SonarQube Issues - ");
+    summary.append(rule != null && rule.getName() != null ? rule.getName() : sonarIssue.ruleKey().toString());
+    return summary.toString();
+  }
+
   protected String generateIssueDescription(Issue sonarIssue, Settings settings) {
     StringBuilder description = new StringBuilder("Issue detail:");
     description.append(QUOTE);
@@ -266,5 +517,4 @@ public class JiraIssueCreator implements ServerExtension {
     }
     return priorityId;
   }
-
 }
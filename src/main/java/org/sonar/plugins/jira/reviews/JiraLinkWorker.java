@@ -0,0 +1,346 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.reviews;
+
+import com.atlassian.jira.rpc.soap.client.RemoteIssue;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.CoreProperties;
+import org.sonar.api.Properties;
+import org.sonar.api.Property;
+import org.sonar.api.PropertyType;
+import org.sonar.api.ServerExtension;
+import org.sonar.api.config.Settings;
+import org.sonar.api.issue.Issue;
+import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.cache.JiraLinkQueue;
+import org.sonar.plugins.jira.cache.JiraMetadataCache;
+import org.sonar.plugins.jira.client.JiraClient;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Creates in the background the JIRA issues queued by {@link LinkFunction} when {@link JiraConstants#LINK_ASYNC_PROPERTY}
+ * is enabled, so that the "Link to JIRA" action does not wait for JIRA.
+ * <p/>
+ * The SonarQube API only lets the action itself update a SonarQube issue, so once the JIRA issue is created, the worker
+ * executes the action again through the <code>api/issues/do_action</code> web service, with the SonarQube user of
+ * {@link JiraConstants#LINK_SONAR_LOGIN_PROPERTY}: {@link LinkFunction} then adds the comment and the
+ * <code>jira-issue-key</code> attribute without requesting JIRA. Without this user, the SonarQube issue is linked the next
+ * time the action is executed on it.
+ * <p/>
+ * The entries due at the same time, for example the issues linked while the previous ones were created, are processed
+ * together: the ones of the same JIRA server and user share a single JIRA session, and at most
+ * {@link JiraConstants#BULK_THREADS_PROPERTY} of them are created at the same time.
+ * <p/>
+ * Failed attempts are retried issue by issue with an exponential delay, and the queue is kept on disk, see {@link JiraLinkQueue}.
+ */
+@Properties({
+  @Property(
+    key = JiraConstants.LINK_ASYNC_PROPERTY,
+    defaultValue = JiraConstants.LINK_ASYNC_DEF_VALUE,
+    name = "Create JIRA issues in the background",
+    description = "The \"Link to JIRA\" action returns right away, and the JIRA issue is created by a background task, "
+      + "which retries when JIRA is unavailable.",
+    global = true,
+    project = false,
+    type = PropertyType.BOOLEAN
+  ),
+  @Property(
+    key = JiraConstants.LINK_SONAR_LOGIN_PROPERTY,
+    name = "SonarQube login for background links",
+    description = "SonarQube user allowed to browse the projects, used to link SonarQube issues to the JIRA issues created in the background, "
+      + "and to update the SonarQube issues synchronized with JIRA.",
+    global = true,
+    project = false
+  ),
+  @Property(
+    key = JiraConstants.LINK_SONAR_PASSWORD_PROPERTY,
+    name = "SonarQube password for background links",
+    global = true,
+    project = false,
+    type = PropertyType.PASSWORD
+  ),
+  @Property(
+    key = JiraConstants.BULK_THREADS_PROPERTY,
+    defaultValue = JiraConstants.BULK_THREADS_DEF_VALUE,
+    name = "Concurrent background JIRA issue creations",
+    description = "Maximum number of JIRA issues created at the same time by the background task. "
+      + "The requests are also bounded by the request limits of the JIRA server.",
+    global = true,
+    project = false,
+    type = PropertyType.INTEGER
+  )
+})
+public class JiraLinkWorker implements ServerExtension {
+  private static final Logger LOG = LoggerFactory.getLogger(JiraLinkWorker.class);
+
+  private static final long POLL_SECONDS = 30L;
+  private static final long BASE_DELAY_MILLIS = 30L * 1000L;
+  private static final long MAX_DELAY_MILLIS = 60L * 60L * 1000L;
+  static final int MAX_ATTEMPTS = 10;
+
+  private final Settings settings;
+  private final JiraIssueCreator jiraIssueCreator;
+  private final SonarWebServiceClient sonarClient;
+  private JiraLinkQueue queue;
+  private ScheduledExecutorService executor;
+  private final AtomicBoolean drainPending = new AtomicBoolean();
+  private final Runnable drainTask = new Runnable() {
+    public void run() {
+      drainPending.set(false);
+      try {
+        drain(System.currentTimeMillis());
+      } catch (RuntimeException e) {
+        // the task must not stop, entries are retried at the next poll
+        LOG.error("Unable to process the queued JIRA issues", e);
+      }
+    }
+  };
+
+  public JiraLinkWorker(Settings settings, JiraIssueCreator jiraIssueCreator, SonarWebServiceClient sonarClient) {
+    this.settings = settings;
+    this.jiraIssueCreator = jiraIssueCreator;
+    this.sonarClient = sonarClient;
+  }
+
+  public boolean isEnabled() {
+    return settings.getBoolean(JiraConstants.LINK_ASYNC_PROPERTY);
+  }
+
+  /**
+   * Called by the server when it starts. Entries queued before a restart are processed even if the property has been
+   * disabled since.
+   */
+  public void start() {
+    if (isEnabled() || getQueue().size() > 0) {
+      ensureStarted();
+    }
+  }
+
+  /**
+   * Called by the server when it stops, the remaining entries are processed after the restart.
+   */
+  public synchronized void stop() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  public JiraLinkQueue.Entry getEntry(String issueKey) {
+    return getQueue().get(issueKey);
+  }
+
+  /**
+   * Queues the creation of the JIRA issue of the SonarQube issue, with the settings of its project.
+   */
+  public void enqueue(Issue sonarIssue, Settings projectSettings) {
+    RemoteIssue issue = jiraIssueCreator.initRemoteIssue(sonarIssue, projectSettings);
+    Map<String, String> jiraSettings = Maps.newHashMap();
+    for (Map.Entry<String, String> property : projectSettings.getProperties().entrySet()) {
+      if (property.getKey().startsWith("sonar.jira.") || CoreProperties.SERVER_BASE_URL.equals(property.getKey())) {
+        jiraSettings.put(property.getKey(), property.getValue());
+      }
+    }
+    getQueue().add(sonarIssue.key(), issue, jiraSettings);
+    LOG.debug("JIRA issue of SonarQube issue {} queued", sonarIssue.key());
+    wakeUp();
+  }
+
+  /**
+   * Called once the SonarQube issue is linked to its JIRA issue.
+   */
+  public void linked(String issueKey) {
+    getQueue().remove(issueKey);
+  }
+
+  synchronized JiraLinkQueue getQueue() {
+    if (queue == null) {
+      queue = JiraLinkQueue.load(JiraLinkQueue.getFile(JiraMetadataCache.create(settings).getDirectory()));
+    }
+    return queue;
+  }
+
+  /**
+   * Processes the due entries right away instead of waiting for the next poll. The entries queued while the previous
+   * ones are processed are drained together afterwards.
+   */
+  void wakeUp() {
+    ScheduledExecutorService started = ensureStarted();
+    if (drainPending.compareAndSet(false, true)) {
+      started.execute(drainTask);
+    }
+  }
+
+  private synchronized ScheduledExecutorService ensureStarted() {
+    if (executor == null) {
+      executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("jira-link-worker").setDaemon(true).build());
+      executor.scheduleWithFixedDelay(drainTask, 0L, POLL_SECONDS, TimeUnit.SECONDS);
+    }
+    return executor;
+  }
+
+  /**
+   * Processes the entries due at the given time, with one JIRA session for the entries of the same settings.
+   */
+  void drain(long now) {
+    Map<Map<String, String>, List<JiraLinkQueue.Entry>> entriesBySettings = Maps.newLinkedHashMap();
+    for (JiraLinkQueue.Entry entry : getQueue().getDue(now)) {
+      List<JiraLinkQueue.Entry> entries = entriesBySettings.get(entry.getSettings());
+      if (entries == null) {
+        entries = Lists.newArrayList();
+        entriesBySettings.put(entry.getSettings(), entries);
+      }
+      entries.add(entry);
+    }
+    for (List<JiraLinkQueue.Entry> entries : entriesBySettings.values()) {
+      if (Thread.currentThread().isInterrupted()) {
+        return;
+      }
+      drain(entries, toSettings(entries.get(0)), now);
+    }
+  }
+
+  private void drain(List<JiraLinkQueue.Entry> entries, Settings entrySettings, long now) {
+    JiraClient client;
+    try {
+      client = jiraIssueCreator.acquireClient(entrySettings);
+    } catch (IllegalStateException e) {
+      for (JiraLinkQueue.Entry entry : entries) {
+        failed(entry, now, e);
+      }
+      return;
+    }
+    try {
+      int threads = Math.max(1, Math.min(entrySettings.getInt(JiraConstants.BULK_THREADS_PROPERTY), entries.size()));
+      if (threads == 1) {
+        for (JiraLinkQueue.Entry entry : entries) {
+          if (Thread.currentThread().isInterrupted()) {
+            return;
+          }
+          process(entry, client, entrySettings, now);
+        }
+      } else {
+        processConcurrently(entries, client, entrySettings, now, threads);
+      }
+    } finally {
+      jiraIssueCreator.releaseClient(client);
+    }
+  }
+
+  private void processConcurrently(List<JiraLinkQueue.Entry> entries, final JiraClient client, final Settings entrySettings, final long now, int threads) {
+    ExecutorService creators = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setNameFormat("jira-link-worker-%d").setDaemon(true).build());
+    try {
+      List<Callable<Void>> tasks = Lists.newArrayList();
+      for (final JiraLinkQueue.Entry entry : entries) {
+        tasks.add(new Callable<Void>() {
+          public Void call() {
+            try {
+              process(entry, client, entrySettings, now);
+            } catch (RuntimeException e) {
+              // the other entries go on, this one is retried at the next poll
+              LOG.error("Unable to process the queued JIRA issue of SonarQube issue " + entry.getIssueKey(), e);
+            }
+            return null;
+          }
+        });
+      }
+      creators.invokeAll(tasks);
+    } catch (InterruptedException e) {
+      // stopped, the remaining entries are processed after the restart
+      Thread.currentThread().interrupt();
+    } finally {
+      creators.shutdownNow();
+    }
+  }
+
+  private void process(JiraLinkQueue.Entry entry, JiraClient client, Settings entrySettings, long now) {
+    String issueKey = entry.getIssueKey();
+    String jiraKey = entry.getJiraKey();
+    if (jiraKey == null) {
+      try {
+        jiraKey = jiraIssueCreator.createIssue(issueKey, entry.getIssue(), client, entrySettings).getKey();
+      } catch (RuntimeException e) {
+        failed(entry, now, e);
+        return;
+      }
+      LOG.info("JIRA issue {} created for SonarQube issue {}", jiraKey, issueKey);
+      getQueue().setCreated(issueKey, jiraKey);
+    }
+    try {
+      if (linkSonarIssue(issueKey)) {
+        // already removed by the link function, unless the issue is linked from another server
+        getQueue().remove(issueKey);
+      }
+    } catch (IOException e) {
+      failed(getQueue().get(issueKey), now, e);
+    }
+  }
+
+  private void failed(JiraLinkQueue.Entry entry, long now, Exception e) {
+    if (entry == null) {
+      return;
+    }
+    String action = entry.isCreated() ? "link SonarQube issue " + entry.getIssueKey() + " to JIRA issue " + entry.getJiraKey()
+      : "create the JIRA issue of SonarQube issue " + entry.getIssueKey();
+    if (entry.getAttempts() + 1 >= MAX_ATTEMPTS) {
+      LOG.error("Unable to " + action + " after " + MAX_ATTEMPTS + " attempts, giving up", e);
+      getQueue().remove(entry.getIssueKey());
+    } else {
+      long delay = Math.min(BASE_DELAY_MILLIS << entry.getAttempts(), MAX_DELAY_MILLIS);
+      LOG.warn("Unable to {}, next attempt in {} s: {}", new Object[] {action, delay / 1000L, e.getMessage()});
+      getQueue().retryLater(entry.getIssueKey(), now + delay);
+    }
+  }
+
+  private Settings toSettings(JiraLinkQueue.Entry entry) {
+    // secured settings of entries read from disk, and defaults, are the ones of the server
+    Settings entrySettings = new Settings(settings);
+    entrySettings.addProperties(entry.getSettings());
+    return entrySettings;
+  }
+
+  /**
+   * Executes the "Link to JIRA" action on the SonarQube issue, so that {@link LinkFunction} links it to the created JIRA issue.
+   *
+   * @return false if no SonarQube user is configured
+   * @throws IOException if SonarQube can not be reached or rejects the action
+   */
+  protected boolean linkSonarIssue(String issueKey) throws IOException {
+    if (!sonarClient.isConfigured()) {
+      return false;
+    }
+    sonarClient.doAction(issueKey, JiraActionDefinition.LINK_TO_JIRA_ID);
+    return true;
+  }
+
+}
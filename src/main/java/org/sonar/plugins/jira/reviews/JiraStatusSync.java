@@ -0,0 +1,380 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.reviews;
+
+import com.atlassian.jira.rpc.soap.client.RemoteAuthenticationException;
+import com.atlassian.jira.rpc.soap.client.RemoteIssue;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.Properties;
+import org.sonar.api.Property;
+import org.sonar.api.PropertyType;
+import org.sonar.api.ServerExtension;
+import org.sonar.api.config.Settings;
+import org.sonar.api.issue.DefaultTransitions;
+import org.sonar.api.issue.Issue;
+import org.sonar.api.utils.TimeProfiler;
+import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.cache.JiraLinkIndex;
+import org.sonar.plugins.jira.cache.JiraMetadataCache;
+import org.sonar.plugins.jira.client.JiraClient;
+import org.sonar.plugins.jira.client.JiraClientManager;
+import org.sonar.plugins.jira.client.RemoteIssueHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Brings the SonarQube issues linked to JIRA up to date with the status of their JIRA issues, every
+ * {@link JiraConstants#SYNC_INTERVAL_PROPERTY} minutes: a SonarQube issue is resolved when its JIRA issue is resolved, and
+ * reopened when its JIRA issue is reopened, with a comment.
+ * <p/>
+ * Links are recorded by {@link LinkFunction} in a {@link JiraLinkIndex} per JIRA server, and only the links of the JIRA server
+ * of the server settings are synchronized. The first synchronization adds to this index the links made before it existed, see
+ * {@link #seed(JiraLinkIndex)}. They are read by chunks of {@link #CHUNK_SIZE}, and JIRA is requested once per
+ * chunk for the issues updated since the previous synchronization. The position is stored after each chunk, so that an
+ * interrupted synchronization resumes where it stopped. A synchronization which could not update some SonarQube issues does
+ * not move the time of the previous synchronization, so that the next one searches their JIRA issues again.
+ * <p/>
+ * The SonarQube issues are updated through the web services with the user of {@link JiraConstants#LINK_SONAR_LOGIN_PROPERTY},
+ * see {@link SonarWebServiceClient}.
+ */
+@Properties({
+  @Property(
+    key = JiraConstants.SYNC_INTERVAL_PROPERTY,
+    defaultValue = JiraConstants.SYNC_INTERVAL_DEF_VALUE,
+    name = "JIRA status synchronization interval",
+    description = "Minutes between two synchronizations of the SonarQube issues linked to JIRA with the status of their JIRA issues, "
+      + "for example 1440 for once a day. The SonarQube issues are updated with the SonarQube login for background links. "
+      + "Set to 0 to disable the synchronization.",
+    global = true,
+    project = false,
+    type = PropertyType.INTEGER
+  )
+})
+public class JiraStatusSync implements ServerExtension {
+  private static final Logger LOG = LoggerFactory.getLogger(JiraStatusSync.class);
+
+  // JIRA keys per JQL query
+  static final int CHUNK_SIZE = 100;
+  // SonarQube issues per page when looking for the links made before the index existed
+  static final int SEED_PAGE_SIZE = 500;
+  // closed SonarQube issues removed from the index per synchronization, the next ones are removed by the next synchronization
+  private static final int MAX_REMOVED = 10000;
+  private static final long MINUTE = 60L * 1000L;
+  // clocks of SonarQube and JIRA may differ
+  private static final int SYNC_MARGIN_MINUTES = 2;
+
+  private final Settings settings;
+  private final JiraClientManager clientManager;
+  private final SonarWebServiceClient sonarClient;
+  private final ConcurrentMap<File, JiraLinkIndex> indexes = Maps.newConcurrentMap();
+  private ScheduledExecutorService executor;
+
+  public JiraStatusSync(Settings settings, JiraClientManager clientManager, SonarWebServiceClient sonarClient) {
+    this.settings = settings;
+    this.clientManager = clientManager;
+    this.sonarClient = sonarClient;
+  }
+
+  public boolean isEnabled() {
+    return settings.getInt(JiraConstants.SYNC_INTERVAL_PROPERTY) > 0;
+  }
+
+  /**
+   * Called by the server when it starts. An interrupted synchronization, or a late one, starts right away.
+   */
+  public synchronized void start() {
+    if (!isEnabled() || executor != null) {
+      return;
+    }
+    long interval = settings.getInt(JiraConstants.SYNC_INTERVAL_PROPERTY) * MINUTE;
+    JiraLinkIndex.Cursor cursor = getIndex(settings.getString(JiraConstants.SERVER_URL_PROPERTY)).getCursor();
+    long delay = cursor.isRunning() ? 0L : Math.max(0L, cursor.getLastSync() + interval - System.currentTimeMillis());
+    executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("jira-status-sync").setDaemon(true).build());
+    executor.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        try {
+          sync(System.currentTimeMillis());
+        } catch (RuntimeException e) {
+          // the task must not stop, the synchronization resumes at the next run
+          LOG.error("Unable to synchronize the SonarQube issues linked to JIRA", e);
+        }
+      }
+    }, delay, interval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Called by the server when it stops, an unfinished synchronization resumes after the restart.
+   */
+  public synchronized void stop() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  /**
+   * Records the link, which is then synchronized even if the synchronization is currently disabled.
+   */
+  public void linked(Settings projectSettings, String issueKey, String jiraKey) {
+    getIndex(projectSettings.getString(JiraConstants.SERVER_URL_PROPERTY)).add(issueKey, jiraKey);
+  }
+
+  JiraLinkIndex getIndex(String serverUrl) {
+    File file = JiraLinkIndex.getFile(JiraMetadataCache.create(settings).getDirectory(), serverUrl);
+    JiraLinkIndex index = indexes.get(file);
+    if (index == null) {
+      JiraLinkIndex created = new JiraLinkIndex(file);
+      index = indexes.putIfAbsent(file, created);
+      if (index == null) {
+        index = created;
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Synchronizes the links, starting from the position of an interrupted synchronization if any.
+   *
+   * @return the number of updated SonarQube issues
+   */
+  int sync(long now) {
+    if (!sonarClient.isConfigured()) {
+      LOG.warn("SonarQube issues linked to JIRA can not be synchronized without the property {}", JiraConstants.LINK_SONAR_LOGIN_PROPERTY);
+      return 0;
+    }
+    JiraLinkIndex index = getIndex(settings.getString(JiraConstants.SERVER_URL_PROPERTY));
+    JiraLinkIndex.Cursor cursor = index.getCursor();
+    long runStart = cursor.isRunning() ? cursor.getRunStart() : now;
+    long position = cursor.isRunning() ? cursor.getPosition() : 0L;
+    long previousFailures = cursor.isRunning() ? cursor.getFailures() : 0L;
+    String updatedSinceLastSync = cursor.getLastSync() > 0L
+      ? " AND updated >= -" + ((now - cursor.getLastSync()) / MINUTE + SYNC_MARGIN_MINUTES) + "m" : "";
+    if (position > 0L) {
+      LOG.info("Resuming the synchronization of the SonarQube issues linked to JIRA after {} links", position);
+    } else if (!index.isSeeded()) {
+      try {
+        seed(index);
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to read the SonarQube issues linked to JIRA before the upgrade of the plugin", e);
+      }
+    }
+
+    JiraClient client = acquireClient();
+    JiraLinkIndex.LinkReader links = null;
+    Set<String> closedIssueKeys = Sets.newHashSet();
+    Set<String> failedIssueKeys = Sets.newHashSet();
+    int updated = 0;
+    try {
+      links = index.read(position);
+      List<JiraLinkIndex.Link> chunk = links.next(CHUNK_SIZE);
+      while (!chunk.isEmpty()) {
+        if (Thread.currentThread().isInterrupted()) {
+          return updated;
+        }
+        updated += syncChunk(client, chunk, updatedSinceLastSync, closedIssueKeys, failedIssueKeys);
+        position += chunk.size();
+        index.setCursor(new JiraLinkIndex.Cursor(cursor.getLastSync(), runStart, position, previousFailures + failedIssueKeys.size()));
+        chunk = links.next(CHUNK_SIZE);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read the SonarQube issues linked to JIRA", e);
+    } finally {
+      if (links != null) {
+        links.close();
+      }
+      clientManager.release(client);
+    }
+    long failures = previousFailures + failedIssueKeys.size();
+    if (failures > 0L) {
+      LOG.warn("{} SonarQube issues linked to JIRA could not be updated, they are retried by the next synchronization", failures);
+      index.setCursor(new JiraLinkIndex.Cursor(cursor.getLastSync(), 0L, 0L, 0L));
+    } else {
+      index.setCursor(new JiraLinkIndex.Cursor(runStart, 0L, 0L, 0L));
+    }
+    index.removeAll(closedIssueKeys);
+    LOG.info("{} links to JIRA synchronized, {} SonarQube issues updated", position, updated);
+    return updated;
+  }
+
+  /**
+   * Adds the links made before the index existed, read from the {@link JiraConstants#SONAR_ISSUE_DATA_PROPERTY_KEY} attribute of
+   * the SonarQube issues which are not closed. The issue search can not filter on attributes, so all these issues are read,
+   * project by project, once. They are added to the index of the JIRA server of the server settings, as their JIRA server is not
+   * recorded.
+   */
+  private void seed(JiraLinkIndex index) throws IOException {
+    TimeProfiler profiler = new TimeProfiler(LOG).start("Read the SonarQube issues linked to JIRA before the upgrade of the plugin");
+    Set<String> indexedIssueKeys = Sets.newHashSet();
+    JiraLinkIndex.LinkReader links = index.read(0L);
+    try {
+      for (List<JiraLinkIndex.Link> chunk = links.next(CHUNK_SIZE); !chunk.isEmpty(); chunk = links.next(CHUNK_SIZE)) {
+        for (JiraLinkIndex.Link link : chunk) {
+          indexedIssueKeys.add(link.getIssueKey());
+        }
+      }
+    } finally {
+      links.close();
+    }
+    int added = 0;
+    for (String projectKey : sonarClient.findProjectKeys()) {
+      SonarWebServiceClient.IssuePage page;
+      int pageIndex = 1;
+      do {
+        page = sonarClient.findUnclosedIssues(projectKey, pageIndex, SEED_PAGE_SIZE);
+        Map<String, String> pageLinks = Maps.newLinkedHashMap();
+        for (Issue issue : page.getIssues()) {
+          String jiraKey = issue.attribute(JiraConstants.SONAR_ISSUE_DATA_PROPERTY_KEY);
+          if (jiraKey != null && indexedIssueKeys.add(issue.key())) {
+            pageLinks.put(issue.key(), jiraKey);
+          }
+        }
+        index.addAll(pageLinks);
+        added += pageLinks.size();
+        pageIndex++;
+      } while (!page.isLast());
+      if (page.isMaxResultsReached()) {
+        LOG.warn("SonarQube returned only part of the issues of project {}, the links to JIRA of the other ones are not synchronized", projectKey);
+      }
+    }
+    index.setSeeded();
+    profiler.stop();
+    LOG.info("{} SonarQube issues linked to JIRA before the upgrade of the plugin added to the synchronization", added);
+  }
+
+  private JiraClient acquireClient() {
+    try {
+      return clientManager.acquire(settings);
+    } catch (RemoteException e) {
+      throw new IllegalStateException("Impossible to connect to the JIRA server (" + settings.getString(JiraConstants.SERVER_URL_PROPERTY) + ").", e);
+    }
+  }
+
+  private int syncChunk(JiraClient client, List<JiraLinkIndex.Link> chunk, String updatedSinceLastSync, Set<String> closedIssueKeys,
+    Set<String> failedIssueKeys) throws IOException {
+    Map<String, String> jiraKeys = Maps.newLinkedHashMap();
+    for (JiraLinkIndex.Link link : chunk) {
+      jiraKeys.put(link.getIssueKey(), link.getJiraKey());
+    }
+    Map<String, RemoteIssue> jiraIssues = search(client, Lists.newArrayList(Sets.newLinkedHashSet(jiraKeys.values())), updatedSinceLastSync);
+    if (jiraIssues.isEmpty()) {
+      return 0;
+    }
+    List<String> issueKeys = Lists.newArrayList();
+    for (Map.Entry<String, String> link : jiraKeys.entrySet()) {
+      if (jiraIssues.containsKey(link.getValue())) {
+        issueKeys.add(link.getKey());
+      }
+    }
+    int updated = 0;
+    for (Issue sonarIssue : sonarClient.findIssues(issueKeys)) {
+      if (Issue.STATUS_CLOSED.equals(sonarIssue.status())) {
+        if (closedIssueKeys.size() < MAX_REMOVED) {
+          closedIssueKeys.add(sonarIssue.key());
+        }
+      } else {
+        RemoteIssue jiraIssue = jiraIssues.get(jiraKeys.get(sonarIssue.key()));
+        try {
+          if (update(sonarIssue, jiraIssue)) {
+            updated++;
+          }
+        } catch (IOException e) {
+          LOG.warn("Unable to update SonarQube issue {} from JIRA issue {}: {}", new Object[] {sonarIssue.key(), jiraIssue.getKey(), e.getMessage()});
+          failedIssueKeys.add(sonarIssue.key());
+        }
+      }
+    }
+    return updated;
+  }
+
+  /**
+   * Searches the JIRA issues updated since the previous synchronization. A single issue which has been deleted, or which
+   * the JIRA user is not allowed to browse, makes JIRA reject the whole query, so the keys are then searched by halves.
+   */
+  private Map<String, RemoteIssue> search(JiraClient client, final List<String> keys, String updatedSinceLastSync) {
+    final String jql = "key in (" + Joiner.on(", ").join(keys) + ")" + updatedSinceLastSync;
+    final Map<String, RemoteIssue> issues = Maps.newHashMap();
+    try {
+      clientManager.execute(client, new JiraClientManager.Callback<Integer>() {
+        public Integer execute(JiraClient client) throws RemoteException {
+          issues.clear();
+          return client.getIssuesFromJqlSearch(jql, keys.size(), new RemoteIssueHandler() {
+            public void handle(RemoteIssue issue) {
+              issues.put(issue.getKey(), issue);
+            }
+          });
+        }
+      });
+    } catch (RemoteException e) {
+      // only the errors returned by JIRA itself may come from the keys
+      if (!(e instanceof com.atlassian.jira.rpc.soap.client.RemoteException) || e instanceof RemoteAuthenticationException) {
+        throw new IllegalStateException("Unable to search the JIRA issues linked to SonarQube issues", e);
+      }
+      if (keys.size() == 1) {
+        LOG.debug("Ignoring JIRA issue {}: {}", keys.get(0), e.getMessage());
+      } else {
+        int half = keys.size() / 2;
+        issues.putAll(search(client, keys.subList(0, half), updatedSinceLastSync));
+        issues.putAll(search(client, keys.subList(half, keys.size()), updatedSinceLastSync));
+      }
+    }
+    return issues;
+  }
+
+  /**
+   * Resolves the SonarQube issue when the JIRA issue is resolved, and reopens it when the JIRA issue is reopened. Issues
+   * resolved as false positives in SonarQube are left as they are.
+   *
+   * @return false if the SonarQube issue did not need to be updated
+   */
+  private boolean update(Issue sonarIssue, RemoteIssue jiraIssue) throws IOException {
+    boolean resolvedInJira = jiraIssue.getResolution() != null;
+    boolean resolvedInSonar = Issue.STATUS_RESOLVED.equals(sonarIssue.status());
+    String transition;
+    String comment;
+    if (resolvedInJira && !resolvedInSonar) {
+      transition = DefaultTransitions.RESOLVE;
+      comment = "JIRA issue " + jiraIssue.getKey() + " has been resolved";
+    } else if (!resolvedInJira && resolvedInSonar && Issue.RESOLUTION_FIXED.equals(sonarIssue.resolution())) {
+      transition = DefaultTransitions.REOPEN;
+      comment = "JIRA issue " + jiraIssue.getKey() + " has been reopened";
+    } else {
+      return false;
+    }
+    sonarClient.doTransition(sonarIssue.key(), transition);
+    sonarClient.addComment(sonarIssue.key(), comment);
+    LOG.debug("SonarQube issue {} updated: {}", sonarIssue.key(), comment);
+    return true;
+  }
+}
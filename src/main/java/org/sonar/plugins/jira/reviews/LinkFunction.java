@@ -25,20 +25,44 @@ import org.sonar.api.ServerExtension;
 import org.sonar.api.config.Settings;
 import org.sonar.api.issue.action.Function;
 import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.cache.JiraLinkQueue;
 
 import java.rmi.RemoteException;
 
 public class LinkFunction implements Function, ServerExtension {
 
   private final JiraIssueCreator jiraIssueCreator;
+  private final JiraLinkWorker linkWorker;
+  private final JiraStatusSync statusSync;
 
-  public LinkFunction(JiraIssueCreator jiraIssueCreator) {
+  public LinkFunction(JiraIssueCreator jiraIssueCreator, JiraLinkWorker linkWorker, JiraStatusSync statusSync) {
     this.jiraIssueCreator = jiraIssueCreator;
+    this.linkWorker = linkWorker;
+    this.statusSync = statusSync;
   }
 
   public void execute(Context context) {
     checkConditions(context.projectSettings());
-    createJiraIssue(context);
+    JiraLinkQueue.Entry entry = linkWorker.getEntry(context.issue().key());
+    if (entry != null) {
+      linkQueuedIssue(entry, context);
+    } else if (linkWorker.isEnabled()) {
+      linkWorker.enqueue(context.issue(), context.projectSettings());
+    } else {
+      createJiraIssue(context);
+    }
+  }
+
+  /**
+   * Links the SonarQube issue once its JIRA issue has been created in the background, nothing is done while it is pending.
+   */
+  protected void linkQueuedIssue(JiraLinkQueue.Entry entry, Context context) {
+    if (entry.isCreated()) {
+      RemoteIssue issue = new RemoteIssue();
+      issue.setKey(entry.getJiraKey());
+      link(issue, context);
+      linkWorker.linked(entry.getIssueKey());
+    }
   }
 
   protected void createJiraIssue(Context context) {
@@ -49,9 +73,17 @@ public class LinkFunction implements Function, ServerExtension {
       throw new IllegalStateException("Impossible to create an issue on JIRA. A problem occured with the remote server: " + e.getMessage(), e);
     }
 
+    link(issue, context);
+  }
+
+  /**
+   * Records the JIRA issue on the SonarQube issue, and in the links synchronized by {@link JiraStatusSync}.
+   */
+  void link(RemoteIssue issue, Context context) {
     createComment(issue, context);
     // and add the property
     context.setAttribute(JiraConstants.SONAR_ISSUE_DATA_PROPERTY_KEY, issue.getKey());
+    statusSync.linked(context.projectSettings(), context.issue().key(), issue.getKey());
   }
 
   @VisibleForTesting
@@ -0,0 +1,246 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.reviews;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.NameValuePair;
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.lang.StringUtils;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.sonar.api.CoreProperties;
+import org.sonar.api.ServerExtension;
+import org.sonar.api.config.Settings;
+import org.sonar.api.issue.Issue;
+import org.sonar.api.issue.internal.DefaultIssue;
+import org.sonar.plugins.jira.JiraConstants;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Client of the issue web services of this SonarQube server, authenticated with the user of
+ * {@link JiraConstants#LINK_SONAR_LOGIN_PROPERTY}: the SonarQube API does not let server extensions update issues
+ * outside of the actions executed by users.
+ */
+public class SonarWebServiceClient implements ServerExtension {
+
+  private static final int HTTP_TIMEOUT_MILLIS = 60 * 1000;
+  private static final String UNCLOSED_STATUSES = Joiner.on(',').join(Issue.STATUS_OPEN, Issue.STATUS_CONFIRMED, Issue.STATUS_REOPENED,
+    Issue.STATUS_RESOLVED);
+
+  /**
+   * Page of an issue search.
+   */
+  public static final class IssuePage {
+    private final List<Issue> issues;
+    private final boolean last;
+    private final boolean maxResultsReached;
+
+    IssuePage(List<Issue> issues, boolean last, boolean maxResultsReached) {
+      this.issues = issues;
+      this.last = last;
+      this.maxResultsReached = maxResultsReached;
+    }
+
+    public List<Issue> getIssues() {
+      return issues;
+    }
+
+    public boolean isLast() {
+      return last;
+    }
+
+    /**
+     * True when SonarQube did not return all the issues matching the search, as it limits the number of results.
+     */
+    public boolean isMaxResultsReached() {
+      return maxResultsReached;
+    }
+  }
+
+  private final Settings settings;
+
+  public SonarWebServiceClient(Settings settings) {
+    this.settings = settings;
+  }
+
+  /**
+   * @return false if no SonarQube user is configured
+   */
+  public boolean isConfigured() {
+    return StringUtils.isNotBlank(settings.getString(JiraConstants.LINK_SONAR_LOGIN_PROPERTY));
+  }
+
+  /**
+   * Executes an action on the issue, see <code>api/issues/do_action</code>.
+   *
+   * @throws IOException if SonarQube can not be reached or rejects the request
+   */
+  public void doAction(String issueKey, String actionKey) throws IOException {
+    PostMethod post = new PostMethod(getUrl("/api/issues/do_action"));
+    post.addParameter("issue", issueKey);
+    post.addParameter("actionKey", actionKey);
+    execute(post);
+  }
+
+  /**
+   * @param transition one of the {@link org.sonar.api.issue.DefaultTransitions}
+   */
+  public void doTransition(String issueKey, String transition) throws IOException {
+    PostMethod post = new PostMethod(getUrl("/api/issues/do_transition"));
+    post.addParameter("issue", issueKey);
+    post.addParameter("transition", transition);
+    execute(post);
+  }
+
+  public void addComment(String issueKey, String text) throws IOException {
+    PostMethod post = new PostMethod(getUrl("/api/issues/add_comment"));
+    post.addParameter("issue", issueKey);
+    post.addParameter("text", text);
+    execute(post);
+  }
+
+  /**
+   * Reads the key, status and resolution of the issues. Issues which do not exist, or which the user is not allowed to
+   * browse, are missing from the result.
+   */
+  public List<Issue> findIssues(Collection<String> issueKeys) throws IOException {
+    GetMethod get = new GetMethod(getUrl("/api/issues/search"));
+    get.setQueryString(new NameValuePair[] {
+      new NameValuePair("issues", Joiner.on(',').join(issueKeys)),
+      new NameValuePair("pageSize", String.valueOf(issueKeys.size()))
+    });
+    return parseIssues(execute(get));
+  }
+
+  /**
+   * Reads the keys of the projects, see <code>api/resources</code>.
+   */
+  public List<String> findProjectKeys() throws IOException {
+    GetMethod get = new GetMethod(getUrl("/api/resources"));
+    get.setQueryString(new NameValuePair[] {
+      new NameValuePair("qualifiers", "TRK"),
+      new NameValuePair("format", "json")
+    });
+    return parseProjectKeys(execute(get));
+  }
+
+  /**
+   * Reads a page of the issues of the project which are not closed, with their attributes.
+   *
+   * @param pageIndex index of the page, starting at 1
+   */
+  public IssuePage findUnclosedIssues(String projectKey, int pageIndex, int pageSize) throws IOException {
+    GetMethod get = new GetMethod(getUrl("/api/issues/search"));
+    get.setQueryString(new NameValuePair[] {
+      new NameValuePair("componentRoots", projectKey),
+      new NameValuePair("statuses", UNCLOSED_STATUSES),
+      new NameValuePair("pageIndex", String.valueOf(pageIndex)),
+      new NameValuePair("pageSize", String.valueOf(pageSize))
+    });
+    return parseIssuePage(execute(get), pageIndex, pageSize);
+  }
+
+  static List<Issue> parseIssues(String body) throws IOException {
+    return parseIssues(parseSearch(body));
+  }
+
+  static IssuePage parseIssuePage(String body, int pageIndex, int pageSize) throws IOException {
+    JSONObject json = parseSearch(body);
+    List<Issue> issues = parseIssues(json);
+    JSONObject paging = (JSONObject) json.get("paging");
+    Object total = paging != null ? paging.get("total") : null;
+    boolean last = issues.size() < pageSize || !(total instanceof Number) || (long) pageIndex * pageSize >= ((Number) total).longValue();
+    return new IssuePage(issues, last, Boolean.TRUE.equals(json.get("maxResultsReached")));
+  }
+
+  private static JSONObject parseSearch(String body) throws IOException {
+    Object json = JSONValue.parse(body);
+    if (!(json instanceof JSONObject) || !(((JSONObject) json).get("issues") instanceof JSONArray)) {
+      throw new IOException("Unexpected response from SonarQube issue search: " + StringUtils.abbreviate(body, 200));
+    }
+    return (JSONObject) json;
+  }
+
+  private static List<Issue> parseIssues(JSONObject json) {
+    List<Issue> issues = Lists.newArrayList();
+    for (Object issue : (JSONArray) json.get("issues")) {
+      JSONObject fields = (JSONObject) issue;
+      DefaultIssue parsed = new DefaultIssue()
+        .setKey((String) fields.get("key"))
+        .setStatus((String) fields.get("status"))
+        .setResolution((String) fields.get("resolution"));
+      if (fields.get("attr") instanceof JSONObject) {
+        for (Object attribute : ((JSONObject) fields.get("attr")).entrySet()) {
+          Map.Entry<?, ?> entry = (Map.Entry<?, ?>) attribute;
+          parsed.setAttribute((String) entry.getKey(), (String) entry.getValue());
+        }
+      }
+      issues.add(parsed);
+    }
+    return issues;
+  }
+
+  static List<String> parseProjectKeys(String body) throws IOException {
+    Object json = JSONValue.parse(body);
+    if (!(json instanceof JSONArray)) {
+      throw new IOException("Unexpected response from SonarQube resources: " + StringUtils.abbreviate(body, 200));
+    }
+    List<String> keys = Lists.newArrayList();
+    for (Object resource : (JSONArray) json) {
+      keys.add((String) ((JSONObject) resource).get("key"));
+    }
+    return keys;
+  }
+
+  private String getUrl(String path) {
+    String baseUrl = StringUtils.defaultIfBlank(settings.getString(CoreProperties.SERVER_BASE_URL), CoreProperties.SERVER_BASE_URL_DEFAULT_VALUE);
+    return StringUtils.removeEnd(baseUrl, "/") + path;
+  }
+
+  private String execute(HttpMethodBase method) throws IOException {
+    HttpClient client = new HttpClient();
+    client.getHttpConnectionManager().getParams().setConnectionTimeout(HTTP_TIMEOUT_MILLIS);
+    client.getHttpConnectionManager().getParams().setSoTimeout(HTTP_TIMEOUT_MILLIS);
+    client.getParams().setAuthenticationPreemptive(true);
+    client.getState().setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(settings.getString(JiraConstants.LINK_SONAR_LOGIN_PROPERTY),
+      settings.getString(JiraConstants.LINK_SONAR_PASSWORD_PROPERTY)));
+    try {
+      int status = client.executeMethod(method);
+      if (status != HttpStatus.SC_OK) {
+        throw new IOException("SonarQube answered with HTTP status " + status);
+      }
+      return method.getResponseBodyAsString();
+    } finally {
+      method.releaseConnection();
+    }
+  }
+}
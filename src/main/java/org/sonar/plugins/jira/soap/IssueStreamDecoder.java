@@ -0,0 +1,294 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.soap;
+
+import com.atlassian.jira.rpc.soap.client.RemoteAuthenticationException;
+import com.atlassian.jira.rpc.soap.client.RemoteComponent;
+import com.atlassian.jira.rpc.soap.client.RemoteIssue;
+import com.atlassian.jira.rpc.soap.client.RemotePermissionException;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.axis.AxisFault;
+import org.apache.axis.Constants;
+import org.apache.axis.encoding.ser.CalendarDeserializer;
+import org.apache.commons.lang.StringUtils;
+import org.sonar.plugins.jira.client.RemoteIssueHandler;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads the issues of a SOAP response returning an array of <code>RemoteIssue</code>, like <code>getIssuesFromFilter</code>,
+ * with a StAX cursor. Only the given fields are read, the other ones (custom field values, versions, descriptions...) are
+ * skipped without being decoded, and the issues are given to the handler as they are read instead of being returned as an array.
+ * <p/>
+ * JIRA sends the components of the issues as references to elements written after all the issues, the issues having components
+ * are then given to the handler at the end of the response.
+ */
+public class IssueStreamDecoder {
+
+  public static final String KEY = "key";
+  public static final String PRIORITY = "priority";
+  public static final String STATUS = "status";
+  public static final String TYPE = "type";
+  public static final String ASSIGNEE = "assignee";
+  public static final String COMPONENTS = "components";
+  public static final String RESOLUTION = "resolution";
+  public static final String CREATED = "created";
+  public static final String UPDATED = "updated";
+
+  /**
+   * Fields used by the issue distributions, ages and snapshot.
+   */
+  public static final Set<String> DEFAULT_FIELDS = ImmutableSet.of(KEY, PRIORITY, STATUS, TYPE, ASSIGNEE, COMPONENTS, RESOLUTION, CREATED, UPDATED);
+
+  private static final String REMOTE_ISSUE_TYPE = "RemoteIssue";
+  private static final String REMOTE_COMPONENT_TYPE = "RemoteComponent";
+  private static final String FAULT = "Fault";
+  private static final String EXCEPTION_PACKAGE = "com.atlassian.jira.rpc.exception.";
+  // dates are parsed like the SOAP client does
+  private static final CalendarDeserializer DATE_DESERIALIZER = new CalendarDeserializer(Calendar.class, Constants.XSD_DATETIME);
+
+  private final Set<String> fields;
+  private final XMLInputFactory factory;
+
+  public IssueStreamDecoder(Set<String> fields) {
+    this.fields = ImmutableSet.copyOf(fields);
+    this.factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+  }
+
+  /**
+   * @return the number of issues in the response
+   * @throws java.rmi.RemoteException if the response is a SOAP fault
+   * @throws IOException if the response can not be read or is not valid XML
+   */
+  public int decode(InputStream input, RemoteIssueHandler handler) throws IOException {
+    XMLStreamReader reader = null;
+    try {
+      reader = factory.createXMLStreamReader(input);
+      return decode(reader, handler);
+    } catch (XMLStreamException e) {
+      throw new IOException("Invalid SOAP response from JIRA: " + e.getMessage(), e);
+    } finally {
+      close(reader);
+    }
+  }
+
+  private int decode(XMLStreamReader reader, RemoteIssueHandler handler) throws XMLStreamException, AxisFault {
+    // components written as separate elements, by id
+    Map<String, RemoteComponent> components = Maps.newHashMap();
+    List<PendingIssue> pendingIssues = Lists.newArrayList();
+    int count = 0;
+    while (reader.hasNext()) {
+      if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+        continue;
+      }
+      String type = getType(reader);
+      if (REMOTE_ISSUE_TYPE.equals(type)) {
+        List<String> componentRefs = Lists.newArrayList();
+        RemoteIssue issue = readIssue(reader, componentRefs);
+        count++;
+        if (componentRefs.isEmpty()) {
+          handler.handle(issue);
+        } else {
+          pendingIssues.add(new PendingIssue(issue, componentRefs));
+        }
+      } else if (REMOTE_COMPONENT_TYPE.equals(type) && reader.getAttributeValue(null, "id") != null) {
+        String id = reader.getAttributeValue(null, "id");
+        components.put(id, readComponent(reader));
+      } else if (FAULT.equals(reader.getLocalName())) {
+        throw readFault(reader);
+      }
+    }
+    for (PendingIssue pendingIssue : pendingIssues) {
+      handler.handle(pendingIssue.resolve(components));
+    }
+    return count;
+  }
+
+  private RemoteIssue readIssue(XMLStreamReader reader, List<String> componentRefs) throws XMLStreamException {
+    RemoteIssue issue = new RemoteIssue();
+    while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+      String field = reader.getLocalName();
+      if (!fields.contains(field)) {
+        skipElement(reader);
+      } else if (KEY.equals(field)) {
+        issue.setKey(readText(reader));
+      } else if (PRIORITY.equals(field)) {
+        issue.setPriority(readText(reader));
+      } else if (STATUS.equals(field)) {
+        issue.setStatus(readText(reader));
+      } else if (TYPE.equals(field)) {
+        issue.setType(readText(reader));
+      } else if (ASSIGNEE.equals(field)) {
+        issue.setAssignee(readText(reader));
+      } else if (RESOLUTION.equals(field)) {
+        issue.setResolution(readText(reader));
+      } else if (CREATED.equals(field)) {
+        issue.setCreated(readDate(reader));
+      } else if (UPDATED.equals(field)) {
+        issue.setUpdated(readDate(reader));
+      } else if (COMPONENTS.equals(field)) {
+        issue.setComponents(readComponents(reader, componentRefs));
+      } else {
+        skipElement(reader);
+      }
+    }
+    return issue;
+  }
+
+  private static RemoteComponent[] readComponents(XMLStreamReader reader, List<String> componentRefs) throws XMLStreamException {
+    List<RemoteComponent> components = Lists.newArrayList();
+    while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+      String href = reader.getAttributeValue(null, "href");
+      if (href != null) {
+        componentRefs.add(StringUtils.removeStart(href, "#"));
+        skipElement(reader);
+      } else {
+        components.add(readComponent(reader));
+      }
+    }
+    return components.toArray(new RemoteComponent[components.size()]);
+  }
+
+  private static RemoteComponent readComponent(XMLStreamReader reader) throws XMLStreamException {
+    RemoteComponent component = new RemoteComponent();
+    while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+      String field = reader.getLocalName();
+      if ("id".equals(field)) {
+        component.setId(readText(reader));
+      } else if ("name".equals(field)) {
+        component.setName(readText(reader));
+      } else {
+        skipElement(reader);
+      }
+    }
+    return component;
+  }
+
+  private static AxisFault readFault(XMLStreamReader reader) throws XMLStreamException {
+    String faultCode = null;
+    String faultString = null;
+    while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+      String field = reader.getLocalName();
+      if ("faultcode".equals(field)) {
+        faultCode = readText(reader);
+      } else if ("faultstring".equals(field)) {
+        faultString = readText(reader);
+      } else {
+        skipElement(reader);
+      }
+    }
+    // same exceptions as the ones thrown by the Axis stub, so that callers handle them the same way
+    AxisFault fault;
+    if (StringUtils.startsWith(faultString, EXCEPTION_PACKAGE + "RemoteAuthenticationException")) {
+      fault = new RemoteAuthenticationException();
+    } else if (StringUtils.startsWith(faultString, EXCEPTION_PACKAGE + "RemotePermissionException")) {
+      fault = new RemotePermissionException();
+    } else {
+      fault = new AxisFault();
+      fault.setFaultCodeAsString(StringUtils.defaultString(faultCode, "Server"));
+    }
+    fault.setFaultString(faultString);
+    return fault;
+  }
+
+  private static String getType(XMLStreamReader reader) {
+    String type = reader.getAttributeValue(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "type");
+    return type != null ? StringUtils.substringAfterLast(":" + type, ":") : null;
+  }
+
+  private static String readText(XMLStreamReader reader) throws XMLStreamException {
+    if ("true".equals(reader.getAttributeValue(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "nil"))) {
+      skipElement(reader);
+      return null;
+    }
+    return reader.getElementText();
+  }
+
+  private static Calendar readDate(XMLStreamReader reader) throws XMLStreamException {
+    String text = StringUtils.trimToNull(readText(reader));
+    return text != null ? (Calendar) DATE_DESERIALIZER.makeValue(text) : null;
+  }
+
+  /**
+   * Moves the cursor to the end of the current element.
+   */
+  private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+  }
+
+  private static void close(XMLStreamReader reader) {
+    if (reader != null) {
+      try {
+        reader.close();
+      } catch (XMLStreamException e) {
+        // nothing to do
+      }
+    }
+  }
+
+  private static final class PendingIssue {
+    private final RemoteIssue issue;
+    private final List<String> componentRefs;
+
+    PendingIssue(RemoteIssue issue, List<String> componentRefs) {
+      this.issue = issue;
+      this.componentRefs = componentRefs;
+    }
+
+    RemoteIssue resolve(Map<String, RemoteComponent> components) {
+      List<RemoteComponent> resolved = Lists.newArrayList();
+      if (issue.getComponents() != null) {
+        resolved.addAll(Arrays.asList(issue.getComponents()));
+      }
+      for (String ref : componentRefs) {
+        RemoteComponent component = components.get(ref);
+        if (component != null) {
+          resolved.add(component);
+        }
+      }
+      issue.setComponents(resolved.toArray(new RemoteComponent[resolved.size()]));
+      return issue;
+    }
+  }
+}
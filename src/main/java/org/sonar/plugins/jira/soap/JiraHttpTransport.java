@@ -0,0 +1,213 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.soap;
+
+import com.atlassian.jira.rpc.soap.client.JiraSoapService;
+import org.apache.axis.EngineConfiguration;
+import org.apache.axis.SimpleTargetedChain;
+import org.apache.axis.configuration.SimpleProvider;
+import org.apache.axis.transport.http.HTTPTransport;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraConstants;
+
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * HTTP transport of the SOAP sessions and REST clients, keeping the connections to JIRA open between requests. Connections
+ * are shared by all the clients with the same settings, and closed after being idle for {@link JiraConstants#HTTP_IDLE_TIMEOUT_PROPERTY} seconds.
+ * Responses are compressed unless {@link JiraConstants#HTTP_GZIP_PROPERTY} is disabled, for servers or proxies that do not
+ * compress them correctly. Connecting and waiting for a response are bounded by {@link JiraConstants#HTTP_CONNECT_TIMEOUT_PROPERTY}
+ * and {@link JiraConstants#HTTP_READ_TIMEOUT_PROPERTY}, so that an unresponsive server does not block the analysis.
+ * <p/>
+ * The SOAP clients of the transport are also shared, one per URL. They are thread-safe, as the authentication token is a parameter
+ * of each request, and they are expensive to create.
+ */
+public final class JiraHttpTransport {
+  private static final Logger LOG = LoggerFactory.getLogger(JiraHttpTransport.class);
+
+  private static final int MAX_TOTAL_CONNECTIONS = 20;
+  private static final long MIN_EVICTION_INTERVAL_MILLIS = 1000L;
+  private static final ConcurrentMap<String, JiraHttpTransport> TRANSPORTS = new ConcurrentHashMap<String, JiraHttpTransport>();
+
+  private final int maxConnectionsPerHost;
+  private final long idleTimeoutMillis;
+  private final boolean acceptGzip;
+  private final int connectTimeoutMillis;
+  private final int readTimeoutMillis;
+  private final MultiThreadedHttpConnectionManager connectionManager;
+  private final MultiThreadedHttpConnectionManager streamConnectionManager;
+  private final IdleConnectionTimeoutThread idleConnectionEvictor;
+  private final EngineConfiguration engineConfiguration;
+  private final ConcurrentMap<String, JiraSoapService> soapServices = new ConcurrentHashMap<String, JiraSoapService>();
+
+  JiraHttpTransport(int maxConnectionsPerHost, long idleTimeoutMillis, boolean acceptGzip) {
+    this(maxConnectionsPerHost, idleTimeoutMillis, acceptGzip, 0, 0);
+  }
+
+  /**
+   * @param connectTimeoutMillis timeouts in milliseconds, zero means no timeout
+   */
+  JiraHttpTransport(int maxConnectionsPerHost, long idleTimeoutMillis, boolean acceptGzip, int connectTimeoutMillis, int readTimeoutMillis) {
+    this.maxConnectionsPerHost = Math.max(1, maxConnectionsPerHost);
+    this.idleTimeoutMillis = idleTimeoutMillis;
+    this.acceptGzip = acceptGzip;
+    this.connectTimeoutMillis = Math.max(0, connectTimeoutMillis);
+    this.readTimeoutMillis = Math.max(0, readTimeoutMillis);
+    connectionManager = createConnectionManager();
+    // a streamed response keeps its connection while its issues are handled, and the handlers may send requests and wait for
+    // them: if both shared the same connections, the streams could take all of them
+    streamConnectionManager = createConnectionManager();
+
+    if (idleTimeoutMillis > 0) {
+      idleConnectionEvictor = new IdleConnectionTimeoutThread();
+      idleConnectionEvictor.setName("jira-http-idle-connections");
+      idleConnectionEvictor.setConnectionTimeout(idleTimeoutMillis);
+      idleConnectionEvictor.setTimeoutInterval(Math.max(MIN_EVICTION_INTERVAL_MILLIS, idleTimeoutMillis / 2));
+      idleConnectionEvictor.addConnectionManager(connectionManager);
+      idleConnectionEvictor.addConnectionManager(streamConnectionManager);
+      idleConnectionEvictor.start();
+    } else {
+      idleConnectionEvictor = null;
+    }
+
+    SimpleProvider provider = new SimpleProvider();
+    // also used for https URLs
+    provider.deployTransport(HTTPTransport.DEFAULT_TRANSPORT_NAME, new SimpleTargetedChain(new KeepAliveHttpSender(connectionManager, acceptGzip)));
+    engineConfiguration = provider;
+  }
+
+  private MultiThreadedHttpConnectionManager createConnectionManager() {
+    MultiThreadedHttpConnectionManager manager = new MultiThreadedHttpConnectionManager();
+    HttpConnectionManagerParams params = manager.getParams();
+    params.setDefaultMaxConnectionsPerHost(maxConnectionsPerHost);
+    params.setMaxTotalConnections(Math.max(MAX_TOTAL_CONNECTIONS, maxConnectionsPerHost));
+    // connections closed by JIRA or a proxy while idle are detected before being reused
+    params.setStaleCheckingEnabled(true);
+    params.setConnectionTimeout(connectTimeoutMillis);
+    params.setSoTimeout(readTimeoutMillis);
+    return manager;
+  }
+
+  /**
+   * Returns the transport shared by the sessions using these settings.
+   */
+  public static JiraHttpTransport get(Settings settings) {
+    int maxConnectionsPerHost = settings.getInt(JiraConstants.HTTP_MAX_CONNECTIONS_PROPERTY);
+    long idleTimeoutMillis = settings.getLong(JiraConstants.HTTP_IDLE_TIMEOUT_PROPERTY) * 1000L;
+    boolean acceptGzip = settings.getBoolean(JiraConstants.HTTP_GZIP_PROPERTY);
+    int connectTimeoutMillis = settings.getInt(JiraConstants.HTTP_CONNECT_TIMEOUT_PROPERTY) * 1000;
+    int readTimeoutMillis = settings.getInt(JiraConstants.HTTP_READ_TIMEOUT_PROPERTY) * 1000;
+    String key = maxConnectionsPerHost + "|" + idleTimeoutMillis + "|" + acceptGzip + "|" + connectTimeoutMillis + "|" + readTimeoutMillis;
+    JiraHttpTransport transport = TRANSPORTS.get(key);
+    if (transport == null) {
+      synchronized (TRANSPORTS) {
+        transport = TRANSPORTS.get(key);
+        if (transport == null) {
+          transport = new JiraHttpTransport(maxConnectionsPerHost, idleTimeoutMillis, acceptGzip, connectTimeoutMillis, readTimeoutMillis);
+          TRANSPORTS.put(key, transport);
+          LOG.debug("JIRA HTTP connection pool created with {} connections per host", transport.maxConnectionsPerHost);
+        }
+      }
+    }
+    return transport;
+  }
+
+  /**
+   * Closes the connections of all the transports, when the plugin is not used anymore.
+   */
+  public static void shutdownAll() {
+    synchronized (TRANSPORTS) {
+      for (JiraHttpTransport transport : TRANSPORTS.values()) {
+        transport.shutdown();
+      }
+      TRANSPORTS.clear();
+    }
+  }
+
+  /**
+   * Returns the SOAP client of the URL, created by the first call. Each client has its own Axis service, as the registration
+   * of the types made by the first request of a client is not synchronized with the other clients of a service.
+   */
+  public JiraSoapService getSoapService(URL url) {
+    String key = url.toExternalForm();
+    JiraSoapService service = soapServices.get(key);
+    if (service == null) {
+      synchronized (soapServices) {
+        service = soapServices.get(key);
+        if (service == null) {
+          service = JiraSoapSession.createSoapService(url, engineConfiguration);
+          soapServices.put(key, service);
+        }
+      }
+    }
+    return service;
+  }
+
+  void shutdown() {
+    soapServices.clear();
+    if (idleConnectionEvictor != null) {
+      idleConnectionEvictor.shutdown();
+    }
+    connectionManager.shutdown();
+    streamConnectionManager.shutdown();
+  }
+
+  public EngineConfiguration getEngineConfiguration() {
+    return engineConfiguration;
+  }
+
+  int getMaxConnectionsPerHost() {
+    return maxConnectionsPerHost;
+  }
+
+  long getIdleTimeoutMillis() {
+    return idleTimeoutMillis;
+  }
+
+  int getConnectTimeoutMillis() {
+    return connectTimeoutMillis;
+  }
+
+  int getReadTimeoutMillis() {
+    return readTimeoutMillis;
+  }
+
+  public boolean isAcceptGzip() {
+    return acceptGzip;
+  }
+
+  public MultiThreadedHttpConnectionManager getConnectionManager() {
+    return connectionManager;
+  }
+
+  /**
+   * Connections of the streamed issue downloads, apart from the connections of the other requests.
+   */
+  public MultiThreadedHttpConnectionManager getStreamConnectionManager() {
+    return streamConnectionManager;
+  }
+}
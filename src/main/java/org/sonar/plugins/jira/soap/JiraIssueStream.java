@@ -0,0 +1,118 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.soap;
+
+import org.apache.axis.AxisFault;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.apache.commons.lang.StringEscapeUtils;
+import org.sonar.plugins.jira.client.PayloadCounter;
+import org.sonar.plugins.jira.client.RemoteIssueHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.rmi.RemoteException;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Downloads issues from the SOAP API of JIRA without the Axis stub, so that the responses can be read by {@link IssueStreamDecoder}.
+ * Requests are sent through the connections of the {@link JiraHttpTransport} used by the SOAP sessions.
+ */
+public class JiraIssueStream {
+
+  private static final String SOAP_NAMESPACE = "http://soap.rpc.jira.atlassian.com";
+  private static final String UTF_8 = "UTF-8";
+
+  private final URL webServiceUrl;
+  private final JiraHttpTransport transport;
+  private final IssueStreamDecoder decoder;
+
+  public JiraIssueStream(URL webServiceUrl, JiraHttpTransport transport, Set<String> fields) {
+    this.webServiceUrl = webServiceUrl;
+    this.transport = transport;
+    this.decoder = new IssueStreamDecoder(fields);
+  }
+
+  /**
+   * @return the number of issues given to the handler
+   */
+  public int getIssuesFromFilter(String authToken, String filterId, RemoteIssueHandler handler) throws RemoteException {
+    return call("getIssuesFromFilter", handler, authToken, filterId);
+  }
+
+  public int getIssuesFromFilterWithLimit(String authToken, String filterId, int offset, int maxNumResults, RemoteIssueHandler handler)
+    throws RemoteException {
+    return call("getIssuesFromFilterWithLimit", handler, authToken, filterId, offset, maxNumResults);
+  }
+
+  public int getIssuesFromJqlSearch(String authToken, String jql, int maxNumResults, RemoteIssueHandler handler) throws RemoteException {
+    return call("getIssuesFromJqlSearch", handler, authToken, jql, maxNumResults);
+  }
+
+  private int call(String operation, RemoteIssueHandler handler, Object... parameters) throws RemoteException {
+    PostMethod post = new PostMethod(webServiceUrl.toExternalForm());
+    try {
+      post.setRequestHeader("SOAPAction", "\"\"");
+      if (transport.isAcceptGzip()) {
+        post.setRequestHeader("Accept-Encoding", "gzip");
+      }
+      StringRequestEntity request = new StringRequestEntity(buildRequest(operation, parameters), "text/xml", UTF_8);
+      post.setRequestEntity(request);
+      PayloadCounter.addSent(request.getContentLength());
+      int status = new HttpClient(transport.getStreamConnectionManager()).executeMethod(post);
+      // SOAP faults are sent with the status 500
+      if (status != HttpStatus.SC_OK && status != HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+        throw new AxisFault("HTTP", "(" + status + ")" + post.getStatusText(), null, null);
+      }
+      InputStream input = post.getResponseBodyAsStream();
+      Header encoding = post.getResponseHeader("Content-Encoding");
+      if (encoding != null && "gzip".equalsIgnoreCase(encoding.getValue())) {
+        input = new GZIPInputStream(input);
+      }
+      return decoder.decode(PayloadCounter.countReceived(input), handler);
+    } catch (IOException e) {
+      throw AxisFault.makeFault(e);
+    } finally {
+      post.releaseConnection();
+    }
+  }
+
+  static String buildRequest(String operation, Object... parameters) {
+    StringBuilder request = new StringBuilder(512);
+    request.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>")
+      .append("<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\" ")
+      .append("xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">")
+      .append("<soapenv:Body><ns1:").append(operation)
+      .append(" soapenv:encodingStyle=\"http://schemas.xmlsoap.org/soap/encoding/\" xmlns:ns1=\"").append(SOAP_NAMESPACE).append("\">");
+    for (int i = 0; i < parameters.length; i++) {
+      String type = parameters[i] instanceof Integer ? "xsd:int" : "xsd:string";
+      request.append("<in").append(i).append(" xsi:type=\"").append(type).append("\">")
+        .append(StringEscapeUtils.escapeXml(String.valueOf(parameters[i])))
+        .append("</in").append(i).append('>');
+    }
+    request.append("</ns1:").append(operation).append("></soapenv:Body></soapenv:Envelope>");
+    return request.toString();
+  }
+}
@@ -23,6 +23,7 @@ package org.sonar.plugins.jira.soap;
 import com.atlassian.jira.rpc.soap.client.JiraSoapService;
 import com.atlassian.jira.rpc.soap.client.JiraSoapServiceService;
 import com.atlassian.jira.rpc.soap.client.JiraSoapServiceServiceLocator;
+import org.apache.axis.EngineConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,20 +38,23 @@ import java.rmi.RemoteException;
 public class JiraSoapSession {
   private static final Logger LOG = LoggerFactory.getLogger(JiraSoapSession.class);
 
-  private JiraSoapServiceService jiraSoapServiceLocator;
+  private final JiraHttpTransport transport;
   private JiraSoapService jiraSoapService;
   private String token;
   private URL webServiceUrl;
 
   public JiraSoapSession(URL url) {
+    this(url, null);
+  }
+
+  /**
+   * The SOAP client is only created by the first request.
+   *
+   * @param transport HTTP transport, which also keeps the SOAP clients of its URLs, or <code>null</code> for the default Axis transport
+   */
+  public JiraSoapSession(URL url, JiraHttpTransport transport) {
     this.webServiceUrl = url;
-    jiraSoapServiceLocator = new JiraSoapServiceServiceLocator();
-    try {
-      jiraSoapService = jiraSoapServiceLocator.getJirasoapserviceV2(url);
-      LOG.debug("SOAP Session service endpoint at " + url.toExternalForm());
-    } catch (ServiceException e) {
-      throw new IllegalStateException("ServiceException during JiraSoapService contruction", e);
-    }
+    this.transport = transport;
   }
 
   public void connect(String userName, String password) throws RemoteException {
@@ -67,12 +71,27 @@ public class JiraSoapSession {
     return token;
   }
 
-  public JiraSoapService getJiraSoapService() {
+  public synchronized JiraSoapService getJiraSoapService() {
+    if (jiraSoapService == null) {
+      jiraSoapService = transport != null ? transport.getSoapService(webServiceUrl) : createSoapService(webServiceUrl, null);
+    }
     return jiraSoapService;
   }
 
-  public JiraSoapServiceService getJiraSoapServiceLocator() {
-    return jiraSoapServiceLocator;
+  /**
+   * Creating the client registers the mappings of all the types of the JIRA API, so clients are shared, see {@link JiraHttpTransport#getSoapService(URL)}.
+   *
+   * @param engineConfiguration Axis configuration giving the HTTP transport, or <code>null</code> for the default one
+   */
+  static JiraSoapService createSoapService(URL url, EngineConfiguration engineConfiguration) {
+    JiraSoapServiceService locator = engineConfiguration != null ? new JiraSoapServiceServiceLocator(engineConfiguration) : new JiraSoapServiceServiceLocator();
+    try {
+      JiraSoapService service = locator.getJirasoapserviceV2(url);
+      LOG.debug("SOAP Session service endpoint at " + url.toExternalForm());
+      return service;
+    } catch (ServiceException e) {
+      throw new IllegalStateException("ServiceException during JiraSoapService contruction", e);
+    }
   }
 
   public URL getWebServiceUrl() {
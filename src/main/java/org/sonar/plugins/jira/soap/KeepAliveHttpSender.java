@@ -0,0 +1,77 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.soap;
+
+import org.apache.axis.AxisFault;
+import org.apache.axis.MessageContext;
+import org.apache.axis.SOAPPart;
+import org.apache.axis.transport.http.CommonsHTTPSender;
+import org.apache.axis.transport.http.HTTPConstants;
+import org.apache.commons.httpclient.HttpConnectionManager;
+import org.sonar.plugins.jira.client.PayloadCounter;
+
+import java.io.InputStream;
+
+/**
+ * Axis HTTP sender sending the SOAP requests through a shared pool of persistent connections, instead of opening a new
+ * connection, and making a new TLS handshake, for each request. Responses can be compressed with gzip, they are then
+ * decompressed while being parsed.
+ */
+class KeepAliveHttpSender extends CommonsHTTPSender {
+
+  private final boolean acceptGzip;
+
+  KeepAliveHttpSender(HttpConnectionManager connectionManager, boolean acceptGzip) {
+    // replaces the connection manager created for each sender by the parent constructor
+    this.connectionManager = connectionManager;
+    this.acceptGzip = acceptGzip;
+  }
+
+  HttpConnectionManager getConnectionManager() {
+    return connectionManager;
+  }
+
+  boolean isAcceptGzip() {
+    return acceptGzip;
+  }
+
+  @Override
+  public void invoke(MessageContext msgContext) throws AxisFault {
+    // connections are only kept open with HTTP 1.1
+    msgContext.setProperty(MessageContext.HTTP_TRANSPORT_VERSION, HTTPConstants.HEADER_PROTOCOL_V11);
+    // sends "Accept-Encoding: gzip", the parent class decodes the response with a GZIPInputStream
+    msgContext.setProperty(HTTPConstants.MC_ACCEPT_GZIP, Boolean.valueOf(acceptGzip));
+    // otherwise the parent class replaces the timeouts of the shared connection manager by the timeout of the call
+    msgContext.setTimeout(0);
+    super.invoke(msgContext);
+    if (PayloadCounter.isCounting()) {
+      countPayload(msgContext);
+    }
+  }
+
+  private static void countPayload(MessageContext msgContext) throws AxisFault {
+    PayloadCounter.addSent(msgContext.getRequestMessage().getContentLength());
+    // the response is parsed by the caller once the sender has returned
+    SOAPPart response = (SOAPPart) msgContext.getResponseMessage().getSOAPPart();
+    if (response.getCurrentForm() == SOAPPart.FORM_INPUTSTREAM) {
+      response.setCurrentMessage(PayloadCounter.countReceived((InputStream) response.getCurrentMessage()), SOAPPart.FORM_INPUTSTREAM);
+    }
+  }
+}
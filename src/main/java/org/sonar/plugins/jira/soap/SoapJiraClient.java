@@ -0,0 +1,192 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.soap;
+
+import com.atlassian.jira.rpc.soap.client.JiraSoapService;
+import com.atlassian.jira.rpc.soap.client.RemoteComment;
+import com.atlassian.jira.rpc.soap.client.RemoteCustomFieldValue;
+import com.atlassian.jira.rpc.soap.client.RemoteFilter;
+import com.atlassian.jira.rpc.soap.client.RemoteIssue;
+import com.atlassian.jira.rpc.soap.client.RemoteIssueType;
+import com.atlassian.jira.rpc.soap.client.RemotePriority;
+import com.atlassian.jira.rpc.soap.client.RemoteServerInfo;
+import com.atlassian.jira.rpc.soap.client.RemoteStatus;
+import com.google.common.collect.Lists;
+import org.sonar.plugins.jira.client.JiraClient;
+import org.sonar.plugins.jira.client.RemoteIssueHandler;
+import org.sonar.plugins.jira.rest.RestJiraClient;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * {@link JiraClient} sending its requests to the SOAP API of JIRA.
+ * <p/>
+ * Issues are read by {@link JiraIssueStream} when streaming is enabled. The SOAP API can not count the issues of a JQL
+ * query without returning them, so count-only queries are sent to the REST API when the server provides it.
+ */
+public class SoapJiraClient implements JiraClient {
+
+  private final JiraSoapSession session;
+  private final JiraIssueStream issueStream;
+  private final RestJiraClient countClient;
+
+  /**
+   * @param issueStream reader of the downloaded issues, or <code>null</code> to decode them with the SOAP client
+   * @param countClient client of the REST API used for count-only queries, or <code>null</code> if they are not supported
+   */
+  public SoapJiraClient(JiraSoapSession session, JiraIssueStream issueStream, RestJiraClient countClient) {
+    this.session = session;
+    this.issueStream = issueStream;
+    this.countClient = countClient;
+  }
+
+  public void connect(String userName, String password) throws RemoteException {
+    session.connect(userName, password);
+    if (countClient != null) {
+      countClient.setCredentials(userName, password);
+    }
+  }
+
+  public void disconnect() throws RemoteException {
+    session.disconnect();
+  }
+
+  public RemoteServerInfo getServerInfo() throws RemoteException {
+    return service().getServerInfo(token());
+  }
+
+  public RemotePriority[] getPriorities() throws RemoteException {
+    return service().getPriorities(token());
+  }
+
+  public RemoteStatus[] getStatuses() throws RemoteException {
+    return service().getStatuses(token());
+  }
+
+  public RemoteIssueType[] getIssueTypes() throws RemoteException {
+    return service().getIssueTypes(token());
+  }
+
+  public RemoteIssueType[] getSubTaskIssueTypes() throws RemoteException {
+    return service().getSubTaskIssueTypes(token());
+  }
+
+  public RemoteFilter[] getFavouriteFilters() throws RemoteException {
+    return service().getFavouriteFilters(token());
+  }
+
+  public RemoteFilter[] getSavedFilters() throws RemoteException {
+    return service().getSavedFilters(token());
+  }
+
+  public long getIssueCountForFilter(String filterId) throws RemoteException {
+    return service().getIssueCountForFilter(token(), filterId);
+  }
+
+  public int getIssuesFromFilter(String filterId, RemoteIssueHandler handler) throws RemoteException {
+    if (issueStream != null) {
+      return issueStream.getIssuesFromFilter(token(), filterId, handler);
+    }
+    return handle(service().getIssuesFromFilter(token(), filterId), handler);
+  }
+
+  public int getIssuesFromFilterWithLimit(String filterId, int offset, int maxNumResults, RemoteIssueHandler handler) throws RemoteException {
+    if (issueStream != null) {
+      return issueStream.getIssuesFromFilterWithLimit(token(), filterId, offset, maxNumResults, handler);
+    }
+    return handle(service().getIssuesFromFilterWithLimit(token(), filterId, offset, maxNumResults), handler);
+  }
+
+  public int getIssuesFromJqlSearch(String jql, int maxNumResults, RemoteIssueHandler handler) throws RemoteException {
+    if (issueStream != null) {
+      return issueStream.getIssuesFromJqlSearch(token(), jql, maxNumResults, handler);
+    }
+    return handle(service().getIssuesFromJqlSearch(token(), jql, maxNumResults), handler);
+  }
+
+  public long countIssues(String jql) throws IOException {
+    if (countClient == null) {
+      throw new IOException("Count-only queries are not supported by the SOAP API");
+    }
+    return countClient.countIssues(jql);
+  }
+
+  public Calendar getResolutionDateByKey(String issueKey) throws RemoteException {
+    return service().getResolutionDateByKey(token(), issueKey);
+  }
+
+  public RemoteIssue getIssue(String issueKey) throws RemoteException {
+    return service().getIssue(token(), issueKey);
+  }
+
+  /**
+   * The labels are not sent, the SOAP API only knows the custom fields.
+   */
+  public RemoteIssue createIssue(RemoteIssue issue) throws RemoteException {
+    RemoteCustomFieldValue[] values = issue.getCustomFieldValues();
+    if (values == null) {
+      return service().createIssue(token(), issue);
+    }
+    List<RemoteCustomFieldValue> customFieldValues = Lists.newArrayList();
+    for (RemoteCustomFieldValue value : values) {
+      if (!LABELS_FIELD.equals(value.getCustomfieldId())) {
+        customFieldValues.add(value);
+      }
+    }
+    issue.setCustomFieldValues(customFieldValues.isEmpty() ? null : customFieldValues.toArray(new RemoteCustomFieldValue[customFieldValues.size()]));
+    try {
+      return service().createIssue(token(), issue);
+    } finally {
+      issue.setCustomFieldValues(values);
+    }
+  }
+
+  public void addComment(String issueKey, String body) throws RemoteException {
+    RemoteComment comment = new RemoteComment();
+    comment.setBody(body);
+    service().addComment(token(), issueKey, comment);
+  }
+
+  public JiraSoapSession getSession() {
+    return session;
+  }
+
+  private JiraSoapService service() {
+    return session.getJiraSoapService();
+  }
+
+  // the token changes when the client connects again, so it is read for each request
+  private String token() {
+    return session.getAuthenticationToken();
+  }
+
+  private static int handle(RemoteIssue[] issues, RemoteIssueHandler handler) {
+    if (issues == null) {
+      return 0;
+    }
+    for (RemoteIssue issue : issues) {
+      handler.handle(issue);
+    }
+    return issues.length;
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.cache;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class JiraCreationJournalTest {
+
+  private static final long DAY = 24L * 60L * 60L * 1000L;
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private File file;
+
+  @Before
+  public void init() throws Exception {
+    file = JiraCreationJournal.getFile(temp.newFolder(), "http://my.jira");
+  }
+
+  @Test
+  public void shouldDetectUnfinishedCreation() {
+    JiraCreationJournal journal = JiraCreationJournal.load(file, 0L);
+
+    assertThat(journal.start("ABCD", 1000L)).isFalse();
+    assertThat(journal.start("ABCD", 2000L)).isTrue();
+    journal.finish("ABCD");
+    assertThat(journal.start("ABCD", 3000L)).isFalse();
+  }
+
+  @Test
+  public void shouldKeepUnfinishedCreationsAfterRestart() {
+    JiraCreationJournal journal = JiraCreationJournal.load(file, 0L);
+    journal.start("ABCD", 1000L);
+    journal.start("EFGH", 1000L);
+    journal.finish("EFGH");
+
+    JiraCreationJournal reloaded = JiraCreationJournal.load(file, 2000L);
+
+    assertThat(reloaded.size()).isEqualTo(1);
+    assertThat(reloaded.contains("ABCD")).isTrue();
+    assertThat(reloaded.start("ABCD", 3000L)).isTrue();
+  }
+
+  @Test
+  public void shouldForgetOldCreations() {
+    JiraCreationJournal journal = JiraCreationJournal.load(file, 0L);
+    journal.start("ABCD", 0L);
+    journal.start("EFGH", 6 * DAY);
+
+    JiraCreationJournal reloaded = JiraCreationJournal.load(file, 8 * DAY);
+
+    assertThat(reloaded.contains("ABCD")).isFalse();
+    assertThat(reloaded.contains("EFGH")).isTrue();
+  }
+
+  @Test
+  public void shouldIgnoreUnknownFormat() throws Exception {
+    FileUtils.write(file, "#jira-creations-v0\nABCD\t1000\n");
+
+    assertThat(JiraCreationJournal.load(file, 2000L).size()).isEqualTo(0);
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.cache;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class JiraGroupIndexTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private File file;
+
+  @Before
+  public void init() throws Exception {
+    file = JiraGroupIndex.getFile(temp.newFolder(), "http://my.jira");
+  }
+
+  @Test
+  public void shouldKeepGroupsAfterRestart() {
+    JiraGroupIndex index = JiraGroupIndex.load(file);
+    index.put(JiraGroupIndex.getGroup("squid:CycleBetweenPackages", "org.foo:bar", "TEST", "18"), "TEST-1");
+    index.put(JiraGroupIndex.getGroup("squid:MethodCyclomaticComplexity", "org.foo:bar", "TEST", null), "TEST-2");
+
+    JiraGroupIndex reloaded = JiraGroupIndex.load(file);
+
+    assertThat(reloaded.size()).isEqualTo(2);
+    assertThat(reloaded.get("squid:CycleBetweenPackages|org.foo:bar|TEST|18")).isEqualTo("TEST-1");
+    assertThat(reloaded.get("squid:MethodCyclomaticComplexity|org.foo:bar|TEST|")).isEqualTo("TEST-2");
+    assertThat(reloaded.get("squid:CycleBetweenPackages|org.foo:bar|TEST|")).isNull();
+  }
+
+  @Test
+  public void shouldNotShareGroupsBetweenSonarComponents() {
+    assertThat(JiraGroupIndex.getGroup("squid:CycleBetweenPackages", "org.foo:bar", "TEST", "18"))
+      .isNotEqualTo(JiraGroupIndex.getGroup("squid:CycleBetweenPackages", "org.foo:other", "TEST", "18"));
+  }
+
+  @Test
+  public void shouldRemoveGroup() {
+    JiraGroupIndex index = JiraGroupIndex.load(file);
+    index.put("squid:CycleBetweenPackages|TEST|", "TEST-1");
+    index.remove("squid:CycleBetweenPackages|TEST|");
+
+    assertThat(JiraGroupIndex.load(file).size()).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldGiveSameLockToSameGroup() {
+    JiraGroupIndex index = JiraGroupIndex.load(file);
+
+    assertThat(index.lock("squid:CycleBetweenPackages|TEST|")).isSameAs(index.lock("squid:CycleBetweenPackages|TEST|"));
+    assertThat(index.lock("squid:CycleBetweenPackages|TEST|")).isNotSameAs(index.lock("squid:CycleBetweenPackages|OTHER|"));
+  }
+
+  @Test
+  public void shouldUseOneFilePerServer() {
+    assertThat(JiraGroupIndex.getFile(temp.getRoot(), "http://my.jira")).isNotEqualTo(JiraGroupIndex.getFile(temp.getRoot(), "http://other.jira"));
+  }
+
+  @Test
+  public void shouldIgnoreUnknownFormat() throws Exception {
+    FileUtils.write(file, "#jira-groups-v1\nsquid:CycleBetweenPackages|TEST|\tTEST-1\n");
+
+    assertThat(JiraGroupIndex.load(file).size()).isEqualTo(0);
+  }
+}
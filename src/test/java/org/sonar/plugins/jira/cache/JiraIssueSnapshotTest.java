@@ -0,0 +1,167 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.cache;
+
+import com.atlassian.jira.rpc.soap.client.RemoteComponent;
+import com.atlassian.jira.rpc.soap.client.RemoteIssue;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Calendar;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class JiraIssueSnapshotTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void shouldStoreAndLoad() throws Exception {
+    JiraIssueSnapshot snapshot = new JiraIssueSnapshot();
+    snapshot.put(issue("SONAR-1", "1", "3", 1000L));
+    snapshot.put(issue("SONAR-2", null, "1", 2000L));
+    snapshot.setLastSync(5000L);
+    snapshot.setLastFullSync(4000L);
+    File file = new File(temp.getRoot(), "jira/test.snapshot");
+
+    snapshot.store(file);
+    JiraIssueSnapshot loaded = JiraIssueSnapshot.load(file);
+
+    assertThat(loaded.size()).isEqualTo(2);
+    assertThat(loaded.getLastSync()).isEqualTo(5000L);
+    assertThat(loaded.getLastFullSync()).isEqualTo(4000L);
+    assertThat(loaded.get("SONAR-1").getPriority()).isEqualTo("1");
+    assertThat(loaded.get("SONAR-1").getStatus()).isEqualTo("3");
+    assertThat(loaded.get("SONAR-1").getUpdated()).isEqualTo(1000L);
+    assertThat(loaded.get("SONAR-2").getPriority()).isNull();
+    assertThat(loaded.get("SONAR-2").getComponents()).isEmpty();
+  }
+
+  @Test
+  public void shouldStoreTypeAssigneeComponentsAndResolution() throws Exception {
+    JiraIssueSnapshot snapshot = new JiraIssueSnapshot();
+    RemoteIssue issue = issue("SONAR-1", "1", "3", 1000L);
+    issue.setType("4");
+    issue.setAssignee("john");
+    issue.setResolution("1");
+    Calendar created = Calendar.getInstance();
+    created.setTimeInMillis(500L);
+    issue.setCreated(created);
+    RemoteComponent core = new RemoteComponent();
+    core.setName("Core");
+    RemoteComponent web = new RemoteComponent();
+    web.setName("Web\tUI");
+    issue.setComponents(new RemoteComponent[] {core, web});
+    snapshot.put(issue);
+    File file = new File(temp.getRoot(), "test.snapshot");
+
+    snapshot.store(file);
+    JiraIssueSnapshot.Entry loaded = JiraIssueSnapshot.load(file).get("SONAR-1");
+
+    assertThat(loaded.getType()).isEqualTo("4");
+    assertThat(loaded.getAssignee()).isEqualTo("john");
+    assertThat(loaded.getComponents()).containsOnly("Core", "Web UI");
+    assertThat(loaded.getKey()).isEqualTo("SONAR-1");
+    assertThat(loaded.getResolution()).isEqualTo("1");
+    assertThat(loaded.getCreated()).isEqualTo(500L);
+    assertThat(loaded.getUpdated()).isEqualTo(1000L);
+  }
+
+  @Test
+  public void shouldIgnorePreviousFormat() throws Exception {
+    File file = new File(temp.getRoot(), "test.snapshot");
+    FileUtils.write(file, "#jira-snapshot-v2\t5000\t4000\nSONAR-1\t1\t3\t1000\t1\tjohn\n");
+
+    JiraIssueSnapshot loaded = JiraIssueSnapshot.load(file);
+
+    assertThat(loaded.size()).isEqualTo(0);
+    assertThat(loaded.getLastFullSync()).isEqualTo(0L);
+  }
+
+  @Test
+  public void shouldLoadEmptySnapshotIfMissingOrCorrupted() throws Exception {
+    File file = new File(temp.getRoot(), "test.snapshot");
+    assertThat(JiraIssueSnapshot.load(file).size()).isEqualTo(0);
+
+    FileUtils.write(file, "#jira-snapshot-v3\t1\t1\nSONAR-1\t1\n");
+    JiraIssueSnapshot loaded = JiraIssueSnapshot.load(file);
+    assertThat(loaded.size()).isEqualTo(0);
+    assertThat(loaded.getLastFullSync()).isEqualTo(0L);
+
+    FileUtils.write(file, "something else");
+    assertThat(JiraIssueSnapshot.load(file).getLastFullSync()).isEqualTo(0L);
+  }
+
+  @Test
+  public void shouldNotReplaceByOlderVersion() throws Exception {
+    JiraIssueSnapshot snapshot = new JiraIssueSnapshot();
+    snapshot.put(issue("SONAR-1", "1", "1", 2000L));
+    snapshot.put(issue("SONAR-1", "2", "1", 1000L));
+    assertThat(snapshot.get("SONAR-1").getPriority()).isEqualTo("1");
+
+    snapshot.put(issue("SONAR-1", "3", "1", 3000L));
+    assertThat(snapshot.get("SONAR-1").getPriority()).isEqualTo("3");
+  }
+
+  @Test
+  public void shouldShareIdsBetweenEntries() throws Exception {
+    JiraIssueSnapshot snapshot = new JiraIssueSnapshot();
+    snapshot.put(issue("SONAR-1", new String("1"), "1", 1000L));
+    snapshot.put(issue("SONAR-2", new String("1"), "1", 1000L));
+    snapshot.put(issue("SONAR-3", "2", "1", 1000L));
+    snapshot.remove("SONAR-3");
+
+    assertThat(snapshot.getEntries()).hasSize(2);
+    assertThat(snapshot.get("SONAR-1").getPriority()).isSameAs(snapshot.get("SONAR-2").getPriority());
+  }
+
+  @Test
+  public void shouldDeduceProjectKeys() throws Exception {
+    JiraIssueSnapshot snapshot = new JiraIssueSnapshot();
+    snapshot.put(issue("SONAR-1", "1", "1", 1000L));
+    snapshot.put(issue("SONAR-2", "1", "1", 1000L));
+    snapshot.put(issue("MY-PROJECT-3", "1", "1", 1000L));
+
+    assertThat(snapshot.getProjectKeys()).containsOnly("SONAR", "MY-PROJECT");
+  }
+
+  @Test
+  public void shouldBeStoredByServerUserAndQuery() throws Exception {
+    File file = JiraIssueSnapshot.getFile(temp.getRoot(), "http://my.jira.com", "foo", "filter = 10");
+    assertThat(file.getParentFile()).isEqualTo(temp.getRoot());
+    assertThat(file).isNotEqualTo(JiraIssueSnapshot.getFile(temp.getRoot(), "http://my.jira.com", "foo", "filter = 11"));
+    assertThat(file).isNotEqualTo(JiraIssueSnapshot.getFile(temp.getRoot(), "http://my.jira.com", "bar", "filter = 10"));
+  }
+
+  static RemoteIssue issue(String key, String priority, String status, long updated) {
+    RemoteIssue issue = new RemoteIssue();
+    issue.setKey(key);
+    issue.setPriority(priority);
+    issue.setStatus(status);
+    Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(updated);
+    issue.setUpdated(calendar);
+    return issue;
+  }
+}
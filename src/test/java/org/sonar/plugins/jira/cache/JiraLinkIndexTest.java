@@ -0,0 +1,139 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.cache;
+
+import com.google.common.collect.ImmutableSet;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class JiraLinkIndexTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private File file;
+  private JiraLinkIndex index;
+
+  @Before
+  public void init() throws Exception {
+    file = JiraLinkIndex.getFile(temp.newFolder(), "http://my.jira");
+    index = new JiraLinkIndex(file);
+  }
+
+  @Test
+  public void shouldReadLinksByChunks() throws Exception {
+    index.add("ABCD", "TEST-1");
+    index.add("EFGH", "TEST-2");
+    index.add("IJKL", "TEST-1");
+
+    JiraLinkIndex.LinkReader links = new JiraLinkIndex(file).read(0L);
+    List<JiraLinkIndex.Link> chunk = links.next(2);
+    assertThat(chunk).hasSize(2);
+    assertThat(chunk.get(0).getIssueKey()).isEqualTo("ABCD");
+    assertThat(chunk.get(0).getJiraKey()).isEqualTo("TEST-1");
+    assertThat(chunk.get(1).getIssueKey()).isEqualTo("EFGH");
+    assertThat(links.next(2)).hasSize(1);
+    assertThat(links.next(2)).isEmpty();
+    links.close();
+  }
+
+  @Test
+  public void shouldReadLinksAddedWhileReading() throws Exception {
+    index.add("ABCD", "TEST-1");
+    JiraLinkIndex.LinkReader links = index.read(0L);
+    assertThat(links.next(10)).hasSize(1);
+
+    index.add("EFGH", "TEST-2");
+
+    assertThat(links.next(10).get(0).getIssueKey()).isEqualTo("EFGH");
+    links.close();
+  }
+
+  @Test
+  public void shouldSkipLinksBeforePosition() throws Exception {
+    index.add("ABCD", "TEST-1");
+    index.add("EFGH", "TEST-2");
+
+    JiraLinkIndex.LinkReader links = index.read(1L);
+    List<JiraLinkIndex.Link> chunk = links.next(10);
+    links.close();
+
+    assertThat(chunk).hasSize(1);
+    assertThat(chunk.get(0).getIssueKey()).isEqualTo("EFGH");
+  }
+
+  @Test
+  public void shouldReadNothingWithoutFile() throws Exception {
+    assertThat(index.read(0L).next(10)).isEmpty();
+  }
+
+  @Test
+  public void shouldIgnoreUnknownFormat() throws Exception {
+    FileUtils.write(file, "#jira-links-v0\nABCD\tTEST-1\n");
+
+    assertThat(index.read(0L).next(10)).isEmpty();
+  }
+
+  @Test
+  public void shouldRemoveLinks() throws Exception {
+    index.add("ABCD", "TEST-1");
+    index.add("EFGH", "TEST-2");
+    index.add("ABCD", "TEST-3");
+
+    index.removeAll(ImmutableSet.of("ABCD"));
+
+    List<JiraLinkIndex.Link> links = index.read(0L).next(10);
+    assertThat(links).hasSize(1);
+    assertThat(links.get(0).getIssueKey()).isEqualTo("EFGH");
+  }
+
+  @Test
+  public void shouldKeepCursor() {
+    assertThat(index.getCursor().isRunning()).isFalse();
+    assertThat(index.getCursor().getLastSync()).isEqualTo(0L);
+
+    index.setCursor(new JiraLinkIndex.Cursor(1000L, 2000L, 300L, 2L));
+
+    JiraLinkIndex.Cursor cursor = new JiraLinkIndex(file).getCursor();
+    assertThat(cursor.getLastSync()).isEqualTo(1000L);
+    assertThat(cursor.getRunStart()).isEqualTo(2000L);
+    assertThat(cursor.isRunning()).isTrue();
+    assertThat(cursor.getPosition()).isEqualTo(300L);
+    assertThat(cursor.getFailures()).isEqualTo(2L);
+  }
+
+  @Test
+  public void shouldReadCursorWithoutFailures() throws Exception {
+    FileUtils.write(new File(file.getParentFile(), file.getName() + ".cursor"), "#jira-links-cursor-v1\t1000\t2000\t300\n", "UTF-8");
+
+    JiraLinkIndex.Cursor cursor = index.getCursor();
+    assertThat(cursor.getRunStart()).isEqualTo(2000L);
+    assertThat(cursor.getPosition()).isEqualTo(300L);
+    assertThat(cursor.getFailures()).isEqualTo(0L);
+  }
+}
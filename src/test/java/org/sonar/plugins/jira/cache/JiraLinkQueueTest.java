@@ -0,0 +1,132 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.cache;
+
+import com.atlassian.jira.rpc.soap.client.RemoteComponent;
+import com.atlassian.jira.rpc.soap.client.RemoteIssue;
+import com.google.common.collect.ImmutableMap;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class JiraLinkQueueTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private File file;
+  private RemoteIssue issue;
+
+  @Before
+  public void init() throws Exception {
+    file = JiraLinkQueue.getFile(temp.newFolder());
+    issue = new RemoteIssue();
+    issue.setProject("TEST");
+    issue.setType("3");
+    issue.setPriority("2");
+    issue.setSummary("SonarQube Issue #ABCD - Avoid cycle");
+    issue.setDescription("Issue detail:\n{quote}\nTabs\tand \\ backslashes\n{quote}");
+    RemoteComponent component = new RemoteComponent();
+    component.setId("18");
+    issue.setComponents(new RemoteComponent[] {component});
+  }
+
+  @Test
+  public void shouldKeepEntriesAfterRestart() {
+    JiraLinkQueue queue = JiraLinkQueue.load(file);
+    queue.add("ABCD", issue, ImmutableMap.of("sonar.jira.url", "http://my.jira", "sonar.jira.password.secured", "secret"));
+    queue.add("EFGH", new RemoteIssue(), ImmutableMap.<String, String>of());
+    queue.setCreated("EFGH", "TEST-12");
+
+    JiraLinkQueue reloaded = JiraLinkQueue.load(file);
+
+    assertThat(reloaded.size()).isEqualTo(2);
+    JiraLinkQueue.Entry entry = reloaded.get("ABCD");
+    assertThat(entry.isCreated()).isFalse();
+    assertThat(entry.getIssue()).isEqualTo(issue);
+    // secured settings are not written to disk
+    assertThat(entry.getSettings()).isEqualTo(ImmutableMap.of("sonar.jira.url", "http://my.jira"));
+    assertThat(queue.get("ABCD").getSettings()).hasSize(2);
+
+    JiraLinkQueue.Entry created = reloaded.get("EFGH");
+    assertThat(created.getJiraKey()).isEqualTo("TEST-12");
+    assertThat(created.getIssue().getSummary()).isNull();
+    assertThat(created.getIssue().getComponents()).isNull();
+  }
+
+  @Test
+  public void shouldDelayRetries() {
+    JiraLinkQueue queue = JiraLinkQueue.load(file);
+    queue.add("ABCD", issue, ImmutableMap.<String, String>of());
+    queue.add("EFGH", issue, ImmutableMap.<String, String>of());
+
+    queue.retryLater("ABCD", 1000L);
+
+    assertThat(queue.getDue(999L)).hasSize(1);
+    assertThat(queue.getDue(999L).get(0).getIssueKey()).isEqualTo("EFGH");
+    assertThat(queue.getDue(1000L)).hasSize(2);
+    JiraLinkQueue.Entry entry = JiraLinkQueue.load(file).get("ABCD");
+    assertThat(entry.getAttempts()).isEqualTo(1);
+    assertThat(entry.getNextAttempt()).isEqualTo(1000L);
+  }
+
+  @Test
+  public void shouldResetAttemptsOnceCreated() {
+    JiraLinkQueue queue = JiraLinkQueue.load(file);
+    queue.add("ABCD", issue, ImmutableMap.<String, String>of());
+    queue.retryLater("ABCD", 1000L);
+
+    queue.setCreated("ABCD", "TEST-1");
+
+    assertThat(queue.get("ABCD").getAttempts()).isEqualTo(0);
+    assertThat(queue.getDue(0L)).hasSize(1);
+  }
+
+  @Test
+  public void shouldRemoveEntries() {
+    JiraLinkQueue queue = JiraLinkQueue.load(file);
+    queue.add("ABCD", issue, ImmutableMap.<String, String>of());
+
+    queue.remove("ABCD");
+
+    assertThat(queue.get("ABCD")).isNull();
+    assertThat(JiraLinkQueue.load(file).size()).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldIgnoreUnknownFormat() throws Exception {
+    FileUtils.write(file, "#jira-link-queue-v0\nABCD");
+
+    assertThat(JiraLinkQueue.load(file).size()).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldIgnoreCorruptedFile() throws Exception {
+    FileUtils.write(file, "#jira-link-queue-v1\n=ABCD\t\tnot a number");
+
+    assertThat(JiraLinkQueue.load(file).size()).isEqualTo(0);
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.cache;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraConstants;
+
+import java.io.File;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class JiraMetadataCacheTest {
+
+  private static final String SERVER = "http://my.jira.com";
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void shouldGetCachedSection() throws Exception {
+    JiraMetadataCache cache = new JiraMetadataCache(temp.getRoot(), 60000L);
+    cache.put(SERVER, "foo", JiraMetadataCache.PRIORITIES, ImmutableMap.of("1", "Blocker", "2", "Critical"));
+    cache.put(SERVER, "foo", JiraMetadataCache.FILTERS, ImmutableMap.of("myFilter", "10"));
+
+    Map<String, String> priorities = new JiraMetadataCache(temp.getRoot(), 60000L).get(SERVER, "foo", JiraMetadataCache.PRIORITIES);
+    assertThat(priorities).isEqualTo(ImmutableMap.of("1", "Blocker", "2", "Critical"));
+    assertThat(cache.get(SERVER, "foo", JiraMetadataCache.FILTERS)).isEqualTo(ImmutableMap.of("myFilter", "10"));
+    assertThat(cache.get(SERVER, "foo", JiraMetadataCache.ISSUE_TYPES)).isNull();
+  }
+
+  @Test
+  public void shouldReplaceSection() throws Exception {
+    JiraMetadataCache cache = new JiraMetadataCache(temp.getRoot(), 60000L);
+    cache.put(SERVER, "foo", JiraMetadataCache.FILTERS, ImmutableMap.of("myFilter", "10", "oldFilter", "11"));
+    cache.put(SERVER, "foo", JiraMetadataCache.FILTERS, ImmutableMap.of("myFilter", "12"));
+
+    assertThat(cache.get(SERVER, "foo", JiraMetadataCache.FILTERS)).isEqualTo(ImmutableMap.of("myFilter", "12"));
+  }
+
+  @Test
+  public void shouldBeKeyedByServerAndUser() throws Exception {
+    JiraMetadataCache cache = new JiraMetadataCache(temp.getRoot(), 60000L);
+    cache.put(SERVER, "foo", JiraMetadataCache.PRIORITIES, ImmutableMap.of("1", "Blocker"));
+
+    assertThat(cache.get(SERVER, "bar", JiraMetadataCache.PRIORITIES)).isNull();
+    assertThat(cache.get("http://other.jira.com", "foo", JiraMetadataCache.PRIORITIES)).isNull();
+  }
+
+  @Test
+  public void shouldExpire() throws Exception {
+    JiraMetadataCache cache = new JiraMetadataCache(temp.getRoot(), 1L);
+    cache.put(SERVER, "foo", JiraMetadataCache.PRIORITIES, ImmutableMap.of("1", "Blocker"));
+    Thread.sleep(10);
+
+    assertThat(cache.get(SERVER, "foo", JiraMetadataCache.PRIORITIES)).isNull();
+  }
+
+  @Test
+  public void shouldBeDisabledWithoutTtl() throws Exception {
+    JiraMetadataCache cache = new JiraMetadataCache(temp.getRoot(), 0L);
+    cache.put(SERVER, "foo", JiraMetadataCache.PRIORITIES, ImmutableMap.of("1", "Blocker"));
+
+    assertThat(cache.isEnabled()).isFalse();
+    assertThat(cache.get(SERVER, "foo", JiraMetadataCache.PRIORITIES)).isNull();
+    assertThat(temp.getRoot().list()).isEmpty();
+  }
+
+  @Test
+  public void shouldIgnoreCorruptedFile() throws Exception {
+    JiraMetadataCache cache = new JiraMetadataCache(temp.getRoot(), 60000L);
+    File file = cache.getFile(SERVER, "foo");
+    FileUtils.write(file, "timestamp.priorities=yesterday\npriorities.1=Blocker");
+
+    assertThat(cache.get(SERVER, "foo", JiraMetadataCache.PRIORITIES)).isNull();
+  }
+
+  @Test
+  public void shouldCreateFromSettings() throws Exception {
+    Settings settings = new Settings();
+    settings.setProperty(JiraConstants.CACHE_TTL_PROPERTY, 10);
+    settings.setProperty(JiraConstants.CACHE_DIR_PROPERTY, temp.getRoot().getAbsolutePath());
+
+    JiraMetadataCache cache = JiraMetadataCache.create(settings);
+    cache.put(SERVER, "foo", JiraMetadataCache.PRIORITIES, ImmutableMap.of("1", "Blocker"));
+
+    assertThat(cache.isEnabled()).isTrue();
+    assertThat(cache.getFile(SERVER, "foo").getParentFile()).isEqualTo(temp.getRoot());
+    assertThat(cache.getFile(SERVER, "foo")).exists();
+  }
+
+  @Test
+  public void shouldUseSonarUserHomeByDefault() throws Exception {
+    assertThat(JiraMetadataCache.getDefaultDirectory()).isEqualTo(new File(System.getProperty("user.home"), ".sonar/jira"));
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.cache;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ResolutionDateCacheTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void shouldStoreAndLoad() throws Exception {
+    ResolutionDateCache cache = new ResolutionDateCache();
+    cache.put("SONAR-1", 1000L, 900L);
+    File file = new File(temp.getRoot(), "jira/test.resolutions");
+
+    cache.store(file);
+    ResolutionDateCache loaded = ResolutionDateCache.load(file);
+
+    assertThat(loaded.size()).isEqualTo(1);
+    assertThat(loaded.get("SONAR-1", 1000L)).isEqualTo(900L);
+  }
+
+  @Test
+  public void shouldBeInvalidatedByIssueUpdate() throws Exception {
+    ResolutionDateCache cache = new ResolutionDateCache();
+    cache.put("SONAR-1", 1000L, 900L);
+
+    assertThat(cache.get("SONAR-1", 2000L)).isNull();
+    assertThat(cache.get("SONAR-2", 1000L)).isNull();
+  }
+
+  @Test
+  public void shouldForgetUnusedEntries() throws Exception {
+    ResolutionDateCache cache = new ResolutionDateCache();
+    cache.put("SONAR-1", 1000L, 900L);
+    cache.put("SONAR-2", 1000L, 900L);
+    File file = new File(temp.getRoot(), "test.resolutions");
+    cache.store(file);
+
+    cache = ResolutionDateCache.load(file);
+    cache.get("SONAR-1", 1000L);
+    cache.store(file);
+
+    cache = ResolutionDateCache.load(file);
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.get("SONAR-1", 1000L)).isEqualTo(900L);
+  }
+
+  @Test
+  public void shouldLoadEmptyCacheIfMissingOrCorrupted() throws Exception {
+    File file = new File(temp.getRoot(), "test.resolutions");
+    assertThat(ResolutionDateCache.load(file).size()).isEqualTo(0);
+
+    FileUtils.write(file, "SONAR-1=abc");
+    assertThat(ResolutionDateCache.load(file).size()).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldBeStoredByServerUserAndQuery() throws Exception {
+    File file = ResolutionDateCache.getFile(temp.getRoot(), "http://my.jira.com", "foo", "filter = 10000");
+    assertThat(file.getParentFile()).isEqualTo(temp.getRoot());
+    assertThat(file).isNotEqualTo(ResolutionDateCache.getFile(temp.getRoot(), "http://my.jira.com", "bar", "filter = 10000"));
+    // the analysis of another project does not remove the entries of this one
+    assertThat(file).isNotEqualTo(ResolutionDateCache.getFile(temp.getRoot(), "http://my.jira.com", "foo", "project = OTHER"));
+  }
+}
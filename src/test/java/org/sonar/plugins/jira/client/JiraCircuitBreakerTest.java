@@ -0,0 +1,130 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.client;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraConstants;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+
+public class JiraCircuitBreakerTest {
+
+  private static final String URL = "http://my.jira.com";
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void shouldOpenAfterConsecutiveFailures() {
+    JiraCircuitBreaker breaker = new JiraCircuitBreaker(URL, 1000L, null);
+    breaker.recordFailure(0L);
+    breaker.recordFailure(0L);
+    assertThat(breaker.isOpen(0L)).isFalse();
+
+    breaker.recordFailure(0L);
+    assertThat(breaker.isOpen(0L)).isTrue();
+    assertThat(breaker.isOpen(999L)).isTrue();
+    assertThat(breaker.isOpen(1000L)).isFalse();
+  }
+
+  @Test
+  public void shouldResetFailuresOnSuccess() {
+    JiraCircuitBreaker breaker = new JiraCircuitBreaker(URL, 1000L, null);
+    breaker.recordFailure(0L);
+    breaker.recordFailure(0L);
+    breaker.recordSuccess();
+    breaker.recordFailure(0L);
+
+    assertThat(breaker.isOpen(0L)).isFalse();
+  }
+
+  @Test
+  public void shouldOpenAgainOnFirstFailureAfterDelay() {
+    JiraCircuitBreaker breaker = new JiraCircuitBreaker(URL, 1000L, null);
+    for (int i = 0; i < JiraCircuitBreaker.FAILURE_THRESHOLD; i++) {
+      breaker.recordFailure(0L);
+    }
+
+    breaker.recordFailure(2000L);
+    assertThat(breaker.isOpen(2000L)).isTrue();
+    assertThat(breaker.isOpen(3000L)).isFalse();
+  }
+
+  @Test
+  public void shouldRefuseRequestsWhenOpen() throws Exception {
+    JiraCircuitBreaker breaker = new JiraCircuitBreaker(URL, 1000L, null);
+    for (int i = 0; i < JiraCircuitBreaker.FAILURE_THRESHOLD; i++) {
+      breaker.recordFailure(0L);
+    }
+
+    breaker.check(1000L);
+    try {
+      breaker.check(0L);
+      fail();
+    } catch (JiraUnavailableException e) {
+      assertThat(e.getMessage()).startsWith("The JIRA server http://my.jira.com is unavailable");
+    }
+  }
+
+  @Test
+  public void shouldNeverOpenWhenDisabled() {
+    JiraCircuitBreaker breaker = new JiraCircuitBreaker(URL, 0L, null);
+    for (int i = 0; i < 10; i++) {
+      breaker.recordFailure(0L);
+    }
+
+    assertThat(breaker.isOpen(0L)).isFalse();
+  }
+
+  @Test
+  public void shouldShareStateWithOtherProcesses() throws Exception {
+    File file = new File(temp.newFolder(), "server.unavailable");
+    long now = System.currentTimeMillis();
+    JiraCircuitBreaker breaker = new JiraCircuitBreaker(URL, 60000L, file);
+    for (int i = 0; i < JiraCircuitBreaker.FAILURE_THRESHOLD; i++) {
+      breaker.recordFailure(now);
+    }
+
+    assertThat(file).exists();
+    assertThat(new JiraCircuitBreaker(URL, 60000L, file).isOpen(now)).isTrue();
+
+    breaker.recordSuccess();
+    assertThat(file).doesNotExist();
+    assertThat(new JiraCircuitBreaker(URL, 60000L, file).isOpen(now)).isFalse();
+  }
+
+  @Test
+  public void shouldShareBreakerBetweenClientsOfSameServer() {
+    Settings settings = new Settings();
+    settings.setProperty(JiraConstants.SERVER_URL_PROPERTY, URL);
+    settings.setProperty(JiraConstants.CIRCUIT_OPEN_PROPERTY, 60);
+
+    assertThat(JiraCircuitBreaker.get(settings)).isSameAs(JiraCircuitBreaker.get(settings));
+    Settings otherSettings = new Settings();
+    otherSettings.setProperty(JiraConstants.SERVER_URL_PROPERTY, "http://other.jira.com");
+    assertThat(JiraCircuitBreaker.get(otherSettings)).isNotSameAs(JiraCircuitBreaker.get(settings));
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.client;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.sonar.api.config.PropertyDefinitions;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.JiraPlugin;
+import org.sonar.plugins.jira.rest.RestJiraClient;
+import org.sonar.plugins.jira.reviews.JiraIssueCreator;
+import org.sonar.plugins.jira.soap.SoapJiraClient;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class JiraClientFactoryTest {
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private Settings settings;
+
+  @Before
+  public void init() {
+    settings = new Settings(new PropertyDefinitions(JiraPlugin.class, JiraIssueCreator.class));
+    settings.setProperty(JiraConstants.SERVER_URL_PROPERTY, "http://my.jira.com");
+  }
+
+  @Test
+  public void shouldUseSoapApiByDefault() {
+    JiraClient client = JiraClientFactory.create(settings);
+
+    assertThat(client).isInstanceOf(SoapJiraClient.class);
+    assertThat(((SoapJiraClient) client).getSession().getWebServiceUrl().toString()).isEqualTo("http://my.jira.com/rpc/soap/jirasoapservice-v2");
+  }
+
+  @Test
+  public void shouldUseRestApi() {
+    settings.setProperty(JiraConstants.PROTOCOL_PROPERTY, "REST");
+
+    JiraClient client = JiraClientFactory.create(settings);
+
+    assertThat(client).isInstanceOf(RestJiraClient.class);
+    assertThat(((RestJiraClient) client).getServerUrl().toString()).isEqualTo("http://my.jira.com");
+  }
+
+  @Test
+  public void shouldFailWithIncorrectUrl() {
+    settings.setProperty(JiraConstants.SERVER_URL_PROPERTY, "my.server");
+
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("The JIRA server URL is not a valid one: my.server");
+
+    JiraClientFactory.create(settings);
+  }
+}
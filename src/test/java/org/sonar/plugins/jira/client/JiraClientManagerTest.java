@@ -0,0 +1,242 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.client;
+
+import com.atlassian.jira.rpc.soap.client.RemoteAuthenticationException;
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraConstants;
+
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class JiraClientManagerTest {
+
+  private List<JiraClient> createdClients;
+  private JiraClientManager manager;
+
+  @Before
+  public void init() throws Exception {
+    createdClients = Lists.newArrayList();
+    manager = newManager(2);
+  }
+
+  private JiraClientManager newManager(int maxSessions) {
+    return new JiraClientManager(maxSessions) {
+      @Override
+      protected JiraClient createClient(Settings settings) {
+        JiraClient client = mock(JiraClient.class);
+        createdClients.add(client);
+        return client;
+      }
+    };
+  }
+
+  private static Settings settings(String userName, String password) {
+    Settings settings = new Settings();
+    settings.setProperty(JiraConstants.SERVER_URL_PROPERTY, "http://my.jira.com");
+    settings.setProperty(JiraConstants.USERNAME_PROPERTY, userName);
+    settings.setProperty(JiraConstants.PASSWORD_PROPERTY, password);
+    return settings;
+  }
+
+  @Test
+  public void shouldReuseReleasedClient() throws Exception {
+    JiraClient first = manager.acquire(settings("foo", "bar"));
+    manager.release(first);
+    JiraClient second = manager.acquire(settings("foo", "bar"));
+
+    assertThat(second).isSameAs(first);
+    assertThat(createdClients).hasSize(1);
+    verify(first).connect("foo", "bar");
+  }
+
+  @Test
+  public void shouldOpenOneClientPerConcurrentRequest() throws Exception {
+    JiraClient first = manager.acquire(settings("foo", "bar"));
+    JiraClient second = manager.acquire(settings("foo", "bar"));
+
+    assertThat(second).isNotSameAs(first);
+    manager.release(first);
+    manager.release(second);
+    assertThat(manager.getIdleClients(settings("foo", "bar"))).isEqualTo(2);
+  }
+
+  @Test
+  public void shouldNotShareClientsBetweenUsersPasswordsOrProtocols() throws Exception {
+    manager.release(manager.acquire(settings("foo", "bar")));
+    manager.acquire(settings("other", "bar"));
+    manager.acquire(settings("foo", "changed"));
+    Settings rest = settings("foo", "bar");
+    rest.setProperty(JiraConstants.PROTOCOL_PROPERTY, JiraConstants.PROTOCOL_REST);
+    manager.acquire(rest);
+
+    assertThat(createdClients).hasSize(4);
+  }
+
+  @Test
+  public void shouldReleasePermitIfLoginFails() throws Exception {
+    manager = new JiraClientManager(1) {
+      @Override
+      protected JiraClient createClient(Settings settings) {
+        JiraClient client = mock(JiraClient.class);
+        try {
+          doThrow(RemoteAuthenticationException.class).when(client).connect(anyString(), anyString());
+        } catch (RemoteException e) {
+          throw new IllegalStateException(e);
+        }
+        return client;
+      }
+    };
+    for (int i = 0; i < 2; i++) {
+      try {
+        manager.acquire(settings("foo", "bar"));
+      } catch (RemoteAuthenticationException e) {
+        // expected
+      }
+    }
+    assertThat(manager.getIdleClients(settings("foo", "bar"))).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldLogInAgainWhenTokenIsRejected() throws Exception {
+    JiraClient client = manager.acquire(settings("foo", "bar"));
+    when(client.getServerInfo()).thenThrow(new RemoteAuthenticationException()).thenReturn(null);
+
+    manager.execute(client, new JiraClientManager.Callback<Object>() {
+      public Object execute(JiraClient client) throws RemoteException {
+        return client.getServerInfo();
+      }
+    });
+
+    verify(client, times(2)).connect("foo", "bar");
+    verify(client, times(2)).getServerInfo();
+  }
+
+  @Test
+  public void shouldLogInAgainOnceWhenTokenIsRejectedForConcurrentRequests() throws Exception {
+    final JiraClient client = manager.acquire(settings("foo", "bar"));
+    final CyclicBarrier rejected = new CyclicBarrier(2);
+    final List<Throwable> failures = Lists.newArrayList();
+    List<Thread> threads = Lists.newArrayList();
+    for (int i = 0; i < 2; i++) {
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            manager.execute(client, new JiraClientManager.Callback<Object>() {
+              private boolean first = true;
+
+              public Object execute(JiraClient client) throws RemoteException {
+                if (first) {
+                  first = false;
+                  // both requests are rejected with the same expired session
+                  await(rejected);
+                  throw new RemoteAuthenticationException();
+                }
+                return null;
+              }
+            });
+          } catch (Throwable e) {
+            synchronized (failures) {
+              failures.add(e);
+            }
+          }
+        }
+      };
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join(5000L);
+    }
+
+    assertThat(failures).isEmpty();
+    verify(client, times(2)).connect("foo", "bar");
+  }
+
+  private static void await(CyclicBarrier barrier) {
+    try {
+      barrier.await(5L, TimeUnit.SECONDS);
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Test
+  public void shouldNotLogInAgainOnOtherErrors() throws Exception {
+    JiraClient client = manager.acquire(settings("foo", "bar"));
+
+    try {
+      manager.execute(client, new JiraClientManager.Callback<Object>() {
+        public Object execute(JiraClient client) throws RemoteException {
+          throw new RemoteException("boom");
+        }
+      });
+    } catch (RemoteException e) {
+      assertThat(e.getMessage()).isEqualTo("boom");
+    }
+    verify(client, times(1)).connect("foo", "bar");
+  }
+
+  @Test
+  public void shouldLogOutIdleClientsOnStop() throws Exception {
+    JiraClient idle = manager.acquire(settings("foo", "bar"));
+    JiraClient leased = manager.acquire(settings("foo", "bar"));
+    manager.release(idle);
+
+    manager.stop();
+    verify(idle).disconnect();
+    verify(leased, never()).disconnect();
+
+    manager.release(leased);
+    verify(leased).disconnect();
+  }
+
+  @Test
+  public void shouldWaitForClientWhenMaximumIsReached() throws Exception {
+    manager = newManager(1);
+    manager.acquire(settings("foo", "bar"));
+    Thread.currentThread().interrupt();
+
+    try {
+      manager.acquire(settings("foo", "bar"));
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Interrupted while waiting for a JIRA session");
+    } finally {
+      // clears the flag for the next tests
+      assertThat(Thread.interrupted()).isTrue();
+    }
+    assertThat(createdClients).hasSize(1);
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.client;
+
+import org.junit.Test;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraConstants;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+
+public class JiraRequestLimiterTest {
+
+  private static final String URL = "http://my.jira.com";
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1L);
+
+  @Test
+  public void shouldAllowBurstOfOneSecond() {
+    JiraRequestLimiter limiter = new JiraRequestLimiter(URL, 0, 4);
+
+    for (int i = 0; i < 4; i++) {
+      assertThat(limiter.reserve(0L)).isEqualTo(0L);
+    }
+    assertThat(limiter.reserve(0L)).isEqualTo(SECOND / 4);
+    assertThat(limiter.reserve(0L)).isEqualTo(SECOND / 2);
+  }
+
+  @Test
+  public void shouldRefillBucketOverTime() {
+    JiraRequestLimiter limiter = new JiraRequestLimiter(URL, 0, 2);
+    limiter.reserve(0L);
+    limiter.reserve(0L);
+    assertThat(limiter.reserve(0L)).isEqualTo(SECOND / 2);
+
+    // tokens do not accumulate beyond the burst
+    assertThat(limiter.reserve(10 * SECOND)).isEqualTo(0L);
+    assertThat(limiter.reserve(10 * SECOND)).isEqualTo(0L);
+    assertThat(limiter.reserve(10 * SECOND)).isEqualTo(SECOND / 2);
+  }
+
+  @Test
+  public void shouldNotLimitRateWhenDisabled() {
+    JiraRequestLimiter limiter = new JiraRequestLimiter(URL, 0, 0);
+
+    for (int i = 0; i < 100; i++) {
+      assertThat(limiter.reserve(0L)).isEqualTo(0L);
+    }
+  }
+
+  @Test
+  public void shouldLimitRequestsInProgress() throws Exception {
+    final JiraRequestLimiter limiter = new JiraRequestLimiter(URL, 1, 0);
+    limiter.acquire(0L);
+
+    final CountDownLatch started = new CountDownLatch(1);
+    final AtomicBoolean acquired = new AtomicBoolean();
+    Thread waiting = new Thread() {
+      @Override
+      public void run() {
+        started.countDown();
+        try {
+          limiter.acquire(0L);
+          acquired.set(true);
+          limiter.release();
+        } catch (JiraUnavailableException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    };
+    waiting.start();
+    started.await();
+    Thread.sleep(50L);
+    assertThat(acquired.get()).isFalse();
+
+    limiter.release();
+    waiting.join(5000L);
+    assertThat(acquired.get()).isTrue();
+    assertThat(limiter.getRequests()).isEqualTo(2);
+    assertThat(limiter.getDelayedRequests()).isEqualTo(1);
+    assertThat(limiter.getMaxWaitMillis()).isGreaterThanOrEqualTo(40L);
+    assertThat(limiter.getTotalWaitMillis()).isEqualTo(limiter.getMaxWaitMillis());
+  }
+
+  @Test
+  public void shouldNotWaitBeyondDeadline() throws Exception {
+    JiraRequestLimiter limiter = new JiraRequestLimiter(URL, 1, 0);
+    limiter.acquire(0L);
+
+    try {
+      limiter.acquire(System.currentTimeMillis() + 20L);
+      fail();
+    } catch (JiraUnavailableException e) {
+      assertThat(e.getMessage()).contains(URL);
+    }
+    limiter.release();
+    limiter.acquire(System.currentTimeMillis() + 1000L);
+  }
+
+  @Test
+  public void shouldShareLimiterBetweenClientsOfSameServer() {
+    Settings settings = new Settings();
+    settings.setProperty(JiraConstants.SERVER_URL_PROPERTY, URL);
+    settings.setProperty(JiraConstants.REQUESTS_MAX_PROPERTY, 2);
+
+    assertThat(JiraRequestLimiter.get(settings)).isSameAs(JiraRequestLimiter.get(settings));
+    assertThat(JiraRequestLimiter.get(settings).getServerUrl()).isEqualTo(URL);
+  }
+}
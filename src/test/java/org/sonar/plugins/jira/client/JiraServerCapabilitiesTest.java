@@ -0,0 +1,75 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.client;
+
+import com.atlassian.jira.rpc.soap.client.RemoteServerInfo;
+import org.junit.Test;
+
+import java.rmi.RemoteException;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class JiraServerCapabilitiesTest {
+
+  @Test
+  public void shouldCompareVersions() {
+    assertThat(new JiraServerCapabilities("3.13").isAtLeast(3, 13)).isTrue();
+    assertThat(new JiraServerCapabilities("3.12.3").isAtLeast(3, 13)).isFalse();
+    assertThat(new JiraServerCapabilities("4").isAtLeast(3, 13)).isTrue();
+    assertThat(new JiraServerCapabilities("6.0-OD-09").isAtLeast(6, 0)).isTrue();
+    assertThat(new JiraServerCapabilities("5.2-m08").isAtLeast(5, 3)).isFalse();
+  }
+
+  @Test
+  public void shouldDetectFavouriteFilters() {
+    assertThat(new JiraServerCapabilities("3.12").hasFavouriteFilters()).isFalse();
+    assertThat(new JiraServerCapabilities("5.1.8").hasFavouriteFilters()).isTrue();
+  }
+
+  @Test
+  public void shouldAssumeRecentServerIfVersionIsUnknown() {
+    JiraServerCapabilities capabilities = new JiraServerCapabilities("unknown");
+    assertThat(capabilities.isVersionKnown()).isFalse();
+    assertThat(capabilities.hasFavouriteFilters()).isTrue();
+    assertThat(new JiraServerCapabilities(null).isVersionKnown()).isFalse();
+  }
+
+  @Test
+  public void shouldDetectVersionOfServer() throws Exception {
+    JiraClient client = mock(JiraClient.class);
+    RemoteServerInfo serverInfo = new RemoteServerInfo();
+    serverInfo.setVersion("4.4.1");
+    when(client.getServerInfo()).thenReturn(serverInfo);
+
+    JiraServerCapabilities capabilities = JiraServerCapabilities.detect(client);
+    assertThat(capabilities.getVersion()).isEqualTo("4.4.1");
+    assertThat(capabilities.isVersionKnown()).isTrue();
+  }
+
+  @Test
+  public void shouldNotFailIfServerInfoIsNotAvailable() throws Exception {
+    JiraClient client = mock(JiraClient.class);
+    when(client.getServerInfo()).thenThrow(new RemoteException("Server Error"));
+
+    assertThat(JiraServerCapabilities.detect(client).isVersionKnown()).isFalse();
+  }
+}
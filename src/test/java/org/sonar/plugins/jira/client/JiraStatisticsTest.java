@@ -0,0 +1,82 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.client;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+
+import java.lang.management.ManagementFactory;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class JiraStatisticsTest {
+
+  @After
+  public void unregister() {
+    JiraStatistics.unregisterAll();
+  }
+
+  @Test
+  public void shouldSummarizeOperationsByName() {
+    JiraStatistics statistics = new JiraStatistics("http://my.jira.com");
+    statistics.getOperation("login").record(30L, false, 100L, 200L);
+    statistics.getOperation("getIssuesFromFilterWithLimit").record(1200L, false, 100L, 3000L);
+    statistics.getOperation("getIssuesFromFilterWithLimit").record(800L, true, 100L, 0L);
+
+    assertThat(statistics.getSummary())
+      .isEqualTo("getIssuesFromFilterWithLimit: 2 calls in 2000 ms, max 1200 ms, 1 errors, 3 KB received; login: 1 calls in 30 ms, 1 KB received");
+  }
+
+  @Test
+  public void shouldComputeLatencyPercentiles() {
+    JiraOperationStatistics operation = new JiraOperationStatistics("getPriorities");
+    for (int i = 1; i <= 100; i++) {
+      operation.record(i, false, 0L, 0L);
+    }
+
+    assertThat(operation.getMeanLatencyMillis()).isEqualTo(50.5);
+    assertThat(operation.getMaxLatencyMillis()).isEqualTo(100L);
+    assertThat(operation.getLatency90thPercentileMillis()).isGreaterThan(50.0).isLessThanOrEqualTo(100.0);
+    assertThat(operation.getLatencyDistribution()).startsWith("0=9;10=15;25=25;50=50;100=1;");
+  }
+
+  @Test
+  public void shouldPublishStatisticsOfServerThroughJmx() throws Exception {
+    JiraStatistics statistics = JiraStatistics.get("http://my.jira.com:8080");
+    assertThat(JiraStatistics.get("http://my.jira.com:8080")).isSameAs(statistics);
+    statistics.getOperation("getPriorities").record(10L, false, 10L, 20L);
+
+    MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+    assertThat(mbeanServer.getAttribute(JiraStatistics.getObjectName("http://my.jira.com:8080", "getPriorities"), "Calls")).isEqualTo(1L);
+    assertThat(mbeanServer.getAttribute(JiraStatistics.getObjectName("http://my.jira.com:8080", "getPriorities"), "ResponseBytes")).isEqualTo(20L);
+
+    JiraStatistics.unregisterAll();
+    assertThat(mbeanServer.isRegistered(JiraStatistics.getObjectName("http://my.jira.com:8080", "getPriorities"))).isFalse();
+  }
+
+  @Test
+  public void shouldNotPublishStatisticsOfAnalysis() throws Exception {
+    new JiraStatistics("http://other.jira.com").getOperation("getPriorities");
+
+    assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(JiraStatistics.getObjectName("http://other.jira.com", "getPriorities"))).isFalse();
+  }
+}
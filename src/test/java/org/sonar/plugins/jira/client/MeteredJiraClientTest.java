@@ -0,0 +1,84 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.client;
+
+import com.atlassian.jira.rpc.soap.client.RemotePriority;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayInputStream;
+import java.rmi.RemoteException;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MeteredJiraClientTest {
+
+  private final JiraClient delegate = mock(JiraClient.class);
+  private final JiraStatistics statistics = new JiraStatistics("http://my.jira.com");
+  private final JiraClient client = MeteredJiraClient.wrap(new MeteredJiraClient(delegate, statistics));
+
+  @Test
+  public void shouldRecordCallsAndErrors() throws Exception {
+    when(delegate.getPriorities()).thenReturn(new RemotePriority[0]).thenThrow(new RemoteException("down"));
+
+    client.getPriorities();
+    try {
+      client.getPriorities();
+      fail();
+    } catch (RemoteException e) {
+      assertThat(e.getMessage()).isEqualTo("down");
+    }
+
+    JiraOperationStatistics operation = statistics.getOperation("getPriorities");
+    assertThat(operation.getCalls()).isEqualTo(2);
+    assertThat(operation.getErrors()).isEqualTo(1);
+    assertThat(statistics.getOperations()).containsOnly(operation);
+  }
+
+  @Test
+  public void shouldRecordPayloadOfCurrentCall() throws Exception {
+    when(delegate.getPriorities()).thenAnswer(new Answer<RemotePriority[]>() {
+      public RemotePriority[] answer(InvocationOnMock invocation) throws Throwable {
+        PayloadCounter.addSent(100L);
+        IOUtils.toByteArray(PayloadCounter.countReceived(new ByteArrayInputStream(new byte[2048])));
+        return new RemotePriority[0];
+      }
+    });
+
+    client.getPriorities();
+
+    assertThat(statistics.getOperation("getPriorities").getRequestBytes()).isEqualTo(100L);
+    assertThat(statistics.getOperation("getPriorities").getResponseBytes()).isEqualTo(2048L);
+    assertThat(PayloadCounter.isCounting()).isFalse();
+  }
+
+  @Test
+  public void shouldNotCountOutsideOfCalls() {
+    PayloadCounter.addSent(100L);
+    ByteArrayInputStream input = new ByteArrayInputStream(new byte[1]);
+
+    assertThat(PayloadCounter.countReceived(input)).isSameAs(input);
+  }
+}
@@ -0,0 +1,279 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.client;
+
+import com.atlassian.jira.rpc.soap.client.RemoteAuthenticationException;
+import com.atlassian.jira.rpc.soap.client.RemoteIssue;
+import com.atlassian.jira.rpc.soap.client.RemotePriority;
+import org.apache.axis.AxisFault;
+import org.apache.axis.Constants;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sonar.plugins.jira.cache.ResolutionDateCache;
+import org.sonar.plugins.jira.metrics.IssueAges;
+import org.sonar.plugins.jira.rest.HttpStatusException;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.rmi.RemoteException;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ResilientJiraClientTest {
+
+  private JiraClient delegate;
+  private JiraCircuitBreaker breaker;
+  private JiraRequestLimiter limiter;
+
+  @Before
+  public void init() {
+    delegate = mock(JiraClient.class);
+    breaker = new JiraCircuitBreaker("http://my.jira.com", 60000L, null);
+    limiter = new JiraRequestLimiter("http://my.jira.com", 1, 0);
+  }
+
+  private JiraClient client(int maxRetries, long deadline) {
+    return ResilientJiraClient.wrap(new ResilientJiraClient(delegate, maxRetries, 1L, breaker, limiter, deadline));
+  }
+
+  private static RemoteException timeout() {
+    return AxisFault.makeFault(new SocketTimeoutException("Read timed out"));
+  }
+
+  @Test
+  public void shouldRetryReadsOnTransientErrors() throws Exception {
+    RemotePriority[] priorities = new RemotePriority[0];
+    when(delegate.getPriorities()).thenThrow(timeout()).thenReturn(priorities);
+
+    assertThat(client(2, ResilientJiraClient.NO_DEADLINE).getPriorities()).isSameAs(priorities);
+    verify(delegate, times(2)).getPriorities();
+  }
+
+  @Test
+  public void shouldGiveUpAfterMaxRetries() throws Exception {
+    RemoteException error = timeout();
+    when(delegate.getPriorities()).thenThrow(error);
+
+    try {
+      client(2, ResilientJiraClient.NO_DEADLINE).getPriorities();
+      fail();
+    } catch (RemoteException e) {
+      assertThat(e).isSameAs(error);
+    }
+    verify(delegate, times(3)).getPriorities();
+  }
+
+  @Test
+  public void shouldNotRetryOtherErrors() throws Exception {
+    when(delegate.getPriorities()).thenThrow(new RemoteAuthenticationException());
+
+    try {
+      client(2, ResilientJiraClient.NO_DEADLINE).getPriorities();
+      fail();
+    } catch (RemoteAuthenticationException e) {
+      // expected
+    }
+    verify(delegate, times(1)).getPriorities();
+  }
+
+  @Test
+  public void shouldNeverCreateIssueTwice() throws Exception {
+    when(delegate.createIssue(any(RemoteIssue.class))).thenThrow(timeout());
+
+    try {
+      client(2, ResilientJiraClient.NO_DEADLINE).createIssue(new RemoteIssue());
+      fail();
+    } catch (RemoteException e) {
+      // expected
+    }
+    verify(delegate, times(1)).createIssue(any(RemoteIssue.class));
+  }
+
+  @Test
+  public void shouldNotRetryOnceIssuesAreHandled() throws Exception {
+    when(delegate.getIssuesFromJqlSearch(anyString(), anyInt(), any(RemoteIssueHandler.class))).thenAnswer(new Answer<Integer>() {
+      public Integer answer(InvocationOnMock invocation) throws Throwable {
+        ((RemoteIssueHandler) invocation.getArguments()[2]).handle(new RemoteIssue());
+        throw timeout();
+      }
+    });
+    RemoteIssueHandler handler = mock(RemoteIssueHandler.class);
+
+    try {
+      client(2, ResilientJiraClient.NO_DEADLINE).getIssuesFromJqlSearch("project = SONAR", 10, handler);
+      fail();
+    } catch (RemoteException e) {
+      // expected
+    }
+    verify(delegate, times(1)).getIssuesFromJqlSearch(anyString(), anyInt(), any(RemoteIssueHandler.class));
+    verify(handler, times(1)).handle(any(RemoteIssue.class));
+  }
+
+  @Test
+  public void shouldRetrySearchWhenNoIssueWasHandled() throws Exception {
+    when(delegate.getIssuesFromJqlSearch(anyString(), anyInt(), any(RemoteIssueHandler.class))).thenThrow(timeout()).thenReturn(3);
+
+    assertThat(client(2, ResilientJiraClient.NO_DEADLINE).getIssuesFromJqlSearch("project = SONAR", 10, mock(RemoteIssueHandler.class))).isEqualTo(3);
+  }
+
+  @Test
+  public void shouldFailFastOnceDeadlineIsReached() throws Exception {
+    try {
+      client(2, System.currentTimeMillis() - 1L).getPriorities();
+      fail();
+    } catch (JiraUnavailableException e) {
+      assertThat(e.getMessage()).contains("sonar.jira.analysis.timeout");
+    }
+    verify(delegate, never()).getPriorities();
+  }
+
+  @Test
+  public void shouldOpenCircuitAfterConsecutiveFailures() throws Exception {
+    when(delegate.getPriorities()).thenThrow(timeout());
+    JiraClient client = client(0, ResilientJiraClient.NO_DEADLINE);
+    for (int i = 0; i < JiraCircuitBreaker.FAILURE_THRESHOLD; i++) {
+      try {
+        client.getPriorities();
+        fail();
+      } catch (RemoteException e) {
+        assertThat(e instanceof JiraUnavailableException).isFalse();
+      }
+    }
+
+    try {
+      client.getStatuses();
+      fail();
+    } catch (JiraUnavailableException e) {
+      assertThat(e.getMessage()).contains("http://my.jira.com");
+    }
+    verify(delegate, never()).getStatuses();
+  }
+
+  @Test
+  public void shouldStopRetryingWhenCircuitOpens() throws Exception {
+    when(delegate.getPriorities()).thenThrow(timeout());
+
+    try {
+      client(10, ResilientJiraClient.NO_DEADLINE).getPriorities();
+      fail();
+    } catch (RemoteException e) {
+      // expected
+    }
+    verify(delegate, times(JiraCircuitBreaker.FAILURE_THRESHOLD)).getPriorities();
+  }
+
+  @Test
+  public void shouldDetectTransientErrors() {
+    assertThat(ResilientJiraClient.isTransient(timeout())).isTrue();
+    assertThat(ResilientJiraClient.isTransient(new RemoteException("Unable to request /rest/api/2/priority", new ConnectException()))).isTrue();
+    assertThat(ResilientJiraClient.isTransient(new HttpStatusException(503, "http://my.jira.com"))).isTrue();
+    assertThat(ResilientJiraClient.isTransient(new HttpStatusException(404, "http://my.jira.com"))).isFalse();
+    assertThat(ResilientJiraClient.isTransient(new RemoteAuthenticationException())).isFalse();
+    assertThat(ResilientJiraClient.isTransient(new IllegalStateException())).isFalse();
+  }
+
+  @Test
+  public void shouldDetectTransientHttpStatusOfSoapFaults() {
+    AxisFault badGateway = new AxisFault("HTTP", "(502)Bad Gateway", null, null);
+    badGateway.addFaultDetail(Constants.QNAME_FAULTDETAIL_HTTPERRORCODE, "502");
+    AxisFault notFound = new AxisFault("HTTP", "(404)Not Found", null, null);
+    notFound.addFaultDetail(Constants.QNAME_FAULTDETAIL_HTTPERRORCODE, "404");
+
+    assertThat(ResilientJiraClient.isTransient(badGateway)).isTrue();
+    assertThat(ResilientJiraClient.isTransient(notFound)).isFalse();
+  }
+
+  @Test
+  public void shouldReleaseLimiterAfterEachAttempt() throws Exception {
+    when(delegate.getPriorities()).thenThrow(timeout()).thenReturn(new RemotePriority[0]);
+    JiraClient client = client(2, ResilientJiraClient.NO_DEADLINE);
+
+    client.getPriorities();
+    try {
+      client.createIssue(null);
+    } catch (RemoteException e) {
+      // not stubbed
+    }
+    // the limiter allows a single request at a time, it would block if a permit was not released
+    client.getPriorities();
+    assertThat(limiter.getRequests()).isEqualTo(4);
+  }
+
+  @Test(timeout = 10000)
+  public void shouldReleaseLimiterBeforeHandlingIssues() throws Exception {
+    when(delegate.getIssuesFromJqlSearch(anyString(), anyInt(), any(RemoteIssueHandler.class))).thenAnswer(new Answer<Integer>() {
+      public Integer answer(InvocationOnMock invocation) throws Throwable {
+        RemoteIssueHandler handler = (RemoteIssueHandler) invocation.getArguments()[2];
+        for (int i = 1; i <= 3; i++) {
+          handler.handle(resolvedIssue("SONAR-" + i));
+        }
+        return 3;
+      }
+    });
+    when(delegate.getResolutionDateByKey(anyString())).thenReturn(new GregorianCalendar(2013, Calendar.JUNE, 1));
+    JiraClient client = client(0, ResilientJiraClient.NO_DEADLINE);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      // the limiter allows a single request at a time, and the handler waits for the resolution requests
+      IssueAges ages = new IssueAges(System.currentTimeMillis(), client, executor, new ResolutionDateCache(), 1);
+
+      client.getIssuesFromJqlSearch("project = SONAR", 10, ages);
+      ages.complete();
+
+      assertThat(ages.getResolutionTimes().count()).isEqualTo(3);
+      assertThat(limiter.getRequests()).isEqualTo(4);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static RemoteIssue resolvedIssue(String key) {
+    RemoteIssue issue = new RemoteIssue();
+    issue.setKey(key);
+    issue.setCreated(new GregorianCalendar(2013, Calendar.JANUARY, 1));
+    issue.setUpdated(new GregorianCalendar(2013, Calendar.JUNE, 1));
+    issue.setResolution("1");
+    return issue;
+  }
+
+  @Test
+  public void shouldUseIdentityOfProxy() {
+    JiraClient client = client(0, ResilientJiraClient.NO_DEADLINE);
+
+    assertThat(client).isEqualTo(client);
+    assertThat(client).isNotEqualTo(client(0, ResilientJiraClient.NO_DEADLINE));
+    assertThat(client.hashCode()).isEqualTo(System.identityHashCode(client));
+  }
+}
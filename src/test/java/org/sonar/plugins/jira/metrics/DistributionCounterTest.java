@@ -0,0 +1,144 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.metrics;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import org.sonar.api.measures.PropertiesBuilder;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class DistributionCounterTest {
+
+  @Test
+  public void shouldCountByValue() {
+    DistributionCounter counter = new DistributionCounter();
+    counter.add("1");
+    counter.add("3");
+    counter.add("1");
+    counter.add("2", 5);
+
+    assertThat(counter.size()).isEqualTo(3);
+    assertThat(counter.total()).isEqualTo(8);
+    assertThat(counter.count("1")).isEqualTo(2);
+    assertThat(counter.count("2")).isEqualTo(5);
+    assertThat(counter.count("3")).isEqualTo(1);
+    assertThat(counter.count("4")).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldGiveIndexesInOrderOfAppearance() {
+    DistributionCounter counter = new DistributionCounter();
+    counter.add("3");
+    counter.add("1");
+    counter.add("3");
+
+    assertThat(counter.value(0)).isEqualTo("3");
+    assertThat(counter.count(0)).isEqualTo(2);
+    assertThat(counter.value(1)).isEqualTo("1");
+    assertThat(counter.count(1)).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldOnlyCountIssuesWithoutValueInTotal() {
+    DistributionCounter counter = new DistributionCounter();
+    counter.add(null);
+    counter.add("1");
+
+    assertThat(counter.size()).isEqualTo(1);
+    assertThat(counter.total()).isEqualTo(2);
+    assertThat(counter.count(null)).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldGrowBeyondInitialCapacity() {
+    DistributionCounter counter = new DistributionCounter();
+    for (int i = 0; i < 1000; i++) {
+      counter.add(String.valueOf(i % 100));
+    }
+
+    assertThat(counter.size()).isEqualTo(100);
+    assertThat(counter.total()).isEqualTo(1000);
+    for (int i = 0; i < 100; i++) {
+      assertThat(counter.count(String.valueOf(i))).isEqualTo(10);
+    }
+  }
+
+  @Test
+  public void shouldBuildDataSortedByName() {
+    DistributionCounter counter = new DistributionCounter();
+    counter.add("2");
+    counter.add("1");
+    counter.add("2");
+    counter.add("3");
+
+    Map<String, String> names = ImmutableMap.of("1", "Minor", "2", "Blocker", "3", "Critical");
+    assertThat(counter.buildData(names)).isEqualTo("Blocker=2;Critical=1;Minor=1");
+  }
+
+  @Test
+  public void shouldBuildSameDataAsPropertiesBuilder() {
+    DistributionCounter counter = new DistributionCounter();
+    PropertiesBuilder<String, Integer> builder = new PropertiesBuilder<String, Integer>();
+    Map<String, String> names = ImmutableMap.of("1", "Blocker", "2", "Critical", "3", "Major", "4", "Minor", "5", "Trivial");
+    for (int i = 1; i <= 5; i++) {
+      counter.add(String.valueOf(i), i * 3);
+      builder.add(names.get(String.valueOf(i)), i * 3);
+    }
+
+    assertThat(counter.buildData(names)).isEqualTo(builder.buildData());
+  }
+
+  @Test
+  public void shouldMergeValuesWithSameName() {
+    DistributionCounter counter = new DistributionCounter();
+    counter.add("1", 2);
+    counter.add("2", 3);
+    counter.add("3");
+
+    Map<String, String> names = ImmutableMap.of("1", "Open", "2", "Open", "3", "Closed");
+    assertThat(counter.buildData(names)).isEqualTo("Closed=1;Open=5");
+  }
+
+  @Test
+  public void shouldEscapeSeparatorsOfNames() {
+    DistributionCounter counter = new DistributionCounter();
+    counter.add("Core; UI=web");
+    counter.add("API", 2);
+
+    assertThat(counter.buildData(Collections.<String, String>emptyMap())).isEqualTo("API=2;Core, UI:web=1");
+  }
+
+  @Test
+  public void shouldUseIdWhenNameIsUnknown() {
+    DistributionCounter counter = new DistributionCounter();
+    counter.add("10000");
+
+    assertThat(counter.buildData(Collections.<String, String>emptyMap())).isEqualTo("10000=1");
+  }
+
+  @Test
+  public void shouldBuildEmptyData() {
+    assertThat(new DistributionCounter().buildData(Collections.<String, String>emptyMap())).isEqualTo("");
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.metrics;
+
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class DurationHistogramTest {
+
+  @Test
+  public void shouldCountInBuckets() {
+    DurationHistogram histogram = new DurationHistogram(0L, 10L, 100L);
+    histogram.add(0L);
+    histogram.add(9L);
+    histogram.add(10L);
+    histogram.add(1000L);
+    histogram.add(-5L);
+
+    assertThat(histogram.count()).isEqualTo(5);
+    assertThat(histogram.count(0)).isEqualTo(3);
+    assertThat(histogram.count(1)).isEqualTo(1);
+    assertThat(histogram.count(2)).isEqualTo(1);
+    assertThat(histogram.buildData(1L)).isEqualTo("0=3;10=1;100=1");
+    assertThat(histogram.buildData(10L)).isEqualTo("0=3;1=1;10=1");
+  }
+
+  @Test
+  public void shouldComputeExactMean() {
+    DurationHistogram histogram = new DurationHistogram(0L, 10L, 100L);
+    histogram.add(4L);
+    histogram.add(6L);
+    histogram.add(50L);
+
+    assertThat(histogram.mean()).isEqualTo(20.0);
+  }
+
+  @Test
+  public void shouldEstimatePercentileInsideBucket() {
+    DurationHistogram histogram = new DurationHistogram(0L, 100L, 200L);
+    for (int i = 0; i < 10; i++) {
+      histogram.add(150L);
+    }
+
+    assertThat(histogram.percentile(50)).isEqualTo(125.0);
+    assertThat(histogram.percentile(90)).isEqualTo(145.0);
+    assertThat(histogram.percentile(100)).isEqualTo(150.0);
+  }
+
+  @Test
+  public void shouldUseMaximumAsUpperBoundOfLastBucket() {
+    DurationHistogram histogram = new DurationHistogram(0L, 100L);
+    histogram.add(10L);
+    histogram.add(300L);
+
+    assertThat(histogram.percentile(100)).isEqualTo(300.0);
+  }
+
+  @Test
+  public void shouldBeEmpty() {
+    DurationHistogram histogram = new DurationHistogram(0L, 100L);
+
+    assertThat(histogram.count()).isEqualTo(0);
+    assertThat(histogram.mean()).isEqualTo(0.0);
+    assertThat(histogram.percentile(90)).isEqualTo(0.0);
+    assertThat(histogram.buildData(1L)).isEqualTo("0=0;100=0");
+  }
+}
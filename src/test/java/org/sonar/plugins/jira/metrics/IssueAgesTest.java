@@ -0,0 +1,176 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.metrics;
+
+import com.atlassian.jira.rpc.soap.client.RemoteException;
+import com.atlassian.jira.rpc.soap.client.RemoteIssue;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sonar.plugins.jira.cache.ResolutionDateCache;
+import org.sonar.plugins.jira.client.JiraClient;
+
+import java.util.Calendar;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class IssueAgesTest {
+
+  private static final long NOW = 1000L * IssueAges.DAY;
+
+  private JiraClient client;
+  private ResolutionDateCache resolutionDates;
+  private IssueAges ages;
+
+  @Before
+  public void setUp() {
+    client = mock(JiraClient.class);
+    resolutionDates = new ResolutionDateCache();
+    ages = new IssueAges(NOW, client, MoreExecutors.sameThreadExecutor(), resolutionDates, 1);
+  }
+
+  @Test
+  public void shouldComputeAgeOfUnresolvedIssues() throws Exception {
+    ages.handle(issue("SONAR-1", NOW - 3 * IssueAges.DAY, null));
+    ages.handle(issue("SONAR-2", NOW - 40 * IssueAges.DAY, null));
+    ages.handle(issue("SONAR-3", NOW - 2 * IssueAges.HOUR, null));
+    ages.complete();
+
+    assertThat(ages.getAges().buildData(IssueAges.DAY)).isEqualTo("0=1;1=1;7=0;30=1;90=0;180=0;365=0");
+    assertThat(ages.getResolutionTimes().count()).isEqualTo(0);
+    verify(client, never()).getResolutionDateByKey(anyString());
+  }
+
+  @Test
+  public void shouldComputeResolutionTimeOfResolvedIssues() throws Exception {
+    when(client.getResolutionDateByKey("SONAR-1")).thenReturn(date(NOW - 10 * IssueAges.DAY));
+    when(client.getResolutionDateByKey("SONAR-2")).thenReturn(date(NOW - 20 * IssueAges.DAY));
+    ages.handle(issue("SONAR-1", NOW - 12 * IssueAges.DAY, "1"));
+    ages.handle(issue("SONAR-2", NOW - 24 * IssueAges.DAY, "1"));
+    ages.complete();
+
+    assertThat(ages.getResolutionTimes().count()).isEqualTo(2);
+    assertThat(ages.getResolutionTimes().mean()).isEqualTo(3.0 * IssueAges.DAY);
+    assertThat(ages.getAges().count()).isEqualTo(0);
+    assertThat(resolutionDates.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void shouldUseCachedResolutionDates() throws Exception {
+    RemoteIssue issue = issue("SONAR-1", NOW - 12 * IssueAges.DAY, "1");
+    resolutionDates.put("SONAR-1", issue.getUpdated().getTimeInMillis(), NOW - 10 * IssueAges.DAY);
+    ages.handle(issue);
+    ages.complete();
+
+    assertThat(ages.getResolutionTimes().mean()).isEqualTo(2.0 * IssueAges.DAY);
+    verify(client, never()).getResolutionDateByKey(anyString());
+  }
+
+  @Test
+  public void shouldIgnoreIssuesWhoseResolutionDateCanNotBeLoaded() throws Exception {
+    when(client.getResolutionDateByKey("SONAR-1")).thenThrow(new RemoteException());
+    ages.handle(issue("SONAR-1", NOW - 12 * IssueAges.DAY, "1"));
+    ages.complete();
+
+    assertThat(ages.getResolutionTimes().count()).isEqualTo(0);
+    assertThat(resolutionDates.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldBoundPendingResolutionRequests() throws Exception {
+    final CountDownLatch answered = new CountDownLatch(1);
+    when(client.getResolutionDateByKey(anyString())).thenAnswer(new Answer<Calendar>() {
+      public Calendar answer(InvocationOnMock invocation) throws Throwable {
+        answered.await();
+        return date(NOW - 10 * IssueAges.DAY);
+      }
+    });
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      ages = new IssueAges(NOW, client, executor, resolutionDates, 2);
+      Thread reader = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 1; i <= 3; i++) {
+            ages.handle(issue("SONAR-" + i, NOW - 12 * IssueAges.DAY, "1"));
+          }
+        }
+      };
+      reader.start();
+      reader.join(200);
+      // one request is running, one is queued and the third one waits for them
+      assertThat(reader.isAlive()).isTrue();
+
+      answered.countDown();
+      reader.join(5000);
+      assertThat(reader.isAlive()).isFalse();
+      ages.complete();
+
+      assertThat(ages.getResolutionTimes().count()).isEqualTo(3);
+      assertThat(resolutionDates.size()).isEqualTo(3);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void shouldNotComputeResolutionTimeWithoutExecutor() throws Exception {
+    ages = new IssueAges(NOW, client, null, resolutionDates, 1);
+    ages.handle(issue("SONAR-1", NOW - 12 * IssueAges.DAY, "1"));
+    ages.complete();
+
+    assertThat(ages.getResolutionTimes().count()).isEqualTo(0);
+    verify(client, never()).getResolutionDateByKey(anyString());
+  }
+
+  @Test
+  public void shouldIgnoreIssuesWithoutCreationDate() throws Exception {
+    RemoteIssue issue = issue("SONAR-1", 0L, null);
+    issue.setCreated(null);
+    ages.handle(issue);
+
+    assertThat(ages.getAges().count()).isEqualTo(0);
+  }
+
+  private static RemoteIssue issue(String key, long created, String resolution) {
+    RemoteIssue issue = new RemoteIssue();
+    issue.setKey(key);
+    issue.setCreated(date(created));
+    issue.setUpdated(date(NOW - IssueAges.HOUR));
+    issue.setResolution(resolution);
+    return issue;
+  }
+
+  private static Calendar date(long time) {
+    Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(time);
+    return calendar;
+  }
+}
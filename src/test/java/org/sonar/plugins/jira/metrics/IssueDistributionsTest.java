@@ -0,0 +1,71 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.metrics;
+
+import com.atlassian.jira.rpc.soap.client.RemoteComponent;
+import com.atlassian.jira.rpc.soap.client.RemoteIssue;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class IssueDistributionsTest {
+
+  @Test
+  public void shouldCountAllDimensionsInOnePass() {
+    IssueDistributions distributions = new IssueDistributions();
+    distributions.handle(issue("1", "3", "1", "john", "Core", "Web"));
+    distributions.handle(issue("2", "3", "1", null));
+    distributions.handle(issue("1", "6", "2", "jane", "Core"));
+
+    assertThat(distributions.getPriorities().total()).isEqualTo(3);
+    assertThat(distributions.getPriorities().count("1")).isEqualTo(2);
+    assertThat(distributions.getStatuses().count("3")).isEqualTo(2);
+    assertThat(distributions.getTypes().count("1")).isEqualTo(2);
+    assertThat(distributions.getAssignees().size()).isEqualTo(2);
+    assertThat(distributions.getAssignees().total()).isEqualTo(3);
+  }
+
+  @Test
+  public void shouldCountIssueInEachOfItsComponents() {
+    IssueDistributions distributions = new IssueDistributions();
+    distributions.handle(issue("1", "3", "1", "john", "Core", "Web"));
+    distributions.handle(issue("1", "3", "1", "john", "Core"));
+    distributions.handle(issue("1", "3", "1", "john"));
+
+    assertThat(distributions.getComponents().count("Core")).isEqualTo(2);
+    assertThat(distributions.getComponents().count("Web")).isEqualTo(1);
+    assertThat(distributions.getComponents().size()).isEqualTo(2);
+  }
+
+  private static RemoteIssue issue(String priority, String status, String type, String assignee, String... components) {
+    RemoteIssue issue = new RemoteIssue();
+    issue.setPriority(priority);
+    issue.setStatus(status);
+    issue.setType(type);
+    issue.setAssignee(assignee);
+    RemoteComponent[] remoteComponents = new RemoteComponent[components.length];
+    for (int i = 0; i < components.length; i++) {
+      remoteComponents[i] = new RemoteComponent();
+      remoteComponents[i].setName(components[i]);
+    }
+    issue.setComponents(remoteComponents);
+    return issue;
+  }
+}
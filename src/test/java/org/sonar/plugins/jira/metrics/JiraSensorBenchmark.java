@@ -0,0 +1,120 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.metrics;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.config.PropertyDefinitions;
+import org.sonar.api.config.Settings;
+import org.sonar.api.resources.Project;
+import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.JiraPlugin;
+import org.sonar.plugins.jira.soap.FakeJiraServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Runs complete analyses of {@link JiraSensor} against a {@link FakeJiraServer}, with the issues downloaded in one response,
+ * page by page or streamed, and with a latency added to each request. Not run by the build, launch it with the
+ * <code>main</code> method from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JiraSensorBenchmark {
+
+  @Param({"10000"})
+  private int issueCount;
+
+  @Param({"0", "20"})
+  private long latencyMillis;
+
+  @Param({"0", "500"})
+  private int pageSize;
+
+  @Param({"false", "true"})
+  private boolean streaming;
+
+  private FakeJiraServer server;
+  private File cacheDir;
+  private JiraSensor sensor;
+  private Project project;
+  private SensorContext context;
+
+  @Setup
+  public void setUp() throws IOException {
+    server = new FakeJiraServer().setIssueCount(issueCount).setLatency(latencyMillis);
+    cacheDir = File.createTempFile("jira-benchmark", "");
+    FileUtils.forceDelete(cacheDir);
+    FileUtils.forceMkdir(cacheDir);
+    Settings settings = new Settings(new PropertyDefinitions(JiraPlugin.class, JiraSensor.class));
+    settings.setProperty(JiraConstants.SERVER_URL_PROPERTY, server.getServerUrl());
+    settings.setProperty(JiraConstants.USERNAME_PROPERTY, "admin");
+    settings.setProperty(JiraConstants.PASSWORD_PROPERTY, "admin");
+    settings.setProperty(JiraConstants.FILTER_PROPERTY, FakeJiraServer.FILTER_NAME);
+    settings.setProperty(JiraConstants.PAGE_SIZE_PROPERTY, pageSize);
+    settings.setProperty(JiraConstants.STREAMING_PROPERTY, streaming);
+    // the issues are downloaded, the fake server can not count them
+    settings.setProperty(JiraConstants.SERVER_SIDE_COUNT_PROPERTY, false);
+    settings.setProperty(JiraConstants.CACHE_DIR_PROPERTY, cacheDir.getAbsolutePath());
+    sensor = new JiraSensor(settings);
+    project = mock(Project.class);
+    context = mock(SensorContext.class);
+  }
+
+  @TearDown
+  public void tearDown() {
+    server.stop();
+    FileUtils.deleteQuietly(cacheDir);
+  }
+
+  @Benchmark
+  public void analyse() {
+    sensor.analyse(project, context);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+      .include(JiraSensorBenchmark.class.getSimpleName())
+      .build()).run();
+  }
+}
@@ -21,25 +21,45 @@
 package org.sonar.plugins.jira.metrics;
 
 import com.atlassian.jira.rpc.soap.client.JiraSoapService;
+import com.atlassian.jira.rpc.soap.client.RemoteComponent;
 import com.atlassian.jira.rpc.soap.client.RemoteFilter;
 import com.atlassian.jira.rpc.soap.client.RemoteIssue;
+import com.atlassian.jira.rpc.soap.client.RemoteIssueType;
 import com.atlassian.jira.rpc.soap.client.RemotePriority;
+import com.atlassian.jira.rpc.soap.client.RemoteServerInfo;
+import com.atlassian.jira.rpc.soap.client.RemoteStatus;
+import com.google.common.collect.ImmutableMap;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.sonar.api.batch.SensorContext;
 import org.sonar.api.config.Settings;
 import org.sonar.api.resources.Project;
 import org.sonar.api.test.IsMeasure;
 import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.client.JiraClient;
+import org.sonar.plugins.jira.rest.RestJiraClient;
+import org.sonar.plugins.jira.soap.FakeJiraServer;
+import org.sonar.plugins.jira.soap.JiraSoapSession;
+import org.sonar.plugins.jira.soap.SoapJiraClient;
 
+import java.io.IOException;
 import java.rmi.RemoteException;
+import java.util.Calendar;
 import java.util.Map;
 
 import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.endsWith;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -49,11 +69,15 @@ public class JiraSensorTest {
   @Rule
   public ExpectedException thrown = ExpectedException.none();
 
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
   private JiraSensor sensor;
   private Settings settings;
 
   @Before
   public void setUp() {
+    JiraSensor.clearServerVersions();
     settings = new Settings();
     settings.setProperty(JiraConstants.SERVER_URL_PROPERTY, "http://my.jira.server");
     settings.setProperty(JiraConstants.USERNAME_PROPERTY, "admin");
@@ -83,6 +107,13 @@ public class JiraSensorTest {
     sensor = new JiraSensor(settings);
     assertThat(sensor.missingMandatoryParameters()).isEqualTo(true);
 
+    settings.setProperty(JiraConstants.JQL_PROPERTY, "project = SONAR");
+    settings.setProperty(JiraConstants.USERNAME_PROPERTY, "admin");
+    settings.setProperty(JiraConstants.PASSWORD_PROPERTY, "adminPwd");
+    sensor = new JiraSensor(settings);
+    assertThat(sensor.missingMandatoryParameters()).isEqualTo(false);
+    settings.removeProperty(JiraConstants.JQL_PROPERTY);
+
     settings.removeProperty(JiraConstants.SERVER_URL_PROPERTY);
     sensor = new JiraSensor(settings);
     assertThat(sensor.missingMandatoryParameters()).isEqualTo(true);
@@ -132,11 +163,117 @@ public class JiraSensorTest {
     priority1.setName("Minor");
     when(jiraSoapService.getPriorities("token")).thenReturn(new RemotePriority[] {priority1});
 
-    Map<String, String> foundPriorities = sensor.collectPriorities(jiraSoapService, "token");
+    Map<String, String> foundPriorities = sensor.collectPriorities(client(jiraSoapService));
     assertThat(foundPriorities.size()).isEqualTo(1);
     assertThat(foundPriorities.get("1")).isEqualTo("Minor");
   }
 
+  @Test
+  public void shouldCachePriorities() throws Exception {
+    enableMetadataCache();
+    JiraSoapService jiraSoapService = mockJiraWithOneFilterAndOnePriority();
+
+    sensor.collectPriorities(client(jiraSoapService));
+    Map<String, String> foundPriorities = new JiraSensor(settings).collectPriorities(client(jiraSoapService));
+
+    assertThat(foundPriorities.get("1")).isEqualTo("Blocker");
+    verify(jiraSoapService, times(1)).getPriorities("token");
+  }
+
+  @Test
+  public void shouldCacheFilters() throws Exception {
+    enableMetadataCache();
+    JiraSoapService jiraSoapService = mockJiraWithOneFilterAndOnePriority();
+
+    sensor.findJiraFilter(client(jiraSoapService));
+    RemoteFilter foundFilter = new JiraSensor(settings).findJiraFilter(client(jiraSoapService));
+
+    assertThat(foundFilter.getId()).isEqualTo("10");
+    assertThat(foundFilter.getName()).isEqualTo("myFilter");
+    verify(jiraSoapService, times(1)).getFavouriteFilters("token");
+  }
+
+  @Test
+  public void shouldReloadFiltersIfNotInCache() throws Exception {
+    enableMetadataCache();
+    JiraSoapService jiraSoapService = mockJiraWithOneFilterAndOnePriority();
+    sensor.findJiraFilter(client(jiraSoapService));
+
+    settings.setProperty(JiraConstants.FILTER_PROPERTY, "otherFilter");
+    RemoteFilter otherFilter = new RemoteFilter();
+    otherFilter.setId("11");
+    otherFilter.setName("otherFilter");
+    when(jiraSoapService.getFavouriteFilters("token")).thenReturn(new RemoteFilter[] {otherFilter});
+    RemoteFilter foundFilter = new JiraSensor(settings).findJiraFilter(client(jiraSoapService));
+
+    assertThat(foundFilter).isEqualTo(otherFilter);
+    verify(jiraSoapService, times(2)).getFavouriteFilters("token");
+  }
+
+  @Test
+  public void shouldSynchronizeSnapshotFullyOnFirstAnalysis() throws Exception {
+    enableIncrementalSynchronization();
+    JiraSoapService jiraSoapService = mockJiraWithOneFilterAndOnePriority();
+    when(jiraSoapService.getIssuesFromFilter("token", "10")).thenReturn(new RemoteIssue[] {issue("SONAR-1", "1"), issue("SONAR-2", "1")});
+    SensorContext context = mock(SensorContext.class);
+
+    sensor.runAnalysis(context, client(jiraSoapService));
+
+    verify(context).saveMeasure(argThat(new IsMeasure(JiraMetrics.ISSUES, 2.0, "Blocker=2")));
+    verify(jiraSoapService, never()).getIssuesFromJqlSearch(anyString(), anyString(), anyInt());
+  }
+
+  @Test
+  public void shouldOnlyDownloadIssuesUpdatedSincePreviousAnalysis() throws Exception {
+    enableIncrementalSynchronization();
+    JiraSoapService jiraSoapService = mockJiraWithOneFilterAndOnePriority();
+    RemotePriority blocker = new RemotePriority();
+    blocker.setId("1");
+    blocker.setName("Blocker");
+    RemotePriority critical = new RemotePriority();
+    critical.setId("2");
+    critical.setName("Critical");
+    when(jiraSoapService.getPriorities("token")).thenReturn(new RemotePriority[] {blocker, critical});
+    when(jiraSoapService.getIssuesFromFilter("token", "10")).thenReturn(new RemoteIssue[] {issue("SONAR-1", "1"), issue("SONAR-2", "1"), issue("SONAR-3", "1")});
+    sensor.runAnalysis(mock(SensorContext.class), client(jiraSoapService));
+
+    when(jiraSoapService.getIssuesFromJqlSearch(eq("token"), startsWith("(filter = 10) AND updated >= -"), anyInt()))
+      .thenReturn(new RemoteIssue[] {issue("SONAR-1", "2"), issue("SONAR-4", "2")});
+    when(jiraSoapService.getIssuesFromJqlSearch(eq("token"), endsWith(" AND project in (\"SONAR\") AND NOT (filter = 10)"), anyInt()))
+      .thenReturn(new RemoteIssue[] {issue("SONAR-3", "1")});
+    SensorContext context = mock(SensorContext.class);
+    new JiraSensor(settings).runAnalysis(context, client(jiraSoapService));
+
+    verify(context).saveMeasure(argThat(new IsMeasure(JiraMetrics.ISSUES, 3.0, "Blocker=1;Critical=2")));
+    verify(jiraSoapService, times(1)).getIssuesFromFilter("token", "10");
+  }
+
+  private static RemoteIssue issue(String key, String priority) {
+    RemoteIssue issue = new RemoteIssue();
+    issue.setKey(key);
+    issue.setPriority(priority);
+    issue.setUpdated(Calendar.getInstance());
+    return issue;
+  }
+
+  private void enableIncrementalSynchronization() {
+    settings.setProperty(JiraConstants.INCREMENTAL_PROPERTY, true);
+    settings.setProperty(JiraConstants.INCREMENTAL_RESYNC_PROPERTY, 7);
+    settings.setProperty(JiraConstants.CACHE_DIR_PROPERTY, temp.getRoot().getAbsolutePath());
+    sensor = new JiraSensor(settings);
+  }
+
+  private void enableServerSideCount() {
+    settings.setProperty(JiraConstants.SERVER_SIDE_COUNT_PROPERTY, true);
+    sensor = new JiraSensor(settings);
+  }
+
+  private void enableMetadataCache() {
+    settings.setProperty(JiraConstants.CACHE_TTL_PROPERTY, 60);
+    settings.setProperty(JiraConstants.CACHE_DIR_PROPERTY, temp.getRoot().getAbsolutePath());
+    sensor = new JiraSensor(settings);
+  }
+
   @Test
   public void shouldCollectIssuesByPriority() throws Exception {
     RemoteFilter filter = new RemoteFilter();
@@ -150,10 +287,348 @@ public class JiraSensorTest {
     issue3.setPriority("critical");
     when(jiraSoapService.getIssuesFromFilter("token", "1")).thenReturn(new RemoteIssue[] {issue1, issue2, issue3});
 
-    Map<String, Integer> foundIssues = sensor.collectIssuesByPriority(jiraSoapService, "token", filter);
+    IssueDistributions distributions = new IssueDistributions();
+    sensor.fetchIssues(client(jiraSoapService), filter, distributions);
+    DistributionCounter foundIssues = distributions.getPriorities();
     assertThat(foundIssues.size()).isEqualTo(2);
-    assertThat(foundIssues.get("critical")).isEqualTo(2);
-    assertThat(foundIssues.get("minor")).isEqualTo(1);
+    assertThat(foundIssues.count("critical")).isEqualTo(2);
+    assertThat(foundIssues.count("minor")).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldCollectIssuesByPriorityPageByPage() throws Exception {
+    settings.setProperty(JiraConstants.PAGE_SIZE_PROPERTY, 2);
+    RemoteFilter filter = new RemoteFilter();
+    filter.setId("1");
+    JiraSoapService jiraSoapService = mock(JiraSoapService.class);
+    RemoteIssue issue1 = new RemoteIssue();
+    issue1.setPriority("minor");
+    RemoteIssue issue2 = new RemoteIssue();
+    issue2.setPriority("critical");
+    RemoteIssue issue3 = new RemoteIssue();
+    issue3.setPriority("critical");
+    when(jiraSoapService.getIssuesFromFilterWithLimit("token", "1", 0, 2)).thenReturn(new RemoteIssue[] {issue1, issue2});
+    when(jiraSoapService.getIssuesFromFilterWithLimit("token", "1", 2, 2)).thenReturn(new RemoteIssue[] {issue3});
+
+    IssueDistributions distributions = new IssueDistributions();
+    sensor.fetchIssues(client(jiraSoapService), filter, distributions);
+    DistributionCounter foundIssues = distributions.getPriorities();
+    assertThat(foundIssues.size()).isEqualTo(2);
+    assertThat(foundIssues.count("critical")).isEqualTo(2);
+    assertThat(foundIssues.count("minor")).isEqualTo(1);
+    verify(jiraSoapService, never()).getIssuesFromFilter(anyString(), anyString());
+  }
+
+  @Test
+  public void shouldStopPagingOnEmptyPage() throws Exception {
+    settings.setProperty(JiraConstants.PAGE_SIZE_PROPERTY, 1);
+    RemoteFilter filter = new RemoteFilter();
+    filter.setId("1");
+    JiraSoapService jiraSoapService = mock(JiraSoapService.class);
+    RemoteIssue issue1 = new RemoteIssue();
+    issue1.setPriority("minor");
+    when(jiraSoapService.getIssuesFromFilterWithLimit("token", "1", 0, 1)).thenReturn(new RemoteIssue[] {issue1});
+    when(jiraSoapService.getIssuesFromFilterWithLimit("token", "1", 1, 1)).thenReturn(new RemoteIssue[0]);
+
+    IssueDistributions distributions = new IssueDistributions();
+    sensor.fetchIssues(client(jiraSoapService), filter, distributions);
+    DistributionCounter foundIssues = distributions.getPriorities();
+    assertThat(foundIssues.size()).isEqualTo(1);
+    assertThat(foundIssues.count("minor")).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldKeepPagingWhenJiraReturnsShorterPages() throws Exception {
+    // jira.search.views.default.max is lower than the page size
+    settings.setProperty(JiraConstants.PAGE_SIZE_PROPERTY, 3);
+    RemoteFilter filter = new RemoteFilter();
+    filter.setId("1");
+    JiraSoapService jiraSoapService = mock(JiraSoapService.class);
+    RemoteIssue issue1 = new RemoteIssue();
+    issue1.setPriority("minor");
+    RemoteIssue issue2 = new RemoteIssue();
+    issue2.setPriority("critical");
+    RemoteIssue issue3 = new RemoteIssue();
+    issue3.setPriority("critical");
+    when(jiraSoapService.getIssuesFromFilterWithLimit("token", "1", 0, 3)).thenReturn(new RemoteIssue[] {issue1, issue2});
+    when(jiraSoapService.getIssuesFromFilterWithLimit("token", "1", 2, 3)).thenReturn(new RemoteIssue[] {issue3});
+    when(jiraSoapService.getIssuesFromFilterWithLimit("token", "1", 3, 3)).thenReturn(new RemoteIssue[0]);
+
+    IssueDistributions distributions = new IssueDistributions();
+    sensor.fetchIssues(client(jiraSoapService), filter, distributions);
+    assertThat(distributions.getPriorities().count("critical")).isEqualTo(2);
+    assertThat(distributions.getPriorities().count("minor")).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldCountIssuesByPriority() throws Exception {
+    RestJiraClient restClient = mock(RestJiraClient.class);
+    when(restClient.countIssues("(filter = 10) AND priority = 1")).thenReturn(3L);
+    when(restClient.countIssues("(filter = 10) AND priority = 2")).thenReturn(0L);
+
+    DistributionCounter foundIssues = sensor.countIssuesByPriority(client(mock(JiraSoapService.class), restClient), "filter = 10", ImmutableMap.of("1", "Blocker", "2", "Critical"));
+    assertThat(foundIssues.size()).isEqualTo(1);
+    assertThat(foundIssues.count("1")).isEqualTo(3);
+  }
+
+  @Test
+  public void shouldNotCountIssuesByPriorityIfNotSupportedByServer() throws Exception {
+    RestJiraClient restClient = mock(RestJiraClient.class);
+    when(restClient.countIssues(anyString())).thenThrow(new IOException("Unexpected HTTP status 404"));
+
+    assertThat(sensor.countIssuesByPriority(client(mock(JiraSoapService.class), restClient), "filter = 10", ImmutableMap.of("1", "Blocker"))).isNull();
+  }
+
+  @Test
+  public void shouldSaveServerSideCounts() throws Exception {
+    enableServerSideCount();
+    JiraSoapService jiraSoapService = mockJiraWithOneFilterAndOnePriority();
+    when(jiraSoapService.getIssueCountForFilter("token", "10")).thenReturn(5L);
+    RestJiraClient restClient = mock(RestJiraClient.class);
+    when(restClient.countIssues("(filter = 10) AND priority = 1")).thenReturn(4L);
+    SensorContext context = mock(SensorContext.class);
+
+    sensor.runAnalysis(context, client(jiraSoapService, restClient));
+
+    verify(context).saveMeasure(argThat(new IsMeasure(JiraMetrics.ISSUES, 5.0, "Blocker=4")));
+    verify(jiraSoapService, never()).getIssuesFromFilter(anyString(), anyString());
+  }
+
+  @Test
+  public void shouldCountStatusesAndTypesOnServerSide() throws Exception {
+    enableServerSideCount();
+    JiraSoapService jiraSoapService = mockJiraWithOneFilterAndOnePriority();
+    when(jiraSoapService.getStatuses("token")).thenReturn(new RemoteStatus[] {status("1", "Open"), status("6", "Closed")});
+    when(jiraSoapService.getIssueTypes("token")).thenReturn(new RemoteIssueType[] {issueType("1", "Bug")});
+    when(jiraSoapService.getSubTaskIssueTypes("token")).thenReturn(new RemoteIssueType[0]);
+    RestJiraClient restClient = mock(RestJiraClient.class);
+    when(restClient.countIssues("(filter = 10) AND priority = 1")).thenReturn(4L);
+    when(restClient.countIssues("(filter = 10) AND status = 1")).thenReturn(3L);
+    when(restClient.countIssues("(filter = 10) AND status = 6")).thenReturn(1L);
+    when(restClient.countIssues("(filter = 10) AND issuetype = 1")).thenReturn(4L);
+    SensorContext context = mock(SensorContext.class);
+
+    sensor.runAnalysis(context, client(jiraSoapService, restClient));
+
+    verify(context).saveMeasure(argThat(new IsMeasure(JiraMetrics.ISSUES_BY_STATUS, "Closed=1;Open=3")));
+    verify(context).saveMeasure(argThat(new IsMeasure(JiraMetrics.ISSUES_BY_TYPE, "Bug=4")));
+    verify(context, never()).saveMeasure(argThat(new IsMeasure(JiraMetrics.ISSUES_BY_COMPONENT)));
+    verify(context, never()).saveMeasure(argThat(new IsMeasure(JiraMetrics.ISSUES_AGE_DISTRIBUTION)));
+    verify(jiraSoapService, never()).getIssuesFromFilter(anyString(), anyString());
+  }
+
+  @Test
+  public void shouldSaveDistributionsOfDownloadedIssues() throws Exception {
+    JiraSoapService jiraSoapService = mockJiraWithOneFilterAndOnePriority();
+    when(jiraSoapService.getStatuses("token")).thenReturn(new RemoteStatus[] {status("1", "Open"), status("6", "Closed")});
+    when(jiraSoapService.getIssueTypes("token")).thenReturn(new RemoteIssueType[] {issueType("1", "Bug")});
+    when(jiraSoapService.getSubTaskIssueTypes("token")).thenReturn(new RemoteIssueType[] {issueType("5", "Sub-task")});
+    RemoteIssue issue1 = issue("SONAR-1", "1");
+    issue1.setStatus("1");
+    issue1.setType("1");
+    issue1.setAssignee("john");
+    issue1.setComponents(new RemoteComponent[] {component("Core"), component("Web")});
+    RemoteIssue issue2 = issue("SONAR-2", "1");
+    issue2.setStatus("6");
+    issue2.setType("5");
+    issue2.setComponents(new RemoteComponent[] {component("Core")});
+    RemoteIssue issue3 = issue("SONAR-3", "1");
+    issue3.setStatus("1");
+    issue3.setType("1");
+    issue3.setAssignee("john");
+    when(jiraSoapService.getIssuesFromFilter("token", "10")).thenReturn(new RemoteIssue[] {issue1, issue2, issue3});
+    SensorContext context = mock(SensorContext.class);
+
+    sensor.runAnalysis(context, client(jiraSoapService));
+
+    verify(context).saveMeasure(argThat(new IsMeasure(JiraMetrics.ISSUES, 3.0, "Blocker=3")));
+    verify(context).saveMeasure(argThat(new IsMeasure(JiraMetrics.ISSUES_BY_STATUS, "Closed=1;Open=2")));
+    verify(context).saveMeasure(argThat(new IsMeasure(JiraMetrics.ISSUES_BY_TYPE, "Bug=2;Sub-task=1")));
+    verify(context).saveMeasure(argThat(new IsMeasure(JiraMetrics.ISSUES_BY_COMPONENT, "Core=2;Web=1")));
+    verify(context).saveMeasure(argThat(new IsMeasure(JiraMetrics.ISSUES_BY_ASSIGNEE, "john=2")));
+    verify(jiraSoapService, times(1)).getIssuesFromFilter("token", "10");
+  }
+
+  @Test
+  public void shouldSaveDistributionsOfSnapshot() throws Exception {
+    enableIncrementalSynchronization();
+    JiraSoapService jiraSoapService = mockJiraWithOneFilterAndOnePriority();
+    RemoteIssue issue = issue("SONAR-1", "1");
+    issue.setStatus("1");
+    issue.setComponents(new RemoteComponent[] {component("Core")});
+    when(jiraSoapService.getIssuesFromFilter("token", "10")).thenReturn(new RemoteIssue[] {issue});
+    sensor.runAnalysis(mock(SensorContext.class), client(jiraSoapService));
+
+    SensorContext context = mock(SensorContext.class);
+    new JiraSensor(settings).runAnalysis(context, client(jiraSoapService));
+
+    verify(context).saveMeasure(argThat(new IsMeasure(JiraMetrics.ISSUES_BY_STATUS, "1=1")));
+    verify(context).saveMeasure(argThat(new IsMeasure(JiraMetrics.ISSUES_BY_COMPONENT, "Core=1")));
+  }
+
+  @Test
+  public void shouldSaveResolutionTimesAndCacheResolutionDates() throws Exception {
+    enableMetadataCache();
+    settings.setProperty(JiraConstants.RESOLUTION_THREADS_PROPERTY, 2);
+    JiraSoapService jiraSoapService = mockJiraWithOneFilterAndOnePriority();
+    RemoteIssue resolved = issue("SONAR-1", "1");
+    resolved.setResolution("1");
+    Calendar created = Calendar.getInstance();
+    created.setTimeInMillis(resolved.getUpdated().getTimeInMillis() - 4 * IssueAges.DAY);
+    resolved.setCreated(created);
+    Calendar resolutionDate = Calendar.getInstance();
+    resolutionDate.setTimeInMillis(resolved.getUpdated().getTimeInMillis() - 2 * IssueAges.DAY);
+    when(jiraSoapService.getResolutionDateByKey("token", "SONAR-1")).thenReturn(resolutionDate);
+    RemoteIssue unresolved = issue("SONAR-2", "1");
+    unresolved.setCreated(created);
+    when(jiraSoapService.getIssuesFromFilter("token", "10")).thenReturn(new RemoteIssue[] {resolved, unresolved});
+    SensorContext context = mock(SensorContext.class);
+
+    sensor.runAnalysis(context, client(jiraSoapService));
+    new JiraSensor(settings).runAnalysis(mock(SensorContext.class), client(jiraSoapService));
+
+    verify(context).saveMeasure(argThat(new IsMeasure(JiraMetrics.ISSUES_RESOLUTION_TIME, 2.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(JiraMetrics.ISSUES_AGE_DISTRIBUTION, "0=0;1=1;7=0;30=0;90=0;180=0;365=0")));
+    verify(jiraSoapService, times(1)).getResolutionDateByKey("token", "SONAR-1");
+  }
+
+  @Test
+  public void shouldNotLoadResolutionDatesIfDisabled() throws Exception {
+    settings.setProperty(JiraConstants.RESOLUTION_THREADS_PROPERTY, 0);
+    JiraSoapService jiraSoapService = mockJiraWithOneFilterAndOnePriority();
+    RemoteIssue resolved = issue("SONAR-1", "1");
+    resolved.setResolution("1");
+    resolved.setCreated(Calendar.getInstance());
+    when(jiraSoapService.getIssuesFromFilter("token", "10")).thenReturn(new RemoteIssue[] {resolved});
+    SensorContext context = mock(SensorContext.class);
+
+    sensor.runAnalysis(context, client(jiraSoapService));
+
+    verify(context, never()).saveMeasure(argThat(new IsMeasure(JiraMetrics.ISSUES_RESOLUTION_TIME)));
+    verify(jiraSoapService, never()).getResolutionDateByKey(anyString(), anyString());
+  }
+
+  private static RemoteStatus status(String id, String name) {
+    RemoteStatus status = new RemoteStatus();
+    status.setId(id);
+    status.setName(name);
+    return status;
+  }
+
+  private static RemoteIssueType issueType(String id, String name) {
+    RemoteIssueType issueType = new RemoteIssueType();
+    issueType.setId(id);
+    issueType.setName(name);
+    return issueType;
+  }
+
+  private static RemoteComponent component(String name) {
+    RemoteComponent component = new RemoteComponent();
+    component.setName(name);
+    return component;
+  }
+
+  @Test
+  public void shouldDownloadIssuesIfServerSideCountIsNotSupported() throws Exception {
+    enableServerSideCount();
+    JiraSoapService jiraSoapService = mockJiraWithOneFilterAndOnePriority();
+    RemoteIssue issue = new RemoteIssue();
+    issue.setPriority("1");
+    when(jiraSoapService.getIssuesFromFilter("token", "10")).thenReturn(new RemoteIssue[] {issue});
+    RestJiraClient restClient = mock(RestJiraClient.class);
+    when(restClient.countIssues(anyString())).thenThrow(new IOException("Unexpected HTTP status 404"));
+    SensorContext context = mock(SensorContext.class);
+
+    sensor.runAnalysis(context, client(jiraSoapService, restClient));
+
+    verify(context).saveMeasure(argThat(new IsMeasure(JiraMetrics.ISSUES, 1.0, "Blocker=1")));
+    verify(jiraSoapService, never()).getIssueCountForFilter(anyString(), anyString());
+  }
+
+  @Test
+  public void shouldCountIssuesOfJqlQuery() throws Exception {
+    enableServerSideCount();
+    settings.setProperty(JiraConstants.JQL_PROPERTY, "project = SONAR ORDER BY key");
+    JiraSoapService jiraSoapService = mockJiraWithOneFilterAndOnePriority();
+    RestJiraClient restClient = mock(RestJiraClient.class);
+    when(restClient.countIssues("(project = SONAR) AND priority = 1")).thenReturn(4L);
+    when(restClient.countIssues("project = SONAR ORDER BY key")).thenReturn(5L);
+    SensorContext context = mock(SensorContext.class);
+
+    sensor.runAnalysis(context, client(jiraSoapService, restClient));
+
+    verify(context).saveMeasure(argThat(new IsMeasure(JiraMetrics.ISSUES, 5.0, "Blocker=4")));
+    verify(jiraSoapService, never()).getFavouriteFilters(anyString());
+    verify(jiraSoapService, never()).getIssueCountForFilter(anyString(), anyString());
+  }
+
+  @Test
+  public void shouldCollectIssuesOfJqlQuery() throws Exception {
+    settings.setProperty(JiraConstants.JQL_PROPERTY, "project = SONAR");
+    JiraSoapService jiraSoapService = mockJiraWithOneFilterAndOnePriority();
+    RemoteIssue issue = new RemoteIssue();
+    issue.setPriority("1");
+    when(jiraSoapService.getIssuesFromJqlSearch("token", "project = SONAR", Integer.MAX_VALUE)).thenReturn(new RemoteIssue[] {issue, issue});
+    SensorContext context = mock(SensorContext.class);
+
+    sensor.runAnalysis(context, client(jiraSoapService));
+
+    verify(context).saveMeasure(argThat(new IsMeasure(JiraMetrics.ISSUES, 2.0, "Blocker=2")));
+    verify(jiraSoapService, never()).getFavouriteFilters(anyString());
+  }
+
+  @Test
+  public void shouldRemoveOrderByFromJql() {
+    assertThat(JiraSensor.removeOrderBy("project = SONAR ORDER BY key")).isEqualTo("project = SONAR");
+    assertThat(JiraSensor.removeOrderBy("project = SONAR order  by priority DESC, key")).isEqualTo("project = SONAR");
+    assertThat(JiraSensor.removeOrderBy("project = SONAR")).isEqualTo("project = SONAR");
+  }
+
+  @Test
+  public void shouldFailAnalysisIfFilterIsNotFound() throws Exception {
+    JiraSoapService jiraSoapService = mockJiraWithOneFilterAndOnePriority();
+    when(jiraSoapService.getFavouriteFilters("token")).thenReturn(new RemoteFilter[0]);
+
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("Unable to find filter 'myFilter' in JIRA");
+
+    sensor.runAnalysis(mock(SensorContext.class), client(jiraSoapService));
+  }
+
+  @Test
+  public void shouldFailAnalysisIfPrioritiesCanNotBeLoaded() throws Exception {
+    JiraSoapService jiraSoapService = mockJiraWithOneFilterAndOnePriority();
+    when(jiraSoapService.getIssuesFromFilter("token", "10")).thenReturn(new RemoteIssue[0]);
+    when(jiraSoapService.getPriorities("token")).thenThrow(new RemoteException("Server Error"));
+
+    thrown.expect(RemoteException.class);
+    thrown.expectMessage("Server Error");
+
+    sensor.runAnalysis(mock(SensorContext.class), client(jiraSoapService));
+  }
+
+  private static JiraClient client(JiraSoapService service) {
+    return client(service, null);
+  }
+
+  private static JiraClient client(JiraSoapService service, RestJiraClient restClient) {
+    JiraSoapSession session = mock(JiraSoapSession.class);
+    when(session.getJiraSoapService()).thenReturn(service);
+    when(session.getAuthenticationToken()).thenReturn("token");
+    return new SoapJiraClient(session, null, restClient);
+  }
+
+  private JiraSoapService mockJiraWithOneFilterAndOnePriority() throws RemoteException {
+    JiraSoapService jiraSoapService = mock(JiraSoapService.class);
+    RemotePriority priority = new RemotePriority();
+    priority.setId("1");
+    priority.setName("Blocker");
+    when(jiraSoapService.getPriorities("token")).thenReturn(new RemotePriority[] {priority});
+    RemoteFilter filter = new RemoteFilter();
+    filter.setId("10");
+    filter.setName("myFilter");
+    when(jiraSoapService.getFavouriteFilters("token")).thenReturn(new RemoteFilter[] {filter});
+    return jiraSoapService;
   }
 
   @Test
@@ -165,7 +640,7 @@ public class JiraSensorTest {
     myFilter.setName("myFilter");
     when(jiraSoapService.getFavouriteFilters("token")).thenReturn(new RemoteFilter[] {filter1, myFilter});
 
-    RemoteFilter foundFilter = sensor.findJiraFilter(jiraSoapService, "token");
+    RemoteFilter foundFilter = sensor.findJiraFilter(client(jiraSoapService));
     assertThat(foundFilter).isEqualTo(myFilter);
   }
 
@@ -177,10 +652,76 @@ public class JiraSensorTest {
     when(jiraSoapService.getSavedFilters("token")).thenReturn(new RemoteFilter[] {myFilter});
     when(jiraSoapService.getFavouriteFilters("token")).thenThrow(RemoteException.class);
 
-    RemoteFilter foundFilter = sensor.findJiraFilter(jiraSoapService, "token");
+    RemoteFilter foundFilter = sensor.findJiraFilter(client(jiraSoapService));
     assertThat(foundFilter).isEqualTo(myFilter);
   }
 
+  @Test
+  public void shouldOnlyRequestSavedFiltersOnPreviousJiraVersions() throws Exception {
+    JiraSoapService jiraSoapService = mock(JiraSoapService.class);
+    when(jiraSoapService.getServerInfo("token")).thenReturn(serverInfo("3.12.3"));
+    RemoteFilter myFilter = new RemoteFilter();
+    myFilter.setName("myFilter");
+    when(jiraSoapService.getSavedFilters("token")).thenReturn(new RemoteFilter[] {myFilter});
+
+    RemoteFilter foundFilter = sensor.findJiraFilter(client(jiraSoapService));
+    assertThat(foundFilter).isEqualTo(myFilter);
+    verify(jiraSoapService, never()).getFavouriteFilters(anyString());
+  }
+
+  @Test
+  public void shouldFindFirstFilterWithName() throws Exception {
+    JiraSoapService jiraSoapService = mock(JiraSoapService.class);
+    RemoteFilter myFilter = new RemoteFilter();
+    myFilter.setName("myFilter");
+    myFilter.setId("1");
+    RemoteFilter sameName = new RemoteFilter();
+    sameName.setName("myFilter");
+    sameName.setId("2");
+    when(jiraSoapService.getFavouriteFilters("token")).thenReturn(new RemoteFilter[] {myFilter, sameName});
+
+    assertThat(sensor.findJiraFilter(client(jiraSoapService))).isEqualTo(myFilter);
+  }
+
+  @Test
+  public void shouldCacheServerVersion() throws Exception {
+    enableMetadataCache();
+    JiraSoapService jiraSoapService = mockJiraWithOneFilterAndOnePriority();
+    when(jiraSoapService.getServerInfo("token")).thenReturn(serverInfo("5.2"));
+
+    assertThat(sensor.getServerCapabilities(client(jiraSoapService)).getVersion()).isEqualTo("5.2");
+    assertThat(new JiraSensor(settings).getServerCapabilities(client(jiraSoapService)).getVersion()).isEqualTo("5.2");
+    verify(jiraSoapService, times(1)).getServerInfo("token");
+  }
+
+  @Test
+  public void shouldKeepServerVersionInMemoryWithoutMetadataCache() throws Exception {
+    JiraSoapService jiraSoapService = mockJiraWithOneFilterAndOnePriority();
+    when(jiraSoapService.getServerInfo("token")).thenReturn(serverInfo("3.12.3"));
+
+    assertThat(sensor.getServerCapabilities(client(jiraSoapService)).getVersion()).isEqualTo("3.12.3");
+    assertThat(new JiraSensor(settings).getServerCapabilities(client(jiraSoapService)).getVersion()).isEqualTo("3.12.3");
+    verify(jiraSoapService, times(1)).getServerInfo("token");
+  }
+
+  @Test
+  public void shouldNotRequestJiraIfFilterIsInCache() throws Exception {
+    enableMetadataCache();
+    JiraSoapService jiraSoapService = mockJiraWithOneFilterAndOnePriority();
+    when(jiraSoapService.getServerInfo("token")).thenReturn(serverInfo("5.2"));
+    sensor.findJiraFilter(client(jiraSoapService));
+
+    JiraSoapService otherService = mock(JiraSoapService.class);
+    assertThat(new JiraSensor(settings).findJiraFilter(client(otherService)).getId()).isEqualTo("10");
+    verifyNoMoreInteractions(otherService);
+  }
+
+  private static RemoteServerInfo serverInfo(String version) {
+    RemoteServerInfo serverInfo = new RemoteServerInfo();
+    serverInfo.setVersion(version);
+    return serverInfo;
+  }
+
   @Test
   public void faillIfNoFilterFound() throws Exception {
     JiraSoapService jiraSoapService = mock(JiraSoapService.class);
@@ -189,7 +730,25 @@ public class JiraSensorTest {
     thrown.expect(IllegalStateException.class);
     thrown.expectMessage("Unable to find filter 'myFilter' in JIRA");
 
-    sensor.findJiraFilter(jiraSoapService, "token");
+    sensor.findJiraFilter(client(jiraSoapService));
   }
 
+
+  @Test
+  public void shouldComputeMeasuresFromFakeJiraServer() throws Exception {
+    FakeJiraServer server = new FakeJiraServer().setIssueCount(25);
+    try {
+      settings.setProperty(JiraConstants.SERVER_URL_PROPERTY, server.getServerUrl());
+      settings.setProperty(JiraConstants.FILTER_PROPERTY, FakeJiraServer.FILTER_NAME);
+      sensor = new JiraSensor(settings);
+      SensorContext context = mock(SensorContext.class);
+
+      sensor.analyse(mock(Project.class), context);
+
+      verify(context).saveMeasure(argThat(new IsMeasure(JiraMetrics.ISSUES, 25.0, "Blocker=5;Critical=5;Major=5;Minor=5;Trivial=5")));
+      assertThat(server.getRequests("getIssuesFromFilter")).isEqualTo(1);
+    } finally {
+      server.stop();
+    }
+  }
 }
@@ -0,0 +1,144 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.rest;
+
+import com.atlassian.jira.rpc.soap.client.RemoteAuthenticationException;
+import com.atlassian.jira.rpc.soap.client.RemoteComponent;
+import com.atlassian.jira.rpc.soap.client.RemoteCustomFieldValue;
+import com.atlassian.jira.rpc.soap.client.RemoteIssue;
+import com.atlassian.jira.rpc.soap.client.RemotePermissionException;
+import com.atlassian.jira.rpc.soap.client.RemoteValidationException;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.sonar.plugins.jira.client.JiraClient;
+
+import java.rmi.RemoteException;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class RestJiraClientTest {
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void shouldBuildSearchPath() throws Exception {
+    assertThat(RestJiraClient.getSearchPath("filter = 10 AND priority = 1", 0, 0, "key"))
+      .isEqualTo("/search?startAt=0&maxResults=0&fields=key&jql=filter+%3D+10+AND+priority+%3D+1");
+    assertThat(RestJiraClient.getSearchPath("filter = 10", 500, 1000, RestJiraClient.ISSUE_FIELDS))
+      .isEqualTo("/search?startAt=500&maxResults=1000&fields=priority,status,issuetype,assignee,components,resolution,created,updated&jql=filter+%3D+10");
+  }
+
+  @Test
+  public void shouldParseTotal() throws Exception {
+    assertThat(RestJiraClient.parseTotal(json("{\"startAt\":0,\"maxResults\":0,\"total\":42,\"issues\":[]}"))).isEqualTo(42L);
+  }
+
+  @Test
+  public void shouldFailToParseUnexpectedResponse() throws Exception {
+    thrown.expect(RemoteException.class);
+    thrown.expectMessage("Unexpected response from JIRA search");
+
+    RestJiraClient.parseTotal(json("{\"errorMessages\":[]}"));
+  }
+
+  @Test
+  public void shouldParseIssue() throws Exception {
+    RemoteIssue issue = RestJiraClient.parseIssue(json("{\"id\":\"10001\",\"key\":\"SONAR-1\",\"fields\":{"
+      + "\"priority\":{\"id\":\"2\",\"name\":\"Critical\"},\"status\":{\"id\":\"1\"},\"issuetype\":{\"id\":\"3\"},"
+      + "\"assignee\":{\"name\":\"john\",\"displayName\":\"John\"},\"components\":[{\"id\":\"100\",\"name\":\"Core\"}],"
+      + "\"resolution\":null,\"created\":\"2013-05-02T10:15:30.000+0200\",\"updated\":\"2013-05-03T08:00:00.000+0000\"}}"));
+
+    assertThat(issue.getKey()).isEqualTo("SONAR-1");
+    assertThat(issue.getPriority()).isEqualTo("2");
+    assertThat(issue.getStatus()).isEqualTo("1");
+    assertThat(issue.getType()).isEqualTo("3");
+    assertThat(issue.getAssignee()).isEqualTo("john");
+    assertThat(issue.getResolution()).isNull();
+    assertThat(issue.getComponents()).hasSize(1);
+    assertThat(issue.getComponents()[0].getName()).isEqualTo("Core");
+    Calendar created = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    created.clear();
+    created.set(2013, Calendar.MAY, 2, 8, 15, 30);
+    assertThat(issue.getCreated().getTimeInMillis()).isEqualTo(created.getTimeInMillis());
+  }
+
+  @Test
+  public void shouldParseIssueWithoutFields() throws Exception {
+    RemoteIssue issue = RestJiraClient.parseIssue(json("{\"key\":\"SONAR-1\"}"));
+
+    assertThat(issue.getKey()).isEqualTo("SONAR-1");
+    assertThat(issue.getPriority()).isNull();
+    assertThat(issue.getComponents()).isNull();
+  }
+
+  @Test
+  public void shouldConvertIssueToJson() throws Exception {
+    RemoteIssue issue = new RemoteIssue();
+    issue.setProject("TEST");
+    issue.setType("3");
+    issue.setPriority("4");
+    issue.setSummary("SonarQube Issue #ABCD");
+    issue.setComponents(new RemoteComponent[] {new RemoteComponent("123", null)});
+
+    JSONObject fields = (JSONObject) RestJiraClient.toJson(issue).get("fields");
+    assertThat(((JSONObject) fields.get("project")).get("key")).isEqualTo("TEST");
+    assertThat(((JSONObject) fields.get("issuetype")).get("id")).isEqualTo("3");
+    assertThat(((JSONObject) fields.get("priority")).get("id")).isEqualTo("4");
+    assertThat(fields.get("summary")).isEqualTo("SonarQube Issue #ABCD");
+    assertThat(JSONValue.toJSONString(fields.get("components"))).isEqualTo("[{\"id\":\"123\"}]");
+  }
+
+  @Test
+  public void shouldSendLabelsOfNewIssues() {
+    RemoteIssue issue = new RemoteIssue();
+    issue.setCustomFieldValues(new RemoteCustomFieldValue[] {new RemoteCustomFieldValue(JiraClient.LABELS_FIELD, null, new String[] {"sonar-ABCD"})});
+
+    JSONObject fields = (JSONObject) RestJiraClient.toJson(issue).get("fields");
+    assertThat(JSONValue.toJSONString(fields.get("labels"))).isEqualTo("[\"sonar-ABCD\"]");
+  }
+
+  @Test
+  public void shouldMapErrorsToSoapExceptions() {
+    assertThat(RestJiraClient.toException(401, "", "url")).isInstanceOf(RemoteAuthenticationException.class);
+    assertThat(RestJiraClient.toException(403, "", "url")).isInstanceOf(RemotePermissionException.class);
+    RemoteException notFound = RestJiraClient.toException(404, "", "http://my.jira.com/rest/api/2/search");
+    assertThat(notFound instanceof RemoteAuthenticationException).isFalse();
+    assertThat(notFound.getMessage()).isEqualTo("Unexpected HTTP status 404 for http://my.jira.com/rest/api/2/search");
+  }
+
+  @Test
+  public void shouldGiveMessagesOfValidationErrors() {
+    RemoteException e = RestJiraClient.toException(400,
+      "{\"errorMessages\":[\"Invalid project\"],\"errors\":{\"summary\":\"You must specify a summary of the issue.\"}}", "url");
+
+    assertThat(e).isInstanceOf(RemoteValidationException.class);
+    assertThat(((RemoteValidationException) e).getFaultString()).isEqualTo("Invalid project, summary: You must specify a summary of the issue.");
+  }
+
+  private static JSONObject json(String json) {
+    return (JSONObject) JSONValue.parse(json);
+  }
+}
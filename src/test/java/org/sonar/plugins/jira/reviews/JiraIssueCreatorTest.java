@@ -19,15 +19,18 @@
  */
 package org.sonar.plugins.jira.reviews;
 
-import com.atlassian.jira.rpc.soap.client.JiraSoapService;
 import com.atlassian.jira.rpc.soap.client.RemoteAuthenticationException;
 import com.atlassian.jira.rpc.soap.client.RemoteComponent;
+import com.atlassian.jira.rpc.soap.client.RemoteCustomFieldValue;
 import com.atlassian.jira.rpc.soap.client.RemoteIssue;
 import com.atlassian.jira.rpc.soap.client.RemotePermissionException;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.sonar.api.CoreProperties;
 import org.sonar.api.config.PropertyDefinitions;
 import org.sonar.api.config.Settings;
@@ -38,15 +41,25 @@ import org.sonar.api.rules.RuleFinder;
 import org.sonar.api.rules.RulePriority;
 import org.sonar.plugins.jira.JiraConstants;
 import org.sonar.plugins.jira.JiraPlugin;
-import org.sonar.plugins.jira.soap.JiraSoapSession;
+import org.sonar.plugins.jira.client.JiraClient;
+import org.sonar.plugins.jira.client.JiraClientManager;
+import org.sonar.plugins.jira.client.RemoteIssueHandler;
+import org.sonar.plugins.jira.rest.HttpStatusException;
+import org.sonar.plugins.jira.soap.FakeJiraServer;
 
 import java.rmi.RemoteException;
 
 import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -54,10 +67,13 @@ public class JiraIssueCreatorTest {
 
   @Rule
   public ExpectedException thrown = ExpectedException.none();
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
   private JiraIssueCreator jiraIssueCreator;
   private Issue sonarIssue;
   private Settings settings;
   private RuleFinder ruleFinder;
+  private JiraClient client;
 
   @Before
   public void init() throws Exception {
@@ -76,103 +92,218 @@ public class JiraIssueCreatorTest {
     settings.setProperty(JiraConstants.USERNAME_PROPERTY, "foo");
     settings.setProperty(JiraConstants.PASSWORD_PROPERTY, "bar");
     settings.setProperty(JiraConstants.JIRA_PROJECT_KEY_PROPERTY, "TEST");
-
-    jiraIssueCreator = new JiraIssueCreator(ruleFinder);
-  }
-
-  @Test
-  public void shouldCreateSoapSession() throws Exception {
-    JiraSoapSession soapSession = jiraIssueCreator.createSoapSession(settings);
-    assertThat(soapSession.getWebServiceUrl().toString()).isEqualTo("http://my.jira.com/rpc/soap/jirasoapservice-v2");
+    settings.setProperty(JiraConstants.CACHE_DIR_PROPERTY, temp.getRoot().getAbsolutePath());
+
+    client = mock(JiraClient.class);
+    JiraClientManager clientManager = new JiraClientManager(settings) {
+      @Override
+      protected JiraClient createClient(Settings settings) {
+        return client;
+      }
+    };
+    jiraIssueCreator = new JiraIssueCreator(ruleFinder, clientManager);
   }
 
   @Test
-  public void shouldFailToCreateSoapSessionWithIncorrectUrl() throws Exception {
+  public void shouldFailToCreateIssueWithIncorrectUrl() throws Exception {
     settings.removeProperty(JiraConstants.SERVER_URL_PROPERTY);
     settings.appendProperty(JiraConstants.SERVER_URL_PROPERTY, "my.server");
 
     thrown.expect(IllegalStateException.class);
-    thrown.expectMessage("The JIRA server URL is not a valid one: my.server/rpc/soap/jirasoapservice-v2");
+    thrown.expectMessage("The JIRA server URL is not a valid one: my.server");
 
-    jiraIssueCreator.createSoapSession(settings);
+    new JiraIssueCreator(ruleFinder, new JiraClientManager(settings)).createIssue(sonarIssue, settings);
   }
 
   @Test
   public void shouldFailToCreateIssueIfCantConnect() throws Exception {
     // Given that
-    JiraSoapSession soapSession = mock(JiraSoapSession.class);
-    doThrow(RemoteException.class).when(soapSession).connect(anyString(), anyString());
+    doThrow(RemoteException.class).when(client).connect(anyString(), anyString());
 
     // Verify
     thrown.expect(IllegalStateException.class);
     thrown.expectMessage("Impossible to connect to the JIRA server");
 
-    jiraIssueCreator.doCreateIssue(sonarIssue, soapSession, settings);
+    jiraIssueCreator.createIssue(sonarIssue, settings);
   }
 
   @Test
   public void shouldFailToCreateIssueIfCantAuthenticate() throws Exception {
     // Given that
-    JiraSoapService jiraSoapService = mock(JiraSoapService.class);
-    doThrow(RemoteAuthenticationException.class).when(jiraSoapService).createIssue(anyString(), any(RemoteIssue.class));
+    doThrow(RemoteAuthenticationException.class).when(client).createIssue(any(RemoteIssue.class));
 
     // Verify
     thrown.expect(IllegalStateException.class);
     thrown.expectMessage("Impossible to connect to the JIRA server (my.jira) because of invalid credentials for user foo");
 
-    jiraIssueCreator.sendRequest(jiraSoapService, "", null, "my.jira", "foo");
+    jiraIssueCreator.sendRequest(client, null, "my.jira", "foo");
   }
 
   @Test
   public void shouldFailToCreateIssueIfNotEnoughRights() throws Exception {
     // Given that
-    JiraSoapService jiraSoapService = mock(JiraSoapService.class);
-    doThrow(RemotePermissionException.class).when(jiraSoapService).createIssue(anyString(), any(RemoteIssue.class));
+    doThrow(RemotePermissionException.class).when(client).createIssue(any(RemoteIssue.class));
 
     // Verify
     thrown.expect(IllegalStateException.class);
     thrown.expectMessage("Impossible to create the issue on the JIRA server (my.jira) because user foo does not have enough rights.");
 
-    jiraIssueCreator.sendRequest(jiraSoapService, "", null, "my.jira", "foo");
+    jiraIssueCreator.sendRequest(client, null, "my.jira", "foo");
   }
 
   @Test
   public void shouldFailToCreateIssueIfRemoteError() throws Exception {
     // Given that
-    JiraSoapService jiraSoapService = mock(JiraSoapService.class);
-    doThrow(RemoteException.class).when(jiraSoapService).createIssue(anyString(), any(RemoteIssue.class));
+    doThrow(RemoteException.class).when(client).createIssue(any(RemoteIssue.class));
 
     // Verify
     thrown.expect(IllegalStateException.class);
     thrown.expectMessage("Impossible to create the issue on the JIRA server (my.jira)");
 
-    jiraIssueCreator.sendRequest(jiraSoapService, "", null, "my.jira", "foo");
+    jiraIssueCreator.sendRequest(client, null, "my.jira", "foo");
   }
 
   @Test
   public void shouldCreateIssue() throws Exception {
     // Given that
     RemoteIssue issue = new RemoteIssue();
-    JiraSoapService jiraSoapService = mock(JiraSoapService.class);
-    when(jiraSoapService.createIssue(anyString(), any(RemoteIssue.class))).thenReturn(issue);
-
-    JiraSoapSession soapSession = mock(JiraSoapSession.class);
-    when(soapSession.getJiraSoapService()).thenReturn(jiraSoapService);
+    when(client.createIssue(any(RemoteIssue.class))).thenReturn(issue);
 
     // Verify
-    RemoteIssue returnedIssue = jiraIssueCreator.doCreateIssue(sonarIssue, soapSession, settings);
+    RemoteIssue returnedIssue = jiraIssueCreator.doCreateIssue(sonarIssue, client, settings);
 
-    verify(soapSession).connect("foo", "bar");
-    verify(soapSession).getJiraSoapService();
-    verify(soapSession).getAuthenticationToken();
+    verify(client).createIssue(any(RemoteIssue.class));
+    verify(client, never()).connect(anyString(), anyString());
 
     assertThat(returnedIssue).isEqualTo(issue);
   }
 
+  @Test
+  public void shouldReuseClientBetweenIssues() throws Exception {
+    when(client.createIssue(any(RemoteIssue.class))).thenReturn(new RemoteIssue());
+
+    jiraIssueCreator.createIssue(sonarIssue, settings);
+    jiraIssueCreator.createIssue(sonarIssue, settings);
+
+    verify(client, times(1)).connect("foo", "bar");
+    verify(client, times(2)).createIssue(any(RemoteIssue.class));
+  }
+
+  @Test
+  public void shouldLogInAgainIfTokenHasExpired() throws Exception {
+    RemoteIssue issue = new RemoteIssue();
+    when(client.createIssue(any(RemoteIssue.class))).thenThrow(new RemoteAuthenticationException()).thenReturn(issue);
+
+    assertThat(jiraIssueCreator.createIssue(sonarIssue, settings)).isSameAs(issue);
+    verify(client, times(2)).connect("foo", "bar");
+  }
+
+  @Test
+  public void shouldNotCreateIssueTwiceIfFirstCreationTimedOut() throws Exception {
+    RemoteIssue createdIssue = new RemoteIssue();
+    createdIssue.setKey("TEST-1");
+    createdIssue.setDescription("Check it on SonarQube: http://my.sonar.com/issue/show/ABCD");
+    when(client.createIssue(any(RemoteIssue.class))).thenThrow(new RemoteException("Read timed out")).thenReturn(new RemoteIssue());
+    foundIssues("TEST-1");
+    when(client.getIssue("TEST-1")).thenReturn(createdIssue);
+
+    try {
+      jiraIssueCreator.createIssue(sonarIssue, settings);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e.getMessage()).startsWith("Impossible to create the issue on the JIRA server");
+    }
+    verify(client, never()).getIssuesFromJqlSearch(anyString(), anyInt(), any(RemoteIssueHandler.class));
+
+    assertThat(jiraIssueCreator.createIssue(sonarIssue, settings)).isSameAs(createdIssue);
+    verify(client, times(1)).createIssue(any(RemoteIssue.class));
+    verify(client).getIssuesFromJqlSearch(eq("project = \"TEST\" AND labels = \"sonar-ABCD\" ORDER BY created ASC"), eq(10), any(RemoteIssueHandler.class));
+
+    // the creation is finished, the next one does not search JIRA
+    jiraIssueCreator.createIssue(sonarIssue, settings);
+    verify(client, times(1)).getIssuesFromJqlSearch(anyString(), anyInt(), any(RemoteIssueHandler.class));
+  }
+
+  @Test
+  public void shouldCreateIssueIfNotFoundAfterTimeout() throws Exception {
+    RemoteIssue createdIssue = new RemoteIssue();
+    when(client.createIssue(any(RemoteIssue.class))).thenThrow(new RemoteException("Read timed out")).thenReturn(createdIssue);
+
+    try {
+      jiraIssueCreator.createIssue(sonarIssue, settings);
+      fail();
+    } catch (IllegalStateException e) {
+      // JIRA may have created the issue
+    }
+
+    assertThat(jiraIssueCreator.createIssue(sonarIssue, settings)).isSameAs(createdIssue);
+    // by label, then by key for the issues created without label
+    verify(client, times(2)).getIssuesFromJqlSearch(anyString(), eq(10), any(RemoteIssueHandler.class));
+    verify(client).getIssuesFromJqlSearch(contains("\"\\\"ABCD\\\"\""), eq(10), any(RemoteIssueHandler.class));
+  }
+
+  @Test
+  public void shouldNotReuseIssueWithoutSonarIssueKey() throws Exception {
+    RemoteIssue otherIssue = new RemoteIssue();
+    otherIssue.setKey("TEST-1");
+    otherIssue.setDescription("Check it on SonarQube: http://my.sonar.com/issue/show/ABCDEF");
+    RemoteIssue createdIssue = new RemoteIssue();
+    when(client.createIssue(any(RemoteIssue.class))).thenThrow(new RemoteException("Read timed out")).thenReturn(createdIssue);
+    foundIssues("TEST-1");
+    when(client.getIssue("TEST-1")).thenReturn(otherIssue);
+
+    try {
+      jiraIssueCreator.createIssue(sonarIssue, settings);
+      fail();
+    } catch (IllegalStateException e) {
+      // JIRA may have created the issue
+    }
+
+    assertThat(jiraIssueCreator.createIssue(sonarIssue, settings)).isSameAs(createdIssue);
+    verify(client, times(2)).createIssue(any(RemoteIssue.class));
+  }
+
+  @Test
+  public void shouldFindSonarIssueKeyInText() {
+    assertThat(JiraIssueCreator.containsKey("http://my.sonar.com/issue/show/ABCD", "ABCD")).isTrue();
+    assertThat(JiraIssueCreator.containsKey("SonarQube Issue #ABCD - Cycle", "ABCD")).isTrue();
+    assertThat(JiraIssueCreator.containsKey("http://my.sonar.com/issue/show/ABCDEF", "ABCD")).isFalse();
+    assertThat(JiraIssueCreator.containsKey(null, "ABCD")).isFalse();
+  }
+
+  private void foundIssues(final String... jiraKeys) throws RemoteException {
+    when(client.getIssuesFromJqlSearch(anyString(), anyInt(), any(RemoteIssueHandler.class))).thenAnswer(new Answer<Integer>() {
+      public Integer answer(InvocationOnMock invocation) {
+        for (String jiraKey : jiraKeys) {
+          RemoteIssue issue = new RemoteIssue();
+          issue.setKey(jiraKey);
+          ((RemoteIssueHandler) invocation.getArguments()[2]).handle(issue);
+        }
+        return jiraKeys.length;
+      }
+    });
+  }
+
+  @Test
+  public void shouldNotSearchIssueIfCreationWasRejected() throws Exception {
+    when(client.createIssue(any(RemoteIssue.class))).thenThrow(new RemotePermissionException()).thenReturn(new RemoteIssue());
+
+    try {
+      jiraIssueCreator.createIssue(sonarIssue, settings);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e.getMessage()).contains("does not have enough rights");
+    }
+    jiraIssueCreator.createIssue(sonarIssue, settings);
+
+    verify(client, never()).getIssuesFromJqlSearch(anyString(), anyInt(), any(RemoteIssueHandler.class));
+  }
+
   @Test
   public void shouldInitRemoteIssue() throws Exception {
     // Given that
     RemoteIssue expectedIssue = new RemoteIssue();
+    expectedIssue.setCustomFieldValues(new RemoteCustomFieldValue[] {new RemoteCustomFieldValue("labels", null, new String[] {"sonar-ABCD"})});
     expectedIssue.setProject("TEST");
     expectedIssue.setType("3");
     expectedIssue.setPriority("4");
@@ -193,6 +324,7 @@ public class JiraIssueCreatorTest {
     // Given that
     settings.setProperty(JiraConstants.JIRA_ISSUE_TYPE_ID, "4");
     RemoteIssue expectedIssue = new RemoteIssue();
+    expectedIssue.setCustomFieldValues(new RemoteCustomFieldValue[] {new RemoteCustomFieldValue("labels", null, new String[] {"sonar-ABCD"})});
     expectedIssue.setProject("TEST");
     expectedIssue.setType("4");
     expectedIssue.setPriority("4");
@@ -213,6 +345,7 @@ public class JiraIssueCreatorTest {
     // Given that
     settings.setProperty(JiraConstants.JIRA_ISSUE_COMPONENT_ID, "123");
     RemoteIssue expectedIssue = new RemoteIssue();
+    expectedIssue.setCustomFieldValues(new RemoteCustomFieldValue[] {new RemoteCustomFieldValue("labels", null, new String[] {"sonar-ABCD"})});
     expectedIssue.setProject("TEST");
     expectedIssue.setType("3");
     expectedIssue.setPriority("4");
@@ -242,6 +375,7 @@ public class JiraIssueCreatorTest {
     when(ruleFinder.findByKey(RuleKey.of("squid", "CycleBetweenPackages"))).thenReturn(org.sonar.api.rules.Rule.create().setName(null));
 
     RemoteIssue expectedIssue = new RemoteIssue();
+    expectedIssue.setCustomFieldValues(new RemoteCustomFieldValue[] {new RemoteCustomFieldValue("labels", null, new String[] {"sonar-ABCD"})});
     expectedIssue.setProject("TEST");
     expectedIssue.setType("3");
     expectedIssue.setPriority("4");
@@ -256,4 +390,87 @@ public class JiraIssueCreatorTest {
     assertThat(returnedIssue.getDescription()).isEqualTo(expectedIssue.getDescription());
     assertThat(returnedIssue).isEqualTo(expectedIssue);
   }
+
+  @Test
+  public void shouldCreateIssueOnFakeJiraServer() throws Exception {
+    FakeJiraServer server = new FakeJiraServer();
+    JiraClientManager clientManager = new JiraClientManager(settings);
+    try {
+      settings.setProperty(JiraConstants.SERVER_URL_PROPERTY, server.getServerUrl());
+
+      RemoteIssue issue = new JiraIssueCreator(ruleFinder, clientManager).createIssue(sonarIssue, settings);
+
+      assertThat(issue.getKey()).isEqualTo("FAKE-1");
+      assertThat(server.getCreatedIssues()).containsExactly("SonarQube Issue #ABCD - Avoid cycle between java packages");
+    } finally {
+      clientManager.stop();
+      server.stop();
+    }
+  }
+
+  @Test
+  public void shouldGroupIssuesOfSameRuleOnFakeJiraServer() throws Exception {
+    FakeJiraServer server = new FakeJiraServer();
+    JiraClientManager clientManager = new JiraClientManager(settings);
+    try {
+      settings.setProperty(JiraConstants.SERVER_URL_PROPERTY, server.getServerUrl());
+      settings.setProperty(JiraConstants.GROUPING_PROPERTY, true);
+      JiraIssueCreator creator = new JiraIssueCreator(ruleFinder, clientManager);
+
+      RemoteIssue first = creator.createIssue(sonarIssue, settings);
+      RemoteIssue second = creator.createIssue(new DefaultIssue().setKey("EFGH").setMessage("Cycle").setSeverity("MAJOR")
+        .setRuleKey(RuleKey.of("squid", "CycleBetweenPackages")), settings);
+      RemoteIssue other = creator.createIssue(new DefaultIssue().setKey("IJKL").setMessage("Too complex").setSeverity("MAJOR")
+        .setRuleKey(RuleKey.of("squid", "MethodCyclomaticComplexity")), settings);
+
+      assertThat(first.getKey()).isEqualTo("FAKE-1");
+      assertThat(second.getKey()).isEqualTo("FAKE-1");
+      assertThat(other.getKey()).isEqualTo("FAKE-2");
+      assertThat(server.getCreatedIssues()).containsExactly("SonarQube Issues - Avoid cycle between java packages",
+        "SonarQube Issues - squid:MethodCyclomaticComplexity");
+      assertThat(server.getComments()).hasSize(1);
+      assertThat(server.getComments().get(0)).startsWith("FAKE-1: Issue detail:").contains("/issue/show/EFGH");
+    } finally {
+      clientManager.stop();
+      server.stop();
+    }
+  }
+
+  @Test
+  public void shouldCreateNewGroupIssueIfGroupIssueCanNotBeCommented() throws Exception {
+    settings.setProperty(JiraConstants.GROUPING_PROPERTY, true);
+    RemoteIssue groupIssue = new RemoteIssue();
+    groupIssue.setKey("TEST-1");
+    RemoteIssue newGroupIssue = new RemoteIssue();
+    newGroupIssue.setKey("TEST-2");
+    when(client.createIssue(any(RemoteIssue.class))).thenReturn(groupIssue, newGroupIssue);
+    doThrow(new HttpStatusException(404, "http://my.jira.com/rest/api/2/issue/TEST-1/comment")).when(client).addComment(anyString(), anyString());
+
+    assertThat(jiraIssueCreator.createIssue(sonarIssue, settings).getKey()).isEqualTo("TEST-1");
+    assertThat(jiraIssueCreator.createIssue(sonarIssue, settings).getKey()).isEqualTo("TEST-2");
+
+    verify(client).addComment(anyString(), anyString());
+    verify(client, times(2)).createIssue(any(RemoteIssue.class));
+  }
+
+  @Test
+  public void shouldNotCreateNewGroupIssueIfGroupIssueCanNotBeReached() throws Exception {
+    settings.setProperty(JiraConstants.GROUPING_PROPERTY, true);
+    RemoteIssue groupIssue = new RemoteIssue();
+    groupIssue.setKey("TEST-1");
+    when(client.createIssue(any(RemoteIssue.class))).thenReturn(groupIssue);
+    doThrow(new RemoteException("Read timed out")).doNothing().when(client).addComment(anyString(), anyString());
+    jiraIssueCreator.createIssue(sonarIssue, settings);
+
+    try {
+      jiraIssueCreator.createIssue(sonarIssue, settings);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e.getMessage()).isEqualTo("Impossible to add a comment to the JIRA issue TEST-1 on the JIRA server (http://my.jira.com)");
+    }
+
+    verify(client, times(1)).createIssue(any(RemoteIssue.class));
+    // the group still has its JIRA issue, which is commented when JIRA is back
+    assertThat(jiraIssueCreator.createIssue(sonarIssue, settings).getKey()).isEqualTo("TEST-1");
+  }
 }
@@ -0,0 +1,234 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.reviews;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.config.PropertyDefinitions;
+import org.sonar.api.config.Settings;
+import org.sonar.api.issue.Issue;
+import org.sonar.api.issue.internal.DefaultIssue;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.rules.RuleFinder;
+import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.JiraPlugin;
+import org.sonar.plugins.jira.cache.JiraLinkQueue;
+import org.sonar.plugins.jira.client.JiraClientManager;
+import org.sonar.plugins.jira.soap.FakeJiraServer;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class JiraLinkWorkerTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private FakeJiraServer server;
+  private Settings settings;
+  private Settings projectSettings;
+  private JiraClientManager clientManager;
+  private JiraIssueCreator creator;
+  private Issue sonarIssue;
+  private final List<String> linkedIssues = Lists.newArrayList();
+  private CountDownLatch concurrentLinks;
+
+  @Before
+  public void init() throws Exception {
+    server = new FakeJiraServer();
+    settings = new Settings(new PropertyDefinitions(JiraIssueCreator.class, JiraLinkWorker.class, JiraPlugin.class));
+    settings.setProperty(JiraConstants.LINK_ASYNC_PROPERTY, true);
+    settings.setProperty(JiraConstants.CACHE_DIR_PROPERTY, temp.newFolder().getAbsolutePath());
+    settings.setProperty(JiraConstants.PASSWORD_PROPERTY, "bar");
+    // no retry, the queue retries
+    settings.setProperty(JiraConstants.RETRY_MAX_PROPERTY, 0);
+    settings.setProperty(JiraConstants.CIRCUIT_OPEN_PROPERTY, 0);
+    projectSettings = new Settings(settings);
+    projectSettings.setProperty(JiraConstants.SERVER_URL_PROPERTY, server.getServerUrl());
+    projectSettings.setProperty(JiraConstants.USERNAME_PROPERTY, "foo");
+    projectSettings.setProperty(JiraConstants.JIRA_PROJECT_KEY_PROPERTY, "TEST");
+    clientManager = new JiraClientManager(settings);
+    creator = new JiraIssueCreator(mock(RuleFinder.class), clientManager);
+    sonarIssue = new DefaultIssue().setKey("ABCD").setSeverity("MAJOR").setRuleKey(RuleKey.of("squid", "S1"));
+  }
+
+  @After
+  public void stop() {
+    clientManager.stop();
+    server.stop();
+  }
+
+  @Test
+  public void shouldCreateQueuedIssuesAndLinkThem() {
+    JiraLinkWorker worker = newWorker(true);
+    worker.enqueue(sonarIssue, projectSettings);
+    assertThat(worker.getEntry("ABCD").isCreated()).isFalse();
+
+    worker.drain(System.currentTimeMillis());
+
+    assertThat(server.getCreatedIssues()).containsExactly("SonarQube Issue #ABCD");
+    assertThat(linkedIssues).containsExactly("ABCD");
+    assertThat(worker.getEntry("ABCD")).isNull();
+  }
+
+  @Test
+  public void shouldKeepCreatedIssueUntilLinkedWithoutSonarUser() {
+    JiraLinkWorker worker = newWorker(false);
+    worker.enqueue(sonarIssue, projectSettings);
+
+    worker.drain(System.currentTimeMillis());
+    worker.drain(System.currentTimeMillis());
+
+    assertThat(server.getCreatedIssues()).hasSize(1);
+    assertThat(worker.getEntry("ABCD").getJiraKey()).isEqualTo("FAKE-1");
+  }
+
+  @Test
+  public void shouldRetryWithIncreasingDelays() {
+    server.stop();
+    JiraLinkWorker worker = newWorker(true);
+    worker.enqueue(sonarIssue, projectSettings);
+
+    worker.drain(0L);
+    JiraLinkQueue.Entry entry = worker.getEntry("ABCD");
+    assertThat(entry.getAttempts()).isEqualTo(1);
+    assertThat(entry.getNextAttempt()).isEqualTo(30000L);
+
+    worker.drain(29999L);
+    assertThat(worker.getEntry("ABCD").getAttempts()).isEqualTo(1);
+
+    worker.drain(30000L);
+    entry = worker.getEntry("ABCD");
+    assertThat(entry.getAttempts()).isEqualTo(2);
+    assertThat(entry.getNextAttempt()).isEqualTo(90000L);
+  }
+
+  @Test
+  public void shouldGiveUpAfterMaxAttempts() {
+    server.stop();
+    JiraLinkWorker worker = newWorker(true);
+    worker.enqueue(sonarIssue, projectSettings);
+
+    for (int i = 0; i < JiraLinkWorker.MAX_ATTEMPTS; i++) {
+      worker.drain(Long.MAX_VALUE);
+    }
+
+    assertThat(worker.getEntry("ABCD")).isNull();
+  }
+
+  @Test
+  public void shouldProcessEntriesQueuedBeforeRestart() {
+    newWorker(true).enqueue(sonarIssue, projectSettings);
+
+    JiraLinkWorker restarted = newWorker(true);
+    restarted.drain(System.currentTimeMillis());
+
+    // the password of the server is used, it is not kept on disk
+    assertThat(server.getCreatedIssues()).containsExactly("SonarQube Issue #ABCD");
+    assertThat(linkedIssues).containsExactly("ABCD");
+  }
+
+  @Test
+  public void shouldCreateDueIssuesConcurrentlyWithOneSession() {
+    settings.setProperty(JiraConstants.BULK_THREADS_PROPERTY, 3);
+    // each link waits for the two other ones, which must then be processed at the same time
+    concurrentLinks = new CountDownLatch(3);
+    JiraLinkWorker worker = newWorker(true);
+    for (String key : new String[] {"A", "B", "C"}) {
+      worker.enqueue(new DefaultIssue().setKey(key).setSeverity("MAJOR").setRuleKey(RuleKey.of("squid", "S1")), projectSettings);
+    }
+
+    worker.drain(System.currentTimeMillis());
+
+    assertThat(server.getCreatedIssues()).containsOnly("SonarQube Issue #A", "SonarQube Issue #B", "SonarQube Issue #C");
+    assertThat(linkedIssues).containsOnly("A", "B", "C");
+    assertThat(server.getRequests("login")).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldRetryFailedIssuesOnlyWhenCreatedConcurrently() {
+    settings.setProperty(JiraConstants.BULK_THREADS_PROPERTY, 2);
+    JiraLinkWorker worker = newWorker(true);
+    for (String key : new String[] {"A", "FAIL", "C"}) {
+      worker.enqueue(new DefaultIssue().setKey(key).setSeverity("MAJOR").setRuleKey(RuleKey.of("squid", "S1")), projectSettings);
+    }
+
+    worker.drain(0L);
+
+    assertThat(linkedIssues).containsOnly("A", "C");
+    assertThat(worker.getEntry("A")).isNull();
+    assertThat(worker.getEntry("C")).isNull();
+    JiraLinkQueue.Entry failed = worker.getEntry("FAIL");
+    assertThat(failed.isCreated()).isTrue();
+    assertThat(failed.getAttempts()).isEqualTo(1);
+    assertThat(failed.getNextAttempt()).isEqualTo(30000L);
+  }
+
+  @Test
+  public void shouldNotLinkWithoutSonarUser() throws Exception {
+    assertThat(new JiraLinkWorker(settings, creator, new SonarWebServiceClient(settings)).linkSonarIssue("ABCD")).isFalse();
+  }
+
+  private JiraLinkWorker newWorker(final boolean sonarUser) {
+    return new JiraLinkWorker(settings, creator, new SonarWebServiceClient(settings)) {
+      @Override
+      void wakeUp() {
+        // drained by the test
+      }
+
+      @Override
+      protected boolean linkSonarIssue(String issueKey) throws IOException {
+        if ("FAIL".equals(issueKey)) {
+          throw new IOException("SonarQube is not available");
+        }
+        if (concurrentLinks != null) {
+          concurrentLinks.countDown();
+          if (!await(concurrentLinks)) {
+            throw new IOException("Not linked concurrently");
+          }
+        }
+        if (sonarUser) {
+          synchronized (linkedIssues) {
+            linkedIssues.add(issueKey);
+          }
+        }
+        return sonarUser;
+      }
+    };
+  }
+
+  private static boolean await(CountDownLatch latch) {
+    try {
+      return latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+}
@@ -0,0 +1,280 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.reviews;
+
+import com.atlassian.jira.rpc.soap.client.RemoteIssue;
+import com.atlassian.jira.rpc.soap.client.RemoteValidationException;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sonar.api.config.PropertyDefinitions;
+import org.sonar.api.config.Settings;
+import org.sonar.api.issue.Issue;
+import org.sonar.api.issue.internal.DefaultIssue;
+import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.JiraPlugin;
+import org.sonar.plugins.jira.cache.JiraLinkIndex;
+import org.sonar.plugins.jira.client.JiraClient;
+import org.sonar.plugins.jira.client.JiraClientManager;
+import org.sonar.plugins.jira.client.RemoteIssueHandler;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class JiraStatusSyncTest {
+
+  private static final long HOUR = 60L * 60L * 1000L;
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private Settings settings;
+  private JiraClient client;
+  private SonarWebServiceClient sonarClient;
+  private JiraStatusSync sync;
+  private final Map<String, RemoteIssue> jiraIssues = Maps.newHashMap();
+  private final Map<String, Issue> sonarIssues = Maps.newHashMap();
+  private final List<String> queries = Lists.newArrayList();
+
+  @Before
+  public void init() throws Exception {
+    settings = new Settings(new PropertyDefinitions(JiraStatusSync.class, JiraPlugin.class));
+    settings.setProperty(JiraConstants.SERVER_URL_PROPERTY, "http://my.jira.com");
+    settings.setProperty(JiraConstants.USERNAME_PROPERTY, "foo");
+    settings.setProperty(JiraConstants.PASSWORD_PROPERTY, "bar");
+    settings.setProperty(JiraConstants.CACHE_DIR_PROPERTY, temp.getRoot().getAbsolutePath());
+
+    client = mock(JiraClient.class);
+    when(client.getIssuesFromJqlSearch(anyString(), anyInt(), any(RemoteIssueHandler.class))).thenAnswer(new Answer<Integer>() {
+      public Integer answer(InvocationOnMock invocation) throws Exception {
+        String jql = (String) invocation.getArguments()[0];
+        queries.add(jql);
+        int count = 0;
+        for (RemoteIssue issue : jiraIssues.values()) {
+          if (jql.contains(issue.getKey() + ",") || jql.contains(issue.getKey() + ")")) {
+            ((RemoteIssueHandler) invocation.getArguments()[2]).handle(issue);
+            count++;
+          }
+        }
+        return count;
+      }
+    });
+    JiraClientManager clientManager = new JiraClientManager(settings) {
+      @Override
+      protected JiraClient createClient(Settings settings) {
+        return client;
+      }
+    };
+
+    sonarClient = mock(SonarWebServiceClient.class);
+    when(sonarClient.isConfigured()).thenReturn(true);
+    when(sonarClient.findIssues(anyCollection())).thenAnswer(new Answer<List<Issue>>() {
+      public List<Issue> answer(InvocationOnMock invocation) {
+        List<Issue> found = Lists.newArrayList();
+        for (Object key : (Collection<?>) invocation.getArguments()[0]) {
+          if (sonarIssues.containsKey(key)) {
+            found.add(sonarIssues.get(key));
+          }
+        }
+        return found;
+      }
+    });
+    sync = new JiraStatusSync(settings, clientManager, sonarClient);
+  }
+
+  @Test
+  public void shouldResolveAndReopenSonarIssues() throws Exception {
+    link("ABCD", Issue.STATUS_OPEN, null, "TEST-1", "1");
+    link("EFGH", Issue.STATUS_RESOLVED, Issue.RESOLUTION_FIXED, "TEST-2", null);
+    link("IJKL", Issue.STATUS_RESOLVED, Issue.RESOLUTION_FALSE_POSITIVE, "TEST-3", null);
+    link("MNOP", Issue.STATUS_RESOLVED, Issue.RESOLUTION_FIXED, "TEST-4", "1");
+
+    assertThat(sync.sync(System.currentTimeMillis())).isEqualTo(2);
+
+    verify(sonarClient).doTransition("ABCD", "resolve");
+    verify(sonarClient).addComment("ABCD", "JIRA issue TEST-1 has been resolved");
+    verify(sonarClient).doTransition("EFGH", "reopen");
+    verify(sonarClient).addComment("EFGH", "JIRA issue TEST-2 has been reopened");
+    verify(sonarClient, never()).doTransition("IJKL", "reopen");
+    verify(sonarClient, never()).doTransition("MNOP", "resolve");
+    assertThat(queries).containsExactly("key in (TEST-1, TEST-2, TEST-3, TEST-4)");
+  }
+
+  @Test
+  public void shouldOnlySearchIssuesUpdatedSinceLastSync() throws Exception {
+    link("ABCD", Issue.STATUS_OPEN, null, "TEST-1", null);
+    long now = System.currentTimeMillis();
+
+    sync.sync(now);
+    sync.sync(now + HOUR);
+
+    assertThat(queries).containsExactly("key in (TEST-1)", "key in (TEST-1) AND updated >= -62m");
+  }
+
+  @Test
+  public void shouldSyncLinksMadeBeforeIndex() throws Exception {
+    link("ABCD", Issue.STATUS_OPEN, null, "TEST-1", "1");
+    sonarIssues.put("EFGH", new DefaultIssue().setKey("EFGH").setStatus(Issue.STATUS_OPEN).setAttribute(JiraConstants.SONAR_ISSUE_DATA_PROPERTY_KEY, "TEST-2"));
+    RemoteIssue jiraIssue = new RemoteIssue();
+    jiraIssue.setKey("TEST-2");
+    jiraIssue.setResolution("1");
+    jiraIssues.put("TEST-2", jiraIssue);
+    when(sonarClient.findProjectKeys()).thenReturn(Lists.newArrayList("struts"));
+    when(sonarClient.findUnclosedIssues("struts", 1, JiraStatusSync.SEED_PAGE_SIZE)).thenReturn(new SonarWebServiceClient.IssuePage(Lists.newArrayList(
+      sonarIssues.get("ABCD"), sonarIssues.get("EFGH"), new DefaultIssue().setKey("IJKL").setStatus(Issue.STATUS_OPEN)), true, false));
+
+    assertThat(sync.sync(System.currentTimeMillis())).isEqualTo(2);
+    verify(sonarClient).doTransition("EFGH", "resolve");
+    assertThat(queries).containsExactly("key in (TEST-1, TEST-2)");
+
+    // the links are only looked for once
+    sync.sync(System.currentTimeMillis() + HOUR);
+    verify(sonarClient, times(1)).findProjectKeys();
+  }
+
+  @Test
+  public void shouldRetryIssuesWhichCouldNotBeUpdated() throws Exception {
+    link("ABCD", Issue.STATUS_OPEN, null, "TEST-1", "1");
+    link("EFGH", Issue.STATUS_OPEN, null, "TEST-2", "1");
+    doThrow(new IOException("Unauthorized")).doNothing().when(sonarClient).doTransition("ABCD", "resolve");
+    long now = System.currentTimeMillis();
+
+    assertThat(sync.sync(now)).isEqualTo(1);
+    assertThat(sync.getIndex("http://my.jira.com").getCursor().getLastSync()).isEqualTo(0L);
+
+    sync.sync(now + HOUR);
+
+    verify(sonarClient, times(2)).doTransition("ABCD", "resolve");
+    assertThat(queries).containsExactly("key in (TEST-1, TEST-2)", "key in (TEST-1, TEST-2)");
+    assertThat(sync.getIndex("http://my.jira.com").getCursor().getLastSync()).isEqualTo(now + HOUR);
+  }
+
+  @Test
+  public void shouldResumeInterruptedSync() throws Exception {
+    for (int i = 1; i <= JiraStatusSync.CHUNK_SIZE + 10; i++) {
+      link("SONAR-" + i, Issue.STATUS_OPEN, null, "TEST-" + i, "1");
+    }
+    when(sonarClient.findIssues(anyCollection())).thenAnswer(new Answer<List<Issue>>() {
+      private int calls;
+
+      public List<Issue> answer(InvocationOnMock invocation) throws IOException {
+        calls++;
+        if (calls == 2) {
+          throw new IOException("Connection refused");
+        }
+        return Lists.newArrayList();
+      }
+    });
+
+    try {
+      sync.sync(1000L);
+      fail();
+    } catch (IllegalStateException e) {
+      // SonarQube is down
+    }
+    JiraLinkIndex.Cursor cursor = sync.getIndex("http://my.jira.com").getCursor();
+    assertThat(cursor.isRunning()).isTrue();
+    assertThat(cursor.getPosition()).isEqualTo(JiraStatusSync.CHUNK_SIZE);
+
+    sync.sync(2000L);
+
+    assertThat(queries).hasSize(3);
+    assertThat(queries.get(2)).startsWith("key in (TEST-" + (JiraStatusSync.CHUNK_SIZE + 1) + ",");
+    cursor = sync.getIndex("http://my.jira.com").getCursor();
+    assertThat(cursor.isRunning()).isFalse();
+    assertThat(cursor.getLastSync()).isEqualTo(1000L);
+  }
+
+  @Test
+  public void shouldSearchKeysByHalvesWhenJiraRejectsQuery() throws Exception {
+    link("ABCD", Issue.STATUS_OPEN, null, "TEST-1", "1");
+    link("EFGH", Issue.STATUS_OPEN, null, "TEST-2", "1");
+    link("IJKL", Issue.STATUS_OPEN, null, "GONE-1", "1");
+    jiraIssues.remove("GONE-1");
+    when(client.getIssuesFromJqlSearch(contains("GONE-1"), anyInt(), any(RemoteIssueHandler.class))).thenThrow(new RemoteValidationException());
+
+    assertThat(sync.sync(System.currentTimeMillis())).isEqualTo(2);
+
+    verify(sonarClient).doTransition("ABCD", "resolve");
+    verify(sonarClient).doTransition("EFGH", "resolve");
+  }
+
+  @Test
+  public void shouldForgetClosedSonarIssues() throws Exception {
+    link("ABCD", Issue.STATUS_CLOSED, Issue.RESOLUTION_REMOVED, "TEST-1", null);
+    link("EFGH", Issue.STATUS_OPEN, null, "TEST-2", null);
+
+    sync.sync(System.currentTimeMillis());
+
+    List<JiraLinkIndex.Link> links = sync.getIndex("http://my.jira.com").read(0L).next(10);
+    assertThat(links).hasSize(1);
+    assertThat(links.get(0).getIssueKey()).isEqualTo("EFGH");
+  }
+
+  @Test
+  public void shouldNotSyncWithoutSonarUser() throws Exception {
+    when(sonarClient.isConfigured()).thenReturn(false);
+    link("ABCD", Issue.STATUS_OPEN, null, "TEST-1", "1");
+
+    assertThat(sync.sync(System.currentTimeMillis())).isEqualTo(0);
+    verifyZeroInteractions(client);
+  }
+
+  @Test
+  public void shouldBeDisabledByDefault() {
+    assertThat(sync.isEnabled()).isFalse();
+    sync.start();
+    sync.stop();
+
+    settings.setProperty(JiraConstants.SYNC_INTERVAL_PROPERTY, 1440);
+    assertThat(sync.isEnabled()).isTrue();
+  }
+
+  private void link(String issueKey, String status, String resolution, String jiraKey, String jiraResolution) {
+    sync.linked(settings, issueKey, jiraKey);
+    sonarIssues.put(issueKey, new DefaultIssue().setKey(issueKey).setStatus(status).setResolution(resolution));
+    RemoteIssue jiraIssue = new RemoteIssue();
+    jiraIssue.setKey(jiraKey);
+    jiraIssue.setResolution(jiraResolution);
+    jiraIssues.put(jiraKey, jiraIssue);
+  }
+}
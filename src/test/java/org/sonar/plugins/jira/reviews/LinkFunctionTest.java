@@ -24,13 +24,16 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.sonar.api.config.Settings;
 import org.sonar.api.issue.Issue;
 import org.sonar.api.issue.action.Function;
 import org.sonar.api.issue.internal.DefaultIssue;
 import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.cache.JiraLinkQueue;
 
 import java.rmi.RemoteException;
+import java.util.Collections;
 
 import static org.fest.assertions.Assertions.assertThat;
 import static org.mockito.Matchers.anyString;
@@ -40,8 +43,12 @@ public class LinkFunctionTest {
 
   @Rule
   public ExpectedException thrown = ExpectedException.none();
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
   private LinkFunction function;
   private JiraIssueCreator jiraIssueCreator;
+  private JiraLinkWorker worker;
+  private JiraStatusSync statusSync;
   private Issue sonarIssue;
   private Function.Context context;
   private RemoteIssue remoteIssue;
@@ -61,7 +68,16 @@ public class LinkFunctionTest {
     remoteIssue.setKey("FOO-15");
     when(jiraIssueCreator.createIssue(sonarIssue, settings)).thenReturn(remoteIssue);
 
-    function = new LinkFunction(jiraIssueCreator);
+    worker = mock(JiraLinkWorker.class);
+    statusSync = mock(JiraStatusSync.class);
+    function = new LinkFunction(jiraIssueCreator, worker, statusSync);
+  }
+
+  @Test
+  public void should_record_link_for_status_sync() throws Exception {
+    function.createJiraIssue(context);
+
+    verify(statusSync).linked(settings, "ABCD", "FOO-15");
   }
 
   @Test
@@ -127,4 +143,70 @@ public class LinkFunctionTest {
     }
   }
 
+  @Test
+  public void should_create_issue_right_away_without_background_mode() throws Exception {
+    setJiraProperties();
+
+    function.execute(context);
+
+    verify(jiraIssueCreator).createIssue(sonarIssue, settings);
+    verify(worker, never()).enqueue(sonarIssue, settings);
+    verify(context).setAttribute(JiraConstants.SONAR_ISSUE_DATA_PROPERTY_KEY, "FOO-15");
+  }
+
+  @Test
+  public void should_queue_issue_in_background_mode() throws Exception {
+    setJiraProperties();
+    when(worker.isEnabled()).thenReturn(true);
+
+    function.execute(context);
+
+    verify(worker).enqueue(sonarIssue, settings);
+    verify(jiraIssueCreator, never()).createIssue(sonarIssue, settings);
+    verify(context, never()).setAttribute(anyString(), anyString());
+  }
+
+  @Test
+  public void should_not_queue_pending_issue_again() throws Exception {
+    setJiraProperties();
+    when(worker.isEnabled()).thenReturn(true);
+    JiraLinkQueue queue = JiraLinkQueue.load(JiraLinkQueue.getFile(temp.getRoot()));
+    when(worker.getEntry("ABCD")).thenReturn(queue.add("ABCD", new RemoteIssue(), Collections.<String, String>emptyMap()));
+
+    function.execute(context);
+
+    verify(worker, never()).enqueue(sonarIssue, settings);
+    verify(context, never()).setAttribute(anyString(), anyString());
+  }
+
+  @Test
+  public void should_link_issue_created_in_background() throws Exception {
+    setJiraProperties();
+    JiraLinkQueue queue = JiraLinkQueue.load(JiraLinkQueue.getFile(temp.getRoot()));
+    queue.add("ABCD", new RemoteIssue(), Collections.<String, String>emptyMap());
+    queue.setCreated("ABCD", "FOO-16");
+    when(worker.getEntry("ABCD")).thenReturn(queue.get("ABCD"));
+
+    function.execute(context);
+
+    verify(context).addComment("Issue linked to JIRA issue: http://my.jira.server/browse/FOO-16");
+    verify(context).setAttribute(JiraConstants.SONAR_ISSUE_DATA_PROPERTY_KEY, "FOO-16");
+    verify(worker).linked("ABCD");
+    verify(jiraIssueCreator, never()).createIssue(sonarIssue, settings);
+  }
+
+  private void setJiraProperties() {
+    settings.setProperty(JiraConstants.SERVER_URL_PROPERTY, "http://my.jira.server");
+    settings.setProperty(JiraConstants.SOAP_BASE_URL_PROPERTY, "/rpc/soap/jirasoapservice-v2");
+    settings.setProperty(JiraConstants.USERNAME_PROPERTY, "john");
+    settings.setProperty(JiraConstants.PASSWORD_PROPERTY, "1234");
+    settings.setProperty(JiraConstants.JIRA_PROJECT_KEY_PROPERTY, "SONAR");
+    settings.setProperty(JiraConstants.JIRA_INFO_PRIORITY_ID, 5);
+    settings.setProperty(JiraConstants.JIRA_MINOR_PRIORITY_ID, 4);
+    settings.setProperty(JiraConstants.JIRA_MAJOR_PRIORITY_ID, 3);
+    settings.setProperty(JiraConstants.JIRA_CRITICAL_PRIORITY_ID, 2);
+    settings.setProperty(JiraConstants.JIRA_BLOCKER_PRIORITY_ID, 1);
+    settings.setProperty(JiraConstants.JIRA_ISSUE_TYPE_ID, 3);
+    settings.setProperty(JiraConstants.JIRA_ISSUE_COMPONENT_ID, 18);
+  }
 }
@@ -0,0 +1,85 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.reviews;
+
+import org.junit.Test;
+import org.sonar.api.config.Settings;
+import org.sonar.api.issue.Issue;
+import org.sonar.plugins.jira.JiraConstants;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class SonarWebServiceClientTest {
+
+  @Test
+  public void shouldRequireSonarUser() {
+    Settings settings = new Settings();
+    assertThat(new SonarWebServiceClient(settings).isConfigured()).isFalse();
+
+    settings.setProperty(JiraConstants.LINK_SONAR_LOGIN_PROPERTY, "admin");
+    assertThat(new SonarWebServiceClient(settings).isConfigured()).isTrue();
+  }
+
+  @Test
+  public void shouldParseIssues() throws Exception {
+    List<Issue> issues = SonarWebServiceClient.parseIssues("{\"maxResultsReached\":false,\"paging\":{\"pageIndex\":1,\"pageSize\":2,\"total\":2},"
+      + "\"issues\":[{\"key\":\"ABCD\",\"component\":\"sample:Foo\",\"status\":\"RESOLVED\",\"resolution\":\"FIXED\"},"
+      + "{\"key\":\"EFGH\",\"component\":\"sample:Bar\",\"status\":\"OPEN\"}]}");
+
+    assertThat(issues).hasSize(2);
+    assertThat(issues.get(0).key()).isEqualTo("ABCD");
+    assertThat(issues.get(0).status()).isEqualTo("RESOLVED");
+    assertThat(issues.get(0).resolution()).isEqualTo("FIXED");
+    assertThat(issues.get(1).key()).isEqualTo("EFGH");
+    assertThat(issues.get(1).resolution()).isNull();
+  }
+
+  @Test
+  public void shouldParseIssuePage() throws Exception {
+    SonarWebServiceClient.IssuePage page = SonarWebServiceClient.parseIssuePage("{\"maxResultsReached\":false,"
+      + "\"paging\":{\"pageIndex\":1,\"pageSize\":2,\"total\":3},"
+      + "\"issues\":[{\"key\":\"ABCD\",\"status\":\"OPEN\",\"attr\":{\"jira-issue-key\":\"TEST-1\"}},"
+      + "{\"key\":\"EFGH\",\"status\":\"OPEN\"}]}", 1, 2);
+
+    assertThat(page.isLast()).isFalse();
+    assertThat(page.isMaxResultsReached()).isFalse();
+    assertThat(page.getIssues().get(0).attribute(JiraConstants.SONAR_ISSUE_DATA_PROPERTY_KEY)).isEqualTo("TEST-1");
+    assertThat(page.getIssues().get(1).attribute(JiraConstants.SONAR_ISSUE_DATA_PROPERTY_KEY)).isNull();
+
+    page = SonarWebServiceClient.parseIssuePage("{\"maxResultsReached\":true,\"paging\":{\"pageIndex\":2,\"pageSize\":2,\"total\":3},"
+      + "\"issues\":[{\"key\":\"IJKL\",\"status\":\"OPEN\"}]}", 2, 2);
+    assertThat(page.isLast()).isTrue();
+    assertThat(page.isMaxResultsReached()).isTrue();
+  }
+
+  @Test
+  public void shouldParseProjectKeys() throws Exception {
+    assertThat(SonarWebServiceClient.parseProjectKeys("[{\"id\":1,\"key\":\"org.codehaus:struts\",\"qualifier\":\"TRK\"}]"))
+      .containsExactly("org.codehaus:struts");
+  }
+
+  @Test(expected = IOException.class)
+  public void shouldFailOnUnexpectedResponse() throws Exception {
+    SonarWebServiceClient.parseIssues("<html>Login</html>");
+  }
+}
@@ -0,0 +1,572 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.soap;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringEscapeUtils;
+
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-process stand-in for the <code>jirasoapservice-v2</code> endpoint of a JIRA server, so that the sensor and the issue
+ * creator can be run, and load tested, without network access.
+ * <p/>
+ * The server speaks HTTP 1.1 with keep-alive, compresses its responses when the client accepts gzip, and answers the
+ * operations used by the plugin with RPC/encoded responses shaped like the ones of JIRA, multiRef elements included:
+ * <ul>
+ * <li>issues are synthetic, see {@link #setIssueCount(int)}: their priority, status, type, assignee, component and dates
+ * only depend on their index, so that two runs give the same measures. JQL queries are not evaluated, every search
+ * matches all the issues;</li>
+ * <li>a latency can be added before each response, see {@link #setLatency(long)};</li>
+ * <li>the response of an operation can be replaced with a recorded one, see {@link #replay(String, String)}.</li>
+ * </ul>
+ * Unknown operations are answered with a SOAP fault.
+ */
+public class FakeJiraServer implements Runnable {
+
+  public static final String TOKEN = "token";
+  public static final String PROJECT_KEY = "FAKE";
+  public static final String FILTER_ID = "10000";
+  public static final String FILTER_NAME = "Fake issues";
+  public static final String VERSION = "5.2.11";
+
+  static final String[] PRIORITY_IDS = {"1", "2", "3", "4", "5"};
+  static final String[] PRIORITY_NAMES = {"Blocker", "Critical", "Major", "Minor", "Trivial"};
+  static final String[] STATUS_IDS = {"1", "3", "4", "5", "6"};
+  static final String[] STATUS_NAMES = {"Open", "In Progress", "Reopened", "Resolved", "Closed"};
+  static final String[] TYPE_IDS = {"1", "2", "3", "4"};
+  static final String[] TYPE_NAMES = {"Bug", "New Feature", "Task", "Improvement"};
+  static final String[] SUB_TASK_TYPE_IDS = {"5"};
+  static final String[] SUB_TASK_TYPE_NAMES = {"Sub-task"};
+
+  private static final String SOAP_NAMESPACE = "http://soap.rpc.jira.atlassian.com";
+  private static final String BEANS_NAMESPACE = "http://beans.soap.rpc.jira.atlassian.com";
+  private static final String ENCODING_STYLE = "http://schemas.xmlsoap.org/soap/encoding/";
+  private static final Pattern OPERATION = Pattern.compile("Body>\\s*<(?:[\\w-]+:)?(\\w+)");
+  private static final Pattern PARAMETER = Pattern.compile("<in(\\d+)(?:\\s[^>]*)?>([^<]*)</in\\1>");
+  private static final long HOUR = 60L * 60L * 1000L;
+  // 2013-01-01T00:00:00Z, issues are created one hour apart before this date
+  private static final long FIRST_ISSUE_DATE = 1356998400000L;
+
+  private final ServerSocket serverSocket;
+  private final AtomicInteger connections = new AtomicInteger();
+  private final AtomicInteger requests = new AtomicInteger();
+  private final AtomicInteger compressedResponses = new AtomicInteger();
+  private final ConcurrentMap<String, AtomicInteger> requestsByOperation = Maps.newConcurrentMap();
+  private final Map<String, String> recordedResponses = Maps.newConcurrentMap();
+  private final List<String> createdIssues = Collections.synchronizedList(Lists.<String>newArrayList());
+  private final List<String> comments = Collections.synchronizedList(Lists.<String>newArrayList());
+  private volatile int issueCount;
+  private volatile long latencyMillis;
+
+  public FakeJiraServer() throws IOException {
+    serverSocket = new ServerSocket(0);
+    Thread thread = new Thread(this, "fake-jira");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Base URL of the server, the value of the <code>sonar.jira.url</code> property.
+   */
+  public String getServerUrl() {
+    return "http://localhost:" + serverSocket.getLocalPort();
+  }
+
+  /**
+   * URL of the SOAP service.
+   */
+  public URL getUrl() throws IOException {
+    return new URL(getServerUrl() + "/rpc/soap/jirasoapservice-v2");
+  }
+
+  public FakeJiraServer setIssueCount(int issueCount) {
+    this.issueCount = issueCount;
+    return this;
+  }
+
+  /**
+   * Time to wait before answering each request.
+   */
+  public FakeJiraServer setLatency(long latencyMillis) {
+    this.latencyMillis = latencyMillis;
+    return this;
+  }
+
+  /**
+   * Answers the operation with the given SOAP envelope, for example a response recorded from a real JIRA server,
+   * instead of generating it.
+   */
+  public FakeJiraServer replay(String operation, String response) {
+    recordedResponses.put(operation, response);
+    return this;
+  }
+
+  /**
+   * Replays the responses recorded in the directory, one file per operation named after the operation,
+   * for example <code>getPriorities.xml</code>.
+   */
+  public FakeJiraServer replay(File directory) throws IOException {
+    for (File file : FileUtils.listFiles(directory, new String[] {"xml"}, false)) {
+      replay(FilenameUtils.getBaseName(file.getName()), FileUtils.readFileToString(file, "UTF-8"));
+    }
+    return this;
+  }
+
+  public int getConnections() {
+    return connections.get();
+  }
+
+  public int getRequests() {
+    return requests.get();
+  }
+
+  public int getRequests(String operation) {
+    AtomicInteger count = requestsByOperation.get(operation);
+    return count != null ? count.get() : 0;
+  }
+
+  public int getCompressedResponses() {
+    return compressedResponses.get();
+  }
+
+  /**
+   * Summaries of the issues created with <code>createIssue</code>, in order of creation.
+   */
+  public List<String> getCreatedIssues() {
+    synchronized (createdIssues) {
+      return ImmutableList.copyOf(createdIssues);
+    }
+  }
+
+  /**
+   * Comments added with <code>addComment</code>, as <code>issue key: body</code>.
+   */
+  public List<String> getComments() {
+    synchronized (comments) {
+      return ImmutableList.copyOf(comments);
+    }
+  }
+
+  public void stop() {
+    IOUtils.closeQuietly(serverSocket);
+  }
+
+  public void run() {
+    try {
+      while (true) {
+        final Socket socket = serverSocket.accept();
+        connections.incrementAndGet();
+        Thread handler = new Thread(new Runnable() {
+          public void run() {
+            serve(socket);
+          }
+        }, "fake-jira-connection");
+        handler.setDaemon(true);
+        handler.start();
+      }
+    } catch (IOException e) {
+      // stopped
+    }
+  }
+
+  private void serve(Socket socket) {
+    try {
+      InputStream input = new BufferedInputStream(socket.getInputStream());
+      OutputStream output = socket.getOutputStream();
+      String requestLine = readLine(input);
+      while (requestLine != null) {
+        int contentLength = -1;
+        boolean chunked = false;
+        boolean gzip = false;
+        String header = readLine(input);
+        while (header != null && header.length() > 0) {
+          String lower = header.toLowerCase();
+          if (lower.startsWith("content-length:")) {
+            contentLength = Integer.parseInt(header.substring("content-length:".length()).trim());
+          } else if (lower.startsWith("transfer-encoding:") && lower.contains("chunked")) {
+            chunked = true;
+          } else if (lower.startsWith("accept-encoding:") && lower.contains("gzip")) {
+            gzip = true;
+          }
+          header = readLine(input);
+        }
+        String request = new String(readBody(input, contentLength, chunked), "UTF-8");
+        requests.incrementAndGet();
+        sleep();
+        respond(output, request, gzip);
+        requestLine = readLine(input);
+      }
+    } catch (IOException e) {
+      // connection closed by the client
+    } finally {
+      IOUtils.closeQuietly(socket);
+    }
+  }
+
+  private void sleep() {
+    if (latencyMillis > 0) {
+      try {
+        Thread.sleep(latencyMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void respond(OutputStream output, String request, boolean gzip) throws IOException {
+    Matcher matcher = OPERATION.matcher(request);
+    String operation = matcher.find() ? matcher.group(1) : "";
+    AtomicInteger count = requestsByOperation.get(operation);
+    if (count == null) {
+      requestsByOperation.putIfAbsent(operation, new AtomicInteger());
+      count = requestsByOperation.get(operation);
+    }
+    count.incrementAndGet();
+
+    String status = "200 OK";
+    String response = recordedResponses.get(operation);
+    if (response == null) {
+      response = answer(operation, getParameters(request), request);
+      if (response == null) {
+        status = "500 Internal Server Error";
+        response = fault("No such operation '" + operation + "'");
+      }
+    }
+    byte[] body = response.getBytes("UTF-8");
+    String encoding = "";
+    if (gzip) {
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      GZIPOutputStream gzipOutput = new GZIPOutputStream(compressed);
+      gzipOutput.write(body);
+      gzipOutput.close();
+      body = compressed.toByteArray();
+      encoding = "Content-Encoding: gzip\r\n";
+      compressedResponses.incrementAndGet();
+    }
+    output.write(("HTTP/1.1 " + status + "\r\nContent-Type: text/xml; charset=utf-8\r\n" + encoding + "Content-Length: " + body.length + "\r\n\r\n")
+      .getBytes("UTF-8"));
+    output.write(body);
+    output.flush();
+  }
+
+  /**
+   * @return the response, or <code>null</code> if the operation is unknown
+   */
+  private String answer(String operation, List<String> parameters, String request) {
+    if ("login".equals(operation)) {
+      return response(operation, "<loginReturn xsi:type=\"xsd:string\">" + TOKEN + "</loginReturn>");
+    } else if ("logout".equals(operation)) {
+      return response(operation, "<logoutReturn xsi:type=\"xsd:boolean\">true</logoutReturn>");
+    } else if ("getServerInfo".equals(operation)) {
+      return response(operation, new Bean("RemoteServerInfo").add("baseUrl", getServerUrl()).add("buildNumber", "850").add("edition", "Enterprise")
+        .add("version", VERSION));
+    } else if ("getPriorities".equals(operation)) {
+      return response(operation, constants("RemotePriority", PRIORITY_IDS, PRIORITY_NAMES), "RemotePriority");
+    } else if ("getStatuses".equals(operation)) {
+      return response(operation, constants("RemoteStatus", STATUS_IDS, STATUS_NAMES), "RemoteStatus");
+    } else if ("getIssueTypes".equals(operation)) {
+      return response(operation, issueTypes(TYPE_IDS, TYPE_NAMES, false), "RemoteIssueType");
+    } else if ("getSubTaskIssueTypes".equals(operation)) {
+      return response(operation, issueTypes(SUB_TASK_TYPE_IDS, SUB_TASK_TYPE_NAMES, true), "RemoteIssueType");
+    } else if ("getFavouriteFilters".equals(operation) || "getSavedFilters".equals(operation)) {
+      return response(operation, new Bean[] {new Bean("RemoteFilter").add("author", "admin").add("id", FILTER_ID).add("name", FILTER_NAME)}, "RemoteFilter");
+    } else if ("getIssueCountForFilter".equals(operation)) {
+      return response(operation, "<getIssueCountForFilterReturn xsi:type=\"xsd:long\">" + issueCount + "</getIssueCountForFilterReturn>");
+    } else if ("getIssuesFromFilter".equals(operation)) {
+      return response(operation, issues(0, issueCount), "RemoteIssue");
+    } else if ("getIssuesFromFilterWithLimit".equals(operation)) {
+      return response(operation, issues(Integer.parseInt(parameters.get(2)), Integer.parseInt(parameters.get(3))), "RemoteIssue");
+    } else if ("getIssuesFromJqlSearch".equals(operation)) {
+      return response(operation, issues(0, Integer.parseInt(parameters.get(2))), "RemoteIssue");
+    } else if ("getResolutionDateByKey".equals(operation)) {
+      return response(operation, resolutionDate(parameters.get(1)));
+    } else if ("createIssue".equals(operation)) {
+      return response(operation, createIssue(request));
+    } else if ("addComment".equals(operation)) {
+      comments.add(parameters.get(1) + ": " + getField(request, "body"));
+      return response(operation, "");
+    }
+    return null;
+  }
+
+  private Bean[] issues(int offset, int maxNumResults) {
+    int end = (int) Math.min((long) offset + maxNumResults, issueCount);
+    Bean[] issues = new Bean[Math.max(0, end - offset)];
+    for (int i = 0; i < issues.length; i++) {
+      issues[i] = issue(offset + i);
+    }
+    return issues;
+  }
+
+  private static Bean issue(int index) {
+    String status = STATUS_IDS[index % STATUS_IDS.length];
+    boolean resolved = "5".equals(status) || "6".equals(status);
+    Bean component = new Bean("RemoteComponent").add("id", String.valueOf(100 + index % 3)).add("name", "Component " + index % 3);
+    return new Bean("RemoteIssue")
+      .add("assignee", index % 4 == 0 ? null : "user" + index % 10)
+      .add("components", new Bean[] {component})
+      .add("created", date(created(index)))
+      .add("id", String.valueOf(10000 + index))
+      .add("key", PROJECT_KEY + "-" + (index + 1))
+      .add("priority", PRIORITY_IDS[index % PRIORITY_IDS.length])
+      .add("project", PROJECT_KEY)
+      .add("resolution", resolved ? "1" : null)
+      .add("status", status)
+      .add("summary", "Fake issue " + (index + 1))
+      .add("type", TYPE_IDS[index % TYPE_IDS.length])
+      .add("updated", date(created(index) + 2 * HOUR));
+  }
+
+  private static long created(int index) {
+    return FIRST_ISSUE_DATE - index * HOUR;
+  }
+
+  private String resolutionDate(String issueKey) {
+    int index = Integer.parseInt(issueKey.substring(issueKey.lastIndexOf('-') + 1)) - 1;
+    return "<getResolutionDateByKeyReturn xsi:type=\"xsd:dateTime\">" + date(created(index) + 24 * HOUR) + "</getResolutionDateByKeyReturn>";
+  }
+
+  private Bean createIssue(String request) {
+    String summary = getField(request, "summary");
+    String key;
+    synchronized (createdIssues) {
+      createdIssues.add(summary);
+      key = PROJECT_KEY + "-" + (issueCount + createdIssues.size());
+    }
+    return new Bean("RemoteIssue").add("key", key).add("project", getField(request, "project")).add("summary", summary)
+      .add("priority", getField(request, "priority")).add("type", getField(request, "type")).add("status", "1");
+  }
+
+  private static Bean[] constants(String type, String[] ids, String[] names) {
+    Bean[] constants = new Bean[ids.length];
+    for (int i = 0; i < ids.length; i++) {
+      constants[i] = new Bean(type).add("description", names[i]).add("id", ids[i]).add("name", names[i]);
+    }
+    return constants;
+  }
+
+  private static Bean[] issueTypes(String[] ids, String[] names, boolean subTask) {
+    Bean[] types = constants("RemoteIssueType", ids, names);
+    for (Bean type : types) {
+      type.add("subTask", subTask);
+    }
+    return types;
+  }
+
+  private static String getField(String request, String field) {
+    Matcher matcher = Pattern.compile("<" + field + "(?:\\s[^>]*)?>([^<]*)</" + field + ">").matcher(request);
+    return matcher.find() ? StringEscapeUtils.unescapeXml(matcher.group(1)) : null;
+  }
+
+  private static List<String> getParameters(String request) {
+    List<String> parameters = Lists.newArrayList();
+    Matcher matcher = PARAMETER.matcher(request);
+    while (matcher.find()) {
+      int index = Integer.parseInt(matcher.group(1));
+      while (parameters.size() <= index) {
+        parameters.add(null);
+      }
+      parameters.set(index, StringEscapeUtils.unescapeXml(matcher.group(2)));
+    }
+    return parameters;
+  }
+
+  private static byte[] readBody(InputStream input, int contentLength, boolean chunked) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream(Math.max(contentLength, 256));
+    if (chunked) {
+      int size = Integer.parseInt(readLine(input).trim(), 16);
+      while (size > 0) {
+        copy(input, body, size);
+        readLine(input);
+        size = Integer.parseInt(readLine(input).trim(), 16);
+      }
+      readLine(input);
+    } else if (contentLength > 0) {
+      copy(input, body, contentLength);
+    }
+    return body.toByteArray();
+  }
+
+  private static void copy(InputStream input, OutputStream output, int length) throws IOException {
+    byte[] buffer = new byte[4096];
+    int remaining = length;
+    while (remaining > 0) {
+      int read = input.read(buffer, 0, Math.min(buffer.length, remaining));
+      if (read < 0) {
+        throw new IOException("Unexpected end of stream");
+      }
+      output.write(buffer, 0, read);
+      remaining -= read;
+    }
+  }
+
+  private static String readLine(InputStream input) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int b = input.read();
+    if (b < 0) {
+      return null;
+    }
+    while (b >= 0 && b != '\n') {
+      if (b != '\r') {
+        line.write(b);
+      }
+      b = input.read();
+    }
+    return line.toString("UTF-8");
+  }
+
+  private static String date(long time) {
+    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    return format.format(new Date(time));
+  }
+
+  private static String fault(String message) {
+    return envelopeStart() + "<soapenv:Fault><faultcode>soapenv:Server.userException</faultcode><faultstring>"
+      + StringEscapeUtils.escapeXml(message) + "</faultstring></soapenv:Fault>" + envelopeEnd();
+  }
+
+  private static String envelopeStart() {
+    return "<?xml version=\"1.0\" encoding=\"utf-8\"?><soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\" "
+      + "xmlns:soapenc=\"" + ENCODING_STYLE + "\" xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\" "
+      + "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"><soapenv:Body>";
+  }
+
+  private static String envelopeEnd() {
+    return "</soapenv:Body></soapenv:Envelope>";
+  }
+
+  private static String response(String operation, String returnValue) {
+    return envelopeStart() + "<ns1:" + operation + "Response soapenv:encodingStyle=\"" + ENCODING_STYLE + "\" xmlns:ns1=\"" + SOAP_NAMESPACE + "\">"
+      + returnValue + "</ns1:" + operation + "Response>" + envelopeEnd();
+  }
+
+  private static String response(String operation, Bean bean) {
+    Writer writer = new Writer();
+    String returnValue = "<" + operation + "Return href=\"#" + writer.reference(bean) + "\"/>";
+    return envelopeStart() + "<ns1:" + operation + "Response soapenv:encodingStyle=\"" + ENCODING_STYLE + "\" xmlns:ns1=\"" + SOAP_NAMESPACE + "\">"
+      + returnValue + "</ns1:" + operation + "Response>" + writer.multiRefs() + envelopeEnd();
+  }
+
+  private static String response(String operation, Bean[] beans, String type) {
+    Writer writer = new Writer();
+    StringBuilder returnValue = new StringBuilder(64 + beans.length * 32);
+    writer.array(returnValue, operation + "Return", type, beans);
+    return envelopeStart() + "<ns1:" + operation + "Response soapenv:encodingStyle=\"" + ENCODING_STYLE + "\" xmlns:ns1=\"" + SOAP_NAMESPACE + "\">"
+      + returnValue + "</ns1:" + operation + "Response>" + writer.multiRefs() + envelopeEnd();
+  }
+
+  /**
+   * Values of the fields of a SOAP bean, in order. Values are strings, booleans or arrays of beans.
+   */
+  private static final class Bean {
+    private final String type;
+    private final Map<String, Object> fields = Maps.newLinkedHashMap();
+
+    Bean(String type) {
+      this.type = type;
+    }
+
+    Bean add(String field, Object value) {
+      fields.put(field, value);
+      return this;
+    }
+  }
+
+  /**
+   * Serializes beans as multiRef elements, like the Axis server of JIRA.
+   */
+  private static final class Writer {
+    private final StringBuilder multiRefs = new StringBuilder();
+    private final List<Bean> pending = Lists.newArrayList();
+    private int nextId;
+
+    String reference(Bean bean) {
+      pending.add(bean);
+      return "id" + nextId++;
+    }
+
+    void array(StringBuilder output, String element, String type, Bean[] beans) {
+      output.append('<').append(element).append(" soapenc:arrayType=\"ns2:").append(type).append('[').append(beans.length)
+        .append("]\" xsi:type=\"soapenc:Array\" xmlns:ns2=\"").append(BEANS_NAMESPACE).append("\">");
+      for (Bean bean : beans) {
+        output.append('<').append(element).append(" href=\"#").append(reference(bean)).append("\"/>");
+      }
+      output.append("</").append(element).append('>');
+    }
+
+    String multiRefs() {
+      // beans are written in order of reference, the fields of a bean may reference new beans
+      for (int id = 0; id < pending.size(); id++) {
+        Bean bean = pending.get(id);
+        multiRefs.append("<multiRef id=\"id").append(id).append("\" soapenc:root=\"0\" soapenv:encodingStyle=\"").append(ENCODING_STYLE)
+          .append("\" xsi:type=\"ns3:").append(bean.type).append("\" xmlns:ns3=\"").append(BEANS_NAMESPACE).append("\">");
+        for (Map.Entry<String, Object> field : bean.fields.entrySet()) {
+          field(field.getKey(), field.getValue());
+        }
+        multiRefs.append("</multiRef>");
+      }
+      return multiRefs.toString();
+    }
+
+    private void field(String name, Object value) {
+      if (value == null) {
+        multiRefs.append('<').append(name).append(" xsi:type=\"xsd:string\" xsi:nil=\"true\"/>");
+      } else if (value instanceof Bean[]) {
+        Bean[] beans = (Bean[]) value;
+        array(multiRefs, name, beans.length > 0 ? beans[0].type : "anyType", beans);
+      } else {
+        String type = value instanceof Boolean ? "xsd:boolean" : (isDate(name) ? "xsd:dateTime" : "xsd:string");
+        multiRefs.append('<').append(name).append(" xsi:type=\"").append(type).append("\">")
+          .append(StringEscapeUtils.escapeXml(value.toString())).append("</").append(name).append('>');
+      }
+    }
+
+    private static boolean isDate(String field) {
+      return "created".equals(field) || "updated".equals(field);
+    }
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.soap;
+
+import com.atlassian.jira.rpc.soap.client.RemoteFilter;
+import com.atlassian.jira.rpc.soap.client.RemoteIssue;
+import com.atlassian.jira.rpc.soap.client.RemoteIssueType;
+import com.atlassian.jira.rpc.soap.client.RemotePriority;
+import com.google.common.collect.Lists;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.plugins.jira.client.RemoteIssueHandler;
+
+import java.io.File;
+import java.rmi.RemoteException;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+
+public class FakeJiraServerTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private FakeJiraServer server;
+  private JiraHttpTransport transport;
+  private SoapJiraClient client;
+  private final List<RemoteIssue> issues = Lists.newArrayList();
+  private final RemoteIssueHandler collector = new RemoteIssueHandler() {
+    public void handle(RemoteIssue issue) {
+      issues.add(issue);
+    }
+  };
+
+  @Before
+  public void start() throws Exception {
+    server = new FakeJiraServer().setIssueCount(25);
+    transport = new JiraHttpTransport(2, 0L, true);
+    client = new SoapJiraClient(new JiraSoapSession(server.getUrl(), transport), null, null);
+    client.connect("foo", "bar");
+  }
+
+  @After
+  public void stop() {
+    transport.shutdown();
+    server.stop();
+  }
+
+  @Test
+  public void shouldServeMetadata() throws Exception {
+    RemotePriority[] priorities = client.getPriorities();
+    assertThat(priorities).hasSize(5);
+    assertThat(priorities[0].getId()).isEqualTo("1");
+    assertThat(priorities[0].getName()).isEqualTo("Blocker");
+    assertThat(client.getStatuses()).hasSize(5);
+    RemoteIssueType[] subTaskTypes = client.getSubTaskIssueTypes();
+    assertThat(subTaskTypes).hasSize(1);
+    assertThat(subTaskTypes[0].isSubTask()).isTrue();
+    assertThat(client.getIssueTypes()[0].isSubTask()).isFalse();
+    assertThat(client.getServerInfo().getVersion()).isEqualTo(FakeJiraServer.VERSION);
+
+    RemoteFilter[] filters = client.getFavouriteFilters();
+    assertThat(filters).hasSize(1);
+    assertThat(filters[0].getId()).isEqualTo(FakeJiraServer.FILTER_ID);
+    assertThat(filters[0].getName()).isEqualTo(FakeJiraServer.FILTER_NAME);
+    assertThat(client.getIssueCountForFilter(FakeJiraServer.FILTER_ID)).isEqualTo(25L);
+  }
+
+  @Test
+  public void shouldGenerateSameIssuesWithSoapClientAndIssueStream() throws Exception {
+    assertThat(client.getIssuesFromFilter(FakeJiraServer.FILTER_ID, collector)).isEqualTo(25);
+    List<RemoteIssue> decodedBySoapClient = Lists.newArrayList(issues);
+    issues.clear();
+    JiraIssueStream stream = new JiraIssueStream(server.getUrl(), transport, IssueStreamDecoder.DEFAULT_FIELDS);
+    assertThat(stream.getIssuesFromFilter(FakeJiraServer.TOKEN, FakeJiraServer.FILTER_ID, collector)).isEqualTo(25);
+
+    assertThat(issues).hasSize(25);
+    for (int i = 0; i < 25; i++) {
+      RemoteIssue expected = decodedBySoapClient.get(i);
+      RemoteIssue issue = issues.get(i);
+      assertThat(issue.getKey()).isEqualTo(expected.getKey());
+      assertThat(issue.getPriority()).isEqualTo(expected.getPriority());
+      assertThat(issue.getStatus()).isEqualTo(expected.getStatus());
+      assertThat(issue.getResolution()).isEqualTo(expected.getResolution());
+      assertThat(issue.getAssignee()).isEqualTo(expected.getAssignee());
+      assertThat(issue.getCreated().getTimeInMillis()).isEqualTo(expected.getCreated().getTimeInMillis());
+      assertThat(issue.getComponents()[0].getName()).isEqualTo(expected.getComponents()[0].getName());
+    }
+    assertThat(issues.get(0).getKey()).isEqualTo("FAKE-1");
+    assertThat(issues.get(0).getCreated().getTimeInMillis()).isEqualTo(1356998400000L);
+  }
+
+  @Test
+  public void shouldPageIssues() throws Exception {
+    assertThat(client.getIssuesFromFilterWithLimit(FakeJiraServer.FILTER_ID, 0, 10, collector)).isEqualTo(10);
+    assertThat(client.getIssuesFromFilterWithLimit(FakeJiraServer.FILTER_ID, 20, 10, collector)).isEqualTo(5);
+    assertThat(client.getIssuesFromJqlSearch("project = FAKE", 3, collector)).isEqualTo(3);
+
+    assertThat(issues.get(10).getKey()).isEqualTo("FAKE-21");
+    assertThat(issues.get(15).getKey()).isEqualTo("FAKE-1");
+  }
+
+  @Test
+  public void shouldGiveResolutionDateOneDayAfterCreation() throws Exception {
+    client.getIssuesFromFilterWithLimit(FakeJiraServer.FILTER_ID, 3, 1, collector);
+
+    assertThat(issues.get(0).getResolution()).isEqualTo("1");
+    assertThat(client.getResolutionDateByKey("FAKE-4").getTimeInMillis() - issues.get(0).getCreated().getTimeInMillis()).isEqualTo(24L * 3600L * 1000L);
+  }
+
+  @Test
+  public void shouldCreateIssues() throws Exception {
+    RemoteIssue issue = new RemoteIssue();
+    issue.setProject("SONAR");
+    issue.setSummary("Sonar Issue #ABCD - Avoid cycle");
+    issue.setPriority("3");
+
+    RemoteIssue created = client.createIssue(issue);
+
+    assertThat(created.getKey()).isEqualTo("FAKE-26");
+    assertThat(created.getSummary()).isEqualTo("Sonar Issue #ABCD - Avoid cycle");
+    assertThat(created.getPriority()).isEqualTo("3");
+    assertThat(server.getCreatedIssues()).containsExactly("Sonar Issue #ABCD - Avoid cycle");
+    assertThat(server.getRequests("createIssue")).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldReplayRecordedResponses() throws Exception {
+    File recordings = temp.newFolder();
+    FileUtils.write(new File(recordings, "getPriorities.xml"), "<?xml version=\"1.0\" encoding=\"utf-8\"?>"
+      + "<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns:soapenc=\"http://schemas.xmlsoap.org/soap/encoding/\" "
+      + "xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"><soapenv:Body>"
+      + "<ns1:getPrioritiesResponse soapenv:encodingStyle=\"http://schemas.xmlsoap.org/soap/encoding/\" xmlns:ns1=\"http://soap.rpc.jira.atlassian.com\">"
+      + "<getPrioritiesReturn soapenc:arrayType=\"ns2:RemotePriority[1]\" xsi:type=\"soapenc:Array\" xmlns:ns2=\"http://beans.soap.rpc.jira.atlassian.com\">"
+      + "<getPrioritiesReturn xsi:type=\"ns2:RemotePriority\"><id xsi:type=\"xsd:string\">10</id><name xsi:type=\"xsd:string\">Urgent</name>"
+      + "</getPrioritiesReturn></getPrioritiesReturn></ns1:getPrioritiesResponse></soapenv:Body></soapenv:Envelope>", "UTF-8");
+    server.replay(recordings);
+
+    RemotePriority[] priorities = client.getPriorities();
+
+    assertThat(priorities).hasSize(1);
+    assertThat(priorities[0].getName()).isEqualTo("Urgent");
+  }
+
+  @Test
+  public void shouldAnswerUnknownOperationsWithFault() throws Exception {
+    try {
+      client.getSession().getJiraSoapService().getVersions(FakeJiraServer.TOKEN, "FAKE");
+      fail();
+    } catch (RemoteException e) {
+      assertThat(e.getMessage()).contains("getVersions");
+    }
+  }
+
+  @Test
+  public void shouldWaitBeforeAnswering() throws Exception {
+    server.setLatency(200L);
+    long start = System.currentTimeMillis();
+    client.getPriorities();
+
+    assertThat(System.currentTimeMillis() - start).isGreaterThanOrEqualTo(200L);
+  }
+}
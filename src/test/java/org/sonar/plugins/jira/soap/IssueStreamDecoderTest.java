@@ -0,0 +1,189 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.soap;
+
+import com.atlassian.jira.rpc.soap.client.RemoteAuthenticationException;
+import com.atlassian.jira.rpc.soap.client.RemoteIssue;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import org.apache.axis.AxisFault;
+import org.junit.Test;
+import org.sonar.plugins.jira.client.RemoteIssueHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+
+public class IssueStreamDecoderTest {
+
+  private static final String ENVELOPE_START = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+    + "<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\" "
+    + "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xmlns:soapenc=\"http://schemas.xmlsoap.org/soap/encoding/\"><soapenv:Body>";
+  private static final String ENVELOPE_END = "</soapenv:Body></soapenv:Envelope>";
+
+  // format of JIRA responses: issues and components are multi-referenced elements
+  private static final String MULTI_REF_RESPONSE = ENVELOPE_START
+    + "<ns1:getIssuesFromFilterResponse soapenv:encodingStyle=\"http://schemas.xmlsoap.org/soap/encoding/\" xmlns:ns1=\"http://soap.rpc.jira.atlassian.com\">"
+    + "<getIssuesFromFilterReturn soapenc:arrayType=\"ns2:RemoteIssue[2]\" xsi:type=\"soapenc:Array\" xmlns:ns2=\"http://beans.soap.rpc.jira.atlassian.com\">"
+    + "<getIssuesFromFilterReturn href=\"#id0\"/><getIssuesFromFilterReturn href=\"#id1\"/>"
+    + "</getIssuesFromFilterReturn></ns1:getIssuesFromFilterResponse>"
+    + "<multiRef id=\"id0\" soapenc:root=\"0\" soapenv:encodingStyle=\"http://schemas.xmlsoap.org/soap/encoding/\" xsi:type=\"ns3:RemoteIssue\" "
+    + "xmlns:ns3=\"http://beans.soap.rpc.jira.atlassian.com\">"
+    + "<affectsVersions soapenc:arrayType=\"ns3:RemoteVersion[1]\" xsi:type=\"soapenc:Array\"><affectsVersions href=\"#id3\"/></affectsVersions>"
+    + "<assignee xsi:type=\"xsd:string\">bob</assignee>"
+    + "<attachmentNames soapenc:arrayType=\"xsd:string[1]\" xsi:type=\"soapenc:Array\"><attachmentNames xsi:type=\"xsd:string\">log.txt</attachmentNames></attachmentNames>"
+    + "<components soapenc:arrayType=\"ns3:RemoteComponent[1]\" xsi:type=\"soapenc:Array\"><components href=\"#id2\"/></components>"
+    + "<created xsi:type=\"xsd:dateTime\">2013-05-01T10:00:00.000Z</created>"
+    + "<customFieldValues soapenc:arrayType=\"ns3:RemoteCustomFieldValue[0]\" xsi:type=\"soapenc:Array\"/>"
+    + "<description xsi:type=\"xsd:string\">A &lt;long&gt; description</description>"
+    + "<id xsi:type=\"xsd:string\">10000</id>"
+    + "<key xsi:type=\"xsd:string\">SONAR-1</key>"
+    + "<priority xsi:type=\"xsd:string\">2</priority>"
+    + "<resolution xsi:type=\"xsd:string\" xsi:nil=\"true\"/>"
+    + "<status xsi:type=\"xsd:string\">1</status>"
+    + "<type xsi:type=\"xsd:string\">3</type>"
+    + "<updated xsi:type=\"xsd:dateTime\">2013-05-02T10:00:00.000Z</updated>"
+    + "</multiRef>"
+    + "<multiRef id=\"id1\" soapenc:root=\"0\" soapenv:encodingStyle=\"http://schemas.xmlsoap.org/soap/encoding/\" xsi:type=\"ns4:RemoteIssue\" "
+    + "xmlns:ns4=\"http://beans.soap.rpc.jira.atlassian.com\">"
+    + "<assignee xsi:type=\"xsd:string\" xsi:nil=\"true\"/>"
+    + "<components soapenc:arrayType=\"ns4:RemoteComponent[0]\" xsi:type=\"soapenc:Array\"/>"
+    + "<key xsi:type=\"xsd:string\">SONAR-2</key>"
+    + "<priority xsi:type=\"xsd:string\">4</priority>"
+    + "<resolution xsi:type=\"xsd:string\">1</resolution>"
+    + "</multiRef>"
+    + "<multiRef id=\"id2\" soapenc:root=\"0\" soapenv:encodingStyle=\"http://schemas.xmlsoap.org/soap/encoding/\" xsi:type=\"ns5:RemoteComponent\" "
+    + "xmlns:ns5=\"http://beans.soap.rpc.jira.atlassian.com\"><id xsi:type=\"xsd:string\">100</id><name xsi:type=\"xsd:string\">Core</name></multiRef>"
+    + "<multiRef id=\"id3\" soapenc:root=\"0\" soapenv:encodingStyle=\"http://schemas.xmlsoap.org/soap/encoding/\" xsi:type=\"ns6:RemoteVersion\" "
+    + "xmlns:ns6=\"http://beans.soap.rpc.jira.atlassian.com\"><id xsi:type=\"xsd:string\">200</id><name xsi:type=\"xsd:string\">1.0</name></multiRef>"
+    + ENVELOPE_END;
+
+  private static final String INLINE_RESPONSE = ENVELOPE_START
+    + "<ns1:getIssuesFromJqlSearchResponse xmlns:ns1=\"http://soap.rpc.jira.atlassian.com\">"
+    + "<getIssuesFromJqlSearchReturn xsi:type=\"soapenc:Array\" xmlns:ns2=\"http://beans.soap.rpc.jira.atlassian.com\">"
+    + "<item xsi:type=\"ns2:RemoteIssue\"><key>SONAR-3</key><priority>1</priority>"
+    + "<components><item xsi:type=\"ns2:RemoteComponent\"><id>101</id><name>Web</name></item></components></item>"
+    + "</getIssuesFromJqlSearchReturn></ns1:getIssuesFromJqlSearchResponse>"
+    + ENVELOPE_END;
+
+  private final List<RemoteIssue> issues = Lists.newArrayList();
+  private final RemoteIssueHandler collector = new RemoteIssueHandler() {
+    public void handle(RemoteIssue issue) {
+      issues.add(issue);
+    }
+  };
+
+  @Test
+  public void shouldReadMultiRefIssues() throws Exception {
+    int count = decode(IssueStreamDecoder.DEFAULT_FIELDS, MULTI_REF_RESPONSE);
+
+    assertThat(count).isEqualTo(2);
+    // issues with components are given once the components are read
+    assertThat(issues).hasSize(2);
+    RemoteIssue second = issues.get(0);
+    assertThat(second.getKey()).isEqualTo("SONAR-2");
+    assertThat(second.getAssignee()).isNull();
+    assertThat(second.getResolution()).isEqualTo("1");
+    assertThat(second.getComponents()).isEmpty();
+    assertThat(second.getCreated()).isNull();
+
+    RemoteIssue first = issues.get(1);
+    assertThat(first.getKey()).isEqualTo("SONAR-1");
+    assertThat(first.getPriority()).isEqualTo("2");
+    assertThat(first.getStatus()).isEqualTo("1");
+    assertThat(first.getType()).isEqualTo("3");
+    assertThat(first.getAssignee()).isEqualTo("bob");
+    assertThat(first.getResolution()).isNull();
+    assertThat(first.getCreated().getTimeInMillis()).isEqualTo(1367402400000L);
+    assertThat(first.getUpdated().getTimeInMillis()).isEqualTo(1367488800000L);
+    assertThat(first.getComponents()).hasSize(1);
+    assertThat(first.getComponents()[0].getId()).isEqualTo("100");
+    assertThat(first.getComponents()[0].getName()).isEqualTo("Core");
+  }
+
+  @Test
+  public void shouldSkipFieldsThatAreNotRequested() throws Exception {
+    decode(ImmutableSet.of(IssueStreamDecoder.KEY, IssueStreamDecoder.PRIORITY), MULTI_REF_RESPONSE);
+
+    assertThat(issues).hasSize(2);
+    assertThat(issues.get(0).getKey()).isEqualTo("SONAR-1");
+    assertThat(issues.get(0).getPriority()).isEqualTo("2");
+    assertThat(issues.get(0).getAssignee()).isNull();
+    assertThat(issues.get(0).getComponents()).isNull();
+    assertThat(issues.get(0).getDescription()).isNull();
+  }
+
+  @Test
+  public void shouldReadInlineIssues() throws Exception {
+    int count = decode(IssueStreamDecoder.DEFAULT_FIELDS, INLINE_RESPONSE);
+
+    assertThat(count).isEqualTo(1);
+    assertThat(issues.get(0).getKey()).isEqualTo("SONAR-3");
+    assertThat(issues.get(0).getComponents()[0].getName()).isEqualTo("Web");
+  }
+
+  @Test
+  public void shouldReadEmptyResponse() throws Exception {
+    String response = ENVELOPE_START + "<ns1:getIssuesFromFilterResponse xmlns:ns1=\"http://soap.rpc.jira.atlassian.com\">"
+      + "<getIssuesFromFilterReturn xsi:type=\"soapenc:Array\"/></ns1:getIssuesFromFilterResponse>" + ENVELOPE_END;
+
+    assertThat(decode(IssueStreamDecoder.DEFAULT_FIELDS, response)).isEqualTo(0);
+    assertThat(issues).isEmpty();
+  }
+
+  @Test
+  public void shouldThrowSameExceptionAsStubOnAuthenticationFault() throws Exception {
+    try {
+      decode(IssueStreamDecoder.DEFAULT_FIELDS, fault("com.atlassian.jira.rpc.exception.RemoteAuthenticationException: Invalid username or password."));
+      fail();
+    } catch (RemoteAuthenticationException e) {
+      assertThat(e.getFaultString()).contains("Invalid username or password.");
+    }
+  }
+
+  @Test
+  public void shouldThrowFaultOnOtherErrors() throws Exception {
+    try {
+      decode(IssueStreamDecoder.DEFAULT_FIELDS, fault("com.atlassian.jira.rpc.exception.RemoteException: Filter not found"));
+      fail();
+    } catch (AxisFault e) {
+      assertThat(e instanceof RemoteAuthenticationException).isFalse();
+      assertThat(e.getFaultString()).isEqualTo("com.atlassian.jira.rpc.exception.RemoteException: Filter not found");
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void shouldFailOnInvalidXml() throws Exception {
+    decode(IssueStreamDecoder.DEFAULT_FIELDS, ENVELOPE_START + "<unclosed>");
+  }
+
+  private static String fault(String faultString) {
+    return ENVELOPE_START + "<soapenv:Fault><faultcode>soapenv:Server.userException</faultcode><faultstring>" + faultString
+      + "</faultstring><detail/></soapenv:Fault>" + ENVELOPE_END;
+  }
+
+  private int decode(Set<String> fields, String response) throws IOException {
+    return new IssueStreamDecoder(fields).decode(new ByteArrayInputStream(response.getBytes("UTF-8")), collector);
+  }
+}
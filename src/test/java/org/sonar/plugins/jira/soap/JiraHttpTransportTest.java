@@ -0,0 +1,221 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.soap;
+
+import org.apache.axis.SimpleTargetedChain;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.api.config.PropertyDefinitions;
+import org.sonar.api.config.Settings;
+import org.sonar.plugins.jira.JiraConstants;
+import org.sonar.plugins.jira.JiraPlugin;
+import org.sonar.plugins.jira.client.JiraClient;
+import org.sonar.plugins.jira.client.JiraStatistics;
+import org.sonar.plugins.jira.client.MeteredJiraClient;
+
+import javax.xml.namespace.QName;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.rmi.RemoteException;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+
+public class JiraHttpTransportTest {
+
+  private static final String LOGIN_RESPONSE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+    + "<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\" "
+    + "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"><soapenv:Body>"
+    + "<ns1:loginResponse soapenv:encodingStyle=\"http://schemas.xmlsoap.org/soap/encoding/\" xmlns:ns1=\"http://soap.rpc.jira.atlassian.com\">"
+    + "<loginReturn xsi:type=\"xsd:string\">token</loginReturn></ns1:loginResponse></soapenv:Body></soapenv:Envelope>";
+
+  private Settings settings;
+  private JiraHttpTransport transport;
+
+  @Before
+  public void init() {
+    settings = new Settings(new PropertyDefinitions(JiraPlugin.class));
+  }
+
+  @After
+  public void shutdown() {
+    if (transport != null) {
+      transport.shutdown();
+    }
+  }
+
+  @Test
+  public void shouldShareTransportBetweenSessionsWithSameSettings() {
+    assertThat(JiraHttpTransport.get(settings)).isSameAs(JiraHttpTransport.get(settings));
+
+    settings.setProperty(JiraConstants.HTTP_MAX_CONNECTIONS_PROPERTY, 2);
+    assertThat(JiraHttpTransport.get(settings).getMaxConnectionsPerHost()).isEqualTo(2);
+  }
+
+  @Test
+  public void shouldConfigureConnectionPool() {
+    transport = new JiraHttpTransport(3, 5000L, true);
+
+    assertThat(transport.getConnectionManager().getParams().getDefaultMaxConnectionsPerHost()).isEqualTo(3);
+    assertThat(transport.getConnectionManager().getParams().getMaxTotalConnections()).isEqualTo(20);
+    assertThat(transport.getIdleTimeoutMillis()).isEqualTo(5000L);
+  }
+
+  @Test
+  public void shouldUseDefaultSettings() {
+    assertThat(JiraHttpTransport.get(settings).getMaxConnectionsPerHost()).isEqualTo(8);
+    assertThat(JiraHttpTransport.get(settings).getIdleTimeoutMillis()).isEqualTo(60000L);
+    assertThat(JiraHttpTransport.get(settings).isAcceptGzip()).isTrue();
+    assertThat(JiraHttpTransport.get(settings).getConnectTimeoutMillis()).isEqualTo(10000);
+    assertThat(JiraHttpTransport.get(settings).getReadTimeoutMillis()).isEqualTo(60000);
+  }
+
+  @Test
+  public void shouldConfigureTimeouts() {
+    transport = new JiraHttpTransport(1, 0L, false, 2000, 3000);
+
+    assertThat(transport.getConnectionManager().getParams().getConnectionTimeout()).isEqualTo(2000);
+    assertThat(transport.getConnectionManager().getParams().getSoTimeout()).isEqualTo(3000);
+  }
+
+  @Test
+  public void shouldKeepStreamConnectionsApart() {
+    transport = new JiraHttpTransport(1, 0L, false, 2000, 3000);
+
+    assertThat(transport.getStreamConnectionManager()).isNotSameAs(transport.getConnectionManager());
+    assertThat(transport.getStreamConnectionManager().getParams().getDefaultMaxConnectionsPerHost()).isEqualTo(1);
+    assertThat(transport.getStreamConnectionManager().getParams().getSoTimeout()).isEqualTo(3000);
+  }
+
+  @Test
+  public void shouldTimeOutWhenServerDoesNotAnswer() throws Exception {
+    transport = new JiraHttpTransport(1, 0L, false, 1000, 200);
+    // accepts connections but never reads the requests
+    ServerSocket silentServer = new ServerSocket(0);
+    try {
+      JiraSoapSession session = new JiraSoapSession(new URL("http://localhost:" + silentServer.getLocalPort() + "/rpc/soap/jirasoapservice-v2"),
+        transport);
+      long start = System.currentTimeMillis();
+      try {
+        session.connect("foo", "bar");
+        fail();
+      } catch (RemoteException e) {
+        assertThat(e.getCause()).isInstanceOf(SocketTimeoutException.class);
+      }
+      assertThat(System.currentTimeMillis() - start).isLessThan(10000L);
+      // Axis must not have replaced the timeout of the shared connections by its own
+      assertThat(transport.getConnectionManager().getParams().getSoTimeout()).isEqualTo(200);
+    } finally {
+      silentServer.close();
+    }
+  }
+
+  @Test
+  public void shouldSendRequestsThroughPooledSender() throws Exception {
+    transport = new JiraHttpTransport(1, 0L, false);
+
+    SimpleTargetedChain chain = (SimpleTargetedChain) transport.getEngineConfiguration().getTransport(new QName("http"));
+    KeepAliveHttpSender sender = (KeepAliveHttpSender) chain.getPivotHandler();
+    assertThat(sender.getConnectionManager()).isSameAs(transport.getConnectionManager());
+    assertThat(sender.isAcceptGzip()).isFalse();
+  }
+
+  @Test
+  public void shouldShareSoapServicesOfSameUrl() throws Exception {
+    transport = new JiraHttpTransport(1, 0L, false);
+    URL url = new URL("http://my.jira.com/rpc/soap/jirasoapservice-v2");
+
+    JiraSoapSession session = new JiraSoapSession(url, transport);
+    JiraSoapSession otherSession = new JiraSoapSession(url, transport);
+    assertThat(session.getJiraSoapService()).isSameAs(otherSession.getJiraSoapService());
+    assertThat(transport.getSoapService(new URL("http://other.jira.com/rpc/soap/jirasoapservice-v2"))).isNotSameAs(session.getJiraSoapService());
+  }
+
+  @Test
+  public void shouldDecodeCompressedResponses() throws Exception {
+    transport = new JiraHttpTransport(1, 0L, true);
+    FakeJiraServer server = new FakeJiraServer();
+    try {
+      JiraSoapSession session = new JiraSoapSession(server.getUrl(), transport);
+      session.connect("foo", "bar");
+
+      assertThat(session.getAuthenticationToken()).isEqualTo("token");
+      assertThat(server.getCompressedResponses()).isEqualTo(1);
+    } finally {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void shouldNotAskForCompressedResponsesWhenDisabled() throws Exception {
+    settings.setProperty(JiraConstants.HTTP_GZIP_PROPERTY, false);
+    transport = new JiraHttpTransport(1, 0L, settings.getBoolean(JiraConstants.HTTP_GZIP_PROPERTY));
+    FakeJiraServer server = new FakeJiraServer();
+    try {
+      JiraSoapSession session = new JiraSoapSession(server.getUrl(), transport);
+      session.connect("foo", "bar");
+
+      assertThat(session.getAuthenticationToken()).isEqualTo("token");
+      assertThat(server.getCompressedResponses()).isEqualTo(0);
+    } finally {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void shouldCountPayloadOfSoapRequests() throws Exception {
+    transport = new JiraHttpTransport(1, 0L, true);
+    FakeJiraServer server = new FakeJiraServer();
+    try {
+      server.replay("login", LOGIN_RESPONSE);
+      JiraStatistics statistics = new JiraStatistics(server.getUrl().toExternalForm());
+      JiraClient client = MeteredJiraClient.wrap(new SoapJiraClient(new JiraSoapSession(server.getUrl(), transport), null, null), settings, statistics);
+      client.connect("foo", "bar");
+
+      // sizes are counted uncompressed
+      assertThat(statistics.getOperation("connect").getRequestBytes()).isGreaterThan(100L);
+      assertThat(statistics.getOperation("connect").getResponseBytes()).isEqualTo(LOGIN_RESPONSE.length());
+    } finally {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void shouldReuseConnectionBetweenRequests() throws Exception {
+    transport = new JiraHttpTransport(2, 0L, false);
+    FakeJiraServer server = new FakeJiraServer();
+    try {
+      JiraSoapSession session = new JiraSoapSession(server.getUrl(), transport);
+      session.connect("foo", "bar");
+      session.connect("foo", "bar");
+      session.connect("foo", "bar");
+
+      assertThat(session.getAuthenticationToken()).isEqualTo("token");
+      assertThat(server.getRequests()).isEqualTo(3);
+      assertThat(server.getConnections()).isEqualTo(1);
+    } finally {
+      server.stop();
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.soap;
+
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class JiraIssueStreamTest {
+
+  @Test
+  public void shouldBuildRpcEncodedRequest() {
+    String request = JiraIssueStream.buildRequest("getIssuesFromFilterWithLimit", "token", "10", 0, 500);
+
+    assertThat(request).contains("<ns1:getIssuesFromFilterWithLimit soapenv:encodingStyle=\"http://schemas.xmlsoap.org/soap/encoding/\" "
+      + "xmlns:ns1=\"http://soap.rpc.jira.atlassian.com\">");
+    assertThat(request).contains("<in0 xsi:type=\"xsd:string\">token</in0><in1 xsi:type=\"xsd:string\">10</in1>"
+      + "<in2 xsi:type=\"xsd:int\">0</in2><in3 xsi:type=\"xsd:int\">500</in3>");
+  }
+
+  @Test
+  public void shouldEscapeParameters() {
+    String request = JiraIssueStream.buildRequest("getIssuesFromJqlSearch", "token", "priority < 3 & project = \"SONAR\"", 10);
+
+    assertThat(request).contains("<in1 xsi:type=\"xsd:string\">priority &lt; 3 &amp; project = &quot;SONAR&quot;</in1>");
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * JIRA Plugin for SonarQube
+ * Copyright (C) 2009 SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.jira.soap;
+
+import com.atlassian.jira.rpc.soap.client.JiraSoapService;
+import com.atlassian.jira.rpc.soap.client.RemoteComment;
+import com.atlassian.jira.rpc.soap.client.RemoteCustomFieldValue;
+import com.atlassian.jira.rpc.soap.client.RemoteIssue;
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sonar.plugins.jira.client.JiraClient;
+import org.sonar.plugins.jira.client.RemoteIssueHandler;
+import org.sonar.plugins.jira.rest.RestJiraClient;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class SoapJiraClientTest {
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private JiraSoapService service;
+  private JiraSoapSession session;
+  private List<RemoteIssue> handledIssues;
+  private RemoteIssueHandler handler;
+
+  @Before
+  public void init() {
+    service = mock(JiraSoapService.class);
+    session = mock(JiraSoapSession.class);
+    when(session.getJiraSoapService()).thenReturn(service);
+    when(session.getAuthenticationToken()).thenReturn("token");
+    handledIssues = Lists.newArrayList();
+    handler = new RemoteIssueHandler() {
+      public void handle(RemoteIssue issue) {
+        handledIssues.add(issue);
+      }
+    };
+  }
+
+  @Test
+  public void shouldGiveDownloadedIssuesToHandler() throws Exception {
+    RemoteIssue issue = new RemoteIssue();
+    when(service.getIssuesFromFilterWithLimit("token", "1", 0, 2)).thenReturn(new RemoteIssue[] {issue});
+
+    int count = new SoapJiraClient(session, null, null).getIssuesFromFilterWithLimit("1", 0, 2, handler);
+
+    assertThat(count).isEqualTo(1);
+    assertThat(handledIssues).containsExactly(issue);
+  }
+
+  @Test
+  public void shouldNotSendLabelsOfNewIssues() throws Exception {
+    RemoteCustomFieldValue labels = new RemoteCustomFieldValue(JiraClient.LABELS_FIELD, null, new String[] {"sonar-ABCD"});
+    RemoteCustomFieldValue customField = new RemoteCustomFieldValue("customfield_10000", null, new String[] {"value"});
+    final RemoteIssue issue = new RemoteIssue();
+    issue.setCustomFieldValues(new RemoteCustomFieldValue[] {labels, customField});
+    final List<RemoteCustomFieldValue> sent = Lists.newArrayList();
+    when(service.createIssue(eq("token"), eq(issue))).thenAnswer(new Answer<RemoteIssue>() {
+      public RemoteIssue answer(InvocationOnMock invocation) {
+        sent.addAll(Arrays.asList(issue.getCustomFieldValues()));
+        return issue;
+      }
+    });
+
+    new SoapJiraClient(session, null, null).createIssue(issue);
+
+    assertThat(sent).containsExactly(customField);
+    assertThat(issue.getCustomFieldValues()).containsOnly(labels, customField);
+  }
+
+  @Test
+  public void shouldAddComment() throws Exception {
+    new SoapJiraClient(session, null, null).addComment("TEST-1", "Issue detail");
+
+    ArgumentCaptor<RemoteComment> comment = ArgumentCaptor.forClass(RemoteComment.class);
+    verify(service).addComment(eq("token"), eq("TEST-1"), comment.capture());
+    assertThat(comment.getValue().getBody()).isEqualTo("Issue detail");
+  }
+
+  @Test
+  public void shouldNotFailIfNoIssueIsReturned() throws Exception {
+    assertThat(new SoapJiraClient(session, null, null).getIssuesFromJqlSearch("project = SONAR", 10, handler)).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldStreamIssuesWhenEnabled() throws Exception {
+    JiraIssueStream issueStream = mock(JiraIssueStream.class);
+    when(issueStream.getIssuesFromFilterWithLimit("token", "1", 2, 2, handler)).thenReturn(1);
+    SoapJiraClient client = new SoapJiraClient(session, issueStream, null);
+
+    assertThat(client.getIssuesFromFilterWithLimit("1", 2, 2, handler)).isEqualTo(1);
+    client.getIssuesFromJqlSearch("project = SONAR", Integer.MAX_VALUE, handler);
+
+    verify(issueStream).getIssuesFromJqlSearch("token", "project = SONAR", Integer.MAX_VALUE, handler);
+    verifyZeroInteractions(service);
+  }
+
+  @Test
+  public void shouldSendCountOnlyQueriesToRestApi() throws Exception {
+    RestJiraClient restClient = mock(RestJiraClient.class);
+    when(restClient.countIssues("project = SONAR")).thenReturn(4L);
+    SoapJiraClient client = new SoapJiraClient(session, null, restClient);
+
+    client.connect("foo", "bar");
+    assertThat(client.countIssues("project = SONAR")).isEqualTo(4L);
+
+    verify(session).connect("foo", "bar");
+    verify(restClient).setCredentials("foo", "bar");
+  }
+
+  @Test
+  public void shouldNotSupportCountOnlyQueriesWithoutRestApi() throws Exception {
+    thrown.expect(IOException.class);
+
+    new SoapJiraClient(session, null, null).countIssues("project = SONAR");
+  }
+
+  @Test
+  public void shouldReadTokenOfEachRequest() throws Exception {
+    SoapJiraClient client = new SoapJiraClient(session, null, null);
+    client.getPriorities();
+    when(session.getAuthenticationToken()).thenReturn("newToken");
+    client.getPriorities();
+
+    verify(service).getPriorities("token");
+    verify(service).getPriorities("newToken");
+  }
+}